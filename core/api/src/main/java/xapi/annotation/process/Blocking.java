@@ -1,5 +1,19 @@
 package xapi.annotation.process;
 
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a process stage which blocks (on io, locks or sleeps),
+ * so it should run on threads of its own, rather than on a shared worker pool.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
 public @interface Blocking {
 
 }
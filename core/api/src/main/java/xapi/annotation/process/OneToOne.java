@@ -1,5 +1,21 @@
 package xapi.annotation.process;
 
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A process annotation which maps each signal to one signal.
+ *
+ * A OneToOne with the same stage as a ManyToOne sees each item of a fan-out
+ * before the ManyToOne collects them.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
 public @interface OneToOne {
 
   int stage();
@@ -1,5 +1,18 @@
 package xapi.annotation.process;
 
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a process stage (or every stage of a process type) as safe to run on many threads at once.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
 public @interface RunParallel {
 
 }
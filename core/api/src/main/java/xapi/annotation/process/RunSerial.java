@@ -1,5 +1,19 @@
 package xapi.annotation.process;
 
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a process stage (or every stage of a process type) which must only run on one thread,
+ * seeing its signals in the order they arrive.  This is the default for stages.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
 public @interface RunSerial {
 
 }
@@ -0,0 +1,286 @@
+package xapi.collect.impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import xapi.collect.api.Fifo;
+
+/**
+ * A lock-free, one-way, single-linked {@link Fifo}, for any number of producers and consumers.
+ * <p>
+ * A give never locks and never retries: it swaps its node in as the new tail,
+ * then links the old tail to it; a batch from giveAll is linked with a single swap.
+ * A take advances the head with a compare-and-set, retrying only when another take won.
+ * Each node holds its item in an atomic reference, so a take, a remove or an iterator remove
+ * must claim an item before it counts it as gone, and every item is claimed exactly once.
+ * Removed items leave their node in place until the head passes it.
+ * <p>
+ * Like {@link SimpleFifo}, this fifo eats nulls, and take() only returns null when it is empty;
+ * a give which has swapped the tail but not yet linked it hides itself (and any later gives)
+ * from take() until it finishes, which is a few instructions later.
+ * <p>
+ * {@link #size()} counts a give as soon as it starts, and a take or remove once it claims its item,
+ * so it never goes negative, and is exact whenever no gives are in progress.
+ * Iterators are weakly consistent: they never throw {@link java.util.ConcurrentModificationException},
+ * they skip items taken or removed after they were created, and they see items given after they were created.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ * @param <E> - The type of item stored in the fifo
+ */
+public class ConcurrentFifo <E> implements Fifo<E>, Iterable<E> {
+
+  /**
+   * A node is an atomic reference to its own item, so items can be claimed without a second object.
+   */
+  protected static final class Node <E> extends AtomicReference<E> {
+    private static final long serialVersionUID = 6187425364712398532L;
+    volatile Node<E> next;
+
+    Node(E item) {
+      super(item);
+    }
+  }
+
+  private final class Itr implements Iterator<E> {
+
+    Node<E> node = head.get(), last;
+    E item;
+
+    @Override
+    public boolean hasNext() {
+      if (item != null) {
+        return true;
+      }
+      for (Node<E> next = node.next; next != null; next = next.next) {
+        E value = next.get();
+        if (value != null) {
+          node = next;
+          item = value;
+          return true;
+        }
+        node = next;
+      }
+      return false;
+    }
+
+    @Override
+    public E next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      E value = item;
+      item = null;
+      last = node;
+      return value;
+    }
+
+    @Override
+    public void remove() {
+      if (last == null) {
+        throw new IllegalStateException();
+      }
+      E value = last.get();
+      if (value != null) {
+        claim(last, value);
+      }
+      last = null;
+    }
+  }
+
+  /**
+   * The head is always a node whose item has been taken (or was never set);
+   * the first item in the fifo is in the first node after it with a non-null item.
+   */
+  protected final AtomicReference<Node<E>> head;
+  private final AtomicReference<Node<E>> tail;
+  private final AtomicInteger size = new AtomicInteger();
+
+  public ConcurrentFifo() {
+    Node<E> start = new Node<E>(null);
+    head = new AtomicReference<Node<E>>(start);
+    tail = new AtomicReference<Node<E>>(start);
+  }
+
+  @Override
+  public Fifo<E> give(E item) {
+    if (item == null) {
+      return this;
+    }
+    Node<E> add = new Node<E>(item);
+    append(add, add, 1);
+    return this;
+  }
+
+  private void append(Node<E> first, Node<E> last, int count) {
+    size.addAndGet(count);
+    Node<E> prev = tail.getAndSet(last);
+    prev.next = first;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Fifo<E> giveAll(E ... elements) {
+    Node<E> first = null, last = null;
+    int count = 0;
+    for (E element : elements) {
+      if (element != null) {
+        Node<E> add = new Node<E>(element);
+        if (first == null) {
+          first = add;
+        } else {
+          last.next = add;
+        }
+        last = add;
+        count++;
+      }
+    }
+    if (first != null) {
+      append(first, last, count);
+    }
+    return this;
+  }
+
+  @Override
+  public Fifo<E> giveAll(Iterable<E> elements) {
+    Node<E> first = null, last = null;
+    int count = 0;
+    for (E element : elements) {
+      if (element != null) {
+        Node<E> add = new Node<E>(element);
+        if (first == null) {
+          first = add;
+        } else {
+          last.next = add;
+        }
+        last = add;
+        count++;
+      }
+    }
+    if (first != null) {
+      append(first, last, count);
+    }
+    return this;
+  }
+
+  @Override
+  public E take() {
+    while (true) {
+      Node<E> h = head.get();
+      Node<E> next = h.next;
+      if (next == null) {
+        return null;
+      }
+      if (head.compareAndSet(h, next)) {
+        // whoever moves the head onto a node owns its item, unless remove() claimed it first
+        E item = next.getAndSet(null);
+        if (item != null) {
+          size.decrementAndGet();
+          return item;
+        }
+      }
+    }
+  }
+
+  /**
+   * Claims the item in the given node, if it is still there.
+   */
+  protected final boolean claim(Node<E> node, E item) {
+    if (node.compareAndSet(item, null)) {
+      size.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Removes every item equal to the given item.
+   */
+  @Override
+  public boolean remove(E item) {
+    boolean removed = false;
+    for (Node<E> node = head.get().next; node != null; node = node.next) {
+      E value = node.get();
+      if (value != null && equals(value, item) && claim(node, value)) {
+        removed = true;
+      }
+    }
+    return removed;
+  }
+
+  protected boolean equals(E one, E two) {
+    return one.equals(two);
+  }
+
+  @Override
+  public boolean contains(E item) {
+    for (Node<E> node = head.get().next; node != null; node = node.next) {
+      E value = node.get();
+      if (value != null && equals(value, item)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    for (Node<E> node = head.get().next; node != null; node = node.next) {
+      if (node.get() != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * Takes every item; gives which race with a clear may survive it.
+   */
+  @Override
+  public void clear() {
+    while (take() != null) {
+      ;
+    }
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    return new Itr();
+  }
+
+  @Override
+  public Iterable<E> forEach() {
+    return this;
+  }
+
+  @Override
+  public String join(String delim) {
+    StringBuilder b = new StringBuilder();
+    boolean first = true;
+    for (Node<E> node = head.get().next; node != null; node = node.next) {
+      E value = node.get();
+      if (value != null) {
+        if (first) {
+          first = false;
+        } else {
+          b.append(delim);
+        }
+        b.append(value);
+      }
+    }
+    return b.toString();
+  }
+
+  @Override
+  public String toString() {
+    return " [" + join(", ") + "]";
+  }
+
+}
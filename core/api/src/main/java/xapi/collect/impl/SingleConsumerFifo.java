@@ -0,0 +1,31 @@
+package xapi.collect.impl;
+
+/**
+ * A {@link ConcurrentFifo} for any number of producers, but only one consumer.
+ * <p>
+ * Gives are exactly as in {@link ConcurrentFifo}, but since only one thread ever moves the head,
+ * a take just moves the head forward, with no compare-and-set on the head and no retry.
+ * <p>
+ * take(), remove(), clear() and iterator removal must all be called from the consumer thread;
+ * any thread may give, and any thread may read size(), contains() or iterate.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ * @param <E> - The type of item stored in the fifo
+ */
+public class SingleConsumerFifo <E> extends ConcurrentFifo<E> {
+
+  @Override
+  public E take() {
+    Node<E> h = head.get();
+    for (Node<E> next = h.next; next != null; next = next.next) {
+      head.lazySet(next);
+      E item = next.get();
+      if (item != null && claim(next, item)) {
+        return item;
+      }
+    }
+    return null;
+  }
+
+}
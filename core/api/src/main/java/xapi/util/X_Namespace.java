@@ -76,6 +76,53 @@ public class X_Namespace {
    */
   public static final String PROPERTY_LOG_LEVEL = "xapi.log.level";
 
+  /**
+   * "xapi.log.async" -> Set to true to hand log entries to a background writer thread,
+   * rather than printing them on the thread which logged them.
+   */
+  public static final String PROPERTY_LOG_ASYNC = "xapi.log.async";
+
+  /**
+   * "xapi.log.file" -> A file to append asynchronous logs to;
+   * when unset, they go to System.out (and errors to System.err).
+   */
+  public static final String PROPERTY_LOG_FILE = "xapi.log.file";
+
+  /**
+   * "xapi.log.buffer" -> How many entries the asynchronous log can hold
+   * before its writer falls behind; default 8192.
+   */
+  public static final String PROPERTY_LOG_BUFFER = "xapi.log.buffer";
+
+  /**
+   * "xapi.log.overflow" -> What to do when the asynchronous log buffer is full;
+   * Choices are: BLOCK (the default), DROP or SAMPLE.
+   */
+  public static final String PROPERTY_LOG_OVERFLOW = "xapi.log.overflow";
+
+  /**
+   * "xapi.log.flush" -> How many milliseconds the asynchronous log may hold written entries
+   * before flushing them; default 0, which flushes after every batch.
+   */
+  public static final String PROPERTY_LOG_FLUSH = "xapi.log.flush";
+
+  /**
+   * "xapi.log.binary" -> A directory to write log entries to as compact binary records,
+   * in rolling, memory-mapped segment files, rather than as text;
+   * read them back with xapi.log.impl.BinaryLogDecoder.
+   */
+  public static final String PROPERTY_LOG_BINARY = "xapi.log.binary";
+
+  /**
+   * "xapi.log.segment.size" -> How many bytes each binary log segment holds; default 16MB.
+   */
+  public static final String PROPERTY_LOG_SEGMENT_SIZE = "xapi.log.segment.size";
+
+  /**
+   * "xapi.log.segments" -> How many binary log segments to keep; the oldest are deleted. Default 16.
+   */
+  public static final String PROPERTY_LOG_SEGMENTS = "xapi.log.segments";
+
   /**
    * "xapi.model.root" Root class to use for model generation.
    * In gwt, defaults to xapi.gwt.model.ModelGwt.
@@ -109,6 +156,20 @@ public class X_Namespace {
    */
   public static final String PROPERTY_MULTITHREADED = "xapi.multithreaded";
 
+  /**
+   * "xapi.threads.virtual"
+   * Send true to have the jre thread pool start a virtual thread per task,
+   * on jdks which support them, instead of scheduling tasks on pooled workers.
+   */
+  public static final String PROPERTY_VIRTUAL_THREADS = "xapi.threads.virtual";
+
+  /**
+   * "xapi.threads.drain.millis"
+   * How long, in milliseconds, the jre thread pool lets queued tasks finish
+   * while the jvm shuts down; send 0 to exit without waiting.  Defaults to 5000.
+   */
+  public static final String PROPERTY_THREADS_DRAIN_MILLIS = "xapi.threads.drain.millis";
+
   /**
    * "xapi.server"
    * System property for telling a runtime environment if it is a server or not.
@@ -136,6 +197,16 @@ public class X_Namespace {
    * Package names only; periods will be translated to / for resource lookup.
    */
   public static final String PROPERTY_RUNTIME_SCANPATH = "xapi.inject.packages";
+
+  /**
+   * "xapi.scan.cache"
+   * Directory in which the classpath scanner may store an index of each scanned jar.
+   * Unchanged jars (same path, size and modification time) are rehydrated from
+   * this index instead of being rescanned.
+   *
+   * Default is unset, which disables the scan cache.
+   */
+  public static final String PROPERTY_SCAN_CACHE = "xapi.scan.cache";
   /**
    * "xapi.test" System property for enabling X_Runtime.isTest() to return true.
    * Set to anything other than false to have isTest() return true.
@@ -149,6 +220,21 @@ public class X_Namespace {
    */
   public static final String PROPERTY_RUNTIME_META = "xapi.meta";
 
+  /**
+   * "xapi.inject.table"
+   * The name of the generated injection table class, which jre injectors load
+   * once at startup, to create injected types without reflection.
+   *
+   * Default is {@link #DEFAULT_INJECTION_TABLE}
+   */
+  public static final String PROPERTY_INJECTION_TABLE = "xapi.inject.table";
+
+  /**
+   * xapi.inject.impl.GeneratedInjectionTable
+   * Default name of the injection table written alongside injection metadata.
+   */
+  public static final String DEFAULT_INJECTION_TABLE = "xapi.inject.impl.GeneratedInjectionTable";
+
   /**
    * "xapi.inject"
    * Send false to explicitly disable runtime injection.
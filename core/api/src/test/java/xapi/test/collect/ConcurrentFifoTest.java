@@ -0,0 +1,230 @@
+package xapi.test.collect;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import xapi.collect.api.Fifo;
+import xapi.collect.impl.ConcurrentFifo;
+import xapi.collect.impl.SimpleFifo;
+import xapi.collect.impl.SingleConsumerFifo;
+
+/**
+ * Runs the {@link FifoTest} suite against {@link ConcurrentFifo},
+ * checks it under many producers and consumers,
+ * and compares its throughput against {@link SimpleFifo}.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class ConcurrentFifoTest extends FifoTest {
+
+  private static final int ITEMS = 400000;
+
+  @Override
+  protected <X> Fifo<X> newFifo() {
+    return new ConcurrentFifo<X>();
+  }
+
+  @Test
+  public void testGiveAllKeepsOrder() {
+    Fifo<Integer> fifo = newFifo();
+    fifo.give(1);
+    fifo.giveAll(2, null, 3);
+    fifo.giveAll(Arrays.asList(4, 5));
+    Assert.assertEquals(5, fifo.size());
+    Assert.assertEquals("1, 2, 3, 4, 5", fifo.join(", "));
+    for (int i = 1; i <= 5; i++) {
+      Assert.assertEquals(Integer.valueOf(i), fifo.take());
+    }
+    Assert.assertNull(fifo.take());
+    Assert.assertTrue(fifo.isEmpty());
+  }
+
+  @Test
+  public void testIteratorSeesLaterGives() {
+    Fifo<String> fifo = newFifo();
+    fifo.give("one");
+    Iterator<String> iter = fifo.iterator();
+    Assert.assertEquals("one", iter.next());
+    Assert.assertFalse(iter.hasNext());
+    fifo.give("two");
+    Assert.assertTrue(iter.hasNext());
+    Assert.assertEquals("two", iter.next());
+  }
+
+  @Test
+  public void testEveryItemIsTakenOnce() throws Exception {
+    final Fifo<Integer> fifo = newFifo();
+    final int producers = 4, consumers = 4, perProducer = 50000;
+    final boolean[] seen = new boolean[producers * perProducer];
+    final AtomicInteger taken = new AtomicInteger();
+    final AtomicInteger duplicates = new AtomicInteger();
+    final AtomicInteger outOfOrder = new AtomicInteger();
+    run(producers, consumers, new Runnable[] {
+      new Runnable() {
+        int next;
+        @Override
+        public void run() {
+          // each producer gives a contiguous range; pick ours on first use
+          int start;
+          synchronized (this) {
+            start = next;
+            next += perProducer;
+          }
+          for (int i = 0; i < perProducer; i++) {
+            fifo.give(start + i);
+          }
+        }
+      },
+      new Runnable() {
+        @Override
+        public void run() {
+          int[] last = new int[producers];
+          Arrays.fill(last, -1);
+          while (taken.get() < producers * perProducer) {
+            Integer item = fifo.take();
+            if (item == null) {
+              Thread.yield();
+              continue;
+            }
+            synchronized (seen) {
+              if (seen[item]) {
+                duplicates.incrementAndGet();
+              }
+              seen[item] = true;
+            }
+            // one consumer sees each producer's items in the order they were given
+            int producer = item / perProducer;
+            if (item <= last[producer]) {
+              outOfOrder.incrementAndGet();
+            }
+            last[producer] = item;
+            taken.incrementAndGet();
+          }
+        }
+      }
+    });
+    Assert.assertEquals(0, duplicates.get());
+    Assert.assertEquals(0, outOfOrder.get());
+    for (boolean b : seen) {
+      Assert.assertTrue(b);
+    }
+    Assert.assertEquals(0, fifo.size());
+    Assert.assertTrue(fifo.isEmpty());
+  }
+
+  @Test
+  public void testRemoveRacingTake() throws Exception {
+    final Fifo<Integer> fifo = newFifo();
+    for (int i = 0; i < ITEMS / 4; i++) {
+      fifo.give(i);
+    }
+    final AtomicInteger claimed = new AtomicInteger();
+    run(1, 1, new Runnable[] {
+      new Runnable() {
+        @Override
+        public void run() {
+          for (int i = ITEMS / 4; i --> 0;) {
+            if (fifo.remove(i)) {
+              claimed.incrementAndGet();
+            }
+          }
+        }
+      },
+      new Runnable() {
+        @Override
+        public void run() {
+          while (fifo.take() != null) {
+            claimed.incrementAndGet();
+          }
+        }
+      }
+    });
+    // whatever the take left behind, every item was claimed exactly once
+    while (fifo.take() != null) {
+      claimed.incrementAndGet();
+    }
+    Assert.assertEquals(ITEMS / 4, claimed.get());
+    Assert.assertEquals(0, fifo.size());
+  }
+
+  @Test
+  public void benchmarkThroughput() throws Exception {
+    // warm up every implementation before timing any of them
+    time(new SimpleFifo<Integer>(), 2, 2);
+    time(new ConcurrentFifo<Integer>(), 2, 2);
+    time(new SingleConsumerFifo<Integer>(), 2, 1);
+    for (int threads = 1; threads <= 8; threads *= 2) {
+      long simple = time(new SimpleFifo<Integer>(), threads, threads);
+      long concurrent = time(new ConcurrentFifo<Integer>(), threads, threads);
+      long single = time(new SingleConsumerFifo<Integer>(), threads, 1);
+      long simpleSingle = time(new SimpleFifo<Integer>(), threads, 1);
+      System.out.println(threads + " producers, " + ITEMS + " items; "
+        + threads + " consumers: SimpleFifo " + simple + "ms, ConcurrentFifo " + concurrent + "ms; "
+        + "1 consumer: SimpleFifo " + simpleSingle + "ms, SingleConsumerFifo " + single + "ms");
+    }
+  }
+
+  private static long time(final Fifo<Integer> fifo, final int producers, int consumers) throws Exception {
+    final int perProducer = ITEMS / producers;
+    final AtomicInteger taken = new AtomicInteger();
+    final Integer item = 42;
+    long start = System.nanoTime();
+    run(producers, consumers, new Runnable[] {
+      new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < perProducer; i++) {
+            fifo.give(item);
+          }
+        }
+      },
+      new Runnable() {
+        @Override
+        public void run() {
+          int total = perProducer * producers;
+          while (taken.get() < total) {
+            if (fifo.take() == null) {
+              Thread.yield();
+            } else {
+              taken.incrementAndGet();
+            }
+          }
+        }
+      }
+    });
+    return (System.nanoTime() - start) / 1000000;
+  }
+
+  /**
+   * Runs jobs[0] on each producer thread, and jobs[1] on each consumer thread, all at once.
+   */
+  static void run(int producers, int consumers, final Runnable[] jobs) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(producers + consumers);
+    for (int t = 0; t < producers + consumers; t++) {
+      final Runnable job = jobs[t < producers ? 0 : 1];
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            job.run();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+    start.countDown();
+    done.await();
+  }
+
+}
@@ -13,8 +13,12 @@ import xapi.collect.impl.SimpleFifo;
 
 public class FifoTest {
 
+  protected <X> Fifo<X> newFifo() {
+    return new SimpleFifo<X>();
+  }
+
   @Test public void testAdd() {
-    Fifo<String> fifo = new SimpleFifo<String>();
+    Fifo<String> fifo = newFifo();
     ArrayList<String> list = new ArrayList<String>();
     doAdd(fifo, list, "one");
     doAdd(fifo, list, "two");
@@ -29,7 +33,7 @@ public class FifoTest {
   }
 
   @Test public void testRemove() {
-    Fifo<String> fifo = new SimpleFifo<String>();
+    Fifo<String> fifo = newFifo();
     ArrayList<String> list = new ArrayList<String>();
     fifo.give("four");
     doAdd(fifo, list, "one");
@@ -59,7 +63,7 @@ public class FifoTest {
   }
 
   @Test public void testIterate() {
-    Fifo<String> fifo = new SimpleFifo<String>();
+    Fifo<String> fifo = newFifo();
     ArrayList<String> list = new ArrayList<String>();
     doAdd(fifo, list, "one");
     doAdd(fifo, list, "two");
@@ -76,7 +80,7 @@ public class FifoTest {
     Assert.assertEquals(fifo.size(), list.size());
   }
   @Test public void testIterateRemove() {
-    Fifo<String> fifo = new SimpleFifo<String>();
+    Fifo<String> fifo = newFifo();
     LinkedList<String> list = new LinkedList<String>();
     doAdd(fifo, list, "one");
     doAdd(fifo, list, "two");
@@ -102,7 +106,7 @@ public class FifoTest {
     Assert.assertEquals(fifo.size(), list.size());
   }
   @Test public void testIterateRemoveAll() {
-    Fifo<String> fifo = new SimpleFifo<String>();
+    Fifo<String> fifo = newFifo();
     fifo.give("one").give("two").give("three").give("four");
     Iterator<String> iter = fifo.iterator();
     while(iter.hasNext()) {
@@ -0,0 +1,71 @@
+package xapi.test.collect;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import xapi.collect.api.Fifo;
+import xapi.collect.impl.SingleConsumerFifo;
+
+/**
+ * Runs the {@link FifoTest} suite against {@link SingleConsumerFifo},
+ * and checks it under many producers.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class SingleConsumerFifoTest extends FifoTest {
+
+  @Override
+  protected <X> Fifo<X> newFifo() {
+    return new SingleConsumerFifo<X>();
+  }
+
+  @Test
+  public void testManyProducersOneConsumer() throws Exception {
+    final Fifo<Integer> fifo = newFifo();
+    final int producers = 8, perProducer = 25000;
+    final int[] last = new int[producers];
+    final AtomicInteger taken = new AtomicInteger();
+    final AtomicInteger outOfOrder = new AtomicInteger();
+    final AtomicInteger next = new AtomicInteger();
+    ConcurrentFifoTest.run(producers, 1, new Runnable[] {
+      new Runnable() {
+        @Override
+        public void run() {
+          int start = next.getAndAdd(perProducer);
+          for (int i = 0; i < perProducer; i++) {
+            fifo.give(start + i);
+          }
+        }
+      },
+      new Runnable() {
+        @Override
+        public void run() {
+          Arrays.fill(last, -1);
+          while (taken.get() < producers * perProducer) {
+            Integer item = fifo.take();
+            if (item == null) {
+              Thread.yield();
+              continue;
+            }
+            // with one consumer, each producer's items arrive in exactly the order they were given
+            int producer = item / perProducer;
+            int expected = last[producer] == -1 ? producer * perProducer : last[producer] + 1;
+            if (item != expected) {
+              outOfOrder.incrementAndGet();
+            }
+            last[producer] = item;
+            taken.incrementAndGet();
+          }
+        }
+      }
+    });
+    Assert.assertEquals(0, outOfOrder.get());
+    Assert.assertEquals(0, fifo.size());
+    Assert.assertNull(fifo.take());
+  }
+
+}
@@ -16,14 +16,19 @@ import xapi.collect.api.Dictionary;
 import xapi.collect.api.Fifo;
 import xapi.collect.api.HasValues;
 import xapi.collect.api.IntTo;
+import xapi.collect.api.IntToDouble;
+import xapi.collect.api.IntToInt;
+import xapi.collect.api.IntToLong;
 import xapi.collect.api.ObjectTo;
 import xapi.collect.api.StringDictionary;
 import xapi.collect.api.StringTo;
+import xapi.collect.api.StringToInt;
+import xapi.collect.api.StringToLong;
 import xapi.collect.impl.ArrayIterable;
 import xapi.collect.impl.HashComparator;
 import xapi.collect.impl.SingletonIterator;
 import xapi.collect.impl.StringToDeepMap;
-import xapi.collect.impl.StringToManyList;
+import xapi.collect.impl.StringToFrozen;
 import xapi.collect.service.CollectionService;
 import xapi.util.api.ReceivesValue;
 
@@ -44,6 +49,10 @@ public class X_Collect {
     return service.newList(cls, MUTABLE_LIST);
   }
 
+  public static <V> IntTo<V> newList(Class<V> cls, CollectionOptions opts) {
+    return service.newList(cls, opts);
+  }
+
   public static <V> IntTo<V> asList(@SuppressWarnings("unchecked") V ... elements) {
     @SuppressWarnings("unchecked")
     IntTo<V> list = (IntTo<V>)newList(elements.getClass().getComponentType());
@@ -52,6 +61,18 @@ public class X_Collect {
     return list;
   }
 
+  public static IntToInt newIntToInt() {
+    return service.newIntToInt(MUTABLE_LIST);
+  }
+
+  public static IntToLong newIntToLong() {
+    return service.newIntToLong(MUTABLE_LIST);
+  }
+
+  public static IntToDouble newIntToDouble() {
+    return service.newIntToDouble(MUTABLE_LIST);
+  }
+
   public static <K,V> ObjectTo<K,V> newMap(Class<K> keyCls, Class<V> valueCls) {
     return service.newMap(keyCls, valueCls, MUTABLE);
   }
@@ -67,12 +88,33 @@ public class X_Collect {
     return service.newStringMap(valueCls, MUTABLE);
   }
 
+  public static <V> StringTo<V> newStringMap(Class<? extends V> valueCls, CollectionOptions opts) {
+    return service.newStringMap(valueCls, opts);
+  }
+
+  /**
+   * Copies a map which is done being written into an immutable, perfectly hashed snapshot,
+   * which is cheaper to read and to keep than the map it was built from,
+   * and which can be shared between threads without synchronization.
+   */
+  public static <V> StringTo<V> freezeStringMap(StringTo<V> map) {
+    return StringToFrozen.freeze(map);
+  }
+
+  public static StringToInt newStringToInt() {
+    return service.newStringToInt(MUTABLE);
+  }
+
+  public static StringToLong newStringToLong() {
+    return service.newStringToLong(MUTABLE);
+  }
+
   public static StringDictionary<String> newStringDictionary() {
     return service.newDictionary();
   }
 
   public static <V> IntTo<V> newSet(Class<V> cls) {
-    return service.newList(cls, MUTABLE_SET);
+    return service.newSet(cls, MUTABLE_SET);
   }
 
   public static <V> IntTo<V> asSet(@SuppressWarnings("unchecked") V ... elements) {
@@ -91,6 +133,10 @@ public class X_Collect {
     return service.newFifo();
   }
 
+  public static <T> Fifo<T> newFifo(CollectionOptions opts) {
+    return service.newFifo(opts);
+  }
+
   public static <K, V> void copyInto(HasValues<K, V> from, HasValues<K, V> into) {
     into.putAll(from.entries());
   }
@@ -112,7 +158,19 @@ public class X_Collect {
   }
 
   public static <X> StringTo.Many<X> newStringMultiMap(Class<X> component) {
-    return new StringToManyList<X>(component);
+    return service.newStringMultiMap(component, MUTABLE_LIST);
+  }
+
+  public static <X> StringTo.Many<X> newStringMultiMap(Class<X> component, CollectionOptions opts) {
+    return service.newStringMultiMap(component, opts);
+  }
+
+  public static <K, V> ObjectTo.Many<K, V> newMultiMap(Class<K> keyCls, Class<V> valueCls, CollectionOptions opts) {
+    return service.newMultiMap(keyCls, valueCls, opts);
+  }
+
+  public static <V> ClassTo.Many<V> newClassMultiMap(Class<V> valueCls, CollectionOptions opts) {
+    return service.newClassMultiMap(valueCls, opts);
   }
 
   public static <X> StringTo<StringTo<X>> newStringDeepMap(Class<X> component) {
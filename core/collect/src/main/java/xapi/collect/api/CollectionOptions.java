@@ -5,13 +5,15 @@ import xapi.util.X_Runtime;
 public final class CollectionOptions {
 
   private final boolean concurrent;
+  private final boolean concurrentRequested;
   private final boolean forbidsDuplicate;
   private final boolean insertionOrdered;
   private final boolean mutable;
 
-  private CollectionOptions(boolean concurrent, boolean forbidsDuplicate,
+  private CollectionOptions(boolean concurrent, boolean concurrentRequested, boolean forbidsDuplicate,
     boolean insertionOrdered, boolean mutable) {
     this.concurrent = concurrent;
+    this.concurrentRequested = concurrentRequested;
     this.forbidsDuplicate = forbidsDuplicate;
     this.insertionOrdered = insertionOrdered;
     this.mutable = mutable;
@@ -21,6 +23,14 @@ public final class CollectionOptions {
     return concurrent;
   }
 
+  /**
+   * @return true only if the builder was asked for concurrency,
+   * rather than defaulting to {@link X_Runtime#isMultithreaded()}.
+   */
+  public boolean concurrentRequested() {
+    return concurrentRequested;
+  }
+
   public boolean forbidsDuplicate() {
     return forbidsDuplicate;
   }
@@ -36,6 +46,7 @@ public final class CollectionOptions {
   public static final class Builder {
 
     boolean concurrent;
+    boolean concurrentSet;
     boolean insertionOrdered;
     boolean forbidsDuplicate;
     boolean mutable;
@@ -46,6 +57,7 @@ public final class CollectionOptions {
 
     public Builder concurrent(boolean concurrent) {
       this.concurrent = concurrent;
+      this.concurrentSet = true;
       return this;
     }
 
@@ -66,7 +78,7 @@ public final class CollectionOptions {
 
     public CollectionOptions build() {
       return new CollectionOptions(
-        concurrent, forbidsDuplicate, insertionOrdered, mutable);
+        concurrent, concurrentSet && concurrent, forbidsDuplicate, insertionOrdered, mutable);
     }
   }
 
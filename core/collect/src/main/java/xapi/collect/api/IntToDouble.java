@@ -0,0 +1,47 @@
+package xapi.collect.api;
+
+/**
+ * A growable list of double values, stored in a double[], so that nothing is boxed.
+ * <p>
+ * Use this instead of IntTo&lt;Double&gt; for numeric workloads;
+ * iterate with {@link #forEach(Visitor)}, or with {@link #at(int)} in a counted loop.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public interface IntToDouble {
+
+  static interface Visitor {
+    void visit(int index, double value);
+  }
+
+  int size();
+
+  boolean isEmpty();
+
+  void clear();
+
+  double at(int index);
+
+  void set(int index, double value);
+
+  void add(double value);
+
+  void push(double value);
+
+  double pop();
+
+  int indexOf(double value);
+
+  boolean contains(double value);
+
+  boolean remove(int index);
+
+  void forEach(Visitor visitor);
+
+  /**
+   * @return A copy of the values in this list.
+   */
+  double[] toArray();
+
+}
@@ -0,0 +1,47 @@
+package xapi.collect.api;
+
+/**
+ * A growable list of int values, stored in a int[], so that nothing is boxed.
+ * <p>
+ * Use this instead of IntTo&lt;Integer&gt; for numeric workloads;
+ * iterate with {@link #forEach(Visitor)}, or with {@link #at(int)} in a counted loop.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public interface IntToInt {
+
+  static interface Visitor {
+    void visit(int index, int value);
+  }
+
+  int size();
+
+  boolean isEmpty();
+
+  void clear();
+
+  int at(int index);
+
+  void set(int index, int value);
+
+  void add(int value);
+
+  void push(int value);
+
+  int pop();
+
+  int indexOf(int value);
+
+  boolean contains(int value);
+
+  boolean remove(int index);
+
+  void forEach(Visitor visitor);
+
+  /**
+   * @return A copy of the values in this list.
+   */
+  int[] toArray();
+
+}
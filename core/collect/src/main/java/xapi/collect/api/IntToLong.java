@@ -0,0 +1,47 @@
+package xapi.collect.api;
+
+/**
+ * A growable list of long values, stored in a long[], so that nothing is boxed.
+ * <p>
+ * Use this instead of IntTo&lt;Long&gt; for numeric workloads;
+ * iterate with {@link #forEach(Visitor)}, or with {@link #at(int)} in a counted loop.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public interface IntToLong {
+
+  static interface Visitor {
+    void visit(int index, long value);
+  }
+
+  int size();
+
+  boolean isEmpty();
+
+  void clear();
+
+  long at(int index);
+
+  void set(int index, long value);
+
+  void add(long value);
+
+  void push(long value);
+
+  long pop();
+
+  int indexOf(long value);
+
+  boolean contains(long value);
+
+  boolean remove(int index);
+
+  void forEach(Visitor visitor);
+
+  /**
+   * @return A copy of the values in this list.
+   */
+  long[] toArray();
+
+}
@@ -8,6 +8,8 @@ extends EntryIterable<K,V>, CollectionProxy<K,V>, HasValues<K,V>
 {
 
   static interface Many <K, V> extends ObjectTo<K, IntTo<V>> {
+    void add(K key, V value);
+    void addAll(K key, Iterable<V> values);
   }
 
 // Inherited from CollectionProxy
@@ -26,6 +26,8 @@ extends HasValues<String,V>
   public static interface Many <V>
   extends StringTo<IntTo<V>>
   {
+    void add(String key, V value);
+    void addAll(String key, Iterable<V> values);
   }
 
 }
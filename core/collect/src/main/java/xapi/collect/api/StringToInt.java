@@ -0,0 +1,50 @@
+package xapi.collect.api;
+
+/**
+ * A map of String keys to int values, stored in open-addressed arrays, so that nothing is boxed.
+ * <p>
+ * Missing keys read as 0, unless you supply a default; null keys are not allowed.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public interface StringToInt {
+
+  static interface Visitor {
+    void visit(String key, int value);
+  }
+
+  int size();
+
+  boolean isEmpty();
+
+  void clear();
+
+  boolean containsKey(String key);
+
+  int get(String key);
+
+  int get(String key, int dflt);
+
+  /**
+   * @return The previous value, or 0 if there was none.
+   */
+  int put(String key, int value);
+
+  /**
+   * Adds delta to the current value of key (0 if missing).
+   *
+   * @return The new value.
+   */
+  int add(String key, int delta);
+
+  /**
+   * @return true if the key was present.
+   */
+  boolean remove(String key);
+
+  String[] keyArray();
+
+  void forEach(Visitor visitor);
+
+}
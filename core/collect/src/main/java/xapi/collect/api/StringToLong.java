@@ -0,0 +1,50 @@
+package xapi.collect.api;
+
+/**
+ * A map of String keys to long values, stored in open-addressed arrays, so that nothing is boxed.
+ * <p>
+ * Missing keys read as 0, unless you supply a default; null keys are not allowed.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public interface StringToLong {
+
+  static interface Visitor {
+    void visit(String key, long value);
+  }
+
+  int size();
+
+  boolean isEmpty();
+
+  void clear();
+
+  boolean containsKey(String key);
+
+  long get(String key);
+
+  long get(String key, long dflt);
+
+  /**
+   * @return The previous value, or 0 if there was none.
+   */
+  long put(String key, long value);
+
+  /**
+   * Adds delta to the current value of key (0 if missing).
+   *
+   * @return The new value.
+   */
+  long add(String key, long delta);
+
+  /**
+   * @return true if the key was present.
+   */
+  boolean remove(String key);
+
+  String[] keyArray();
+
+  void forEach(Visitor visitor);
+
+}
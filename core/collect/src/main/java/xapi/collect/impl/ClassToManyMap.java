@@ -0,0 +1,19 @@
+package xapi.collect.impl;
+
+import xapi.collect.api.ClassTo;
+import xapi.collect.api.CollectionOptions;
+
+/**
+ * A {@link ClassTo.Many}, with the same atomic bucket creation as {@link ObjectToManyMap}.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class ClassToManyMap <V> extends ObjectToManyMap<Class<?>, V> implements ClassTo.Many<V> {
+
+  @SuppressWarnings("unchecked") // Don't worry about casting Class to Class<?>
+  public ClassToManyMap(Class<V> componentType, CollectionOptions opts) {
+    super(Class.class.cast(Class.class), componentType, opts);
+  }
+
+}
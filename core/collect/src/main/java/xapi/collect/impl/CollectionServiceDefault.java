@@ -1,5 +1,6 @@
 package xapi.collect.impl;
 
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -12,14 +13,18 @@ import xapi.collect.api.ClassTo;
 import xapi.collect.api.CollectionOptions;
 import xapi.collect.api.Fifo;
 import xapi.collect.api.IntTo;
+import xapi.collect.api.IntToDouble;
+import xapi.collect.api.IntToInt;
+import xapi.collect.api.IntToLong;
 import xapi.collect.api.ObjectTo;
 import xapi.collect.api.StringDictionary;
 import xapi.collect.api.ObjectTo.Many;
 import xapi.collect.api.StringTo;
+import xapi.collect.api.StringToInt;
+import xapi.collect.api.StringToLong;
 import xapi.collect.proxy.CollectionProxy;
 import xapi.collect.proxy.MapOf;
 import xapi.collect.service.CollectionService;
-import xapi.except.NotYetImplemented;
 import xapi.platform.AndroidPlatform;
 import xapi.platform.GwtDevPlatform;
 import xapi.platform.JrePlatform;
@@ -105,12 +110,19 @@ public class CollectionServiceDefault implements CollectionService{
 
   @Override
   public <V> IntTo<V> newList(Class<V> cls, CollectionOptions opts) {
+    if (opts.forbidsDuplicate()) {
+      return newSet(cls, opts);
+    }
+    // lists were never concurrent by default; only pay for it when asked
+    if (opts.concurrentRequested()) {
+      return new IntToConcurrentList<V>(cls);
+    }
     return new IntToList<V>(cls);
   }
 
   @Override
   public <V> IntTo<V> newSet(Class<V> cls, CollectionOptions opts) {
-    throw new NotYetImplemented("IntToSet not yet implemented");
+    return new IntToSet<V>(cls, opts);
   }
 
   @Override
@@ -126,7 +138,34 @@ public class CollectionServiceDefault implements CollectionService{
 
   @Override
   public <V> StringTo<V> newStringMap(Class<? extends V> cls, CollectionOptions opts) {
-    return new StringToAbstract<V>();
+    if (!opts.mutable()) {
+      // nothing can be put in an immutable map; build a mutable one and freeze it instead
+      return StringToFrozen.freeze(new StringToArrayMap<V>());
+    }
+    Map<String,V> backing = this.<V>newStringBacking(opts);
+    if (opts.insertionOrdered() && opts.concurrent()) {
+      return new StringToSynchronized<V>(backing);
+    }
+    return new StringToAbstract<V>(backing);
+  }
+
+  /**
+   * @return The map backing a mutable StringTo; thread-confined options never pay for concurrency.
+   */
+  protected <V> Map<String,V> newStringBacking(CollectionOptions opts) {
+    if (opts.insertionOrdered()) {
+      if (opts.concurrent()) {
+        // there is no insertion ordered concurrent map in the jdk; a skip list would sort instead
+        return Collections.synchronizedMap(new LinkedHashMap<String,V>());
+      } else {
+        return new LinkedHashMap<String,V>();
+      }
+    }
+    if (opts.concurrent()) {
+      return new ConcurrentHashMap<String,V>();
+    } else {
+      return new HashMap<String,V>();
+    }
   }
 
   protected <K, V> CollectionProxy<K,V> newProxy(Class<K> keyType, Class<V> valueType, CollectionOptions opts) {
@@ -154,18 +193,18 @@ public class CollectionServiceDefault implements CollectionService{
 
   @Override
   public <K,V> Many<K,V> newMultiMap(Class<K> key, Class<V> cls, CollectionOptions opts) {
-    throw new NotYetImplemented("Multi-map not yet implemented");
+    return new ObjectToManyMap<K,V>(key, cls, opts);
   }
 
   @Override
   public <V> xapi.collect.api.ClassTo.Many<V> newClassMultiMap(Class<V> cls, CollectionOptions opts) {
-    throw new NotYetImplemented("Multi-map not yet implemented");
+    return new ClassToManyMap<V>(cls, opts);
   }
 
   @Override
   public <V> xapi.collect.api.StringTo.Many<V> newStringMultiMap(Class<V> cls,
     CollectionOptions opts) {
-    throw new NotYetImplemented("Multi-map not yet implemented");
+    return new StringToManyList<V>(cls, opts);
   }
 
   @Override
@@ -175,6 +214,36 @@ public class CollectionServiceDefault implements CollectionService{
 
   @Override
   public <V> Fifo<V> newFifo() {
-    return new SimpleFifo<V>();
+    return X_Runtime.isMultithreaded() ? new ConcurrentFifo<V>() : new SimpleFifo<V>();
+  }
+
+  @Override
+  public <V> Fifo<V> newFifo(CollectionOptions opts) {
+    return opts.concurrent() ? new ConcurrentFifo<V>() : new SimpleFifo<V>();
+  }
+
+  @Override
+  public IntToInt newIntToInt(CollectionOptions opts) {
+    return new IntToIntList();
+  }
+
+  @Override
+  public IntToLong newIntToLong(CollectionOptions opts) {
+    return new IntToLongList();
+  }
+
+  @Override
+  public IntToDouble newIntToDouble(CollectionOptions opts) {
+    return new IntToDoubleList();
+  }
+
+  @Override
+  public StringToInt newStringToInt(CollectionOptions opts) {
+    return new StringToIntMap();
+  }
+
+  @Override
+  public StringToLong newStringToLong(CollectionOptions opts) {
+    return new StringToLongMap();
   }
 }
@@ -0,0 +1,424 @@
+package xapi.collect.impl;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import xapi.collect.api.CollectionOptions;
+import xapi.collect.api.IntTo;
+import xapi.collect.api.ObjectTo;
+import xapi.except.NotYetImplemented;
+import xapi.util.X_Util;
+import xapi.util.impl.AbstractPair;
+
+/**
+ * An {@link IntTo} which many threads can append to without taking a lock.
+ * <p>
+ * An append reserves a slot with a single atomic increment, writes its value,
+ * and then publishes the slot once every slot before it is published,
+ * so readers never see a slot that is not yet written.
+ * When the array is full, or when a value is set or removed,
+ * we take a lock, seal the array against further reservations,
+ * wait for the reserved slots to be published, and swap in a copy.
+ * <p>
+ * Reads and iteration never lock; iterators see a snapshot of the list when they were created.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class IntToConcurrentList <E> implements IntTo<E> {
+
+  /**
+   * Added to the reservation counter of a sealed buffer,
+   * so that every later reservation falls outside of its array.
+   */
+  private static final int SEALED = 1 << 30;
+
+  private static final int SPINS = 64;
+
+  private static final class Buffer {
+    final Object[] items;
+    final AtomicInteger reserved;
+    final AtomicInteger published;
+
+    Buffer(Object[] items, int size) {
+      this.items = items;
+      this.reserved = new AtomicInteger(size);
+      this.published = new AtomicInteger(size);
+    }
+  }
+
+  private final Class<E> type;
+  private volatile Buffer buffer;
+
+  public IntToConcurrentList(Class<E> type) {
+    this(type, 10);
+  }
+
+  public IntToConcurrentList(Class<E> type, int capacity) {
+    this.type = type;
+    this.buffer = new Buffer(new Object[Math.max(capacity, 1)], 0);
+  }
+
+  @Override
+  public boolean add(E item) {
+    while (true) {
+      Buffer b = buffer;
+      int i = b.reserved.getAndIncrement();
+      if (i < b.items.length) {
+        b.items[i] = item;
+        publish(b, i, 1);
+        return true;
+      }
+      grow(b, 1);
+    }
+  }
+
+  /**
+   * Appends every item, reserving all the slots we need at once,
+   * so the array grows at most once for the whole batch.
+   */
+  public void addAll(Iterable<? extends E> items) {
+    Object[] values;
+    if (items instanceof Collection) {
+      values = ((Collection<?>)items).toArray();
+    } else {
+      ArrayList<Object> copy = new ArrayList<Object>();
+      for (E item : items) {
+        copy.add(item);
+      }
+      values = copy.toArray();
+    }
+    int from = 0;
+    while (from < values.length) {
+      Buffer b = buffer;
+      int n = values.length - from;
+      int i = b.reserved.getAndAdd(n);
+      int room = b.items.length - i;
+      if (room > 0) {
+        // we must fill (and publish) every slot we reserved inside the array,
+        // or anyone sealing this buffer would wait for us forever
+        int count = Math.min(room, n);
+        System.arraycopy(values, from, b.items, i, count);
+        publish(b, i, count);
+        from += count;
+        n -= count;
+      }
+      if (n > 0) {
+        grow(b, n);
+      }
+    }
+  }
+
+  private static void publish(Buffer b, int index, int count) {
+    int spins = 0;
+    while (b.published.get() != index) {
+      if (++spins > SPINS) {
+        Thread.yield();
+      }
+    }
+    b.published.set(index + count);
+  }
+
+  /**
+   * Stops any new appends to this buffer, and waits for the appends already reserved in it.
+   * Must be called while holding our lock.
+   *
+   * @return The number of items in the buffer.
+   */
+  private static int seal(Buffer b) {
+    int reserved = b.reserved.getAndAdd(SEALED);
+    int size = Math.min(reserved, b.items.length);
+    int spins = 0;
+    while (b.published.get() != size) {
+      if (++spins > SPINS) {
+        Thread.yield();
+      }
+    }
+    return size;
+  }
+
+  private void grow(Buffer b, int needed) {
+    synchronized (this) {
+      if (buffer != b) {
+        // someone else already replaced it
+        return;
+      }
+      int size = seal(b);
+      int length = b.items.length;
+      Object[] items = new Object[Math.max(size + needed, length + (length >> 1) + 1)];
+      System.arraycopy(b.items, 0, items, 0, size);
+      buffer = new Buffer(items, size);
+    }
+  }
+
+  /**
+   * @return A copy of the current items, with room for at least one more;
+   * the caller must hold our lock, and must install the copy with {@link #replace(Object[], int)}.
+   */
+  private Object[] copy() {
+    Buffer b = buffer;
+    int size = seal(b);
+    Object[] items = new Object[Math.max(b.items.length, size + 1)];
+    System.arraycopy(b.items, 0, items, 0, size);
+    return items;
+  }
+
+  private void replace(Object[] items, int size) {
+    buffer = new Buffer(items, size);
+  }
+
+  @Override
+  public int size() {
+    return buffer.published.get();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E at(int index) {
+    Buffer b = buffer;
+    if (index >= 0 && index < b.published.get()) {
+      return (E)b.items[index];
+    }
+    return null;
+  }
+
+  @Override
+  public E get(Object key) {
+    return at((Integer)key);
+  }
+
+  @Override
+  public int indexOf(E value) {
+    Buffer b = buffer;
+    for (int i = 0, m = b.published.get(); i < m; i++) {
+      if (X_Util.equal(b.items[i], value)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public boolean contains(E value) {
+    return indexOf(value) != -1;
+  }
+
+  /**
+   * Setting an index past the end of this list grows it, filling the gap with null.
+   */
+  @Override
+  public synchronized void set(int index, E value) {
+    Object[] items = copy();
+    int size = buffer.published.get();
+    if (index >= items.length) {
+      Object[] grown = new Object[index + 1];
+      System.arraycopy(items, 0, grown, 0, size);
+      items = grown;
+    }
+    items[index] = value;
+    replace(items, Math.max(size, index + 1));
+  }
+
+  @Override
+  public void setValue(Object key, Object value) {
+    @SuppressWarnings("unchecked")
+    E item = (E)value;
+    set((Integer)key, item);
+  }
+
+  @Override
+  public E put(Entry<Integer, E> item) {
+    E was = at(item.getKey());
+    set(item.getKey(), item.getValue());
+    return was;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Entry<Integer, E> entryFor(Object key) {
+    return new AbstractPair<Integer, E>(size(), (E)key);
+  }
+
+  @Override
+  public boolean remove(int index) {
+    return removeAt(index) != null;
+  }
+
+  @Override
+  public E remove(Object key) {
+    return removeAt((Integer)key);
+  }
+
+  @SuppressWarnings("unchecked")
+  private synchronized E removeAt(int index) {
+    if (index < 0 || index >= size()) {
+      return null;
+    }
+    Object[] items = copy();
+    int size = buffer.published.get();
+    E removed = (E)items[index];
+    System.arraycopy(items, index + 1, items, index, size - index - 1);
+    items[size - 1] = null;
+    replace(items, size - 1);
+    return removed;
+  }
+
+  @Override
+  public synchronized boolean findRemove(E value, boolean all) {
+    if (indexOf(value) == -1) {
+      return false;
+    }
+    Object[] items = copy();
+    int size = buffer.published.get();
+    int kept = 0;
+    boolean removed = false;
+    for (int i = 0; i < size; i++) {
+      if ((all || !removed) && X_Util.equal(items[i], value)) {
+        removed = true;
+      } else {
+        items[kept++] = items[i];
+      }
+    }
+    for (int i = kept; i < size; i++) {
+      items[i] = null;
+    }
+    replace(items, kept);
+    return removed;
+  }
+
+  @Override
+  public void push(E value) {
+    add(value);
+  }
+
+  /**
+   * Removes and returns the last item in this list, or null if it is empty.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public synchronized E pop() {
+    Object[] items = copy();
+    int size = buffer.published.get();
+    if (size == 0) {
+      return null;
+    }
+    E popped = (E)items[--size];
+    items[size] = null;
+    replace(items, size);
+    return popped;
+  }
+
+  @Override
+  public synchronized void clear() {
+    Buffer b = buffer;
+    seal(b);
+    replace(new Object[b.items.length], 0);
+  }
+
+  @Override
+  public Iterable<E> forEach() {
+    final Buffer b = buffer;
+    final int size = b.published.get();
+    return new Iterable<E>() {
+      @Override
+      public Iterator<E> iterator() {
+        return new Iterator<E>() {
+          int pos;
+          @Override
+          public boolean hasNext() {
+            return pos < size;
+          }
+          @Override
+          @SuppressWarnings("unchecked")
+          public E next() {
+            if (pos >= size) {
+              throw new NoSuchElementException();
+            }
+            return (E)b.items[pos++];
+          }
+          @Override
+          @SuppressWarnings("unchecked")
+          public void remove() {
+            findRemove((E)b.items[pos - 1], false);
+          }
+        };
+      }
+    };
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E[] toArray() {
+    Buffer b = buffer;
+    int size = b.published.get();
+    E[] array = (E[])Array.newInstance(type, size);
+    System.arraycopy(b.items, 0, array, 0, size);
+    return array;
+  }
+
+  @Override
+  public Collection<E> toCollection(Collection<E> into) {
+    if (into == null) {
+      into = new ArrayList<E>();
+    }
+    for (E item : forEach()) {
+      into.add(item);
+    }
+    return into;
+  }
+
+  @Override
+  public Map<Integer, E> toMap(Map<Integer, E> into) {
+    if (into == null) {
+      into = new LinkedHashMap<Integer, E>();
+    }
+    int i = 0;
+    for (E item : forEach()) {
+      into.put(i++, item);
+    }
+    return into;
+  }
+
+  @Override
+  public ObjectTo<Integer, E> clone(CollectionOptions options) {
+    throw new NotYetImplemented("IntToConcurrentList.clone not yet supported");
+  }
+
+  @Override
+  public List<E> asList() {
+    return (List<E>)toCollection(new ArrayList<E>());
+  }
+
+  @Override
+  public Set<E> asSet() {
+    return (Set<E>)toCollection(new LinkedHashSet<E>());
+  }
+
+  @Override
+  public Deque<E> asDeque() {
+    return (Deque<E>)toCollection(new LinkedList<E>());
+  }
+
+  @Override
+  public String toString() {
+    return asList().toString();
+  }
+
+}
@@ -0,0 +1,151 @@
+package xapi.collect.impl;
+
+import java.util.Arrays;
+
+import xapi.collect.api.IntToLong;
+
+/**
+ * An {@link IntToLong} backed by a contiguous long[].
+ * <p>
+ * Not thread safe.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class IntToLongList implements IntToLong {
+
+  private static final long[] EMPTY = new long[0];
+
+  private long[] values;
+  private int size;
+
+  public IntToLongList() {
+    values = EMPTY;
+  }
+
+  public IntToLongList(int capacity) {
+    values = capacity > 0 ? new long[capacity] : EMPTY;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public void clear() {
+    size = 0;
+  }
+
+  @Override
+  public long at(int index) {
+    if (index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    return values[index];
+  }
+
+  /**
+   * Setting an index past the end of this list grows it, filling the gap with 0.
+   */
+  @Override
+  public void set(int index, long value) {
+    if (index >= size) {
+      ensureCapacity(index + 1);
+      // clear, pop and remove leave old values behind size; the gap must read as zero
+      Arrays.fill(values, size, index, 0);
+      size = index + 1;
+    }
+    values[index] = value;
+  }
+
+  @Override
+  public void add(long value) {
+    if (size == values.length) {
+      ensureCapacity(size + 1);
+    }
+    values[size++] = value;
+  }
+
+  @Override
+  public void push(long value) {
+    add(value);
+  }
+
+  @Override
+  public long pop() {
+    if (size == 0) {
+      throw new IndexOutOfBoundsException("Cannot pop an empty list");
+    }
+    return values[--size];
+  }
+
+  @Override
+  public int indexOf(long value) {
+    final long[] values = this.values;
+    for (int i = 0; i < size; i++) {
+      if (values[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public boolean contains(long value) {
+    return indexOf(value) != -1;
+  }
+
+  @Override
+  public boolean remove(int index) {
+    if (index < 0 || index >= size) {
+      return false;
+    }
+    int moved = --size - index;
+    if (moved > 0) {
+      System.arraycopy(values, index + 1, values, index, moved);
+    }
+    return true;
+  }
+
+  @Override
+  public void forEach(Visitor visitor) {
+    final long[] values = this.values;
+    for (int i = 0, m = size; i < m; i++) {
+      visitor.visit(i, values[i]);
+    }
+  }
+
+  @Override
+  public long[] toArray() {
+    long[] copy = new long[size];
+    System.arraycopy(values, 0, copy, 0, size);
+    return copy;
+  }
+
+  public void ensureCapacity(int capacity) {
+    if (capacity > values.length) {
+      long[] grown = new long[Math.max(capacity, Math.max(8, values.length + (values.length >> 1)))];
+      System.arraycopy(values, 0, grown, 0, size);
+      values = grown;
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder("[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        b.append(", ");
+      }
+      b.append(values[i]);
+    }
+    return b.append(']').toString();
+  }
+
+}
@@ -0,0 +1,266 @@
+package xapi.collect.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import xapi.collect.api.CollectionOptions;
+import xapi.collect.api.IntTo;
+import xapi.collect.api.ObjectTo;
+import xapi.util.X_Util;
+
+/**
+ * An {@link IntTo} which forbids duplicates, and keeps its values in insertion order.
+ * <p>
+ * Each value is claimed in a hash map before it is appended to an ordered list,
+ * and is only released after it has been removed from that list,
+ * so concurrent adds of the same value cannot both succeed.
+ * When the options are concurrent, both the map and the list are safe to use from many threads,
+ * and adds never take a lock.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class IntToSet <E> implements IntTo<E> {
+
+  /**
+   * Stands in for null, since concurrent maps do not accept null keys.
+   */
+  private static final Object NULL = new Object();
+
+  private final Map<Object, Boolean> seen;
+  private final IntTo<E> order;
+
+  public IntToSet(Class<E> type, CollectionOptions opts) {
+    if (opts.concurrent()) {
+      seen = new ConcurrentHashMap<Object, Boolean>();
+      order = new IntToConcurrentList<E>(type);
+    } else {
+      seen = new HashMap<Object, Boolean>();
+      order = new IntToList<E>(type);
+    }
+  }
+
+  private static Object key(Object value) {
+    return value == null ? NULL : value;
+  }
+
+  private boolean claim(E value) {
+    if (seen instanceof ConcurrentMap) {
+      return ((ConcurrentMap<Object, Boolean>)seen).putIfAbsent(key(value), Boolean.TRUE) == null;
+    }
+    return seen.put(key(value), Boolean.TRUE) == null;
+  }
+
+  private void release(Object value) {
+    seen.remove(key(value));
+  }
+
+  @Override
+  public boolean add(E item) {
+    if (claim(item)) {
+      order.add(item);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Adds every item which is not already in this set,
+   * appending them in a single batch where the list supports it.
+   */
+  public void addAll(Iterable<? extends E> items) {
+    ArrayList<E> added = new ArrayList<E>();
+    for (E item : items) {
+      if (claim(item)) {
+        added.add(item);
+      }
+    }
+    if (order instanceof IntToConcurrentList) {
+      ((IntToConcurrentList<E>)order).addAll(added);
+    } else {
+      for (E item : added) {
+        order.add(item);
+      }
+    }
+  }
+
+  @Override
+  public void push(E value) {
+    add(value);
+  }
+
+  @Override
+  public boolean contains(E value) {
+    return seen.containsKey(key(value));
+  }
+
+  @Override
+  public E at(int index) {
+    return order.at(index);
+  }
+
+  @Override
+  public E get(Object key) {
+    return order.get(key);
+  }
+
+  @Override
+  public int indexOf(E value) {
+    return contains(value) ? order.indexOf(value) : -1;
+  }
+
+  @Override
+  public boolean remove(int index) {
+    E value = order.at(index);
+    if (value == null && index >= order.size()) {
+      return false;
+    }
+    return findRemove(value, false);
+  }
+
+  @Override
+  public E remove(Object key) {
+    E value = order.get(key);
+    if (findRemove(value, false)) {
+      return value;
+    }
+    return null;
+  }
+
+  @Override
+  public boolean findRemove(E value, boolean all) {
+    // Remove from the list before releasing our claim, so a racing add()
+    // either sees the value as present, or appends after we are done.
+    if (order.findRemove(value, false)) {
+      release(value);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Replaces the value at index, unless the new value is already in this set.
+   */
+  @Override
+  public void set(int index, E value) {
+    int size = order.size();
+    E was = order.at(index);
+    if (index < size && X_Util.equal(was, value)) {
+      return;
+    }
+    if (claim(value)) {
+      try {
+        order.set(index, value);
+      } catch (RuntimeException e) {
+        release(value);
+        throw e;
+      }
+      if (index < size) {
+        release(was);
+      }
+    }
+  }
+
+  @Override
+  public void setValue(Object key, Object value) {
+    @SuppressWarnings("unchecked")
+    E item = (E)value;
+    set((Integer)key, item);
+  }
+
+  @Override
+  public E put(Entry<Integer, E> item) {
+    E was = order.at(item.getKey());
+    set(item.getKey(), item.getValue());
+    return was;
+  }
+
+  @Override
+  public Entry<Integer, E> entryFor(Object key) {
+    return order.entryFor(key);
+  }
+
+  @Override
+  public E pop() {
+    while (true) {
+      int size = order.size();
+      if (size == 0) {
+        return null;
+      }
+      E last = order.at(size - 1);
+      if (findRemove(last, false)) {
+        return last;
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    return order.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return order.isEmpty();
+  }
+
+  @Override
+  public void clear() {
+    order.clear();
+    seen.clear();
+  }
+
+  @Override
+  public Iterable<E> forEach() {
+    return order.forEach();
+  }
+
+  @Override
+  public E[] toArray() {
+    return order.toArray();
+  }
+
+  @Override
+  public Collection<E> toCollection(Collection<E> into) {
+    return order.toCollection(into);
+  }
+
+  @Override
+  public Map<Integer, E> toMap(Map<Integer, E> into) {
+    return order.toMap(into);
+  }
+
+  @Override
+  public ObjectTo<Integer, E> clone(CollectionOptions options) {
+    return order.clone(options);
+  }
+
+  @Override
+  public List<E> asList() {
+    return order.asList();
+  }
+
+  @Override
+  public Set<E> asSet() {
+    return order.asSet();
+  }
+
+  @Override
+  public Deque<E> asDeque() {
+    return order.asDeque();
+  }
+
+  @Override
+  public String toString() {
+    return order.toString();
+  }
+
+}
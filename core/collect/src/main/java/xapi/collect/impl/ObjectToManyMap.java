@@ -0,0 +1,121 @@
+package xapi.collect.impl;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import xapi.collect.api.CollectionOptions;
+import xapi.collect.api.IntTo;
+import xapi.collect.api.ObjectTo;
+import xapi.collect.proxy.MapOf;
+
+/**
+ * An {@link ObjectTo.Many} whose {@link #get(Object)} atomically creates missing buckets,
+ * so callers never need to get-then-put.
+ * <p>
+ * Concurrent options get a {@link ConcurrentHashMap} of {@link IntToConcurrentList} buckets,
+ * which many threads can append to without locking
+ * (with concurrent options, only the values of each key keep their insertion order).
+ * Options which forbid duplicates get {@link IntToSet} buckets.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class ObjectToManyMap <K, V> extends MapOf<K, IntTo<V>> implements ObjectTo.Many<K, V> {
+
+  private final Map<K, IntTo<V>> map;
+  private final Class<V> componentType;
+  private final CollectionOptions opts;
+
+  public ObjectToManyMap(Class<K> keyType, Class<V> componentType, CollectionOptions opts) {
+    this(ObjectToManyMap.<K, IntTo<V>>newMap(opts), keyType, componentType, opts);
+  }
+
+  @SuppressWarnings("unchecked")
+  protected ObjectToManyMap(Map<K, IntTo<V>> map, Class<K> keyType, Class<V> componentType, CollectionOptions opts) {
+    super(map, keyType, Class.class.cast(IntTo.class));
+    this.map = map;
+    this.componentType = componentType;
+    this.opts = opts;
+  }
+
+  public static <K, V> Map<K, V> newMap(CollectionOptions opts) {
+    if (opts.concurrent()) {
+      return new ConcurrentHashMap<K, V>();
+    }
+    return opts.insertionOrdered() ? new LinkedHashMap<K, V>() : new HashMap<K, V>();
+  }
+
+  /**
+   * @return An empty bucket suitable for the given options.
+   */
+  public static <V> IntTo<V> newBucket(Class<V> componentType, CollectionOptions opts) {
+    if (opts.forbidsDuplicate()) {
+      return new IntToSet<V>(componentType, opts);
+    }
+    if (opts.concurrent()) {
+      return new IntToConcurrentList<V>(componentType);
+    }
+    return new IntToList<V>(componentType);
+  }
+
+  /**
+   * Adds many values to a bucket at once; concurrent buckets reserve room for all of them in one step.
+   */
+  @SuppressWarnings("unchecked")
+  public static <V> void addAll(IntTo<V> bucket, Iterable<V> values) {
+    if (bucket instanceof IntToConcurrentList) {
+      ((IntToConcurrentList<V>)bucket).addAll(values);
+    } else if (bucket instanceof IntToSet) {
+      ((IntToSet<V>)bucket).addAll(values);
+    } else {
+      for (V value : values) {
+        bucket.add(value);
+      }
+    }
+  }
+
+  /**
+   * Returns the bucket for this key, creating it if it is missing;
+   * concurrent callers always receive the same bucket.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public IntTo<V> get(Object key) {
+    IntTo<V> bucket = map.get(key);
+    if (bucket == null) {
+      bucket = newList();
+      if (map instanceof ConcurrentMap) {
+        IntTo<V> existing = ((ConcurrentMap<K, IntTo<V>>)map).putIfAbsent((K)key, bucket);
+        if (existing != null) {
+          bucket = existing;
+        }
+      } else {
+        map.put((K)key, bucket);
+      }
+    }
+    return bucket;
+  }
+
+  @Override
+  public void add(K key, V value) {
+    get(key).add(value);
+  }
+
+  @Override
+  public void addAll(K key, Iterable<V> values) {
+    addAll(get(key), values);
+  }
+
+  protected IntTo<V> newList() {
+    return newBucket(componentType, opts);
+  }
+
+  @Override
+  public Class<?> componentType() {
+    return componentType;
+  }
+
+}
@@ -2,6 +2,7 @@ package xapi.collect.impl;
 
 import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import xapi.annotation.inject.InstanceDefault;
 import xapi.collect.api.StringTo;
@@ -24,6 +25,10 @@ public class StringToAbstract <V> implements StringTo<V>{
     }
   }
 
+  public StringToAbstract(java.util.Map<String,V> map) {
+    this.map = map;
+  }
+
   protected boolean isMultithreaded() {
     return X_Runtime.isMultithreaded();
   }
@@ -95,6 +100,20 @@ public class StringToAbstract <V> implements StringTo<V>{
     return map.put(key, value);
   }
 
+  /**
+   * @return The value already mapped to key, or null if value was put.
+   */
+  protected V putIfAbsent(String key, V value) {
+    if (map instanceof ConcurrentMap) {
+      return ((ConcurrentMap<String,V>)map).putIfAbsent(key, value);
+    }
+    V existing = map.get(key);
+    if (existing == null) {
+      map.put(key, value);
+    }
+    return existing;
+  }
+
   @Override
   public V remove(String key) {
     return map.remove(key);
@@ -105,4 +124,11 @@ public class StringToAbstract <V> implements StringTo<V>{
     return map.size();
   }
 
+  /**
+   * @return An immutable snapshot of this map; see {@link StringToFrozen}.
+   */
+  public StringTo<V> freeze() {
+    return StringToFrozen.freeze(this);
+  }
+
 }
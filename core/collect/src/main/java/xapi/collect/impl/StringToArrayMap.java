@@ -0,0 +1,251 @@
+package xapi.collect.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import xapi.collect.api.StringTo;
+import xapi.util.impl.AbstractPair;
+
+/**
+ * A compact {@link StringTo} for maps which are built once and then only read,
+ * as requested by immutable {@link xapi.collect.api.CollectionOptions}.
+ * <p>
+ * Keys are kept sorted in one array, with their values in a parallel array,
+ * and lookups are a binary search; there are no entry objects or hash buckets.
+ * Every write copies both arrays and publishes the copies at once,
+ * so reads never lock and always see a consistent map, but writes cost O(n);
+ * use {@link #putAll(Iterable)} to fill the map in one copy.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class StringToArrayMap <V> implements StringTo<V> {
+
+  private static final class Snapshot {
+    final String[] keys;
+    final Object[] values;
+
+    Snapshot(String[] keys, Object[] values) {
+      this.keys = keys;
+      this.values = values;
+    }
+  }
+
+  private static final Snapshot EMPTY = new Snapshot(new String[0], new Object[0]);
+
+  private volatile Snapshot snapshot = EMPTY;
+
+  private static int indexOf(String[] keys, String key) {
+    if (key == null) {
+      throw new NullPointerException("StringToArrayMap does not support null keys");
+    }
+    int lo = 0, hi = keys.length - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int cmp = keys[mid].compareTo(key);
+      if (cmp < 0) {
+        lo = mid + 1;
+      } else if (cmp > 0) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(lo + 1);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(String key) {
+    Snapshot s = snapshot;
+    int i = indexOf(s.keys, key);
+    return i < 0 ? null : (V)s.values[i];
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public synchronized V put(String key, V value) {
+    Snapshot s = snapshot;
+    int i = indexOf(s.keys, key);
+    if (i >= 0) {
+      Object[] values = s.values.clone();
+      values[i] = value;
+      snapshot = new Snapshot(s.keys, values);
+      return (V)s.values[i];
+    }
+    i = -i - 1;
+    int size = s.keys.length;
+    String[] keys = new String[size + 1];
+    Object[] values = new Object[size + 1];
+    System.arraycopy(s.keys, 0, keys, 0, i);
+    System.arraycopy(s.values, 0, values, 0, i);
+    keys[i] = key;
+    values[i] = value;
+    System.arraycopy(s.keys, i, keys, i + 1, size - i);
+    System.arraycopy(s.values, i, values, i + 1, size - i);
+    snapshot = new Snapshot(keys, values);
+    return null;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public synchronized V remove(String key) {
+    Snapshot s = snapshot;
+    int i = indexOf(s.keys, key);
+    if (i < 0) {
+      return null;
+    }
+    int size = s.keys.length - 1;
+    String[] keys = new String[size];
+    Object[] values = new Object[size];
+    System.arraycopy(s.keys, 0, keys, 0, i);
+    System.arraycopy(s.values, 0, values, 0, i);
+    System.arraycopy(s.keys, i + 1, keys, i, size - i);
+    System.arraycopy(s.values, i + 1, values, i, size - i);
+    snapshot = new Snapshot(keys, values);
+    return (V)s.values[i];
+  }
+
+  /**
+   * Adds every entry with a single copy of our arrays.
+   */
+  @Override
+  public synchronized void putAll(Iterable<Entry<String, V>> items) {
+    Snapshot s = snapshot;
+    List<String> addedKeys = new ArrayList<String>();
+    List<Object> addedValues = new ArrayList<Object>();
+    Object[] values = s.values.clone();
+    for (Entry<String, V> item : items) {
+      int i = indexOf(s.keys, item.getKey());
+      if (i >= 0) {
+        values[i] = item.getValue();
+      } else {
+        addedKeys.add(item.getKey());
+        addedValues.add(item.getValue());
+      }
+    }
+    if (addedKeys.isEmpty()) {
+      snapshot = new Snapshot(s.keys, values);
+      return;
+    }
+    // merge the sorted new keys into our sorted keys; the last write of a duplicate key wins
+    Integer[] order = new Integer[addedKeys.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    final List<String> sortKeys = addedKeys;
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int cmp = sortKeys.get(a).compareTo(sortKeys.get(b));
+        return cmp == 0 ? a - b : cmp;
+      }
+    });
+    String[] keys = new String[s.keys.length + order.length];
+    Object[] merged = new Object[keys.length];
+    int size = 0, mine = 0;
+    for (int j = 0; j < order.length; j++) {
+      String key = addedKeys.get(order[j]);
+      Object value = addedValues.get(order[j]);
+      while (mine < s.keys.length && s.keys[mine].compareTo(key) < 0) {
+        keys[size] = s.keys[mine];
+        merged[size++] = values[mine++];
+      }
+      if (size > 0 && keys[size - 1].equals(key)) {
+        merged[size - 1] = value;
+      } else {
+        keys[size] = key;
+        merged[size++] = value;
+      }
+    }
+    while (mine < s.keys.length) {
+      keys[size] = s.keys[mine];
+      merged[size++] = values[mine++];
+    }
+    if (size < keys.length) {
+      String[] trimmedKeys = new String[size];
+      Object[] trimmedValues = new Object[size];
+      System.arraycopy(keys, 0, trimmedKeys, 0, size);
+      System.arraycopy(merged, 0, trimmedValues, 0, size);
+      keys = trimmedKeys;
+      merged = trimmedValues;
+    }
+    snapshot = new Snapshot(keys, merged);
+  }
+
+  @Override
+  public synchronized void removeAll(Iterable<String> items) {
+    for (String item : items) {
+      remove(item);
+    }
+  }
+
+  @Override
+  public synchronized void clear() {
+    snapshot = EMPTY;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return snapshot.keys.length == 0;
+  }
+
+  @Override
+  public int size() {
+    return snapshot.keys.length;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof String && indexOf(snapshot.keys, (String)key) >= 0;
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    for (Object item : snapshot.values) {
+      if (item == value || (item != null && item.equals(value))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String[] keyArray() {
+    return snapshot.keys.clone();
+  }
+
+  @Override
+  public Iterable<String> keys() {
+    return Collections.unmodifiableList(Arrays.asList(snapshot.keys));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Iterable<V> values() {
+    return Collections.unmodifiableList(Arrays.asList((V[])snapshot.values));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Iterable<Entry<String, V>> entries() {
+    Snapshot s = snapshot;
+    List<Entry<String, V>> entries = new ArrayList<Entry<String, V>>(s.keys.length);
+    for (int i = 0; i < s.keys.length; i++) {
+      entries.add(new AbstractPair<String, V>(s.keys[i], (V)s.values[i]));
+    }
+    return entries;
+  }
+
+  /**
+   * @return An immutable snapshot of this map; see {@link StringToFrozen}.
+   */
+  public StringTo<V> freeze() {
+    return StringToFrozen.freeze(this);
+  }
+
+}
@@ -0,0 +1,323 @@
+package xapi.collect.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+
+import xapi.collect.api.StringTo;
+import xapi.util.impl.AbstractPair;
+
+/**
+ * An immutable snapshot of a {@link StringTo}, for maps which are built once and then only read.
+ * <p>
+ * The keys are laid out in one array, with their values in a parallel array,
+ * indexed by a minimal perfect hash (hash and displace): each key's hash picks a bucket,
+ * and each bucket stores the displacement which sends all of its keys to distinct slots.
+ * A lookup is one hash (String caches its own), three array reads and one key comparison,
+ * and never allocates; there are no entry objects, and no empty slots.
+ * <p>
+ * We keep the very key instances of the map we froze, rather than interning them,
+ * so callers who look up with those instances (or with literals, which are already interned)
+ * pass an identity check before they ever compare characters.
+ * <p>
+ * All fields are final, so a frozen map may be shared between threads without synchronization.
+ * Every method which would modify the map throws {@link UnsupportedOperationException}.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class StringToFrozen <V> implements StringTo<V> {
+
+  private static final int MAX = 0x7fffffff;
+
+  /**
+   * How many displacements we try for one bucket before giving up, and trying again with more buckets.
+   */
+  private static final int MAX_TRIES = 1 << 16;
+
+  private final String[] keys;
+  private final Object[] values;
+  private final int[] seeds;
+  /**
+   * Zero when we hash with {@link String#hashCode()};
+   * any other value salts our own hash, which we only need if two keys share a hashCode.
+   */
+  private final int salt;
+
+  /**
+   * Copies every entry of the given map into a new frozen map.
+   *
+   * @throws NullPointerException if the map contains a null key.
+   */
+  public static <V> StringToFrozen<V> freeze(StringTo<V> map) {
+    if (map instanceof StringToFrozen) {
+      return (StringToFrozen<V>)map;
+    }
+    List<String> keys = new ArrayList<String>();
+    List<Object> values = new ArrayList<Object>();
+    for (Entry<String, V> entry : map.entries()) {
+      if (entry.getKey() == null) {
+        throw new NullPointerException("StringToFrozen does not support null keys");
+      }
+      keys.add(entry.getKey());
+      values.add(entry.getValue());
+    }
+    return new StringToFrozen<V>(keys.toArray(new String[keys.size()]), values.toArray());
+  }
+
+  private StringToFrozen(String[] keys, Object[] values) {
+    int n = keys.length;
+    int salt = 0;
+    int[] hashes = hashAll(keys, salt);
+    while (!distinct(hashes)) {
+      hashes = hashAll(keys, ++salt);
+    }
+    int buckets = 1;
+    while (buckets < n / 2) {
+      buckets <<= 1;
+    }
+    int[] slots = new int[n];
+    int[] seeds;
+    while ((seeds = place(hashes, buckets, slots)) == null) {
+      buckets <<= 1;
+    }
+    this.seeds = seeds;
+    this.salt = salt;
+    this.keys = new String[n];
+    this.values = new Object[n];
+    for (int i = 0; i < n; i++) {
+      this.keys[slots[i]] = keys[i];
+      this.values[slots[i]] = values[i];
+    }
+  }
+
+  private static int hash(String key, int salt) {
+    if (salt == 0) {
+      return key.hashCode();
+    }
+    int h = salt * 0x9E3779B9;
+    for (int i = 0, m = key.length(); i < m; i++) {
+      h = (h ^ key.charAt(i)) * 0x01000193;
+    }
+    return h;
+  }
+
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    return h ^ (h >>> 16);
+  }
+
+  private static int bucket(int hash, int buckets) {
+    // buckets is a power of two, so the high bits of a multiplicative hash pick one
+    return (hash * 0x9E3779B9 >>> 16) & (buckets - 1);
+  }
+
+  private static int slot(int hash, int seed, int size) {
+    return (mix(hash ^ seed * 0x9E3779B9) & MAX) % size;
+  }
+
+  private static int[] hashAll(String[] keys, int salt) {
+    int[] hashes = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      hashes[i] = hash(keys[i], salt);
+    }
+    return hashes;
+  }
+
+  private static boolean distinct(int[] hashes) {
+    int[] sorted = new int[hashes.length];
+    System.arraycopy(hashes, 0, sorted, 0, hashes.length);
+    Arrays.sort(sorted);
+    for (int i = 1; i < sorted.length; i++) {
+      if (sorted[i] == sorted[i - 1]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Finds a displacement for every bucket, placing the largest buckets first,
+   * and filling whatever slots remain with the buckets that hold a single key.
+   *
+   * @param slots Receives the slot chosen for each key.
+   * @return The seed of each bucket, or null if some bucket could not be placed.
+   */
+  private static int[] place(int[] hashes, int buckets, int[] slots) {
+    int n = hashes.length;
+    int[] seeds = new int[buckets];
+    if (n == 0) {
+      return seeds;
+    }
+    // group the keys by bucket
+    int[] start = new int[buckets + 1];
+    int[] bucketOf = new int[n];
+    for (int i = 0; i < n; i++) {
+      bucketOf[i] = bucket(hashes[i], buckets);
+      start[bucketOf[i] + 1]++;
+    }
+    int largest = 0;
+    for (int b = 0; b < buckets; b++) {
+      largest = Math.max(largest, start[b + 1]);
+      start[b + 1] += start[b];
+    }
+    int[] members = new int[n];
+    int[] fill = new int[buckets];
+    for (int i = 0; i < n; i++) {
+      int b = bucketOf[i];
+      members[start[b] + fill[b]++] = i;
+    }
+    boolean[] taken = new boolean[n];
+    int[] tried = new int[largest];
+    for (int size = largest; size > 1; size--) {
+      for (int b = 0; b < buckets; b++) {
+        if (start[b + 1] - start[b] != size) {
+          continue;
+        }
+        int seed = 1;
+        search:
+        for (; seed <= MAX_TRIES; seed++) {
+          for (int j = 0; j < size; j++) {
+            int s = slot(hashes[members[start[b] + j]], seed, n);
+            if (taken[s]) {
+              continue search;
+            }
+            for (int k = 0; k < j; k++) {
+              if (tried[k] == s) {
+                continue search;
+              }
+            }
+            tried[j] = s;
+          }
+          break;
+        }
+        if (seed > MAX_TRIES) {
+          return null;
+        }
+        seeds[b] = seed;
+        for (int j = 0; j < size; j++) {
+          taken[tried[j]] = true;
+          slots[members[start[b] + j]] = tried[j];
+        }
+      }
+    }
+    // a negative seed points straight at the slot of a single key
+    int free = 0;
+    for (int b = 0; b < buckets; b++) {
+      if (start[b + 1] - start[b] == 1) {
+        while (taken[free]) {
+          free++;
+        }
+        taken[free] = true;
+        seeds[b] = -free - 1;
+        slots[members[start[b]]] = free;
+      }
+    }
+    return seeds;
+  }
+
+  private int indexOf(String key) {
+    int n = keys.length;
+    if (n == 0) {
+      return -1;
+    }
+    int h = hash(key, salt);
+    int seed = seeds[bucket(h, seeds.length)];
+    int i = seed < 0 ? -seed - 1 : slot(h, seed, n);
+    String k = keys[i];
+    return k == key || k.equals(key) ? i : -1;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(String key) {
+    int i = indexOf(key);
+    return i < 0 ? null : (V)values[i];
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof String && indexOf((String)key) >= 0;
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    for (Object item : values) {
+      if (item == value || (item != null && item.equals(value))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return keys.length == 0;
+  }
+
+  @Override
+  public int size() {
+    return keys.length;
+  }
+
+  @Override
+  public String[] keyArray() {
+    return keys.clone();
+  }
+
+  @Override
+  public Iterable<String> keys() {
+    return Collections.unmodifiableList(Arrays.asList(keys));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Iterable<V> values() {
+    return Collections.unmodifiableList(Arrays.asList((V[])values));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Iterable<Entry<String, V>> entries() {
+    List<Entry<String, V>> entries = new ArrayList<Entry<String, V>>(keys.length);
+    for (int i = 0; i < keys.length; i++) {
+      entries.add(new AbstractPair<String, V>(keys[i], (V)values[i]));
+    }
+    return Collections.unmodifiableList(entries);
+  }
+
+  @Override
+  public V put(String key, V value) {
+    throw immutable();
+  }
+
+  @Override
+  public V remove(String key) {
+    throw immutable();
+  }
+
+  @Override
+  public void putAll(Iterable<Entry<String, V>> items) {
+    throw immutable();
+  }
+
+  @Override
+  public void removeAll(Iterable<String> items) {
+    throw immutable();
+  }
+
+  @Override
+  public void clear() {
+    throw immutable();
+  }
+
+  private static UnsupportedOperationException immutable() {
+    return new UnsupportedOperationException("StringToFrozen is immutable");
+  }
+
+}
@@ -0,0 +1,216 @@
+package xapi.collect.impl;
+
+import xapi.collect.api.StringToInt;
+
+/**
+ * A {@link StringToInt} stored in two parallel arrays, using open addressing with linear probing.
+ * <p>
+ * The table size is always a power of two, and is kept at most half full,
+ * so probe sequences stay short; removal shifts later entries back into the freed slot,
+ * so we never need tombstones.
+ * <p>
+ * Not thread safe.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class StringToIntMap implements StringToInt {
+
+  private static final int MIN_CAPACITY = 8;
+
+  private String[] keys;
+  private int[] values;
+  private int size;
+  private int mask;
+
+  public StringToIntMap() {
+    this(MIN_CAPACITY / 2);
+  }
+
+  public StringToIntMap(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    keys = new String[capacity];
+    values = new int[capacity];
+    mask = capacity - 1;
+  }
+
+  private static int hash(String key) {
+    int h = key.hashCode();
+    // spread the high bits down, since we only use the low bits of the hash
+    return h ^ (h >>> 16) ^ (h >>> 7);
+  }
+
+  /**
+   * @return The slot holding key, or the empty slot where it belongs, as -(slot + 1).
+   */
+  private int slot(String key) {
+    if (key == null) {
+      throw new NullPointerException("StringToInt does not support null keys");
+    }
+    final String[] keys = this.keys;
+    int i = hash(key) & mask;
+    String k;
+    while ((k = keys[i]) != null) {
+      if (k == key || k.equals(key)) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    return -i - 1;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public void clear() {
+    if (size > 0) {
+      for (int i = keys.length; i-- > 0;) {
+        keys[i] = null;
+      }
+      size = 0;
+    }
+  }
+
+  @Override
+  public boolean containsKey(String key) {
+    return slot(key) >= 0;
+  }
+
+  @Override
+  public int get(String key) {
+    return get(key, 0);
+  }
+
+  @Override
+  public int get(String key, int dflt) {
+    int i = slot(key);
+    return i < 0 ? dflt : values[i];
+  }
+
+  @Override
+  public int put(String key, int value) {
+    int i = slot(key);
+    if (i >= 0) {
+      int was = values[i];
+      values[i] = value;
+      return was;
+    }
+    insert(-i - 1, key, value);
+    return 0;
+  }
+
+  @Override
+  public int add(String key, int delta) {
+    int i = slot(key);
+    if (i >= 0) {
+      return values[i] += delta;
+    }
+    insert(-i - 1, key, delta);
+    return delta;
+  }
+
+  private void insert(int i, String key, int value) {
+    keys[i] = key;
+    values[i] = value;
+    if (++size * 2 > keys.length) {
+      rehash(keys.length << 1);
+    }
+  }
+
+  private void rehash(int capacity) {
+    String[] oldKeys = keys;
+    int[] oldValues = values;
+    allocate(capacity);
+    for (int j = oldKeys.length; j-- > 0;) {
+      String key = oldKeys[j];
+      if (key != null) {
+        int i = hash(key) & mask;
+        while (keys[i] != null) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = oldValues[j];
+      }
+    }
+  }
+
+  @Override
+  public boolean remove(String key) {
+    int i = slot(key);
+    if (i < 0) {
+      return false;
+    }
+    final String[] keys = this.keys;
+    // shift back any following entry whose home slot is at or before the gap
+    int gap = i;
+    int next = (gap + 1) & mask;
+    String k;
+    while ((k = keys[next]) != null) {
+      int home = hash(k) & mask;
+      if (((next - home) & mask) >= ((next - gap) & mask)) {
+        keys[gap] = k;
+        values[gap] = values[next];
+        gap = next;
+      }
+      next = (next + 1) & mask;
+    }
+    keys[gap] = null;
+    size--;
+    return true;
+  }
+
+  @Override
+  public String[] keyArray() {
+    String[] result = new String[size];
+    int pos = 0;
+    final String[] keys = this.keys;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != null) {
+        result[pos++] = keys[i];
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void forEach(Visitor visitor) {
+    final String[] keys = this.keys;
+    final int[] values = this.values;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != null) {
+        visitor.visit(keys[i], values[i]);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder b = new StringBuilder("{");
+    forEach(new Visitor() {
+      @Override
+      public void visit(String key, int value) {
+        if (b.length() > 1) {
+          b.append(", ");
+        }
+        b.append(key).append('=').append(value);
+      }
+    });
+    return b.append('}').toString();
+  }
+
+}
@@ -1,28 +1,62 @@
 package xapi.collect.impl;
 
 import xapi.collect.X_Collect;
+import xapi.collect.api.CollectionOptions;
 import xapi.collect.api.IntTo;
 import xapi.collect.api.StringTo;
 
 public class StringToManyList <X> extends StringToAbstract<IntTo<X>> implements StringTo.Many<X>{
 
   private final Class<X> componentClass;
+  private final CollectionOptions opts;
 
   public StringToManyList(Class<X> componentClass) {
     this.componentClass = componentClass;
+    this.opts = null;
   }
 
+  /**
+   * Creates a multimap whose keys and buckets honor the given options;
+   * see {@link ObjectToManyMap}.
+   */
+  public StringToManyList(Class<X> componentClass, CollectionOptions opts) {
+    super(ObjectToManyMap.<String, IntTo<X>>newMap(opts));
+    this.componentClass = componentClass;
+    this.opts = opts;
+  }
+
+  /**
+   * Returns the list for this key, creating it if it is missing;
+   * concurrent callers always receive the same list.
+   */
   @Override
   public final IntTo<X> get(String key) {
     IntTo<X> list = super.get(key);
     if (list == null) {
       list = newList();
+      IntTo<X> existing = putIfAbsent(key, list);
+      if (existing != null) {
+        list = existing;
+      }
     }
     return list;
   }
 
+  @Override
+  public void add(String key, X value) {
+    get(key).add(value);
+  }
+
+  @Override
+  public void addAll(String key, Iterable<X> values) {
+    ObjectToManyMap.addAll(get(key), values);
+  }
+
   protected IntTo<X> newList() {
-    return X_Collect.newList(componentClass);
+    if (opts == null) {
+      return X_Collect.newList(componentClass);
+    }
+    return ObjectToManyMap.newBucket(componentClass, opts);
   }
 
 }
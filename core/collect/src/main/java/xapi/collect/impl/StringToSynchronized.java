@@ -0,0 +1,65 @@
+package xapi.collect.impl;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import xapi.util.impl.AbstractPair;
+
+/**
+ * A {@link StringToAbstract} over a {@link java.util.Collections#synchronizedMap(Map)},
+ * used for maps which are both concurrent and insertion ordered,
+ * as the jdk has no concurrent map which keeps insertion order.
+ * <p>
+ * A synchronized map does not lock its iterators, so we iterate over a copy,
+ * taken while holding the map's lock.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class StringToSynchronized <V> extends StringToAbstract<V> {
+
+  private final Map<String,V> map;
+
+  /**
+   * @param map A map returned by {@link java.util.Collections#synchronizedMap(Map)},
+   * which uses itself as its lock.
+   */
+  public StringToSynchronized(Map<String,V> map) {
+    super(map);
+    this.map = map;
+  }
+
+  @Override
+  public Iterable<String> keys() {
+    synchronized (map) {
+      return new ArrayList<String>(map.keySet());
+    }
+  }
+
+  @Override
+  public Iterable<V> values() {
+    synchronized (map) {
+      return new ArrayList<V>(map.values());
+    }
+  }
+
+  @Override
+  public Iterable<Entry<String,V>> entries() {
+    synchronized (map) {
+      ArrayList<Entry<String,V>> entries = new ArrayList<Entry<String,V>>(map.size());
+      for (Entry<String,V> entry : map.entrySet()) {
+        entries.add(new AbstractPair<String,V>(entry.getKey(), entry.getValue()));
+      }
+      return entries;
+    }
+  }
+
+  @Override
+  protected V putIfAbsent(String key, V value) {
+    synchronized (map) {
+      return super.putIfAbsent(key, value);
+    }
+  }
+
+}
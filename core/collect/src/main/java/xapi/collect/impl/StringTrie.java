@@ -4,10 +4,14 @@ package xapi.collect.impl;
 import static xapi.collect.api.CharPool.EMPTY_STRING;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.concurrent.locks.Lock;
 
+import xapi.collect.api.CharPool;
+import xapi.collect.api.IsCompressable;
 
-public class StringTrie<E> {
+
+public class StringTrie<E> implements IsCompressable {
 
   private static final char[] emptyString = new char[0];
 
@@ -551,8 +555,34 @@ public class StringTrie<E> {
     return null;
   }
 
-  public void compress(CharPoolTrie charPoolTrie) {
+  /**
+   * Replaces the key fragment of every edge with the equivalent array from the given pool;
+   * keys are swapped while holding the parent lock, as they are during puts.
+   */
+  @Override
+  public void compress(CharPool pool) {
+    ArrayList<TrieEdge> todo = new ArrayList<TrieEdge>();
+    todo.add(root);
+    while (!todo.isEmpty()) {
+      final TrieEdge parent = todo.remove(todo.size() - 1);
+      synchronized (parent) {
+        if (parent.lesser != null) {
+          compress(parent.lesser, pool);
+          todo.add(parent.lesser);
+        }
+        if (parent.greater != null) {
+          compress(parent.greater, pool);
+          todo.add(parent.greater);
+        }
+      }
+    }
+  }
 
+  private void compress(TrieEdge e, CharPool pool) {
+    char[] key = e.key;
+    if (key.length > 0) {
+      e.key = pool.getArray(key);
+    }
   }
 
   protected E returnValue(TrieEdge e, Chars keys, int pos, int end) {
@@ -4,8 +4,11 @@ package xapi.collect.impl;
 import static xapi.collect.api.CharPool.EMPTY_STRING;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.concurrent.locks.Lock;
 
+import xapi.collect.api.CharPool;
+
 
 public class StringTrie_2 <E> extends StringTrie<E>{
 
@@ -606,9 +609,34 @@ public class StringTrie_2 <E> extends StringTrie<E>{
     return null;
   }
 
+  /**
+   * Replaces the key fragment of every edge with the equivalent array from the given pool;
+   * keys are swapped while holding the parent lock, as they are during puts.
+   */
   @Override
-  public void compress(CharPoolTrie charPoolTrie) {
+  public void compress(CharPool pool) {
+    ArrayList<Edge> todo = new ArrayList<Edge>();
+    todo.add(root);
+    while (!todo.isEmpty()) {
+      final Edge parent = todo.remove(todo.size() - 1);
+      synchronized (parent) {
+        if (parent.lesser != null) {
+          compress(parent.lesser, pool);
+          todo.add(parent.lesser);
+        }
+        if (parent.greater != null) {
+          compress(parent.greater, pool);
+          todo.add(parent.greater);
+        }
+      }
+    }
+  }
 
+  private void compress(Edge e, CharPool pool) {
+    char[] key = e.key;
+    if (key.length > 0) {
+      e.key = pool.getArray(key);
+    }
   }
 
 }
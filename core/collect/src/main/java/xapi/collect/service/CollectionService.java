@@ -4,9 +4,14 @@ import xapi.collect.api.ClassTo;
 import xapi.collect.api.CollectionOptions;
 import xapi.collect.api.Fifo;
 import xapi.collect.api.IntTo;
+import xapi.collect.api.IntToDouble;
+import xapi.collect.api.IntToInt;
+import xapi.collect.api.IntToLong;
 import xapi.collect.api.ObjectTo;
 import xapi.collect.api.StringDictionary;
 import xapi.collect.api.StringTo;
+import xapi.collect.api.StringToInt;
+import xapi.collect.api.StringToLong;
 
 public interface CollectionService {
 
@@ -30,4 +35,16 @@ public interface CollectionService {
 
   <V> Fifo<V> newFifo();
 
+  <V> Fifo<V> newFifo(CollectionOptions opts);
+
+  IntToInt newIntToInt(CollectionOptions opts);
+
+  IntToLong newIntToLong(CollectionOptions opts);
+
+  IntToDouble newIntToDouble(CollectionOptions opts);
+
+  StringToInt newStringToInt(CollectionOptions opts);
+
+  StringToLong newStringToLong(CollectionOptions opts);
+
 }
@@ -0,0 +1,170 @@
+package xapi.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import xapi.collect.api.CollectionOptions;
+import xapi.collect.api.IntTo;
+import xapi.collect.api.StringTo;
+import xapi.collect.impl.CollectionServiceDefault;
+import xapi.collect.impl.IntToConcurrentList;
+import xapi.collect.impl.IntToList;
+import xapi.collect.impl.IntToSet;
+import xapi.collect.impl.StringToArrayMap;
+import xapi.collect.service.CollectionService;
+
+/**
+ * Checks that the default collection service picks its backing from the {@link CollectionOptions}
+ * it is given, and compares the cost of each choice.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class CollectionOptionsBenchmark {
+
+  private static final CollectionOptions CONFINED = CollectionOptions.asConcurrent(false).mutable(true).build();
+  private static final CollectionOptions CONFINED_ORDERED = CollectionOptions.asConcurrent(false)
+    .insertionOrdered(true).mutable(true).build();
+  private static final CollectionOptions CONCURRENT = CollectionOptions.asConcurrent(true).mutable(true).build();
+  private static final CollectionOptions CONCURRENT_ORDERED = CollectionOptions.asConcurrent(true)
+    .insertionOrdered(true).mutable(true).build();
+  private static final CollectionOptions IMMUTABLE = CollectionOptions.asMutable(false).build();
+
+  private static final int KEYS = 2000;
+  private static final int READS = 2000000;
+
+  private final CollectionService service = new CollectionServiceDefault();
+
+  @Test
+  public void testListOptions() {
+    assertTrue(service.newList(String.class, CONFINED) instanceof IntToList);
+    assertTrue(service.newList(String.class, CONCURRENT) instanceof IntToConcurrentList);
+    // concurrency defaults on for a multithreaded runtime, but lists only get it when they ask
+    assertTrue(service.newList(String.class, CollectionOptions.asMutableList().build()) instanceof IntToList);
+    IntTo<String> set = service.newList(String.class, CollectionOptions.asMutableSet().build());
+    assertTrue(set instanceof IntToSet);
+    set.add("a");
+    set.add("a");
+    assertEquals(1, set.size());
+  }
+
+  @Test
+  public void testInsertionOrder() {
+    StringTo<Integer> map = service.newStringMap(Integer.class, CONFINED_ORDERED);
+    String[] keys = {"z", "b", "y", "a"};
+    for (int i = 0; i < keys.length; i++) {
+      map.put(keys[i], i);
+    }
+    assertEquals(Arrays.asList(keys), Arrays.asList(map.keyArray()));
+  }
+
+  @Test
+  public void testConcurrentInsertionOrder() throws Exception {
+    final StringTo<Integer> map = service.newStringMap(Integer.class, CONCURRENT_ORDERED);
+    map.put("b", 1);
+    map.put("c", 2);
+    map.put("a", 3);
+    assertEquals(Arrays.asList("b", "c", "a"), Arrays.asList(map.keyArray()));
+    // iterating while another thread writes must not throw
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 10000; i++) {
+          map.put("k" + i, i);
+        }
+      }
+    };
+    writer.start();
+    while (writer.isAlive()) {
+      for (Entry<String, Integer> entry : map.entries()) {
+        assertNotNull(entry.getKey());
+      }
+    }
+    writer.join();
+    assertEquals(10003, map.size());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testImmutableMapRefusesWrites() {
+    StringTo<Integer> map = service.newStringMap(Integer.class, IMMUTABLE);
+    assertEquals(0, map.size());
+    map.put("a", 1);
+  }
+
+  @Test
+  public void testArrayMap() {
+    StringTo<Integer> map = new StringToArrayMap<Integer>();
+    List<Entry<String, Integer>> entries = new ArrayList<Entry<String, Integer>>();
+    entries.add(new SimpleEntry<String, Integer>("m", 1));
+    entries.add(new SimpleEntry<String, Integer>("c", 2));
+    entries.add(new SimpleEntry<String, Integer>("x", 3));
+    entries.add(new SimpleEntry<String, Integer>("c", 4));
+    map.putAll(entries);
+    assertEquals(3, map.size());
+    assertEquals(Integer.valueOf(4), map.get("c"));
+    assertEquals(Arrays.asList("c", "m", "x"), Arrays.asList(map.keyArray()));
+    map.put("a", 5);
+    assertEquals(Arrays.asList("a", "c", "m", "x"), Arrays.asList(map.keyArray()));
+    assertEquals(Integer.valueOf(1), map.remove("m"));
+    assertNull(map.get("m"));
+    assertEquals(3, map.size());
+  }
+
+  @Test
+  public void benchmarkStringMaps() {
+    String[] keys = new String[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      keys[i] = "key" + i;
+    }
+    CollectionOptions[] options = {CONFINED, CONFINED_ORDERED, CONCURRENT, CONCURRENT_ORDERED, null};
+    String[] names = {"confined", "confined ordered", "concurrent", "concurrent ordered", "array map"};
+    // warm up every backing before timing any of them
+    for (CollectionOptions opts : options) {
+      readAll(fill(newMap(opts), keys), keys);
+    }
+    for (int i = 0; i < options.length; i++) {
+      long start = System.nanoTime();
+      StringTo<Integer> map = fill(newMap(options[i]), keys);
+      long filled = System.nanoTime();
+      long sum = readAll(map, keys);
+      long read = System.nanoTime();
+      System.out.println(names[i] + " (" + map.getClass().getSimpleName() + "): fill " + KEYS + " keys "
+        + (filled - start) / 1000 + "us, " + READS + " reads " + (read - filled) / 1000000 + "ms (" + sum + ")");
+    }
+  }
+
+  /**
+   * @return a map from the service, or a StringToArrayMap for null options.
+   */
+  private StringTo<Integer> newMap(CollectionOptions opts) {
+    return opts == null ? new StringToArrayMap<Integer>() : service.<Integer>newStringMap(Integer.class, opts);
+  }
+
+  private static StringTo<Integer> fill(StringTo<Integer> map, String[] keys) {
+    List<Entry<String, Integer>> entries = new ArrayList<Entry<String, Integer>>();
+    for (int i = 0; i < keys.length; i++) {
+      entries.add(new SimpleEntry<String, Integer>(keys[i], i));
+    }
+    map.putAll(entries);
+    return map;
+  }
+
+  private static long readAll(StringTo<Integer> map, String[] keys) {
+    long sum = 0;
+    for (int i = 0; i < READS; i++) {
+      sum += map.get(keys[i % KEYS]);
+    }
+    return sum;
+  }
+
+}
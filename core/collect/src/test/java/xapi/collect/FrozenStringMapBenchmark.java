@@ -0,0 +1,146 @@
+package xapi.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import xapi.collect.api.StringTo;
+import xapi.collect.impl.StringToAbstract;
+import xapi.collect.impl.StringToFrozen;
+
+/**
+ * Checks {@link X_Collect#freezeStringMap(StringTo)}, and compares frozen lookups
+ * against the concurrent map a build-once, read-many table would otherwise use.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class FrozenStringMapBenchmark {
+
+  private static final int KEYS = 5000;
+  private static final int READS = 5000000;
+
+  @Test
+  public void testEveryKeyIsFound() {
+    Random random = new Random(7);
+    for (int size : new int[] {0, 1, 2, 3, 17, 100, 1000, KEYS}) {
+      StringTo<Integer> map = new StringToAbstract<Integer>();
+      while (map.size() < size) {
+        map.put(Long.toString(random.nextLong(), 36), map.size());
+      }
+      StringTo<Integer> frozen = X_Collect.freezeStringMap(map);
+      assertEquals(size, frozen.size());
+      for (String key : map.keys()) {
+        assertEquals(map.get(key), frozen.get(key));
+        // equal strings which are not the instance we froze are found too
+        assertEquals(map.get(key), frozen.get(new String(key)));
+      }
+      for (int i = 0; i < 1000; i++) {
+        String missing = "missing" + i;
+        assertNull(frozen.get(missing));
+        assertFalse(frozen.containsKey(missing));
+      }
+      Set<String> keys = new HashSet<String>();
+      for (String key : frozen.keys()) {
+        keys.add(key);
+      }
+      assertEquals(size, keys.size());
+    }
+  }
+
+  @Test
+  public void testCollidingHashCodes() {
+    // "Aa" and "BB" share a hashCode, so every string built from them collides
+    StringTo<String> map = new StringToAbstract<String>();
+    String[] parts = {"Aa", "BB"};
+    for (int i = 0; i < 64; i++) {
+      StringBuilder b = new StringBuilder();
+      for (int bit = 0; bit < 6; bit++) {
+        b.append(parts[(i >> bit) & 1]);
+      }
+      map.put(b.toString(), "v" + i);
+    }
+    StringTo<String> frozen = X_Collect.freezeStringMap(map);
+    for (String key : map.keys()) {
+      assertEquals(map.get(key), frozen.get(key));
+    }
+    assertNull(frozen.get("AaAaAaAaAaAb"));
+  }
+
+  @Test
+  public void testFrozenIsImmutable() {
+    StringToAbstract<Integer> map = new StringToAbstract<Integer>();
+    map.put("one", 1);
+    StringTo<Integer> frozen = map.freeze();
+    assertSame(frozen, X_Collect.freezeStringMap(frozen));
+    map.put("two", 2);
+    assertNull(frozen.get("two"));
+    try {
+      frozen.put("two", 2);
+      fail("Frozen maps must not accept writes");
+    } catch (UnsupportedOperationException expected) {
+    }
+    assertTrue(frozen.containsValue(1));
+    assertEquals(1, frozen.size());
+  }
+
+  @Test
+  public void benchmarkLookups() {
+    String[] keys = new String[KEYS];
+    ConcurrentHashMap<String, Integer> concurrent = new ConcurrentHashMap<String, Integer>();
+    StringTo<Integer> map = new StringToAbstract<Integer>();
+    for (int i = 0; i < KEYS; i++) {
+      keys[i] = "xapi.property." + i;
+      concurrent.put(keys[i], i);
+      map.put(keys[i], i);
+    }
+    // read in a shuffled order, so neither map gains from keys whose hashes happen to be sequential
+    String[] order = keys.clone();
+    Collections.shuffle(Arrays.asList(order), new Random(42));
+    keys = order;
+    long start = System.nanoTime();
+    StringTo<Integer> frozen = StringToFrozen.freeze(map);
+    long built = System.nanoTime() - start;
+    for (int warmup = 0; warmup < 3; warmup++) {
+      readConcurrent(concurrent, keys);
+      readFrozen(frozen, keys);
+    }
+    start = System.nanoTime();
+    long sum = readConcurrent(concurrent, keys);
+    long concurrentTime = System.nanoTime() - start;
+    start = System.nanoTime();
+    assertEquals(sum, readFrozen(frozen, keys));
+    long frozenTime = System.nanoTime() - start;
+    System.out.println("Froze " + KEYS + " keys in " + built / 1000 + "us; " + READS + " reads: ConcurrentHashMap "
+      + concurrentTime / 1000000 + "ms, frozen " + frozenTime / 1000000 + "ms");
+  }
+
+  private static long readConcurrent(ConcurrentHashMap<String, Integer> map, String[] keys) {
+    long sum = 0;
+    for (int i = 0; i < READS; i++) {
+      sum += map.get(keys[i % KEYS]);
+    }
+    return sum;
+  }
+
+  private static long readFrozen(StringTo<Integer> map, String[] keys) {
+    long sum = 0;
+    for (int i = 0; i < READS; i++) {
+      sum += map.get(keys[i % KEYS]);
+    }
+    return sum;
+  }
+
+}
@@ -0,0 +1,223 @@
+package xapi.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import xapi.collect.api.ClassTo;
+import xapi.collect.api.CollectionOptions;
+import xapi.collect.api.IntTo;
+import xapi.collect.api.ObjectTo;
+import xapi.collect.api.StringTo;
+import xapi.collect.impl.ClassToManyMap;
+import xapi.collect.impl.IntToConcurrentList;
+import xapi.collect.impl.IntToSet;
+import xapi.collect.impl.ObjectToManyMap;
+import xapi.collect.impl.StringToManyList;
+
+/**
+ * Checks the multimaps and sets behind {@link X_Collect}, and measures them under contention,
+ * against the synchronized map of lists we used to write by hand.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class MultiMapBenchmark {
+
+  private static final CollectionOptions CONCURRENT = CollectionOptions.asConcurrent(true)
+    .insertionOrdered(true).mutable(true).build();
+  private static final CollectionOptions CONCURRENT_SET = CollectionOptions.asConcurrent(true)
+    .forbidsDuplicate(true).mutable(true).build();
+  private static final CollectionOptions SINGLE_THREADED = CollectionOptions.asConcurrent(false)
+    .insertionOrdered(true).mutable(true).build();
+
+  private static final int OPERATIONS = 400000;
+  private static final int KEYS = 64;
+
+  private interface Job {
+    void run(int thread, int iteration);
+  }
+
+  @Test
+  public void testConcurrentListKeepsEveryAppend() throws Exception {
+    final IntToConcurrentList<Integer> list = new IntToConcurrentList<Integer>(Integer.class, 1);
+    final int perThread = 20000;
+    run(8, perThread, new Job() {
+      @Override
+      public void run(int thread, int iteration) {
+        if (iteration % 100 == 0) {
+          list.addAll(Arrays.asList(-1, -1, -1));
+        } else {
+          list.add(thread * perThread + iteration);
+        }
+      }
+    });
+    int batches = 8 * (perThread / 100);
+    assertEquals(8 * perThread - batches + batches * 3, list.size());
+    Set<Integer> seen = new HashSet<Integer>();
+    int[] last = new int[8];
+    Arrays.fill(last, -1);
+    for (Integer value : list.forEach()) {
+      if (value == -1) {
+        continue;
+      }
+      assertTrue("Duplicate " + value, seen.add(value));
+      // appends from one thread stay in the order that thread made them
+      int thread = value / perThread;
+      assertTrue(value > last[thread]);
+      last[thread] = value;
+    }
+    assertEquals(8 * perThread - batches, seen.size());
+  }
+
+  @Test
+  public void testConcurrentListRemovals() throws Exception {
+    final IntToConcurrentList<Integer> list = new IntToConcurrentList<Integer>(Integer.class);
+    for (int i = 0; i < 10; i++) {
+      list.add(i);
+    }
+    assertTrue(list.remove(0));
+    assertTrue(list.findRemove(5, false));
+    assertEquals(Integer.valueOf(9), list.pop());
+    list.set(0, 42);
+    assertEquals(Arrays.asList(42, 2, 3, 4, 6, 7, 8), list.asList());
+    assertNull(list.at(7));
+    list.clear();
+    assertTrue(list.isEmpty());
+  }
+
+  @Test
+  public void testConcurrentSetForbidsDuplicates() throws Exception {
+    final IntToSet<Integer> set = new IntToSet<Integer>(Integer.class, CONCURRENT_SET);
+    run(8, 10000, new Job() {
+      @Override
+      public void run(int thread, int iteration) {
+        set.add(iteration);
+      }
+    });
+    assertEquals(10000, set.size());
+    assertEquals(new HashSet<Integer>(set.asList()).size(), set.size());
+    assertFalse(set.add(5));
+    assertTrue(set.findRemove(5, false));
+    assertFalse(set.contains(5));
+    assertTrue(set.add(5));
+    assertEquals(Integer.valueOf(5), set.at(set.size() - 1));
+  }
+
+  @Test
+  public void testBucketsAreCreatedOnce() throws Exception {
+    final ObjectToManyMap<String, Integer> map = new ObjectToManyMap<String, Integer>(String.class, Integer.class, CONCURRENT);
+    run(8, 10000, new Job() {
+      @Override
+      public void run(int thread, int iteration) {
+        map.add("k" + (iteration % KEYS), iteration);
+      }
+    });
+    assertEquals(KEYS, map.size());
+    int total = 0;
+    for (IntTo<Integer> bucket : map.values()) {
+      total += bucket.size();
+    }
+    assertEquals(8 * 10000, total);
+    assertSame(map.get("k0"), map.get("k0"));
+  }
+
+  @Test
+  public void testMultiMapOptions() {
+    ClassTo.Many<String> classes = new ClassToManyMap<String>(String.class, CollectionOptions.asMutableSet().build());
+    classes.add(String.class, "a");
+    classes.addAll(String.class, Arrays.asList("a", "b", "a", "c"));
+    assertEquals(Arrays.asList("a", "b", "c"), classes.get(String.class).asList());
+
+    StringTo.Many<Integer> strings = new StringToManyList<Integer>(Integer.class, SINGLE_THREADED);
+    strings.add("one", 1);
+    strings.addAll("one", Arrays.asList(2, 3));
+    assertEquals(Arrays.asList(1, 2, 3), strings.get("one").asList());
+    assertEquals(0, strings.get("two").size());
+
+    ObjectTo.Many<Integer, String> ordered = new ObjectToManyMap<Integer, String>(Integer.class, String.class, SINGLE_THREADED);
+    for (int i = 10; i --> 0;) {
+      ordered.add(i, "v" + i);
+    }
+    List<Integer> keys = new ArrayList<Integer>();
+    for (Integer key : ordered.keys()) {
+      keys.add(key);
+    }
+    assertEquals(Arrays.asList(9, 8, 7, 6, 5, 4, 3, 2, 1, 0), keys);
+  }
+
+  @Test
+  public void benchmarkContention() throws Exception {
+    for (int threads = 1; threads <= 32; threads *= 2) {
+      final int perThread = OPERATIONS / threads;
+      final Map<String, List<Integer>> locked = new HashMap<String, List<Integer>>();
+      long start = System.nanoTime();
+      run(threads, perThread, new Job() {
+        @Override
+        public void run(int thread, int iteration) {
+          String key = "k" + (iteration % KEYS);
+          synchronized (locked) {
+            List<Integer> list = locked.get(key);
+            if (list == null) {
+              list = new ArrayList<Integer>();
+              locked.put(key, list);
+            }
+            list.add(iteration);
+          }
+        }
+      });
+      long lockedTime = System.nanoTime() - start;
+
+      final StringTo.Many<Integer> many = new StringToManyList<Integer>(Integer.class, CONCURRENT);
+      start = System.nanoTime();
+      run(threads, perThread, new Job() {
+        @Override
+        public void run(int thread, int iteration) {
+          many.add("k" + (iteration % KEYS), iteration);
+        }
+      });
+      long concurrentTime = System.nanoTime() - start;
+      System.out.println(threads + " threads, " + perThread * threads + " appends; synchronized map of lists: "
+        + lockedTime / 1000000 + "ms, concurrent multimap: " + concurrentTime / 1000000 + "ms");
+    }
+  }
+
+  private static void run(int threads, final int iterations, final Job job) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < iterations; i++) {
+              job.run(thread, i);
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+    start.countDown();
+    done.await();
+  }
+
+}
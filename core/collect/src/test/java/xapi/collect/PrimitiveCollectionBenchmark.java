@@ -0,0 +1,244 @@
+package xapi.collect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import xapi.collect.api.IntTo;
+import xapi.collect.api.IntToDouble;
+import xapi.collect.api.IntToInt;
+import xapi.collect.api.IntToLong;
+import xapi.collect.api.StringTo;
+import xapi.collect.api.StringToInt;
+import xapi.collect.api.StringToLong;
+import xapi.collect.impl.IntToDoubleList;
+import xapi.collect.impl.IntToIntList;
+import xapi.collect.impl.IntToList;
+import xapi.collect.impl.IntToLongList;
+import xapi.collect.impl.StringToAbstract;
+import xapi.collect.impl.StringToIntMap;
+import xapi.collect.impl.StringToLongMap;
+
+/**
+ * Checks the primitive collections, and compares them against the boxed
+ * IntTo&lt;Integer&gt; and StringTo&lt;Integer&gt; they replace.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class PrimitiveCollectionBenchmark {
+
+  private static final int SIZE = 1000000;
+  private static final int KEYS = 50000;
+
+  @Test
+  public void testIntToInt() {
+    IntToInt list = new IntToIntList();
+    for (int i = 0; i < 100; i++) {
+      list.add(i * 2);
+    }
+    assertEquals(100, list.size());
+    assertEquals(20, list.at(10));
+    assertEquals(10, list.indexOf(20));
+    assertFalse(list.contains(21));
+    assertTrue(list.remove(10));
+    assertEquals(22, list.at(10));
+    assertEquals(198, list.pop());
+    list.set(200, 7);
+    assertEquals(201, list.size());
+    assertEquals(0, list.at(150));
+    final int[] sum = new int[1];
+    list.forEach(new IntToInt.Visitor() {
+      @Override
+      public void visit(int index, int value) {
+        sum[0] += value;
+      }
+    });
+    int expected = 7;
+    for (int i = 0; i < 98; i++) {
+      expected += i < 10 ? i * 2 : (i + 1) * 2;
+    }
+    assertEquals(expected, sum[0]);
+  }
+
+  @Test
+  public void testSetPastClearedValues() {
+    IntToInt ints = new IntToIntList();
+    IntToLong longs = new IntToLongList();
+    IntToDouble doubles = new IntToDoubleList();
+    for (int i = 0; i < 4; i++) {
+      ints.add(9);
+      longs.add(9);
+      doubles.add(9);
+    }
+    ints.clear();
+    longs.clear();
+    doubles.clear();
+    ints.set(2, 1);
+    longs.set(2, 1);
+    doubles.set(2, 1);
+    assertArrayEquals(new int[] {0, 0, 1}, ints.toArray());
+    assertArrayEquals(new long[] {0, 0, 1}, longs.toArray());
+    assertArrayEquals(new double[] {0, 0, 1}, doubles.toArray(), 0);
+
+    ints.add(9);
+    ints.pop();
+    ints.set(5, 2);
+    assertArrayEquals(new int[] {0, 0, 1, 0, 0, 2}, ints.toArray());
+  }
+
+  @Test
+  public void testIntToDoubleNaN() {
+    IntToDouble list = new IntToDoubleList();
+    list.add(1.5);
+    list.add(Double.NaN);
+    assertEquals(1, list.indexOf(Double.NaN));
+    assertArrayEquals(new double[] {1.5, Double.NaN}, list.toArray(), 0);
+  }
+
+  @Test
+  public void testStringToIntMatchesHashMap() {
+    StringToInt map = new StringToIntMap();
+    Map<String, Integer> expected = new HashMap<String, Integer>();
+    Random random = new Random(42);
+    for (int i = 0; i < 200000; i++) {
+      String key = "k" + random.nextInt(5000);
+      switch (random.nextInt(4)) {
+        case 0:
+          assertEquals(expected.containsKey(key), map.remove(key));
+          expected.remove(key);
+          break;
+        case 1:
+          int was = expected.containsKey(key) ? expected.get(key) : 0;
+          assertEquals(was, map.put(key, i));
+          expected.put(key, i);
+          break;
+        default:
+          int now = (expected.containsKey(key) ? expected.get(key) : 0) + 1;
+          assertEquals(now, map.add(key, 1));
+          expected.put(key, now);
+      }
+    }
+    assertEquals(expected.size(), map.size());
+    for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+      assertTrue(map.containsKey(entry.getKey()));
+      assertEquals(entry.getValue().intValue(), map.get(entry.getKey()));
+    }
+    String[] keys = map.keyArray();
+    Arrays.sort(keys);
+    String[] expectedKeys = expected.keySet().toArray(new String[0]);
+    Arrays.sort(expectedKeys);
+    assertArrayEquals(expectedKeys, keys);
+    assertEquals(-1, map.get("missing", -1));
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertFalse(map.containsKey(keys[0]));
+  }
+
+  @Test
+  public void testStringToLong() {
+    StringToLong map = new StringToLongMap();
+    map.put("big", Long.MAX_VALUE - 1);
+    assertEquals(Long.MAX_VALUE, map.add("big", 1));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void benchmarkIntLists() {
+    IntTo<Integer> boxed = new IntToList<Integer>(Integer.class);
+    IntToInt primitive = new IntToIntList();
+    // warm up both paths before timing them
+    fillAndSum(boxed);
+    fillAndSum(primitive);
+    boxed.clear();
+    primitive.clear();
+
+    long start = System.nanoTime();
+    long boxedSum = fillAndSum(boxed);
+    long boxedTime = System.nanoTime() - start;
+    start = System.nanoTime();
+    long primitiveSum = fillAndSum(primitive);
+    long primitiveTime = System.nanoTime() - start;
+    assertEquals(boxedSum, primitiveSum);
+    System.out.println(SIZE + " int adds and reads; IntTo<Integer>: " + boxedTime / 1000000 + "ms"
+      + ", IntToInt: " + primitiveTime / 1000000 + "ms");
+  }
+
+  @Test
+  public void benchmarkStringMaps() {
+    String[] keys = new String[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      keys[i] = "key" + i;
+    }
+    countInto(new StringToAbstract<Integer>(), keys);
+    countInto(new StringToIntMap(), keys);
+
+    long start = System.nanoTime();
+    long boxedSum = countInto(new StringToAbstract<Integer>(), keys);
+    long boxedTime = System.nanoTime() - start;
+    start = System.nanoTime();
+    long primitiveSum = countInto(new StringToIntMap(), keys);
+    long primitiveTime = System.nanoTime() - start;
+    assertEquals(boxedSum, primitiveSum);
+    System.out.println(SIZE + " string counter increments; StringTo<Integer>: " + boxedTime / 1000000 + "ms"
+      + ", StringToInt: " + primitiveTime / 1000000 + "ms");
+  }
+
+  private static long fillAndSum(IntTo<Integer> list) {
+    for (int i = 0; i < SIZE; i++) {
+      list.add(i);
+    }
+    long sum = 0;
+    for (int i = 0; i < SIZE; i++) {
+      sum += list.at(i);
+    }
+    return sum;
+  }
+
+  private static long fillAndSum(IntToInt list) {
+    for (int i = 0; i < SIZE; i++) {
+      list.add(i);
+    }
+    long sum = 0;
+    for (int i = 0; i < SIZE; i++) {
+      sum += list.at(i);
+    }
+    return sum;
+  }
+
+  private static long countInto(StringTo<Integer> map, String[] keys) {
+    for (int i = 0; i < SIZE; i++) {
+      String key = keys[i % KEYS];
+      Integer was = map.get(key);
+      map.put(key, was == null ? 1 : was + 1);
+    }
+    long sum = 0;
+    for (Integer value : map.values()) {
+      sum += value;
+    }
+    return sum;
+  }
+
+  private static long countInto(StringToInt map, String[] keys) {
+    for (int i = 0; i < SIZE; i++) {
+      map.add(keys[i % KEYS], 1);
+    }
+    final long[] sum = new long[1];
+    map.forEach(new StringToInt.Visitor() {
+      @Override
+      public void visit(String key, int value) {
+        sum[0] += value;
+      }
+    });
+    return sum[0];
+  }
+
+}
@@ -47,8 +47,8 @@ import xapi.util.api.ConvertsValue;
  * which accepts the key as parameter, and return the singleton which will be set in the map.
  *
  * This map IS entirely threadsafe.
- * The initialization process is guarded by a double-checked lock,
- * which is ONLY checked in jre runtime environments,
+ * The initialization process is guarded by {@link #initializeOnce(Object, String)},
+ * which is ONLY used in jre runtime environments,
  * and only if the multithreading system property ("xapi.multithreaded") is set.
  *
  * If you set a value manually, {@link #initialize(Object)} will not be called for that key.
@@ -115,24 +115,33 @@ public abstract class AbstractInitMap <Key, Value> implements InitMap<Key,Value>
 	  String key = keyProvider.convert(k);
 		if (hasValue(key))
 			return getValue(key);
-		Value value;
 		if (isMultiThreaded()) {
-		  //double-checked lock for multithreaded enviros only
-		  synchronized(getLock(key)) {
-  		  if (hasValue(key))
-          return getValue(key);
-		    //init object
-		    value = initialize(k);
-		    setValue(key, value);
-		  }
-		}else {
-		    //init object
-		    value = initialize(k);
-		    setValue(key, value);
+		  return initializeOnce(k, key);
 		}
+		//init object
+		Value value = initialize(k);
+		setValue(key, value);
 		return value;
 	}
 
+	/**
+	 * Called in multithreaded environments when a key has no value,
+	 * to make sure only one thread initializes it.
+	 * <p>
+	 * This default is a double-checked lock on {@link #getLock(Object)};
+	 * {@link InitMapDefault} overrides it to initialize each key independently.
+	 */
+	protected Value initializeOnce(Key k, String key) {
+	  synchronized(getLock(key)) {
+	    if (hasValue(key))
+	      return getValue(key);
+	    //init object
+	    Value value = initialize(k);
+	    setValue(key, value);
+	    return value;
+	  }
+	}
+
 	@Override
 	public Value put(Key key, Value value) {
 	  return setValue(keyProvider.convert(key), value);
@@ -7,8 +7,6 @@ import xapi.util.impl.PairBuilder;
 
 public class AbstractMultiInitMap <Key, Value, Params> extends InitMapDefault<Pair<Key, Params>,Value> {
 
-  private transient volatile Params params;
-
   private boolean clearState;
 
 
@@ -32,25 +30,15 @@ public class AbstractMultiInitMap <Key, Value, Params> extends InitMapDefault<Pa
   }
 
   public Value get(Key key, Params params) {
-    if (X_Runtime.isMultithreaded()) {
-      synchronized (getLock(key)) {
-        return doGet(key, params);
-      }
-    }else {
-      return doGet(key, params);
-    }
-  }
-
-  private Value doGet(Key key, Params params) {
-    this.params = params;
-    try {
-      return super.get(PairBuilder.<Key, Params>pairOf(key, params));
-    }finally {
-      if (isClearState())
-        this.params = null;
-    }
+    // initialization is guarded per key by InitMapDefault;
+    // the params travel with the key, so concurrent calls cannot see each other's
+    return super.get(PairBuilder.<Key, Params>pairOf(key, params));
   }
 
+  /**
+   * Params are passed along with each call, and never held between calls,
+   * so there is no longer any state to clear; kept for compatibility.
+   */
   protected boolean isClearState() {
     return clearState;
   }
@@ -83,8 +71,11 @@ public class AbstractMultiInitMap <Key, Value, Params> extends InitMapDefault<Pa
     }
   }
 
+  /**
+   * @return The params to initialize with when get() was sent null ones.
+   */
   protected Params defaultParams() {
-    return params;
+    return null;
   }
 
   protected Value initialize(Key key, Params params) {
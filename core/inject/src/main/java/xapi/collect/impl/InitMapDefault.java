@@ -3,16 +3,52 @@ package xapi.collect.impl;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 import xapi.util.api.ConvertsValue;
 import xapi.util.api.ReceivesValue;
 
+/**
+ * The jre implementation of {@link AbstractInitMap}, backed by a ConcurrentHashMap.
+ * <p>
+ * In multithreaded environments, each key is initialized independently:
+ * the first thread to miss a key publishes an in-flight placeholder for it,
+ * and other threads asking for the same key wait on that placeholder,
+ * while threads asking for any other key (in this or any other map) carry on.
+ * Reads of initialized keys never block.
+ * <p>
+ * A key is only ever initialized once by concurrent threads.  A waiting thread which is interrupted
+ * carries on waiting, and is interrupted again once it has the value.  A thread which would wait
+ * on a chain of initializations that leads back to itself gets an IllegalStateException, rather than deadlock.
+ * <p>
+ * A thread which asks again for a key it is already initializing, like a log service
+ * which logs while it is being created, gets a value from a nested call to the initializer,
+ * which may fall back on something simpler; that value is returned, but not kept,
+ * as the outer call will store its own.  If the nested call asks for the key yet again,
+ * it gets an IllegalStateException, rather than recurse forever.
+ *
+ * @author James X. Nelson (james@wetheinter.net)
+ */
 public class InitMapDefault <Key, Value> extends AbstractInitMap<Key,Value>{
 
+  private static final class Pending {
+    final Thread owner = Thread.currentThread();
+    final CountDownLatch done = new CountDownLatch(1);
+    // only read or written by the owner
+    boolean reentered;
+  }
+
+  /**
+   * What each thread is currently waiting on, across all maps, for deadlock detection.
+   */
+  private static final ConcurrentHashMap<Thread, Pending> waiting = new ConcurrentHashMap<Thread, Pending>();
+
   protected final ConvertsValue<Key,Value> valueProvider;
 
   private final ConcurrentHashMap<String,Value> map = new ConcurrentHashMap<String,Value>();
 
+  private final ConcurrentHashMap<String,Pending> pending = new ConcurrentHashMap<String,Pending>();
+
   public InitMapDefault(ConvertsValue<Key,String> keyProvider, ConvertsValue<Key,Value> valueProvider) {
     super(keyProvider);
     assert valueProvider != null : "Cannot use null value provider for init map.";
@@ -50,6 +86,89 @@ public class InitMapDefault <Key, Value> extends AbstractInitMap<Key,Value>{
     map.clear();
   }
 
+  @Override
+  protected Value initializeOnce(Key k, String key) {
+    while (true) {
+      Pending mine = new Pending();
+      Pending existing = pending.putIfAbsent(key, mine);
+      if (existing == null) {
+        try {
+          // check again, in case another thread finished between our miss and our put
+          if (hasValue(key))
+            return getValue(key);
+          Value value = initialize(k);
+          setValue(key, value);
+          return value;
+        } finally {
+          pending.remove(key, mine);
+          mine.done.countDown();
+        }
+      }
+      if (existing.owner == Thread.currentThread()) {
+        return reenter(existing, k, key);
+      }
+      await(existing, key);
+      if (hasValue(key))
+        return getValue(key);
+      // the initializing thread failed; try again, possibly as the initializer.
+    }
+  }
+
+  /**
+   * Runs the initializer again, for a thread which asked for a key it is initializing.
+   */
+  private Value reenter(Pending mine, Key k, String key) {
+    if (mine.reentered) {
+      throw new IllegalStateException("Recursive initialization of " + key + " in " + mine.owner);
+    }
+    mine.reentered = true;
+    try {
+      return initialize(k);
+    } finally {
+      mine.reentered = false;
+    }
+  }
+
+  /**
+   * Waits for another thread to finish initializing a key; an interrupt does not stop us waiting,
+   * as the value is all but there, but is passed on once we are done.
+   *
+   * @throws IllegalStateException if the key is being initialized by this thread,
+   * or by one which is (transitively) waiting on this thread.
+   */
+  private static void await(Pending on, String key) {
+    Thread me = Thread.currentThread();
+    boolean interrupted = false;
+    waiting.put(me, on);
+    try {
+      // We register before we check, so when two threads close a cycle,
+      // at least the later one will see it.
+      for (Pending p = on; p != null; p = waiting.get(p.owner)) {
+        if (p.owner == me) {
+          throw new IllegalStateException(on.owner == me
+            ? "Recursive initialization of " + key + " in " + me
+            : "Initializing " + key + " in " + me + " would deadlock with " + on.owner);
+        }
+        if (p.done.getCount() == 0) {
+          break;
+        }
+      }
+      while (true) {
+        try {
+          on.done.await();
+          return;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      waiting.remove(me);
+      if (interrupted) {
+        me.interrupt();
+      }
+    }
+  }
+
   @Override
   public Value initialize(Key k) {
     return valueProvider.convert(k);
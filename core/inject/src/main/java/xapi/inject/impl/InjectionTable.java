@@ -0,0 +1,197 @@
+package xapi.inject.impl;
+
+import static xapi.util.X_Namespace.DEFAULT_INJECTION_TABLE;
+import static xapi.util.X_Namespace.PROPERTY_INJECTION_TABLE;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.inject.Provider;
+
+import xapi.util.api.MatchesValue;
+import xapi.util.impl.ImmutableProvider;
+
+/**
+ * A compiled table of injection factories, which lets the {@link JreInjector}
+ * create injected types with a plain constructor call, instead of reflection,
+ * and without reading a META-INF resource for every injected type.
+ * <p>
+ * Subclasses are generated as bytecode by the runtime injector (and the xapi maven plugin),
+ * alongside the META-INF/singletons and META-INF/instances files they mirror.
+ * Each factory method is one switch over the index of an interface in its key array,
+ * where every case is a direct <code>new Impl()</code>.
+ * <p>
+ * A table can go stale (left behind in target/classes, or shipped by a dependency
+ * under the same name), so it also records the implementation name of every factory;
+ * as it loads the table, the injector checks each entry once against the META-INF file
+ * for that type, and has us forget any which disagree.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public abstract class InjectionTable {
+
+  private final class InstanceProvider implements Provider<Object> {
+    private final int index;
+
+    private InstanceProvider(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public Object get() {
+      return newInstance(index);
+    }
+  }
+
+  /**
+   * Loads the generated table named by {@link xapi.util.X_Namespace#PROPERTY_INJECTION_TABLE}.
+   *
+   * @return the table, or null if none was generated for this classpath.
+   */
+  public static InjectionTable load(ClassLoader loader) {
+    String name = System.getProperty(PROPERTY_INJECTION_TABLE, DEFAULT_INJECTION_TABLE);
+    try {
+      return (InjectionTable) Class.forName(name, true, loader).getDeclaredConstructor().newInstance();
+    } catch (ClassNotFoundException e) {
+      return null;
+    } catch (Throwable e) {
+      // We cannot log through X_Log here, as we may be injecting the log service itself.
+      System.err.println("Unable to load injection table " + name + "; falling back to META-INF lookups");
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private final Map<String, Integer> singletons;
+  private final Map<String, Integer> instances;
+  private final String[] singletonImpls;
+  private final String[] instanceImpls;
+
+  protected InjectionTable() {
+    singletons = index(singletonKeys());
+    instances = index(instanceKeys());
+    singletonImpls = singletonImpls();
+    instanceImpls = instanceImpls();
+  }
+
+  private static Map<String, Integer> index(String[] keys) {
+    Map<String, Integer> map = new HashMap<String, Integer>();
+    for (int i = 0; i < keys.length; i++) {
+      map.put(keys[i], i);
+    }
+    return map;
+  }
+
+  /**
+   * @return the interface names with a singleton factory, in factory index order.
+   */
+  protected abstract String[] singletonKeys();
+
+  /**
+   * @return the interface names with an instance factory, in factory index order.
+   */
+  protected abstract String[] instanceKeys();
+
+  /**
+   * @return the implementation names created by each singleton factory, in factory index order.
+   */
+  protected abstract String[] singletonImpls();
+
+  /**
+   * @return the implementation names created by each instance factory, in factory index order.
+   */
+  protected abstract String[] instanceImpls();
+
+  protected abstract Object newSingleton(int index);
+
+  protected abstract Object newInstance(int index);
+
+  /**
+   * @return a provider of the singleton for the given type,
+   * or null if the type is not in this table, or was loaded by a different classloader.
+   */
+  public Provider<Object> singletonProvider(Class<?> iface) {
+    Integer index = singletons.get(iface.getName());
+    if (index == null || !isVisible(iface)) {
+      return null;
+    }
+    return new ImmutableProvider<Object>(newSingleton(index));
+  }
+
+  /**
+   * @return a provider of new instances of the given type,
+   * or null if the type is not in this table, or was loaded by a different classloader.
+   */
+  public Provider<Object> instanceProvider(Class<?> iface) {
+    Integer index = instances.get(iface.getName());
+    if (index == null || !isVisible(iface)) {
+      return null;
+    }
+    return new InstanceProvider(index);
+  }
+
+  public boolean hasSingleton(String iface) {
+    return singletons.containsKey(iface);
+  }
+
+  public boolean hasInstance(String iface) {
+    return instances.containsKey(iface);
+  }
+
+  /**
+   * @return the name of the singleton implementation this table creates for iface, or null.
+   */
+  public String singletonImpl(String iface) {
+    Integer index = singletons.get(iface);
+    return index == null ? null : singletonImpls[index];
+  }
+
+  /**
+   * @return the name of the instance implementation this table creates for iface, or null.
+   */
+  public String instanceImpl(String iface) {
+    Integer index = instances.get(iface);
+    return index == null ? null : instanceImpls[index];
+  }
+
+  /**
+   * Forgets every singleton factory which the check rejects,
+   * given {interface name, implementation name}.
+   */
+  void retainSingletons(MatchesValue<String[]> check) {
+    retain(singletons, singletonImpls, check);
+  }
+
+  /**
+   * Forgets every instance factory which the check rejects,
+   * given {interface name, implementation name}.
+   */
+  void retainInstances(MatchesValue<String[]> check) {
+    retain(instances, instanceImpls, check);
+  }
+
+  private static void retain(Map<String, Integer> index, String[] impls, MatchesValue<String[]> check) {
+    for (Iterator<Entry<String, Integer>> iter = index.entrySet().iterator(); iter.hasNext();) {
+      Entry<String, Integer> entry = iter.next();
+      if (!check.matches(new String[] {entry.getKey(), impls[entry.getValue()]})) {
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * Our factories create types from our own classloader;
+   * if the requested type came from somewhere else, they would not be assignable to it.
+   */
+  private boolean isVisible(Class<?> iface) {
+    try {
+      return Class.forName(iface.getName(), false, getClass().getClassLoader()) == iface;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+}
@@ -7,8 +7,9 @@ import static xapi.util.X_Namespace.PROPERTY_INSTANCES;
 import static xapi.util.X_Namespace.PROPERTY_RUNTIME_META;
 import static xapi.util.X_Namespace.PROPERTY_SINGLETONS;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URL;
 
 import javax.inject.Provider;
@@ -23,6 +24,7 @@ import xapi.log.api.LogService;
 import xapi.log.impl.JreLog;
 import xapi.util.X_Runtime;
 import xapi.util.api.ConvertsValue;
+import xapi.util.api.MatchesValue;
 import xapi.util.api.ReceivesValue;
 import xapi.util.impl.ImmutableProvider;
 
@@ -43,7 +45,7 @@ public class JreInjector implements Injector{
           DEFAULT_INJECTOR);
       Class<?> cls =
         Class.forName(injector);
-        return (ReceivesValue<String>)cls.newInstance();
+        return (ReceivesValue<String>)cls.getDeclaredConstructor().newInstance();
       }catch(ClassNotFoundException e) {
 
       }catch(Exception e) {
@@ -65,6 +67,9 @@ public class JreInjector implements Injector{
 
   private boolean initOnce = true;
 
+  private volatile boolean tableLoaded;
+  private volatile InjectionTable table;
+
 	private static final SingletonProvider<String> instanceUrlFragment
 		= new SingletonProvider<String>(){
 			@Override
@@ -88,7 +93,14 @@ public class JreInjector implements Injector{
 	 = InitMapDefault.createInitMap(AbstractInitMap.CLASS_NAME,
 	   new ConvertsValue<Class<?>,Provider<?>>() {
 	     public Provider<?> convert(Class<?> clazz) {
-	       //First, lookup META-INF/instances for a replacement.
+	       //First, check the generated injection table, which needs no reflection.
+	       InjectionTable generated = table();
+	       if (generated != null) {
+	         Provider<Object> provider = generated.instanceProvider(clazz);
+	         if (provider != null)
+	           return provider;
+	       }
+	       //Next, lookup META-INF/instances for a replacement.
 	       final String target;
 	       try {
 	         target = lookup(clazz, instanceUrlFragment.get(), JreInjector.this, instanceProviders);
@@ -97,12 +109,12 @@ public class JreInjector implements Injector{
 	       }
 	       try{
 	         final Class<?> cls =
-	           Class.forName(target, true, clazz.getClassLoader());
+	           Class.forName(target, true, loaderFor(clazz));
 	         return new Provider<Object>(){
 	           @Override
 	           public Object get() {
 	             try{
-	               return cls.newInstance();
+	               return cls.getDeclaredConstructor().newInstance();
 	             }catch(Exception e){
 	               e.printStackTrace();
 	               throw new RuntimeException("Could not instantiate new instance of "+cls.getName()+" : "+target,e);
@@ -134,11 +146,17 @@ public class JreInjector implements Injector{
       //in case client code already uses ServiceLoader directly (unlikely edge case)
       String target = null;
       try{
-        //First, lookup META-INF/singletons for a replacement.
+        InjectionTable generated = table();
+        if (generated != null) {
+          Provider<Object> provider = generated.singletonProvider(clazz);
+          if (provider != null)
+            return provider;
+        }
+        //Next, lookup META-INF/singletons for a replacement.
         target = lookup(clazz, singletonUrlFragment.get(), JreInjector.this, singletonProviders);
         return
-          new ImmutableProvider<Object>(Class.forName(target, true, clazz.getClassLoader())
-          .newInstance());
+          new ImmutableProvider<Object>(Class.forName(target, true, loaderFor(clazz))
+          .getDeclaredConstructor().newInstance());
       }catch(Throwable e){
         if (singletonProviders.containsKey(clazz))
           return singletonProviders.get(clazz);
@@ -167,9 +185,21 @@ public class JreInjector implements Injector{
 		}
 	}
 
+	/**
+	 * @return The loader of the given class, or of the current thread for jdk types like Executor,
+	 * which are loaded by the bootstrap loader (null).
+	 */
+	private static ClassLoader loaderFor(Class<?> cls) {
+	  ClassLoader loader = cls.getClassLoader();
+	  if (loader == null) {
+	    loader = Thread.currentThread().getContextClassLoader();
+	  }
+	  return loader == null ? JreInjector.class.getClassLoader() : loader;
+	}
+
 	private static String lookup(Class<?> cls, String relativeUrl, JreInjector injector, InitMap<Class<?>,?> map) throws IOException {
 		String name = cls.getName();
-		ClassLoader loader = cls.getClassLoader();
+		ClassLoader loader = loaderFor(cls);
 		if (!relativeUrl.endsWith("/"))
 			relativeUrl+="/";
 		URL resource = loader.getResource(relativeUrl+name);
@@ -183,16 +213,64 @@ public class JreInjector implements Injector{
 		    return name;
 		  }
 		}
-		InputStream stream = resource.openStream();
-		byte[] into = new byte[stream.available()];
-		stream.read(into);
+		String line = firstLine(resource);
+		return line == null ? name : line;
+	}
+
+	private static String firstLine(URL resource) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openStream(), "UTF-8"));
 		try{
-			return new String(into).split("\n")[0];
+			String line = reader.readLine();
+			return line == null ? null : line.trim();
 		}finally{
-			stream.close();
+			reader.close();
 		}
 	}
 
+	/**
+	 * A generated table may be stale, or come from another artifact under the same name,
+	 * so we only trust an entry which names the same implementation as the META-INF file
+	 * for that type; that file is what carries the winning injection priority.
+	 * <p>
+	 * We check each entry once, as the table loads, so lookups never touch META-INF.
+	 */
+	private static MatchesValue<String[]> matchesMeta(final ClassLoader loader, String relativeUrl) {
+	  final String dir = relativeUrl.endsWith("/") ? relativeUrl : relativeUrl + "/";
+	  return new MatchesValue<String[]>() {
+	    @Override
+	    public boolean matches(String[] entry) {
+	      try {
+	        URL resource = loader.getResource(dir+entry[0]);
+	        return resource != null && entry[1].equals(firstLine(resource));
+	      } catch (IOException e) {
+	        return false;
+	      }
+	    }
+	  };
+	}
+
+	/**
+	 * @return the generated injection table, loaded and checked once, or null if there isn't one.
+	 */
+	private InjectionTable table() {
+	  if (!tableLoaded) {
+	    synchronized (this) {
+	      if (!tableLoaded) {
+	        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+	        InjectionTable loaded = InjectionTable.load(loader == null ? JreInjector.class.getClassLoader() : loader);
+	        if (loaded != null) {
+	          ClassLoader from = loaded.getClass().getClassLoader();
+	          loaded.retainSingletons(matchesMeta(from, singletonUrlFragment.get()));
+	          loaded.retainInstances(matchesMeta(from, instanceUrlFragment.get()));
+	        }
+	        table = loaded;
+	        tableLoaded = true;
+	      }
+	    }
+	  }
+	  return table;
+	}
+
 
 	@Override
 	@SuppressWarnings("unchecked")
@@ -244,6 +322,8 @@ public class JreInjector implements Injector{
 	          System.getProperty(PROPERTY_RUNTIME_META, "target/classes")
 	        );
 	        X_Log.info(getClass(), "Runtime injection success.");
+	        // runtime injection may have just written, or rewritten, our table
+	        tableLoaded = false;
 	      }catch (Exception e) {
 	        X_Log.warn(getClass(), "Runtime injection failure.",e);
 	      }
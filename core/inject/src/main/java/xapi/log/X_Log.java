@@ -37,7 +37,6 @@ package xapi.log;
 import javax.inject.Provider;
 
 import xapi.collect.api.Fifo;
-import xapi.collect.impl.SimpleFifo;
 import xapi.inject.X_Inject;
 import xapi.log.api.LogLevel;
 import xapi.log.api.LogService;
@@ -46,6 +45,10 @@ import xapi.log.api.LogService;
  *
  * It is a static utility class, and obeys the XApi naming convention,
  * which is to prefix exposed static services with X_
+ * <p>
+ * Every method checks the log level before it allocates anything;
+ * the overloads taking one to four arguments also avoid a varargs array,
+ * so a disabled log statement with up to four arguments costs no garbage at all.
  *
  * @author James X. Nelson (james@wetheinter.net, @james)
  *
@@ -56,6 +59,8 @@ public class X_Log {
 
   private static final Provider<LogService> singleton = X_Inject.singletonLazy(LogService.class);
 
+  private static final String
+    ERROR = "[ERROR]", WARN = "[WARN]", INFO = "[INFO]", TRACE = "[TRACE]", DEBUG = "[DEBUG]";
 
   public static LogLevel logLevel(){
     return singleton.get().getLogLevel();
@@ -67,18 +72,30 @@ public class X_Log {
     singleton.get().setLogLevel(logLevel);
   }
 
-  private static void log(LogService service, LogLevel l,String level, Object[] message){
-    LogService log = singleton.get();
+  private static Fifo<Object> start(LogService log, String level) {
     Fifo<Object> logMsg = log.newFifo();
-    logMsg.give("[" +level+"]");
-    for (Object m : message){
-      if (m instanceof Fifo) {
-        for (Object o : ((Fifo<?>)m).forEach()) {
-          logMsg.give(log.unwrap(o));
-        }
-      } else {
-        logMsg.give(log.unwrap(m));
+    logMsg.give(level);
+    return logMsg;
+  }
+
+  /**
+   * Adds one argument to a message; the log service decides how much to render now,
+   * and how much to leave until the message is written.
+   */
+  private static void give(LogService log, Fifo<Object> logMsg, Object m) {
+    if (m instanceof Fifo) {
+      for (Object o : ((Fifo<?>)m).forEach()) {
+        logMsg.give(log.unwrap(o));
       }
+    } else {
+      logMsg.give(log.unwrap(m));
+    }
+  }
+
+  private static void log(LogService log, LogLevel l, String level, Object[] message){
+    Fifo<Object> logMsg = start(log, level);
+    for (Object m : message){
+      give(log, logMsg, m);
     }
     log.doLog(l, logMsg);
   }
@@ -86,69 +103,258 @@ public class X_Log {
   public static void error(Object ... message){
     LogService service = singleton.get();
     if (service.shouldLog(LogLevel.ERROR))
-      log(service, LogLevel.ERROR,"ERROR",message);
+      log(service, LogLevel.ERROR, ERROR, message);
+  }
+  public static void error(Object m1){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.ERROR)) {
+      Fifo<Object> logMsg = start(service, ERROR);
+      give(service, logMsg, m1);
+      service.doLog(LogLevel.ERROR, logMsg);
+    }
+  }
+  public static void error(Object m1, Object m2){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.ERROR)) {
+      Fifo<Object> logMsg = start(service, ERROR);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      service.doLog(LogLevel.ERROR, logMsg);
+    }
+  }
+  public static void error(Object m1, Object m2, Object m3){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.ERROR)) {
+      Fifo<Object> logMsg = start(service, ERROR);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      give(service, logMsg, m3);
+      service.doLog(LogLevel.ERROR, logMsg);
+    }
+  }
+  public static void error(Object m1, Object m2, Object m3, Object m4){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.ERROR)) {
+      Fifo<Object> logMsg = start(service, ERROR);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      give(service, logMsg, m3);
+      give(service, logMsg, m4);
+      service.doLog(LogLevel.ERROR, logMsg);
+    }
   }
 
   public static void warn(Object ... message){
     LogService service = singleton.get();
     if (service.shouldLog(LogLevel.WARN))
-      log(service,LogLevel.WARN,"WARN",message);
+      log(service, LogLevel.WARN, WARN, message);
+  }
+  public static void warn(Object m1){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.WARN)) {
+      Fifo<Object> logMsg = start(service, WARN);
+      give(service, logMsg, m1);
+      service.doLog(LogLevel.WARN, logMsg);
+    }
+  }
+  public static void warn(Object m1, Object m2){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.WARN)) {
+      Fifo<Object> logMsg = start(service, WARN);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      service.doLog(LogLevel.WARN, logMsg);
+    }
   }
+  public static void warn(Object m1, Object m2, Object m3){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.WARN)) {
+      Fifo<Object> logMsg = start(service, WARN);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      give(service, logMsg, m3);
+      service.doLog(LogLevel.WARN, logMsg);
+    }
+  }
+  public static void warn(Object m1, Object m2, Object m3, Object m4){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.WARN)) {
+      Fifo<Object> logMsg = start(service, WARN);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      give(service, logMsg, m3);
+      give(service, logMsg, m4);
+      service.doLog(LogLevel.WARN, logMsg);
+    }
+  }
+
   public static void info(Object ... message){
     LogService service = singleton.get();
     if (service.shouldLog(LogLevel.INFO))
-      log(service,LogLevel.INFO,"INFO",message);
+      log(service, LogLevel.INFO, INFO, message);
   }
+  public static void info(Object m1){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.INFO)) {
+      Fifo<Object> logMsg = start(service, INFO);
+      give(service, logMsg, m1);
+      service.doLog(LogLevel.INFO, logMsg);
+    }
+  }
+  public static void info(Object m1, Object m2){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.INFO)) {
+      Fifo<Object> logMsg = start(service, INFO);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      service.doLog(LogLevel.INFO, logMsg);
+    }
+  }
+  public static void info(Object m1, Object m2, Object m3){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.INFO)) {
+      Fifo<Object> logMsg = start(service, INFO);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      give(service, logMsg, m3);
+      service.doLog(LogLevel.INFO, logMsg);
+    }
+  }
+  public static void info(Object m1, Object m2, Object m3, Object m4){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.INFO)) {
+      Fifo<Object> logMsg = start(service, INFO);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      give(service, logMsg, m3);
+      give(service, logMsg, m4);
+      service.doLog(LogLevel.INFO, logMsg);
+    }
+  }
+
   public static void trace(Object ... message){
     LogService service = singleton.get();
     if (service.shouldLog(LogLevel.TRACE))
-      log(service,LogLevel.TRACE,"TRACE",message);
+      log(service, LogLevel.TRACE, TRACE, message);
+  }
+  public static void trace(Object m1){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.TRACE)) {
+      Fifo<Object> logMsg = start(service, TRACE);
+      give(service, logMsg, m1);
+      service.doLog(LogLevel.TRACE, logMsg);
+    }
   }
+  public static void trace(Object m1, Object m2){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.TRACE)) {
+      Fifo<Object> logMsg = start(service, TRACE);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      service.doLog(LogLevel.TRACE, logMsg);
+    }
+  }
+  public static void trace(Object m1, Object m2, Object m3){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.TRACE)) {
+      Fifo<Object> logMsg = start(service, TRACE);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      give(service, logMsg, m3);
+      service.doLog(LogLevel.TRACE, logMsg);
+    }
+  }
+  public static void trace(Object m1, Object m2, Object m3, Object m4){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.TRACE)) {
+      Fifo<Object> logMsg = start(service, TRACE);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      give(service, logMsg, m3);
+      give(service, logMsg, m4);
+      service.doLog(LogLevel.TRACE, logMsg);
+    }
+  }
+
   public static void debug(Object ... message){
     LogService service = singleton.get();
     if (service.shouldLog(LogLevel.DEBUG))
-      log(service,LogLevel.DEBUG,"DEBUG",message);
+      log(service, LogLevel.DEBUG, DEBUG, message);
   }
+  public static void debug(Object m1){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.DEBUG)) {
+      Fifo<Object> logMsg = start(service, DEBUG);
+      give(service, logMsg, m1);
+      service.doLog(LogLevel.DEBUG, logMsg);
+    }
+  }
+  public static void debug(Object m1, Object m2){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.DEBUG)) {
+      Fifo<Object> logMsg = start(service, DEBUG);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      service.doLog(LogLevel.DEBUG, logMsg);
+    }
+  }
+  public static void debug(Object m1, Object m2, Object m3){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.DEBUG)) {
+      Fifo<Object> logMsg = start(service, DEBUG);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      give(service, logMsg, m3);
+      service.doLog(LogLevel.DEBUG, logMsg);
+    }
+  }
+  public static void debug(Object m1, Object m2, Object m3, Object m4){
+    LogService service = singleton.get();
+    if (service.shouldLog(LogLevel.DEBUG)) {
+      Fifo<Object> logMsg = start(service, DEBUG);
+      give(service, logMsg, m1);
+      give(service, logMsg, m2);
+      give(service, logMsg, m3);
+      give(service, logMsg, m4);
+      service.doLog(LogLevel.DEBUG, logMsg);
+    }
+  }
+
   public static void log(Class<?> caller, LogLevel info, Object ... objects) {
     // TODO adjust log-level based on caller class criteria
-    Object o = new SimpleFifo<Object>(objects);
-    switch(info) {
-      case ALL:
-      case DEBUG:
-        debug(caller, o);
-        return;
-      case ERROR:
-        error(caller, o);
-        return;
-      case INFO:
-        info(caller, o);
-        return;
-      case TRACE:
-        trace(caller, o);
-        return;
-      case WARN:
-        warn(caller, o);
-        return;
+    LogLevel level = info == LogLevel.ALL ? LogLevel.DEBUG : info;
+    LogService service = singleton.get();
+    if (service.shouldLog(level)) {
+      Fifo<Object> logMsg = start(service, tag(level));
+      give(service, logMsg, caller);
+      for (Object o : objects) {
+        give(service, logMsg, o);
+      }
+      service.doLog(level, logMsg);
     }
   }
   public static void log(LogLevel info, Object o) {
-    switch(info) {
-      case ALL:
-      case DEBUG:
-        debug(o);
-        return;
+    LogLevel level = info == LogLevel.ALL ? LogLevel.DEBUG : info;
+    LogService service = singleton.get();
+    if (service.shouldLog(level)) {
+      Fifo<Object> logMsg = start(service, tag(level));
+      give(service, logMsg, o);
+      service.doLog(level, logMsg);
+    }
+  }
+
+  private static String tag(LogLevel level) {
+    switch (level) {
       case ERROR:
-        error(o);
-        return;
+        return ERROR;
+      case WARN:
+        return WARN;
       case INFO:
-        info(o);
-        return;
+        return INFO;
       case TRACE:
-        trace(o);
-        return;
-      case WARN:
-        warn(o);
-        return;
+        return TRACE;
+      default:
+        return DEBUG;
     }
   }
 
@@ -0,0 +1,243 @@
+package xapi.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import xapi.log.api.LogLevel;
+
+/**
+ * Checks what {@link X_Log} prints, and measures how much garbage each log statement makes,
+ * with the thread allocation counters of the hotspot {@link java.lang.management.ThreadMXBean}.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class X_LogTest {
+
+  private static final int CALLS = 100000;
+  private static final String ARG = "arg";
+  private static final Integer NUMBER = 42;
+
+  private static final Method allocatedBytes;
+  static {
+    Method method = null;
+    try {
+      method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+      method.invoke(ManagementFactory.getThreadMXBean(), Thread.currentThread().getId());
+    } catch (Throwable e) {
+      method = null;
+    }
+    allocatedBytes = method;
+  }
+
+  private static long allocated() {
+    try {
+      return (Long)allocatedBytes.invoke(ManagementFactory.getThreadMXBean(), Thread.currentThread().getId());
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static String capture(Runnable job) {
+    PrintStream out = System.out;
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(bytes, true));
+    try {
+      job.run();
+    } finally {
+      System.setOut(out);
+    }
+    return bytes.toString();
+  }
+
+  private static PrintStream nowhere() {
+    return new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    });
+  }
+
+  @Test
+  public void testRendering() {
+    final LogLevel was = X_Log.logLevel();
+    X_Log.logLevel(LogLevel.INFO);
+    try {
+      String text = capture(new Runnable() {
+        @Override
+        public void run() {
+          X_Log.info("one", NUMBER, null);
+          X_Log.info(new Object[] {"a", "b"}, Arrays.asList(1, 2));
+          X_Log.debug("hidden");
+          X_Log.info("five", "args", "use", "varargs", "still");
+        }
+      });
+      assertEquals("[INFO]\tone\t42\tnull\t\n"
+        + "[INFO]\ta, b\t[1, 2]\t\n"
+        + "[INFO]\tfive\targs\tuse\tvarargs\tstill\t\n", text.replace("\r", ""));
+    } finally {
+      X_Log.logLevel(was);
+    }
+  }
+
+  @Test
+  public void testCallerLocation() {
+    final LogLevel was = X_Log.logLevel();
+    X_Log.logLevel(LogLevel.INFO);
+    try {
+      String text = capture(new Runnable() {
+        @Override
+        public void run() {
+          X_Log.info(getClass(), "here");
+          X_Log.info(getClass(), "and here");
+        }
+      });
+      String[] lines = text.split("\n");
+      assertTrue(text, lines[0].contains("xapi.log.X_LogTest$"));
+      assertTrue(text, lines[0].contains("X_LogTest.java:"));
+      // two call sites, two lines
+      assertTrue(text, !lines[0].split("\t")[1].equals(lines[1].split("\t")[1]));
+    } finally {
+      X_Log.logLevel(was);
+    }
+  }
+
+  /**
+   * Logs on behalf of another class, from one frame deeper in the stack.
+   */
+  private static final class Relay {
+    static void info(Class<?> cls, String message) {
+      X_Log.info(cls, message);
+    }
+  }
+
+  @Test
+  public void testCallerLocationThroughAnotherPath() {
+    final LogLevel was = X_Log.logLevel();
+    X_Log.logLevel(LogLevel.INFO);
+    final int[] lines = new int[3];
+    try {
+      String text = capture(new Runnable() {
+        @Override
+        public void run() {
+          // the first call teaches the locator how deep we are; the relay is one frame deeper,
+          // and the last call is back where we started
+          lines[0] = new Throwable().getStackTrace()[0].getLineNumber() + 1;
+          X_Log.info(getClass(), "direct");
+          lines[1] = new Throwable().getStackTrace()[0].getLineNumber() + 1;
+          Relay.info(getClass(), "relayed");
+          lines[2] = new Throwable().getStackTrace()[0].getLineNumber() + 1;
+          X_Log.info(getClass(), "direct again");
+        }
+      });
+      String[] printed = text.replace("\r", "").split("\n");
+      assertEquals(text, 3, printed.length);
+      for (int i = 0; i < 3; i++) {
+        assertTrue(text, printed[i].contains("X_LogTest.java:" + lines[i] + ")"));
+      }
+    } finally {
+      X_Log.logLevel(was);
+    }
+  }
+
+  @Test
+  public void testLoggingWhileLogging() {
+    final LogLevel was = X_Log.logLevel();
+    X_Log.logLevel(LogLevel.INFO);
+    try {
+      String text = capture(new Runnable() {
+        @Override
+        public void run() {
+          X_Log.info("outer", new Object() {
+            @Override
+            public String toString() {
+              X_Log.info("inner");
+              return "rendered";
+            }
+          });
+        }
+      });
+      assertEquals("[INFO]\tinner\t\n[INFO]\touter\trendered\t\n", text.replace("\r", ""));
+    } finally {
+      X_Log.logLevel(was);
+    }
+  }
+
+  @Test
+  public void testThrowable() {
+    final LogLevel was = X_Log.logLevel();
+    X_Log.logLevel(LogLevel.INFO);
+    try {
+      final Exception e = new IllegalStateException("oops");
+      String text = capture(new Runnable() {
+        @Override
+        public void run() {
+          X_Log.info("failed", e);
+        }
+      });
+      assertTrue(text, text.startsWith("[INFO]\tfailed\tjava.lang.IllegalStateException: oops\n"
+        + e.getStackTrace()[0] + "\n"));
+    } finally {
+      X_Log.logLevel(was);
+    }
+  }
+
+  @Test
+  public void benchmarkAllocations() {
+    if (allocatedBytes == null) {
+      X_Log.warn(getClass(), "This jvm cannot count allocations; skipping");
+      return;
+    }
+    LogLevel was = X_Log.logLevel();
+    PrintStream out = System.out;
+    System.setOut(nowhere());
+    try {
+      X_Log.logLevel(LogLevel.INFO);
+      // warm up, so the jit has done its work before we count
+      for (int i = 0; i < CALLS; i++) {
+        X_Log.debug(ARG, NUMBER, ARG);
+        X_Log.info(ARG, NUMBER, ARG);
+      }
+      long start = allocated();
+      for (int i = 0; i < CALLS; i++) {
+        X_Log.debug(ARG, NUMBER, ARG);
+      }
+      long disabled = allocated() - start;
+
+      start = allocated();
+      for (int i = 0; i < CALLS; i++) {
+        X_Log.debug(ARG, NUMBER, ARG, ARG, ARG);
+      }
+      long disabledVarargs = allocated() - start;
+
+      start = allocated();
+      for (int i = 0; i < CALLS; i++) {
+        X_Log.info(ARG, NUMBER, ARG);
+      }
+      long enabled = allocated() - start;
+
+      System.setOut(out);
+      X_Log.info(getClass(), "bytes allocated per call; disabled:", disabled / (double)CALLS,
+        "disabled varargs:", disabledVarargs / (double)CALLS, "enabled:", enabled / (double)CALLS);
+      // a few bytes of slack, for the counter itself
+      assertTrue("Disabled log statements allocated " + disabled + " bytes", disabled < 1024);
+    } finally {
+      System.setOut(out);
+      X_Log.logLevel(was);
+    }
+  }
+
+}
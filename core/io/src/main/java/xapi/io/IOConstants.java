@@ -10,6 +10,23 @@ public final class IOConstants {
   public final static int METHOD_DELETE = 4;
   public final static int METHOD_PATCH = 5;
 
+  private static final String[] METHOD_NAMES = {"GET", "HEAD", "POST", "PUT", "DELETE", "PATCH"};
+
   private IOConstants() {}
 
+  /**
+   * @return The http name of one of the METHOD_ constants, like "GET" for {@link #METHOD_GET}.
+   */
+  public static String methodName(int method) {
+    return METHOD_NAMES[method];
+  }
+
+  /**
+   * @return true if sending the request twice does no more than sending it once,
+   * so that it may be retried, or pipelined.
+   */
+  public static boolean isIdempotent(int method) {
+    return method != METHOD_POST && method != METHOD_PATCH;
+  }
+
 }
@@ -6,6 +6,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Provider;
 
@@ -20,6 +22,7 @@ import xapi.io.service.IOService;
 import xapi.log.X_Log;
 import xapi.log.api.LogLevel;
 import xapi.time.X_Time;
+import xapi.time.api.Blocking;
 import xapi.time.api.Moment;
 import xapi.util.X_Util;
 import xapi.util.api.ErrorHandler;
@@ -139,8 +142,17 @@ public class X_IO {
     successHandler.onLine(res.substring(pos));
   }
 
-  private static void start(Runnable runnable) {
-    new Thread(runnable).start();
+  /**
+   * Drains block on their stream for as long as it is open,
+   * so we mark them {@link Blocking}, and a pool behind X_Time.runLater makes room for them.
+   */
+  private static void start(final Runnable runnable) {
+    X_Time.runLater(new Blocking() {
+      @Override
+      public void run() {
+        runnable.run();
+      }
+    });
   }
 
   public static void close(InputStream in) {
@@ -149,22 +161,55 @@ public class X_IO {
     } catch (IOException ignored){ignored.printStackTrace();}
   }
 
+  /**
+   * How long {@link #isOffline()} waits for an answer before it assumes we are offline.
+   */
+  private static final long OFFLINE_TIMEOUT_MILLIS = 10000;
+
+  /**
+   * @return true if we cannot reach the internet; a request which gets no answer
+   * within {@link #OFFLINE_TIMEOUT_MILLIS} counts as offline.
+   */
   public static boolean isOffline() {
     final boolean[] failure = new boolean[]{false};
+    final CountDownLatch answered = new CountDownLatch(1);
     getIOService().get("http://google.com", null, new IOCallbackDefault<IOMessage<String>>() {
+      @Override
+      public void onSuccess(IOMessage<String> t) {
+        answered.countDown();
+      }
+
       @Override
       public void onError(Throwable e) {
-        Throwable unwrapped = X_Util.unwrap(e);
-        if (unwrapped instanceof UnknownHostException)
-          failure[0] = true;
-        else if (unwrapped instanceof SocketException)
-          failure[0] = true;
-        else {
-          e.printStackTrace();
-          X_Util.rethrow(e);
+        try {
+          Throwable unwrapped = X_Util.unwrap(e);
+          if (unwrapped instanceof UnknownHostException)
+            failure[0] = true;
+          else if (unwrapped instanceof SocketException)
+            failure[0] = true;
+          else {
+            e.printStackTrace();
+            X_Util.rethrow(e);
+          }
+        } finally {
+          answered.countDown();
         }
       }
+
+      @Override
+      public void onCancel() {
+        answered.countDown();
+      }
     });
+    try {
+      if (!answered.await(OFFLINE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        return true;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return true;
+    }
+    // the latch makes our write of failure visible here
     return failure[0];
   }
 
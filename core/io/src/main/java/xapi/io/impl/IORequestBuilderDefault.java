@@ -49,7 +49,8 @@ public class IORequestBuilderDefault <V> implements IORequestBuilder<V>{
     final IOService service = service();
 
     class IO implements IORequest<V> {
-      boolean pending = true, cancel = false;
+      // written by the io thread, read by the caller
+      volatile boolean pending = true, cancel = false;
       @Override
       public boolean isPending() {
         return pending;
@@ -81,8 +82,8 @@ public class IORequestBuilderDefault <V> implements IORequestBuilder<V>{
 
       @Override
       public void onSuccess(IOMessage<String> t) {
-        io.pending = false;
         if (io.cancel) {
+          io.pending = false;
           if (X_Runtime.isDebug()) {
             X_Log.trace("Ignoring cancelled message", t.url(), t.body());
           }
@@ -94,6 +95,8 @@ public class IORequestBuilderDefault <V> implements IORequestBuilder<V>{
         } else {
           result.set(deserializer.convert(t.body()));
         }
+        // only clear pending once the result is set, so anyone who sees it done sees the response
+        io.pending = false;
         if (handler != null)
           handler.onSuccess(result.get());
       }
@@ -4,9 +4,14 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.SocketException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map.Entry;
 
 import xapi.annotation.inject.InstanceDefault;
 import xapi.annotation.inject.SingletonDefault;
@@ -24,6 +29,7 @@ import xapi.log.X_Log;
 import xapi.util.X_Namespace;
 import xapi.util.X_Properties;
 import xapi.util.X_Runtime;
+import xapi.util.X_String;
 import xapi.util.api.ConvertsValue;
 import xapi.util.api.ReceivesValue;
 import xapi.util.api.RemovalHandler;
@@ -33,6 +39,8 @@ import static xapi.collect.X_Collect.newClassMap;
 @SingletonDefault(implFor=IOService.class)
 public class IOServiceDefault implements IOService{
 
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
   public IOServiceDefault() {
   }
 
@@ -82,19 +90,44 @@ public class IOServiceDefault implements IOService{
   @Override
   public void put(String url, byte[] body, StringDictionary<String> headers,
     IOCallback<IOMessage<String>> callback) {
-
+    send(IOConstants.METHOD_PUT, url, body, headers, callback);
   }
 
   @Override
   public void get(String uri, final StringDictionary<String> headers, IOCallback<IOMessage<String>> callback) {
+    send(IOConstants.METHOD_GET, uri, null, headers, callback);
+  }
+
+  @Override
+  public void post(String url, String body, StringDictionary<String> headers,
+    IOCallback<IOMessage<String>> callback) {
+    send(IOConstants.METHOD_POST, url, body == null ? null : body.getBytes(UTF8), headers, callback);
+  }
+
+  @Override
+  public void delete(String url, StringDictionary<String> headers, IOCallback<IOMessage<String>> callback) {
+    send(IOConstants.METHOD_DELETE, url, null, headers, callback);
+  }
+
+  /**
+   * Sends a request through a blocking {@link URLConnection}, on the calling thread.
+   *
+   * @param modifier - The http method; see {@link IOConstants#METHOD_GET} and friends.
+   * @param body - The bytes to send, or null for none.
+   */
+  protected void send(final int modifier, String uri, byte[] body, final StringDictionary<String> headers,
+    IOCallback<IOMessage<String>> callback) {
     final String url = normalize(uri);
     if (callback.isCancelled())
       return;
     try {
       URL asUrl = new URL(url);
       final URLConnection connect = asUrl.openConnection();
+      if (connect instanceof HttpURLConnection) {
+        ((HttpURLConnection)connect).setRequestMethod(IOConstants.methodName(modifier));
+      }
       connect.setDoInput(true);
-      connect.setDoOutput(false);
+      connect.setDoOutput(body != null);
       if (headers != null)
       headers.forKeys(new ReceivesValue<String>() {
         @Override
@@ -103,10 +136,18 @@ public class IOServiceDefault implements IOService{
           connect.setRequestProperty(key, value);
         }
       });
-      applySettings(connect, IOConstants.METHOD_GET);
+      applySettings(connect, modifier);
+      if (body != null) {
+        OutputStream out = connect.getOutputStream();
+        try {
+          out.write(body);
+        } finally {
+          out.close();
+        }
+      }
       InputStream in;
       String res;
-      
+
       try {
         in = connect.getInputStream();
         try {
@@ -123,6 +164,13 @@ public class IOServiceDefault implements IOService{
         }
       }
       final String result = res;
+      final StringDictionary<String> responseHeaders = X_Collect.newStringDictionary();
+      for (Entry<String, List<String>> header : connect.getHeaderFields().entrySet()) {
+        // the status line comes back under a null key
+        if (header.getKey() != null) {
+          responseHeaders.setValue(header.getKey(), X_String.join(", ", header.getValue().toArray(new String[0])));
+        }
+      }
 
       callback.onSuccess(new IOMessage<String>() {
         @Override
@@ -132,7 +180,7 @@ public class IOServiceDefault implements IOService{
 
         @Override
         public int modifier() {
-          return IOConstants.METHOD_GET;
+          return modifier;
         }
 
         @Override
@@ -140,15 +188,9 @@ public class IOServiceDefault implements IOService{
           return url;
         }
 
-        StringDictionary<String> headers;
-
         @Override
         public StringDictionary<String> headers() {
-          if (headers == null) {
-            headers = X_Collect.newStringDictionary();
-//            connect.getHeaderFields();
-          }
-          return headers;
+          return responseHeaders;
         }
       });
     } catch (Throwable e) {
@@ -202,7 +244,7 @@ public class IOServiceDefault implements IOService{
 
   protected String normalize(String uri) {
     if (uri.charAt(0) == '/') {
-      uri = uriBase();
+      uri = uriBase() + uri;
     }
     if (!uri.contains("://"))
       uri = "http://"+uri;
@@ -213,15 +255,4 @@ public class IOServiceDefault implements IOService{
     return id;
   }
 
-  @Override
-  public void post(String url, String body, StringDictionary<String> headers,
-    IOCallback<IOMessage<String>> callback) {
-
-  }
-
-  @Override
-  public void delete(String url, StringDictionary<String> headers, IOCallback<IOMessage<String>> callback) {
-
-  }
-
 }
@@ -34,8 +34,6 @@
  */
 package xapi.log.impl;
 
-import java.util.Iterator;
-
 import xapi.collect.api.Fifo;
 import xapi.collect.impl.SimpleFifo;
 import xapi.log.api.LogLevel;
@@ -65,33 +63,65 @@ public abstract class AbstractLog implements LogService {
   }
 
   @Override
-  @SuppressWarnings({"rawtypes", "unchecked"})
 	public Object unwrap(Object m) {
 		// unwrap throwables and log strack trace elements
-		if (m instanceof Throwable) {
-			StackTraceElement[] trace = ((Throwable) m).getStackTrace();
-			String serialized = m + "\n";
-			if (trace != null)
-				for (StackTraceElement el : trace)
-					serialized += String.valueOf(el)+"\n";
-			return serialized;
-		} else if (m != null && m.getClass().isArray()) {
-		  return new SimpleFifo<Object>((Object[])m).join(", ");
-		} else if (m instanceof Iterable) {
-		  Iterator iter = ((Iterable)m).iterator();
-		  SimpleFifo fifo = new SimpleFifo();
-		  while(iter.hasNext())
-		    fifo.give(String.valueOf(iter.next()));
-		  return "["+fifo.join(", ")+"]";
-		} else if (m instanceof Fifo) {
-		  return "{"+((Fifo)m).join(", ")+"}";
+		if (m instanceof Throwable || m instanceof Iterable || m instanceof Fifo
+		    || (m != null && m.getClass().isArray())) {
+		  StringBuilder b = new StringBuilder();
+		  render(b, m);
+		  return b.toString();
 		}
 		return m == null ? "null" : m;
 	}
 
+	/**
+	 * Appends what {@link #unwrap(Object)} would return straight onto the buffer,
+	 * without building any intermediate strings.
+	 */
+	@SuppressWarnings("rawtypes")
+	protected void render(StringBuilder b, Object m) {
+	  if (m instanceof Throwable) {
+	    StackTraceElement[] trace = ((Throwable) m).getStackTrace();
+	    b.append(m).append('\n');
+	    if (trace != null)
+	      for (StackTraceElement el : trace)
+	        b.append(el).append('\n');
+	  } else if (m instanceof Object[]) {
+	    join(b, (Object[])m);
+	  } else if (m != null && m.getClass().isArray()) {
+	    // primitive arrays cannot be joined without reflection
+	    b.append(m);
+	  } else if (m instanceof Iterable) {
+	    b.append('[');
+	    boolean first = true;
+	    for (Object item : (Iterable)m) {
+	      if (!first)
+	        b.append(", ");
+	      first = false;
+	      b.append(item);
+	    }
+	    b.append(']');
+	  } else if (m instanceof Fifo) {
+	    b.append('{').append(((Fifo)m).join(", ")).append('}');
+	  } else {
+	    b.append(m == null ? "null" : m);
+	  }
+	}
+
+	private static void join(StringBuilder b, Object[] items) {
+	  for (int i = 0; i < items.length; i++) {
+	    // a null item ends the list, as it did when arrays were joined through a SimpleFifo
+	    if (items[i] == null)
+	      return;
+	    if (i > 0)
+	      b.append(", ");
+	    b.append(items[i]);
+	  }
+	}
+
 	protected void writeLog(StringBuilder b, Object object) {
 		// TODO: inspect w/ conditional reflection
-		b.append(unwrap(object));
+		render(b, object);
 		b.append("\t");
 	}
 
@@ -0,0 +1,432 @@
+package xapi.log.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import xapi.collect.api.Fifo;
+import xapi.log.api.LogLevel;
+import xapi.util.X_Namespace;
+
+/**
+ * Writes log entries from a single background thread, so that logging threads never wait on the console.
+ * <p>
+ * Entries go into a ring of reusable events: a logging thread claims the next event with a compare-and-set,
+ * renders its message into the event's own buffer, then publishes it.
+ * The writer thread takes every published event in one batch, writes them all to the console
+ * (one print per stream per batch) or to a {@link FileChannel}, then frees the events for reuse,
+ * and flushes after every batch, or at most every {@link X_Namespace#PROPERTY_LOG_FLUSH} milliseconds.
+ * <p>
+ * When the ring is full, the {@link Overflow} strategy decides whether loggers wait, or lose entries;
+ * a count of lost entries is written as soon as there is room.
+ * {@link #close()}, which also runs on jvm shutdown, writes and flushes everything already logged.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class AsyncLogAppender implements LogAppender {
+
+  public static enum Overflow {
+    /** Loggers wait for the writer to make room; nothing is lost. */
+    BLOCK,
+    /** Entries which do not fit are lost. */
+    DROP,
+    /**
+     * Once the ring is three quarters full, only one in {@link AsyncLogAppender#SAMPLE_RATE}
+     * entries below {@link LogLevel#ERROR} is kept; entries which do not fit are lost.
+     */
+    SAMPLE
+  }
+
+  public static final int DEFAULT_CAPACITY = 8192;
+  public static final int SAMPLE_RATE = 16;
+
+  private static final int INITIAL_TEXT = 128;
+  /** An event whose buffer grew past this (say, for a stack trace) gets a fresh one once written. */
+  private static final int MAX_RETAINED_TEXT = 16 * 1024;
+  private static final int MAX_BATCH = 1024;
+  /** Flush a file early, once this many chars are waiting, whatever the flush policy. */
+  private static final int MAX_PENDING = 64 * 1024;
+  private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final int SPIN_ROUNDS = 50;
+  /** Set on {@link #claimed} by {@link #close()}; no sequence can be claimed after it. */
+  private static final long SEALED = Long.MIN_VALUE;
+  /** Returned by {@link #claim(LogLevel)} once the appender is closing. */
+  private static final long REJECTED = -2;
+
+  private static final class Event {
+    LogLevel level;
+    StringBuilder text = new StringBuilder(INITIAL_TEXT);
+  }
+
+  private final AbstractLog formatter;
+  private final Event[] events;
+  private final int mask;
+  /** published[i] is the sequence of the event now in slot i; -1 until the first one. */
+  private final AtomicLongArray published;
+  /** The next sequence a logger will claim; {@link #SEALED} once closing. */
+  private final AtomicLong claimed = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicInteger sampler = new AtomicInteger();
+  private final Overflow overflow;
+  private final long flushNanos;
+  private final FileChannel channel;
+  private final Thread writer;
+  private final Thread shutdownHook;
+
+  /** Every sequence before this is written, and its slot free. */
+  private volatile long consumed;
+  /** Every sequence before this is flushed. */
+  private volatile long flushed;
+  private volatile boolean writerWaiting;
+  private volatile boolean flushRequested;
+  private volatile boolean closing;
+  private volatile boolean closed;
+
+  // only touched by the writer thread
+  private final StringBuilder pending = new StringBuilder();
+  private final StringBuilder pendingErrors = new StringBuilder();
+  private CharsetEncoder encoder;
+  private ByteBuffer bytes;
+  private long lastFlush = System.nanoTime();
+
+  /**
+   * @param formatter - The log which renders each part of a message.
+   * @param capacity - How many entries may wait for the writer; rounded up to a power of two.
+   * @param overflow - What to do when that many entries are waiting.
+   * @param flushMillis - How long written entries may wait to be flushed; 0 to flush after every batch.
+   * @param channel - Where to write entries; null to print them to System.out and System.err.
+   */
+  public AsyncLogAppender(AbstractLog formatter, int capacity, Overflow overflow, int flushMillis,
+    FileChannel channel) {
+    this.formatter = formatter;
+    int size = 2;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    events = new Event[size];
+    published = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      events[i] = new Event();
+      published.set(i, -1);
+    }
+    mask = size - 1;
+    this.overflow = overflow == null ? Overflow.BLOCK : overflow;
+    this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushMillis));
+    this.channel = channel;
+    if (channel != null) {
+      encoder = Charset.forName("UTF-8").newEncoder();
+      bytes = ByteBuffer.allocateDirect(MAX_PENDING);
+    }
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        write();
+      }
+    }, "xapi-log-writer");
+    writer.setDaemon(true);
+    writer.start();
+    shutdownHook = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        close();
+      }
+    }, "xapi-log-shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /**
+   * Builds an appender from the {@link X_Namespace#PROPERTY_LOG_BUFFER}, {@link X_Namespace#PROPERTY_LOG_OVERFLOW},
+   * {@link X_Namespace#PROPERTY_LOG_FLUSH} and {@link X_Namespace#PROPERTY_LOG_FILE} system properties.
+   */
+  public static AsyncLogAppender fromProperties(AbstractLog formatter) {
+    int capacity = Integer.parseInt(System.getProperty(X_Namespace.PROPERTY_LOG_BUFFER,
+      Integer.toString(DEFAULT_CAPACITY)).trim());
+    Overflow overflow = Overflow.valueOf(System.getProperty(X_Namespace.PROPERTY_LOG_OVERFLOW,
+      Overflow.BLOCK.name()).trim().toUpperCase());
+    int flushMillis = Integer.parseInt(System.getProperty(X_Namespace.PROPERTY_LOG_FLUSH, "0").trim());
+    String file = System.getProperty(X_Namespace.PROPERTY_LOG_FILE);
+    FileChannel channel = null;
+    if (file != null) {
+      try {
+        channel = new FileOutputStream(new File(file), true).getChannel();
+      } catch (IOException e) {
+        System.err.println("Unable to open log file " + file + "; logging to the console instead: " + e);
+      }
+    }
+    return new AsyncLogAppender(formatter, capacity, overflow, flushMillis, channel);
+  }
+
+  /**
+   * Renders the message into the next free event, and hands it to the writer.
+   *
+   * @return false if the appender is closed, or called from the writer thread itself,
+   * in which case the caller should print the message itself.
+   */
+  @Override
+  public boolean append(LogLevel level, Fifo<Object> message) {
+    if (closed || Thread.currentThread() == writer) {
+      return false;
+    }
+    long sequence = claim(level);
+    if (sequence == REJECTED) {
+      return false;
+    }
+    if (sequence < 0) {
+      return true;
+    }
+    int index = (int)sequence & mask;
+    Event event = events[index];
+    event.level = level;
+    StringBuilder text = event.text;
+    text.setLength(0);
+    try {
+      while (!message.isEmpty()) {
+        formatter.writeLog(text, message.take());
+      }
+    } finally {
+      // a claimed event must always be published, or the writer would wait for it forever
+      published.set(index, sequence);
+    }
+    if (writerWaiting) {
+      LockSupport.unpark(writer);
+    }
+    return true;
+  }
+
+  /**
+   * @return The sequence of the claimed event, -1 if this entry is lost,
+   * or {@link #REJECTED} if the appender is closing.
+   */
+  private long claim(LogLevel level) {
+    for (int round = 0;; round++) {
+      long sequence = claimed.get();
+      if (sequence < 0) {
+        return REJECTED;
+      }
+      long used = sequence - consumed;
+      if (used >= events.length) {
+        if (overflow == Overflow.BLOCK && !closing) {
+          idle(round);
+          continue;
+        }
+        dropped.incrementAndGet();
+        return -1;
+      }
+      if (overflow == Overflow.SAMPLE && used >= events.length - (events.length >> 2)
+          && level != LogLevel.ERROR && sampler.incrementAndGet() % SAMPLE_RATE != 0) {
+        dropped.incrementAndGet();
+        return -1;
+      }
+      if (claimed.compareAndSet(sequence, sequence + 1)) {
+        return sequence;
+      }
+    }
+  }
+
+  private static void idle(int round) {
+    if (round < SPIN_ROUNDS) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+  }
+
+  /**
+   * Waits until everything logged before this call is written and flushed.
+   *
+   * @return false if the writer did not manage it within the time given.
+   */
+  @Override
+  public boolean flush(long timeoutMillis) {
+    long target = claimed.get() & ~SEALED;
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    for (int round = 0; flushed < target; round++) {
+      if (!writer.isAlive() || System.nanoTime() > deadline) {
+        return flushed >= target;
+      }
+      flushRequested = true;
+      LockSupport.unpark(writer);
+      idle(round);
+    }
+    return true;
+  }
+
+  /**
+   * Writes and flushes everything already logged, then stops the writer;
+   * later entries are left for the caller to print.
+   */
+  @Override
+  public void close() {
+    if (closing) {
+      return;
+    }
+    // seal the sequence first, so no logger can claim an event the writer would never see
+    for (long sequence = claimed.get(); sequence >= 0; sequence = claimed.get()) {
+      if (claimed.compareAndSet(sequence, sequence | SEALED)) {
+        break;
+      }
+    }
+    closing = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    closed = true;
+    if (Thread.currentThread() != shutdownHook) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException ignored) {
+        // already shutting down
+      }
+    }
+  }
+
+  /**
+   * @return How many entries were lost to a full ring, and not yet reported.
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  public Overflow getOverflow() {
+    return overflow;
+  }
+
+  private void write() {
+    long next = consumed;
+    int idle = 0;
+    try {
+      while (true) {
+        long end = next;
+        while (end - next < MAX_BATCH && published.get((int)end & mask) == end) {
+          end++;
+        }
+        if (end == next) {
+          // claimed is sealed before closing is set, so nothing can be claimed after this
+          if (closing && (claimed.get() & ~SEALED) == next) {
+            break;
+          }
+          if (flushRequested || (flushNanos > 0 && System.nanoTime() - lastFlush >= flushNanos)) {
+            flushRequested = false;
+            flushThrough(next);
+          }
+          waitForEvents(next, idle++);
+          continue;
+        }
+        idle = 0;
+        for (long sequence = next; sequence < end; sequence++) {
+          Event event = events[(int)sequence & mask];
+          print(event.level, event.text);
+          if (event.text.length() > MAX_RETAINED_TEXT) {
+            event.text = new StringBuilder(INITIAL_TEXT);
+          }
+        }
+        next = end;
+        consumed = next;
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+          print(LogLevel.WARN, new StringBuilder("[WARN]\t").append(getClass().getName())
+            .append("\tlog buffer was full; lost ").append(lost).append(" entries\t"));
+        }
+        if (flushNanos == 0 || flushRequested || System.nanoTime() - lastFlush >= flushNanos
+            || pending.length() > MAX_PENDING) {
+          flushRequested = false;
+          flushThrough(next);
+        }
+      }
+      flushThrough(next);
+    } catch (Throwable e) {
+      // fall back to printing on the logging threads, rather than losing everything
+      closed = true;
+      System.err.println("Asynchronous log writer failed; logging synchronously from now on");
+      e.printStackTrace();
+    } finally {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+
+  private void waitForEvents(long next, int round) {
+    if (round < SPIN_ROUNDS) {
+      Thread.yield();
+      return;
+    }
+    writerWaiting = true;
+    // look again now that loggers can see we are waiting, so we never miss an unpark
+    if (published.get((int)next & mask) != next && !closing && !flushRequested) {
+      long wait = MAX_IDLE_NANOS;
+      if (flushNanos > 0 && flushed < next) {
+        wait = Math.min(wait, Math.max(1, flushNanos - (System.nanoTime() - lastFlush)));
+      }
+      LockSupport.parkNanos(this, wait);
+    }
+    writerWaiting = false;
+  }
+
+  private void print(LogLevel level, StringBuilder text) {
+    if (channel != null || level != LogLevel.ERROR) {
+      if (channel == null && pendingErrors.length() > 0) {
+        // keep the order of entries across the two streams
+        printTo(System.err, pendingErrors);
+      }
+      pending.append(text).append('\n');
+    } else {
+      if (pending.length() > 0) {
+        printTo(System.out, pending);
+      }
+      pendingErrors.append(text).append('\n');
+    }
+  }
+
+  private void flushThrough(long through) throws IOException {
+    if (channel == null) {
+      printTo(System.out, pending);
+      printTo(System.err, pendingErrors);
+    } else if (pending.length() > 0) {
+      CharBuffer chars = CharBuffer.wrap(pending);
+      encoder.reset();
+      while (true) {
+        CoderResult result = encoder.encode(chars, bytes, true);
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+          channel.write(bytes);
+        }
+        bytes.clear();
+        if (result.isUnderflow()) {
+          break;
+        }
+      }
+      pending.setLength(0);
+    }
+    lastFlush = System.nanoTime();
+    flushed = through;
+  }
+
+  private static void printTo(PrintStream out, StringBuilder text) {
+    if (text.length() > 0) {
+      out.print(text);
+      out.flush();
+      text.setLength(0);
+    }
+  }
+
+}
@@ -0,0 +1,527 @@
+package xapi.log.impl;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import xapi.collect.api.Fifo;
+import xapi.log.api.LogLevel;
+import xapi.util.X_Namespace;
+
+/**
+ * Writes log entries as compact binary records, rather than text, into rolling, memory-mapped segment files,
+ * so that even trace logging can stay on; {@link BinaryLogDecoder} renders the segments back into text.
+ * <p>
+ * Numbers, booleans and chars are written as they are, without being rendered at all.
+ * A string which is logged twice as the same instance - a string literal, a log level tag,
+ * or the cached call site which {@link CallerLocator} finds for a class - is written once per segment,
+ * and after that only by its id. Anything else is rendered, as {@link JreLog} would print it, and written as UTF-8.
+ * Each record carries the microseconds since the record before it, and its {@link LogLevel}.
+ * <p>
+ * A segment holds at most {@link X_Namespace#PROPERTY_LOG_SEGMENT_SIZE} bytes and can be read on its own;
+ * once it is full, the next is started, and only the newest {@link X_Namespace#PROPERTY_LOG_SEGMENTS} are kept.
+ * Records are in the file as soon as they are appended, even if this jvm dies; {@link #flush(long)} also forces
+ * them to disk.
+ * <p>
+ * The format of a segment is a header of the {@link #MAGIC} int, the {@link #VERSION} byte and the epoch millis
+ * at which the segment started, followed by records, each starting with a tag byte:
+ * <ul>
+ * <li>{@link #DEFINE} - the varint id and varint length of an interned string, then its UTF-8 bytes.</li>
+ * <li>{@link #ENTRY} - the level ordinal byte, the varint micros since the last record, a varint count of parts,
+ * then each part, as a type byte followed by its value.</li>
+ * <li>{@link #END} - nothing more is written in this segment.</li>
+ * </ul>
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class BinaryLogAppender implements LogAppender {
+
+  public static final int MAGIC = 0x584c4f47; // XLOG
+  public static final byte VERSION = 1;
+  public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+  public static final int DEFAULT_SEGMENTS = 16;
+  public static final int MIN_SEGMENT_SIZE = 4 * 1024;
+  public static final String PREFIX = "xapi-log-";
+  public static final String SUFFIX = ".xlog";
+
+  static final int HEADER_SIZE = 4 + 1 + 8;
+
+  // record tags
+  static final byte END = 0;
+  static final byte DEFINE = 1;
+  static final byte ENTRY = 2;
+
+  // part types
+  static final byte NULL = 0;
+  static final byte TRUE = 1;
+  static final byte FALSE = 2;
+  static final byte INTEGER = 3;
+  static final byte FLOAT = 4;
+  static final byte DOUBLE = 5;
+  static final byte CHAR = 6;
+  static final byte STRING = 7;
+  static final byte INTERNED = 8;
+
+  private static final int MAX_INTERNED = 16 * 1024;
+  /** How many strings we remember seeing once; we forget them all when there are more. */
+  private static final int MAX_SEEN = 4096;
+  private static final int INITIAL_TEXT = 128;
+  private static final int MAX_RETAINED_TEXT = 16 * 1024;
+
+  /**
+   * What each thread collects the parts of one message in, before taking the lock.
+   */
+  private static final class Parts {
+    Object[] items = new Object[8];
+    int size;
+    StringBuilder text = new StringBuilder(INITIAL_TEXT);
+    boolean inUse;
+
+    void add(Object item) {
+      if (size == items.length) {
+        items = Arrays.copyOf(items, size * 2);
+      }
+      items[size++] = item;
+    }
+
+    void clear() {
+      Arrays.fill(items, 0, size, null);
+      size = 0;
+      if (text.capacity() > MAX_RETAINED_TEXT) {
+        text = new StringBuilder(INITIAL_TEXT);
+      }
+    }
+  }
+
+  private final ThreadLocal<Parts> parts = new ThreadLocal<Parts>() {
+    @Override
+    protected Parts initialValue() {
+      return new Parts();
+    }
+  };
+
+  private final AbstractLog formatter;
+  private final File directory;
+  private final int segmentSize;
+  private final int maxSegments;
+  /** The most chars of one string a record will hold, so that any entry fits in a segment. */
+  private final int maxText;
+  private final Thread shutdownHook;
+
+  // guarded by this
+  private final IdentityHashMap<Object, Integer> interned = new IdentityHashMap<Object, Integer>();
+  private final ArrayList<Object> definitions = new ArrayList<Object>();
+  private final IdentityHashMap<Object, Object> seen = new IdentityHashMap<Object, Object>();
+  private RandomAccessFile file;
+  private MappedByteBuffer buffer;
+  private long segment;
+  private long startNanos;
+  private long lastMicros;
+  private long dropped;
+  private volatile boolean closed;
+
+  /**
+   * @param formatter - The log which renders any part of a message we cannot write as it is.
+   * @param directory - Where to write segments; created if need be.
+   * New segments are numbered after any which are already there.
+   * @param segmentSize - How many bytes each segment holds; at least {@link #MIN_SEGMENT_SIZE}.
+   * @param maxSegments - How many segments to keep, counting any already there; the oldest are deleted.
+   * @throws IOException if the first segment cannot be created.
+   */
+  public BinaryLogAppender(AbstractLog formatter, File directory, int segmentSize, int maxSegments)
+    throws IOException {
+    this.formatter = formatter;
+    this.directory = directory;
+    this.segmentSize = Math.max(MIN_SEGMENT_SIZE, segmentSize);
+    this.maxSegments = Math.max(1, maxSegments);
+    // a char takes at most three bytes; leave room for the rest of the record
+    maxText = (this.segmentSize - HEADER_SIZE) / 8;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create log directory " + directory);
+    }
+    File[] existing = segments(directory);
+    if (existing.length > 0) {
+      segment = segmentNumber(existing[existing.length - 1]);
+    }
+    synchronized (this) {
+      if (!roll()) {
+        throw new IOException("Unable to create a binary log segment in " + directory);
+      }
+    }
+    shutdownHook = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        close();
+      }
+    }, "xapi-log-shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /**
+   * Builds an appender into the {@link X_Namespace#PROPERTY_LOG_BINARY} directory, from the
+   * {@link X_Namespace#PROPERTY_LOG_SEGMENT_SIZE} and {@link X_Namespace#PROPERTY_LOG_SEGMENTS} system properties.
+   *
+   * @return null if the directory is unset, or no segment could be created there.
+   */
+  public static BinaryLogAppender fromProperties(AbstractLog formatter) {
+    String dir = System.getProperty(X_Namespace.PROPERTY_LOG_BINARY);
+    if (dir == null) {
+      return null;
+    }
+    int segmentSize = Integer.parseInt(System.getProperty(X_Namespace.PROPERTY_LOG_SEGMENT_SIZE,
+      Integer.toString(DEFAULT_SEGMENT_SIZE)).trim());
+    int maxSegments = Integer.parseInt(System.getProperty(X_Namespace.PROPERTY_LOG_SEGMENTS,
+      Integer.toString(DEFAULT_SEGMENTS)).trim());
+    try {
+      return new BinaryLogAppender(formatter, new File(dir.trim()), segmentSize, maxSegments);
+    } catch (IOException e) {
+      System.err.println("Unable to open binary log in " + dir + "; logging text instead: " + e);
+      return null;
+    }
+  }
+
+  /**
+   * @return The segment files in the given directory, oldest first.
+   */
+  public static File[] segments(File directory) {
+    File[] files = directory.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        String name = file.getName();
+        return file.isFile() && name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+      }
+    });
+    if (files == null) {
+      return new File[0];
+    }
+    // names are zero padded, so they sort by number
+    Arrays.sort(files);
+    return files;
+  }
+
+  private static long segmentNumber(File file) {
+    String name = file.getName();
+    try {
+      return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Writes the message into the current segment.
+   * Every part is resolved before we take the lock, so a toString() which logs will not deadlock, or interleave.
+   *
+   * @return false if the appender is closed, in which case the caller should print the message itself.
+   */
+  @Override
+  public boolean append(LogLevel level, Fifo<Object> message) {
+    if (closed) {
+      return false;
+    }
+    Parts parts = this.parts.get();
+    if (parts.inUse) {
+      // logged from a toString() of a part of another message
+      parts = new Parts();
+    }
+    parts.inUse = true;
+    try {
+      while (!message.isEmpty()) {
+        parts.add(resolve(message.take(), parts.text));
+      }
+      return write(level, parts);
+    } finally {
+      parts.clear();
+      parts.inUse = false;
+    }
+  }
+
+  /**
+   * @return The part, if we can write it as it is, or the text it renders to.
+   */
+  private Object resolve(Object part, StringBuilder text) {
+    if (part == null || part instanceof String || part instanceof Integer || part instanceof Long
+      || part instanceof Boolean || part instanceof Double || part instanceof Float || part instanceof Character
+      || part instanceof Short || part instanceof Byte) {
+      return part;
+    }
+    if (part instanceof Class) {
+      // the call site text is cached, so it is the same instance each time, and gets interned
+      return CallerLocator.locate((Class<?>)part);
+    }
+    text.setLength(0);
+    formatter.render(text, part);
+    return text.toString();
+  }
+
+  private synchronized boolean write(LogLevel level, Parts parts) {
+    if (closed) {
+      return false;
+    }
+    for (int attempt = 0; attempt < 2; attempt++) {
+      int start = buffer.position();
+      int defined = definitions.size();
+      long micros = lastMicros;
+      try {
+        encode(level, parts);
+        return true;
+      } catch (BufferOverflowException full) {
+        // forget what this record defined, and mark where the segment ends
+        while (definitions.size() > defined) {
+          interned.remove(definitions.remove(definitions.size() - 1));
+        }
+        lastMicros = micros;
+        buffer.position(start);
+        if (start < buffer.limit()) {
+          // a segment filled to the last byte needs no marker; the decoder stops at its end anyway
+          buffer.put(start, END);
+        }
+        if (attempt == 0 && !roll()) {
+          return false;
+        }
+      }
+    }
+    // too big for even an empty segment; the string truncation makes this all but impossible
+    dropped++;
+    return true;
+  }
+
+  private void encode(LogLevel level, Parts parts) {
+    // define any strings this record interns before the record itself
+    for (int i = 0; i < parts.size; i++) {
+      Object part = parts.items[i];
+      if (part instanceof String && !interned.containsKey(part) && shouldIntern(part)) {
+        String text = (String)part;
+        int id = definitions.size();
+        interned.put(text, id);
+        definitions.add(text);
+        buffer.put(DEFINE);
+        putVarint(id);
+        putString(text);
+      }
+    }
+    long micros = Math.max(lastMicros, (System.nanoTime() - startNanos) / 1000);
+    buffer.put(ENTRY);
+    buffer.put((byte)level.ordinal());
+    putVarint(micros - lastMicros);
+    lastMicros = micros;
+    putVarint(parts.size);
+    for (int i = 0; i < parts.size; i++) {
+      putPart(parts.items[i]);
+    }
+  }
+
+  /**
+   * A string is interned the second time we see the same instance of it.
+   */
+  private boolean shouldIntern(Object text) {
+    if (definitions.size() >= MAX_INTERNED) {
+      return false;
+    }
+    if (seen.remove(text) != null) {
+      return true;
+    }
+    if (seen.size() >= MAX_SEEN) {
+      seen.clear();
+    }
+    seen.put(text, text);
+    return false;
+  }
+
+  private void putPart(Object part) {
+    if (part == null) {
+      buffer.put(NULL);
+    } else if (part instanceof String) {
+      Integer id = interned.get(part);
+      if (id == null) {
+        buffer.put(STRING);
+        putString((String)part);
+      } else {
+        buffer.put(INTERNED);
+        putVarint(id);
+      }
+    } else if (part instanceof Boolean) {
+      buffer.put((Boolean)part ? TRUE : FALSE);
+    } else if (part instanceof Double) {
+      buffer.put(DOUBLE);
+      buffer.putDouble((Double)part);
+    } else if (part instanceof Float) {
+      buffer.put(FLOAT);
+      buffer.putFloat((Float)part);
+    } else if (part instanceof Character) {
+      buffer.put(CHAR);
+      putVarint((Character)part);
+    } else {
+      long value = ((Number)part).longValue();
+      buffer.put(INTEGER);
+      putVarint((value << 1) ^ (value >> 63));
+    }
+  }
+
+  private void putVarint(long value) {
+    while ((value & ~0x7fL) != 0) {
+      buffer.put((byte)((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte)value);
+  }
+
+  /**
+   * Writes the UTF-8 length and bytes of at most {@link #maxText} chars of the string, without copying it.
+   */
+  private void putString(String text) {
+    int length = Math.min(text.length(), maxText);
+    int bytes = 0;
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        bytes++;
+      } else if (c < 0x800) {
+        bytes += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+        bytes += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        bytes++;
+      } else {
+        bytes += 3;
+      }
+    }
+    putVarint(bytes);
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        buffer.put((byte)c);
+      } else if (c < 0x800) {
+        buffer.put((byte)(0xc0 | c >> 6));
+        buffer.put((byte)(0x80 | c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+        int point = Character.toCodePoint(c, text.charAt(++i));
+        buffer.put((byte)(0xf0 | point >> 18));
+        buffer.put((byte)(0x80 | point >> 12 & 0x3f));
+        buffer.put((byte)(0x80 | point >> 6 & 0x3f));
+        buffer.put((byte)(0x80 | point & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        // half a pair; just as String.getBytes would
+        buffer.put((byte)'?');
+      } else {
+        buffer.put((byte)(0xe0 | c >> 12));
+        buffer.put((byte)(0x80 | c >> 6 & 0x3f));
+        buffer.put((byte)(0x80 | c & 0x3f));
+      }
+    }
+  }
+
+  /**
+   * Finishes the current segment, if any, and starts the next.
+   *
+   * @return false if it could not be created, in which case we close, and leave logging to the caller.
+   */
+  private boolean roll() {
+    finishSegment();
+    File next = new File(directory, String.format("%s%010d%s", PREFIX, ++segment, SUFFIX));
+    try {
+      file = new RandomAccessFile(next, "rw");
+      buffer = file.getChannel().map(MapMode.READ_WRITE, 0, segmentSize);
+    } catch (IOException e) {
+      System.err.println("Unable to create binary log segment " + next + "; logging text instead: " + e);
+      closeFile();
+      closed = true;
+      return false;
+    }
+    interned.clear();
+    definitions.clear();
+    seen.clear();
+    lastMicros = 0;
+    startNanos = System.nanoTime();
+    buffer.putInt(MAGIC);
+    buffer.put(VERSION);
+    buffer.putLong(System.currentTimeMillis());
+    File[] all = segments(directory);
+    for (int i = 0; i < all.length - maxSegments; i++) {
+      if (!all[i].delete()) {
+        System.err.println("Unable to delete old binary log segment " + all[i]);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Forces the segment to disk, and trims the file to what we wrote.
+   */
+  private void finishSegment() {
+    if (buffer == null) {
+      return;
+    }
+    buffer.force();
+    try {
+      // fails on platforms which cannot shrink a mapped file, which only costs some disk
+      file.setLength(buffer.position());
+    } catch (IOException ignored) {
+    }
+    buffer = null;
+    closeFile();
+  }
+
+  private void closeFile() {
+    if (file != null) {
+      try {
+        file.close();
+      } catch (IOException ignored) {
+      }
+      file = null;
+    }
+  }
+
+  /**
+   * Forces everything appended so far to disk.
+   */
+  @Override
+  public synchronized boolean flush(long timeoutMillis) {
+    if (buffer != null) {
+      buffer.force();
+    }
+    return true;
+  }
+
+  /**
+   * Finishes the current segment; later entries are left for the caller to print.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      finishSegment();
+    }
+    if (Thread.currentThread() != shutdownHook) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException ignored) {
+        // already shutting down
+      }
+    }
+  }
+
+  /**
+   * @return How many entries were too big to write.
+   */
+  public synchronized long getDropped() {
+    return dropped;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+}
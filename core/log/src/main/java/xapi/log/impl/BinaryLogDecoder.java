@@ -0,0 +1,223 @@
+package xapi.log.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import xapi.log.api.LogLevel;
+
+/**
+ * Renders the segments written by a {@link BinaryLogAppender} back into text;
+ * one line per entry, as {@link JreLog} would have printed it, after the time it was logged.
+ * <p>
+ * Run it as <pre>
+ * java xapi.log.impl.BinaryLogDecoder [-level LEVEL] [-notime] file-or-directory...
+ * </pre>
+ * where each directory stands for all of the segments in it, oldest first.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class BinaryLogDecoder {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final LogLevel[] LEVELS = LogLevel.values();
+
+  private final LogLevel minimum;
+  private final boolean times;
+  private final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+  /**
+   * @param minimum - The least level of entry to render.
+   * @param times - Whether to start each line with the time its entry was logged.
+   */
+  public BinaryLogDecoder(LogLevel minimum, boolean times) {
+    this.minimum = minimum == null ? LogLevel.ALL : minimum;
+    this.times = times;
+  }
+
+  public static void main(String ... args) throws IOException {
+    LogLevel level = LogLevel.ALL;
+    boolean times = true;
+    List<File> files = new ArrayList<File>();
+    for (int i = 0; i < args.length; i++) {
+      if ("-level".equals(args[i]) && i + 1 < args.length) {
+        level = LogLevel.valueOf(args[++i].toUpperCase());
+      } else if ("-notime".equals(args[i])) {
+        times = false;
+      } else if (new File(args[i]).isDirectory()) {
+        for (File segment : BinaryLogAppender.segments(new File(args[i]))) {
+          files.add(segment);
+        }
+      } else {
+        files.add(new File(args[i]));
+      }
+    }
+    if (files.isEmpty()) {
+      usage(System.err);
+      System.exit(1);
+    }
+    Writer out = new OutputStreamWriter(System.out, UTF8);
+    BinaryLogDecoder decoder = new BinaryLogDecoder(level, times);
+    for (File file : files) {
+      decoder.decode(file, out);
+    }
+    out.flush();
+  }
+
+  private static void usage(PrintStream out) {
+    out.println("Usage: java " + BinaryLogDecoder.class.getName()
+      + " [-level LEVEL] [-notime] file-or-directory...");
+    out.println("Renders binary log segments as text; each directory stands for all of its segments, oldest first.");
+  }
+
+  /**
+   * Renders every entry in the segment file.
+   *
+   * @return How many entries were rendered.
+   * @throws IOException if the file cannot be read, or is not a segment.
+   */
+  public int decode(File segment, Appendable out) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(segment, "r");
+    try {
+      return decode(file.getChannel().map(MapMode.READ_ONLY, 0, file.length()), out);
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Renders every entry in the segment, from its header on.
+   * A segment which stops part way through a record, as one might if the jvm writing it died, is read up to there.
+   *
+   * @return How many entries were rendered.
+   * @throws IOException if the bytes are not a segment, or out cannot be written to.
+   */
+  public int decode(ByteBuffer in, Appendable out) throws IOException {
+    if (in.remaining() < BinaryLogAppender.HEADER_SIZE || in.getInt() != BinaryLogAppender.MAGIC) {
+      throw new IOException("Not a binary log segment");
+    }
+    byte version = in.get();
+    if (version != BinaryLogAppender.VERSION) {
+      throw new IOException("Unknown binary log version " + version);
+    }
+    long startMillis = in.getLong();
+    List<String> definitions = new ArrayList<String>();
+    StringBuilder line = new StringBuilder();
+    long micros = 0;
+    int count = 0;
+    try {
+      while (in.hasRemaining()) {
+        int record = in.position();
+        byte tag = in.get();
+        if (tag == BinaryLogAppender.END) {
+          break;
+        } else if (tag == BinaryLogAppender.DEFINE) {
+          int id = (int)getVarint(in);
+          String text = getString(in);
+          while (definitions.size() <= id) {
+            definitions.add(null);
+          }
+          definitions.set(id, text);
+        } else if (tag == BinaryLogAppender.ENTRY) {
+          int level = in.get();
+          micros += getVarint(in);
+          int parts = (int)getVarint(in);
+          line.setLength(0);
+          if (times) {
+            line.append(format.format(new Date(startMillis + micros / 1000))).append('\t');
+          }
+          for (int i = 0; i < parts; i++) {
+            getPart(in, definitions, line);
+            line.append('\t');
+          }
+          if (level < 0 || level >= LEVELS.length) {
+            throw new IOException("Corrupt binary log record at " + record);
+          }
+          if (LEVELS[level].ordinal() >= minimum.ordinal()) {
+            out.append(line).append('\n');
+            count++;
+          }
+        } else {
+          throw new IOException("Corrupt binary log record at " + record);
+        }
+      }
+    } catch (BufferUnderflowException truncated) {
+      // the last record was never finished
+    }
+    return count;
+  }
+
+  private static void getPart(ByteBuffer in, List<String> definitions, StringBuilder out) throws IOException {
+    byte type = in.get();
+    switch (type) {
+      case BinaryLogAppender.NULL:
+        out.append("null");
+        break;
+      case BinaryLogAppender.TRUE:
+        out.append(true);
+        break;
+      case BinaryLogAppender.FALSE:
+        out.append(false);
+        break;
+      case BinaryLogAppender.INTEGER:
+        long value = getVarint(in);
+        out.append((value >>> 1) ^ -(value & 1));
+        break;
+      case BinaryLogAppender.FLOAT:
+        out.append(in.getFloat());
+        break;
+      case BinaryLogAppender.DOUBLE:
+        out.append(in.getDouble());
+        break;
+      case BinaryLogAppender.CHAR:
+        out.append((char)getVarint(in));
+        break;
+      case BinaryLogAppender.STRING:
+        out.append(getString(in));
+        break;
+      case BinaryLogAppender.INTERNED:
+        int id = (int)getVarint(in);
+        if (id >= definitions.size() || definitions.get(id) == null) {
+          throw new IOException("Undefined string " + id + " at " + in.position());
+        }
+        out.append(definitions.get(id));
+        break;
+      default:
+        throw new IOException("Unknown part type " + type + " at " + in.position());
+    }
+  }
+
+  private static long getVarint(ByteBuffer in) {
+    long value = 0;
+    for (int shift = 0;; shift += 7) {
+      byte b = in.get();
+      value |= (long)(b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  private static String getString(ByteBuffer in) {
+    int length = (int)getVarint(in);
+    if (length > in.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+}
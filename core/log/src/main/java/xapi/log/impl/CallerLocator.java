@@ -0,0 +1,215 @@
+package xapi.log.impl;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the line which logged a message, given the class that logged it.
+ * <p>
+ * On a jdk with java.lang.StackWalker, we walk the stack lazily, and stop at the first frame of the class;
+ * otherwise, we must fill in a whole stack trace, as we always used to.
+ * <p>
+ * What we cache: the text for each call site, keyed by class, method and bytecode index,
+ * so we only build a StackTraceElement the first time we see a site; and, for each class,
+ * how deep in the stack we last found it.  A class usually logs through the same path, so the next walk skips
+ * straight to that depth, and checks only that frame; if it is some other class, we search
+ * the whole stack again.  What we cannot cache is which line is logging this time,
+ * so every call still walks down to the caller's frame.
+ * <p>
+ * This module still compiles for java 7, so the walker is driven through method handles,
+ * which the jit inlines like direct calls, and the function we give it is made by the
+ * LambdaMetafactory, rather than a reflective proxy.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+final class CallerLocator {
+
+  private CallerLocator() {}
+
+  private static final int MAX_CACHED = 4096;
+  private static final ConcurrentHashMap<Site, String> sites =
+    new ConcurrentHashMap<Site, String>();
+
+  /** A call site, as the walker sees it; far cheaper to get than a StackTraceElement. */
+  private static final class Site {
+    final Class<?> cls;
+    final String method;
+    final int bci;
+
+    Site(Class<?> cls, String method, int bci) {
+      this.cls = cls;
+      this.method = method;
+      this.bci = bci;
+    }
+
+    @Override
+    public int hashCode() {
+      return (cls.hashCode() * 31 + method.hashCode()) * 31 + bci;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Site)) {
+        return false;
+      }
+      Site other = (Site)obj;
+      return cls == other.cls && bci == other.bci && method.equals(other.method);
+    }
+  }
+
+  /**
+   * How many frames down the walk we last found each class; -1 until we have.
+   * Racing threads may each write a depth, and either is fine.
+   */
+  private static final ClassValue<int[]> depths = new ClassValue<int[]>() {
+    @Override
+    protected int[] computeValue(Class<?> type) {
+      return new int[] {-1};
+    }
+  };
+
+  /** What the walker on this thread is looking for. */
+  private static final class Search {
+    Class<?> cls;
+    int skip;
+    int found;
+  }
+
+  private static final ThreadLocal<Search> searches = new ThreadLocal<Search>() {
+    @Override
+    protected Search initialValue() {
+      return new Search();
+    }
+  };
+
+  /** Sent back by a walk which skipped to a remembered depth, and found some other class there. */
+  private static final Object MISSED = new Object();
+
+  private static final MethodHandle walk, skip, iterator, declaringClass, methodName, bci, toStackTraceElement;
+  private static final Object findTarget;
+
+  static {
+    Object find = null;
+    MethodHandle wlk = null, skp = null, iter = null, cls = null, name = null, index = null, toElement = null;
+    try {
+      Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+      Class<?> optionClass = Class.forName("java.lang.StackWalker$Option");
+      Class<?> frameClass = Class.forName("java.lang.StackWalker$StackFrame");
+      Class<?> functionClass = Class.forName("java.util.function.Function");
+      Class<?> streamClass = Class.forName("java.util.stream.Stream");
+      @SuppressWarnings({ "unchecked", "rawtypes" })
+      Object retainClasses = Enum.valueOf((Class)optionClass, "RETAIN_CLASS_REFERENCE");
+      Object walker = walkerClass.getMethod("getInstance", optionClass).invoke(null, retainClasses);
+
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      wlk = lookup.findVirtual(walkerClass, "walk", MethodType.methodType(Object.class, functionClass))
+        .bindTo(walker)
+        .asType(MethodType.methodType(Object.class, Object.class));
+      skp = lookup.findVirtual(streamClass, "skip", MethodType.methodType(streamClass, long.class))
+        .asType(MethodType.methodType(Object.class, Object.class, long.class));
+      iter = lookup.findVirtual(streamClass, "iterator", MethodType.methodType(Iterator.class))
+        .asType(MethodType.methodType(Iterator.class, Object.class));
+      cls = lookup.findVirtual(frameClass, "getDeclaringClass", MethodType.methodType(Class.class))
+        .asType(MethodType.methodType(Class.class, Object.class));
+      name = lookup.findVirtual(frameClass, "getMethodName", MethodType.methodType(String.class))
+        .asType(MethodType.methodType(String.class, Object.class));
+      index = lookup.findVirtual(frameClass, "getByteCodeIndex", MethodType.methodType(int.class))
+        .asType(MethodType.methodType(int.class, Object.class));
+      toElement = lookup.findVirtual(frameClass, "toStackTraceElement", MethodType.methodType(StackTraceElement.class))
+        .asType(MethodType.methodType(StackTraceElement.class, Object.class));
+
+      // the equivalent of CallerLocator::findFrame, as a java.util.function.Function
+      MethodType erased = MethodType.methodType(Object.class, Object.class);
+      Method metafactory = Class.forName("java.lang.invoke.LambdaMetafactory").getMethod("metafactory",
+        MethodHandles.Lookup.class, String.class, MethodType.class, MethodType.class, MethodHandle.class, MethodType.class);
+      CallSite site = (CallSite)metafactory.invoke(null, lookup, "apply", MethodType.methodType(functionClass),
+        erased, lookup.findStatic(CallerLocator.class, "findFrame", erased), erased);
+      find = site.getTarget().invoke();
+    } catch (Throwable e) {
+      // an older jdk; we use stack traces
+      find = null;
+    }
+    findTarget = find;
+    walk = find == null ? null : wlk;
+    skip = skp;
+    iterator = iter;
+    declaringClass = cls;
+    methodName = name;
+    bci = index;
+    toStackTraceElement = toElement;
+  }
+
+  private static Object findFrame(Object frames) throws Throwable {
+    Search search = searches.get();
+    if (search.skip > 0) {
+      frames = skip.invokeExact(frames, (long)search.skip);
+    }
+    Iterator<?> iter = (Iterator<?>)iterator.invokeExact(frames);
+    for (int depth = search.skip; iter.hasNext(); depth++) {
+      Object frame = iter.next();
+      if ((Class<?>)declaringClass.invokeExact(frame) == search.cls) {
+        search.found = depth;
+        Site site = new Site(search.cls, (String)methodName.invokeExact(frame), (int)bci.invokeExact(frame));
+        String text = sites.get(site);
+        if (text == null) {
+          text = " " + (StackTraceElement)toStackTraceElement.invokeExact(frame);
+          if (sites.size() < MAX_CACHED) {
+            sites.put(site, text);
+          }
+        }
+        return text;
+      }
+      if (search.skip > 0) {
+        return MISSED;
+      }
+    }
+    return search.skip > 0 ? MISSED : null;
+  }
+
+  /**
+   * @return " " followed by the nearest stack frame of the given class,
+   * or the class name, if it is not on the stack.
+   */
+  static String locate(Class<?> cls) {
+    if (walk != null) {
+      Search search = searches.get();
+      int[] depth = depths.get(cls);
+      search.cls = cls;
+      try {
+        search.skip = Math.max(depth[0], 0);
+        Object found = walk.invokeExact(findTarget);
+        if (found == MISSED) {
+          search.skip = 0;
+          found = walk.invokeExact(findTarget);
+        }
+        if (found == null) {
+          return cls.getCanonicalName();
+        }
+        depth[0] = search.found;
+        return (String)found;
+      } catch (Throwable e) {
+        // fall back on a stack trace
+      } finally {
+        search.cls = null;
+      }
+    }
+    StackTraceElement site = fromStackTrace(cls);
+    return site == null ? cls.getCanonicalName() : " " + site;
+  }
+
+  private static StackTraceElement fromStackTrace(Class<?> cls) {
+    for (StackTraceElement trace : new Throwable().getStackTrace()) {
+      if (trace.getClassName().equals(cls.getName())) {
+        return trace;
+      }
+    }
+    return null;
+  }
+
+}
@@ -44,32 +44,118 @@ import xapi.util.X_Runtime;
 @SingletonDefault(implFor=LogService.class)
 public class JreLog extends AbstractLog{
 
+  private static final int INITIAL_TEXT = 256;
+  private static final int MAX_RETAINED_TEXT = 16 * 1024;
+
+  /**
+   * What each thread reuses for every message it logs.
+   */
+  private static final class Buffers {
+    final LogFifo fifo = new LogFifo();
+    StringBuilder text = new StringBuilder(INITIAL_TEXT);
+    boolean printing;
+  }
+
+  private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+    @Override
+    protected Buffers initialValue() {
+      return new Buffers();
+    }
+  };
+
+  private LogAppender appender;
+
   public JreLog() {
     logLevel = LogLevel.valueOf(System.getProperty(X_Namespace.PROPERTY_LOG_LEVEL, 
         X_Runtime.isDebug() ? "ALL" : "INFO"));
+    appender = BinaryLogAppender.fromProperties(this);
+    if (appender == null && "true".equals(System.getProperty(X_Namespace.PROPERTY_LOG_ASYNC))) {
+      appender = AsyncLogAppender.fromProperties(this);
+    }
+  }
+
+  /**
+   * @return Where our entries go, or null if we print them as they are logged.
+   */
+  public LogAppender getAppender() {
+    return appender;
+  }
+
+  /**
+   * Sends our entries to the given appender, or, if null, prints them as they are logged.
+   */
+  public void setAppender(LogAppender appender) {
+    this.appender = appender;
   }
 
   public void doLog(LogLevel level, Fifo<Object> array)
   {
-    StringBuilder b = new StringBuilder();
-    while(!array.isEmpty()){
-      writeLog(b, array.take());
+    try {
+      LogAppender to = appender;
+      if (to != null && to.append(level, array)) {
+        return;
+      }
+      Buffers buffers = this.buffers.get();
+      // a toString() which logs will come back here while we are using the buffer
+      boolean reuse = !buffers.printing;
+      StringBuilder b = reuse ? buffers.text : new StringBuilder();
+      buffers.printing = true;
+      try {
+        b.setLength(0);
+        while(!array.isEmpty()){
+          writeLog(b, array.take());
+        }
+        (level == LogLevel.ERROR ? System.err : System.out).println(b);
+      } finally {
+        if (reuse) {
+          buffers.printing = false;
+          if (b.capacity() > MAX_RETAINED_TEXT) {
+            buffers.text = new StringBuilder(INITIAL_TEXT);
+          }
+        }
+      }
+    } finally {
+      if (array instanceof LogFifo) {
+        LogFifo fifo = (LogFifo)array;
+        fifo.clear();
+        fifo.inUse = false;
+      }
     }
-    (level == LogLevel.ERROR ? System.err : System.out).println(b.toString());
   }
-  
+
+  /**
+   * Hands out this thread's reusable fifo, unless it is already holding a message
+   * (when a toString() logs, say), in which case the message gets a new one.
+   */
+  @Override
+  public Fifo<Object> newFifo() {
+    LogFifo fifo = buffers.get().fifo;
+    if (fifo.inUse) {
+      return new LogFifo();
+    }
+    fifo.inUse = true;
+    return fifo;
+  }
+
+  /**
+   * Only a class, which stands for the line that logged it, is resolved now, while we are still on that line;
+   * everything else is rendered straight into the output when the message is written.
+   */
   @Override
   public Object unwrap(Object m) {
     if (m instanceof Class) {
-      Class<?> c = (Class<?>)m;
-      for (StackTraceElement trace : new Throwable().getStackTrace()) {
-        if (trace.getClassName().equals(c.getName())) {
-          return " "+trace;
-        }
-      }
-      return c.getCanonicalName();
+      return CallerLocator.locate((Class<?>)m);
+    }
+    return m == null ? "null" : m;
+  }
+
+  @Override
+  protected void render(StringBuilder b, Object m) {
+    if (m instanceof Class) {
+      b.append(CallerLocator.locate((Class<?>)m));
+    } else {
+      super.render(b, m);
     }
-    return super.unwrap(m);
   }
 
 }
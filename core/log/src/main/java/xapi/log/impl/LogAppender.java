@@ -0,0 +1,33 @@
+package xapi.log.impl;
+
+import xapi.collect.api.Fifo;
+import xapi.log.api.LogLevel;
+
+/**
+ * Somewhere {@link JreLog} can send its entries, instead of printing them as they are logged.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public interface LogAppender {
+
+  /**
+   * Takes one entry; the message fifo is cleared by the caller afterwards, so must not be kept.
+   *
+   * @return false if the entry was not taken, in which case the caller should print it itself.
+   */
+  boolean append(LogLevel level, Fifo<Object> message);
+
+  /**
+   * Waits up to the given time for everything already appended to be written out.
+   *
+   * @return true if it was.
+   */
+  boolean flush(long timeoutMillis);
+
+  /**
+   * Writes out everything already appended, and takes no more entries.
+   */
+  void close();
+
+}
@@ -0,0 +1,171 @@
+package xapi.log.impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import xapi.collect.api.Fifo;
+
+/**
+ * An array backed {@link Fifo} for the parts of one log message, which can be reused once it is drained.
+ * <p>
+ * Unlike {@link xapi.collect.impl.SimpleFifo}, a give allocates nothing (once the array is big enough),
+ * and there is no finalizer; {@link JreLog} keeps one per thread, so a message costs no garbage at all.
+ * It is not thread safe, and, like SimpleFifo, it ignores nulls.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class LogFifo implements Fifo<Object>, Iterable<Object> {
+
+  private Object[] items;
+  private int head, tail;
+  /** Set while the fifo is handed out for a message; see {@link JreLog#newFifo()}. */
+  boolean inUse;
+
+  public LogFifo() {
+    this(8);
+  }
+
+  public LogFifo(int capacity) {
+    items = new Object[Math.max(1, capacity)];
+  }
+
+  @Override
+  public Fifo<Object> give(Object item) {
+    if (item == null) {
+      return this;
+    }
+    if (tail == items.length) {
+      if (head > 0) {
+        System.arraycopy(items, head, items, 0, tail - head);
+        for (int i = tail - head; i < tail; i++) {
+          items[i] = null;
+        }
+        tail -= head;
+        head = 0;
+      } else {
+        Object[] grown = new Object[items.length * 2];
+        System.arraycopy(items, 0, grown, 0, tail);
+        items = grown;
+      }
+    }
+    items[tail++] = item;
+    return this;
+  }
+
+  @Override
+  public Fifo<Object> giveAll(Object ... elements) {
+    for (Object element : elements) {
+      give(element);
+    }
+    return this;
+  }
+
+  @Override
+  public Fifo<Object> giveAll(Iterable<Object> elements) {
+    for (Object element : elements) {
+      give(element);
+    }
+    return this;
+  }
+
+  @Override
+  public Object take() {
+    if (head == tail) {
+      return null;
+    }
+    Object item = items[head];
+    items[head++] = null;
+    if (head == tail) {
+      head = tail = 0;
+    }
+    return item;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return head == tail;
+  }
+
+  @Override
+  public boolean contains(Object item) {
+    for (int i = head; i < tail; i++) {
+      if (items[i].equals(item)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean remove(Object item) {
+    int to = head;
+    for (int i = head; i < tail; i++) {
+      if (!items[i].equals(item)) {
+        items[to++] = items[i];
+      }
+    }
+    boolean removed = to < tail;
+    for (int i = to; i < tail; i++) {
+      items[i] = null;
+    }
+    tail = to;
+    return removed;
+  }
+
+  @Override
+  public int size() {
+    return tail - head;
+  }
+
+  @Override
+  public void clear() {
+    for (int i = head; i < tail; i++) {
+      items[i] = null;
+    }
+    head = tail = 0;
+  }
+
+  @Override
+  public Iterator<Object> iterator() {
+    return new Iterator<Object>() {
+      int next = head;
+
+      @Override
+      public boolean hasNext() {
+        return next < tail;
+      }
+
+      @Override
+      public Object next() {
+        if (next >= tail) {
+          throw new NoSuchElementException();
+        }
+        return items[next++];
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public Iterable<Object> forEach() {
+    return this;
+  }
+
+  @Override
+  public String join(String delim) {
+    StringBuilder b = new StringBuilder();
+    for (int i = head; i < tail; i++) {
+      if (i > head) {
+        b.append(delim);
+      }
+      b.append(items[i]);
+    }
+    return b.toString();
+  }
+
+}
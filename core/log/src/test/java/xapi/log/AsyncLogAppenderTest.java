@@ -0,0 +1,310 @@
+package xapi.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import xapi.collect.impl.SimpleFifo;
+import xapi.log.api.LogLevel;
+import xapi.log.impl.AsyncLogAppender;
+import xapi.log.impl.AsyncLogAppender.Overflow;
+import xapi.log.impl.JreLog;
+
+/**
+ * Checks that {@link AsyncLogAppender} writes every entry, in order, off the logging thread,
+ * that each overflow strategy behaves, and compares it to printing synchronously.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class AsyncLogAppenderTest {
+
+  private static final int THREADS = 4;
+  private static final int PER_THREAD = 2000;
+
+  /**
+   * A stream which holds up whoever writes to it, until released.
+   */
+  private static final class GatedStream extends OutputStream {
+    final CountDownLatch gate = new CountDownLatch(1);
+    final CountDownLatch entered = new CountDownLatch(1);
+    final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+      write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      entered.countDown();
+      try {
+        gate.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      synchronized (this) {
+        written.write(b, off, len);
+      }
+    }
+
+    synchronized String text() {
+      return new String(written.toByteArray(), Charset.forName("UTF-8"));
+    }
+  }
+
+  private static SimpleFifo<Object> message(Object ... parts) {
+    return new SimpleFifo<Object>(parts);
+  }
+
+  private static int count(String text, String of) {
+    int count = 0;
+    for (int i = text.indexOf(of); i != -1; i = text.indexOf(of, i + of.length())) {
+      count++;
+    }
+    return count;
+  }
+
+  @Test
+  public void testWritesEveryEntryInOrderToFile() throws Exception {
+    File file = File.createTempFile("xapi-log", ".log");
+    file.deleteOnExit();
+    final JreLog log = new JreLog();
+    AsyncLogAppender appender = new AsyncLogAppender(log, 256, Overflow.BLOCK, 0,
+      new FileOutputStream(file).getChannel());
+    log.setAppender(appender);
+    Thread[] threads = new Thread[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < PER_THREAD; i++) {
+            log.doLog(LogLevel.INFO, message("thread", id, "entry", i));
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(appender.flush(5000));
+    appender.close();
+    List<String> lines = Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+    assertEquals(THREADS * PER_THREAD, lines.size());
+    int[] next = new int[THREADS];
+    for (String line : lines) {
+      String[] parts = line.split("\t");
+      int id = Integer.parseInt(parts[1]);
+      assertEquals(line, next[id]++, Integer.parseInt(parts[3]));
+    }
+  }
+
+  @Test
+  public void testErrorsGoToStandardError() throws Exception {
+    PrintStream out = System.out, err = System.err;
+    ByteArrayOutputStream newOut = new ByteArrayOutputStream(), newErr = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(newOut, true));
+    System.setErr(new PrintStream(newErr, true));
+    AsyncLogAppender appender = new AsyncLogAppender(new JreLog(), 16, Overflow.BLOCK, 0, null);
+    try {
+      assertTrue(appender.append(LogLevel.INFO, message("fine")));
+      assertTrue(appender.append(LogLevel.ERROR, message("broken")));
+      assertTrue(appender.flush(5000));
+    } finally {
+      appender.close();
+      System.setOut(out);
+      System.setErr(err);
+    }
+    assertEquals("fine\t\n", newOut.toString("UTF-8"));
+    assertEquals("broken\t\n", newErr.toString("UTF-8"));
+  }
+
+  @Test
+  public void testDropWhenFull() throws Exception {
+    PrintStream out = System.out;
+    GatedStream gated = new GatedStream();
+    System.setOut(new PrintStream(gated, true));
+    AsyncLogAppender appender = new AsyncLogAppender(new JreLog(), 4, Overflow.DROP, 0, null);
+    try {
+      assertTrue(appender.append(LogLevel.INFO, message("first")));
+      // the writer has freed the first entry, and is now stuck printing it; four more fit
+      assertTrue(gated.entered.await(5, TimeUnit.SECONDS));
+      for (int i = 0; i < 10; i++) {
+        assertTrue(appender.append(LogLevel.INFO, message("entry", i)));
+      }
+      assertEquals(6, appender.getDropped());
+      gated.gate.countDown();
+      assertTrue(appender.flush(5000));
+    } finally {
+      gated.gate.countDown();
+      appender.close();
+      System.setOut(out);
+    }
+    String text = gated.text();
+    assertEquals(4, count(text, "entry"));
+    assertTrue(text, text.contains("lost 6 entries"));
+  }
+
+  @Test
+  public void testBlockWhenFull() throws Exception {
+    PrintStream out = System.out;
+    GatedStream gated = new GatedStream();
+    System.setOut(new PrintStream(gated, true));
+    final AsyncLogAppender appender = new AsyncLogAppender(new JreLog(), 4, Overflow.BLOCK, 0, null);
+    try {
+      assertTrue(appender.append(LogLevel.INFO, message("first")));
+      assertTrue(gated.entered.await(5, TimeUnit.SECONDS));
+      final CountDownLatch done = new CountDownLatch(1);
+      new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10; i++) {
+            appender.append(LogLevel.INFO, message("entry", i));
+          }
+          done.countDown();
+        }
+      }.start();
+      assertFalse("Logger should wait for room", done.await(50, TimeUnit.MILLISECONDS));
+      gated.gate.countDown();
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertTrue(appender.flush(5000));
+    } finally {
+      gated.gate.countDown();
+      appender.close();
+      System.setOut(out);
+    }
+    assertEquals(10, count(gated.text(), "entry"));
+    assertEquals(0, appender.getDropped());
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    File file = File.createTempFile("xapi-log", ".log");
+    file.deleteOnExit();
+    AsyncLogAppender appender = new AsyncLogAppender(new JreLog(), 64, Overflow.BLOCK, 60000,
+      new FileOutputStream(file).getChannel());
+    for (int i = 0; i < 100; i++) {
+      assertTrue(appender.append(LogLevel.INFO, message("entry", i)));
+    }
+    // the flush interval is a minute, so only closing writes these out
+    appender.close();
+    assertEquals(100, Files.readAllLines(file.toPath(), Charset.forName("UTF-8")).size());
+    assertFalse(appender.append(LogLevel.INFO, message("too late")));
+  }
+
+  @Test
+  public void testCloseWhileLogging() throws Exception {
+    for (int round = 0; round < 20; round++) {
+      File file = File.createTempFile("xapi-log", ".log");
+      file.deleteOnExit();
+      final AsyncLogAppender appender = new AsyncLogAppender(new JreLog(), 64, Overflow.BLOCK, 0,
+        new FileOutputStream(file).getChannel());
+      final AtomicInteger accepted = new AtomicInteger();
+      Thread[] threads = new Thread[THREADS];
+      for (int t = 0; t < THREADS; t++) {
+        threads[t] = new Thread() {
+          @Override
+          public void run() {
+            for (int i = 0; i < PER_THREAD; i++) {
+              if (appender.append(LogLevel.INFO, message("entry", i))) {
+                accepted.incrementAndGet();
+              }
+            }
+          }
+        };
+        threads[t].start();
+      }
+      Thread.sleep(1);
+      appender.close();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      // every entry the appender took must be written; the rest were refused
+      assertEquals(accepted.get(), Files.readAllLines(file.toPath(), Charset.forName("UTF-8")).size());
+    }
+  }
+
+  @Test
+  public void benchmarkAsyncVsSync() throws Exception {
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    }, true));
+    long sync, async, asyncFlushed;
+    AsyncLogAppender appender = null;
+    try {
+      JreLog log = new JreLog();
+      // warm up
+      run(log);
+      sync = run(log);
+      appender = new AsyncLogAppender(log, AsyncLogAppender.DEFAULT_CAPACITY, Overflow.BLOCK, 0, null);
+      log.setAppender(appender);
+      run(log);
+      assertTrue(appender.flush(10000));
+      long start = System.nanoTime();
+      async = run(log);
+      assertTrue(appender.flush(10000));
+      asyncFlushed = System.nanoTime() - start;
+    } finally {
+      if (appender != null) {
+        appender.close();
+      }
+      System.setOut(out);
+    }
+    int entries = THREADS * PER_THREAD;
+    // X_Log lives downstream of this module, so we print through a plain JreLog
+    new JreLog().doLog(LogLevel.INFO, message("[INFO]", getClass(), entries, "entries from", THREADS,
+      "threads; sync:", sync / 1000000.0, "ms (", sync / entries, "ns per entry ), async:",
+      async / 1000000.0, "ms (", async / entries, "ns per entry ), async until flushed:",
+      asyncFlushed / 1000000.0, "ms"));
+  }
+
+  /**
+   * @return How long the logging threads took, in nanos.
+   */
+  private long run(final JreLog log) throws InterruptedException {
+    Thread[] threads = new Thread[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < PER_THREAD; i++) {
+            log.doLog(LogLevel.INFO, message("[INFO]", "benchmark entry", i));
+          }
+        }
+      };
+    }
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return System.nanoTime() - start;
+  }
+
+}
@@ -0,0 +1,311 @@
+package xapi.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import xapi.collect.impl.SimpleFifo;
+import xapi.log.api.LogLevel;
+import xapi.log.impl.BinaryLogAppender;
+import xapi.log.impl.BinaryLogDecoder;
+import xapi.log.impl.JreLog;
+
+/**
+ * Checks that what {@link BinaryLogAppender} writes is decoded back into the text {@link JreLog} would print,
+ * that its segments roll and are pruned, and compares its size and speed with printing text.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class BinaryLogAppenderTest {
+
+  private static final int ENTRIES = 100000;
+  private static final String TRACE = "[TRACE]";
+  private static final String READ = "Read bytes";
+
+  private static SimpleFifo<Object> message(Object ... parts) {
+    return new SimpleFifo<Object>(parts);
+  }
+
+  private static File directory() throws IOException {
+    File dir = Files.createTempDirectory("xapi-binary-log").toFile();
+    dir.deleteOnExit();
+    return dir;
+  }
+
+  private static void delete(File dir) {
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  private static String decode(File dir, LogLevel level) throws IOException {
+    StringBuilder b = new StringBuilder();
+    BinaryLogDecoder decoder = new BinaryLogDecoder(level, false);
+    for (File segment : BinaryLogAppender.segments(dir)) {
+      decoder.decode(segment, b);
+    }
+    return b.toString();
+  }
+
+  private static final Object[][] MESSAGES = {
+    {"[INFO]", "plain", 42, -7L, 1.5, 0.25f, true, false, 'x'},
+    {"[WARN]", Long.MIN_VALUE, Integer.MAX_VALUE, (short)-3, (byte)9, Double.NaN},
+    {"[INFO]", "café 中文 😀", new Object[] {"a", "b"}, Arrays.asList(1, 2)},
+    {"[ERROR]", new IllegalStateException("oops")},
+    {TRACE, READ, 10, "of", 20},
+    {TRACE, READ, 11, "of", 20},
+  };
+
+  private static void logAll(JreLog log) {
+    for (Object[] parts : MESSAGES) {
+      log.doLog(parts[0] == "[ERROR]" ? LogLevel.ERROR : LogLevel.INFO, message(parts));
+    }
+  }
+
+  @Test
+  public void testDecodesToTheSameText() throws Exception {
+    PrintStream out = System.out, err = System.err;
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(text, true, "UTF-8"));
+    System.setErr(new PrintStream(text, true, "UTF-8"));
+    try {
+      logAll(new JreLog());
+    } finally {
+      System.setOut(out);
+      System.setErr(err);
+    }
+    File dir = directory();
+    try {
+      JreLog log = new JreLog();
+      BinaryLogAppender appender = new BinaryLogAppender(log, dir, 1024 * 1024, 4);
+      log.setAppender(appender);
+      logAll(log);
+      appender.close();
+      assertEquals(text.toString("UTF-8").replace("\r", ""), decode(dir, LogLevel.ALL));
+      String errors = decode(dir, LogLevel.ERROR);
+      assertTrue(errors, errors.startsWith("[ERROR]\tjava.lang.IllegalStateException: oops\n"));
+      assertFalse(errors, errors.contains("[INFO]"));
+    } finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void testCallSite() throws Exception {
+    File dir = directory();
+    try {
+      JreLog log = new JreLog();
+      BinaryLogAppender appender = new BinaryLogAppender(log, dir, 1024 * 1024, 4);
+      for (int i = 0; i < 3; i++) {
+        assertTrue(appender.append(LogLevel.INFO, message(getClass(), "entry", i)));
+      }
+      appender.close();
+      String[] lines = decode(dir, LogLevel.ALL).split("\n");
+      assertEquals(3, lines.length);
+      assertTrue(lines[0], lines[0].contains("BinaryLogAppenderTest.java:"));
+      assertEquals(lines[0].split("\t")[0], lines[2].split("\t")[0]);
+    } finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void testInternsRepeatedStrings() throws Exception {
+    File dir = directory();
+    try {
+      BinaryLogAppender appender = new BinaryLogAppender(new JreLog(), dir, 1024 * 1024, 4);
+      for (int i = 0; i < 1000; i++) {
+        appender.append(LogLevel.TRACE, message(TRACE, READ, i));
+      }
+      appender.close();
+      File[] segments = BinaryLogAppender.segments(dir);
+      assertEquals(1, segments.length);
+      String raw = new String(Files.readAllBytes(segments[0].toPath()), Charset.forName("ISO-8859-1"));
+      // once when first seen, once when defined
+      assertEquals(2, raw.split(READ, -1).length - 1);
+      // an entry is the tag, level, time, count, and three parts; mostly a byte apiece
+      assertTrue("Segment was " + raw.length() + " bytes", raw.length() < 1000 * 12);
+      assertEquals(1000, decode(dir, LogLevel.ALL).split("\n").length);
+    } finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void testRollsAndKeepsTheNewestSegments() throws Exception {
+    File dir = directory();
+    try {
+      BinaryLogAppender appender = new BinaryLogAppender(new JreLog(), dir, BinaryLogAppender.MIN_SEGMENT_SIZE, 3);
+      for (int i = 0; i < 5000; i++) {
+        assertTrue(appender.append(LogLevel.INFO, message("[INFO]", "entry", i)));
+      }
+      appender.close();
+      assertFalse(appender.append(LogLevel.INFO, message("too late")));
+      File[] segments = BinaryLogAppender.segments(dir);
+      assertEquals(3, segments.length);
+      // each segment decodes alone, and together they hold the newest entries, in order
+      int next = -1;
+      for (File segment : segments) {
+        assertTrue(segment.length() <= BinaryLogAppender.MIN_SEGMENT_SIZE);
+        StringBuilder b = new StringBuilder();
+        new BinaryLogDecoder(LogLevel.ALL, false).decode(segment, b);
+        for (String line : b.toString().split("\n")) {
+          int entry = Integer.parseInt(line.split("\t")[2]);
+          if (next != -1) {
+            assertEquals(next, entry);
+          }
+          next = entry + 1;
+        }
+      }
+      assertEquals(5000, next);
+      // a new appender carries on after the segments already there
+      appender = new BinaryLogAppender(new JreLog(), dir, BinaryLogAppender.MIN_SEGMENT_SIZE, 3);
+      appender.append(LogLevel.INFO, message("[INFO]", "entry", 5000));
+      appender.close();
+      segments = BinaryLogAppender.segments(dir);
+      assertEquals(3, segments.length);
+      StringBuilder b = new StringBuilder();
+      new BinaryLogDecoder(LogLevel.ALL, false).decode(segments[2], b);
+      assertEquals("[INFO]\tentry\t5000\t\n", b.toString());
+    } finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void testSegmentFilledToTheLastByte() throws Exception {
+    File dir = directory();
+    try {
+      int size = BinaryLogAppender.MIN_SEGMENT_SIZE;
+      BinaryLogAppender appender = new BinaryLogAppender(new JreLog(), dir, size, Integer.MAX_VALUE);
+      Random random = new Random(4096);
+      char[] chars = new char[40];
+      Arrays.fill(chars, 'x');
+      int entries = 0, filled = 0;
+      // records of random length end exactly at the end of a segment now and then; keep going until a few have
+      while (filled < 3) {
+        for (int i = 0; i < 1000; i++, entries++) {
+          String text = new String(chars, 0, random.nextInt(chars.length + 1));
+          assertTrue(appender.append(LogLevel.INFO, message("[INFO]", text, entries)));
+        }
+        filled = 0;
+        File[] segments = BinaryLogAppender.segments(dir);
+        // the last is still mapped at its full size
+        for (int i = 0; i < segments.length - 1; i++) {
+          if (segments[i].length() == size) {
+            filled++;
+          }
+        }
+        assertTrue("No segment was filled exactly after " + entries + " entries", entries < 1000000);
+      }
+      appender.close();
+      int next = 0;
+      for (File segment : BinaryLogAppender.segments(dir)) {
+        StringBuilder b = new StringBuilder();
+        new BinaryLogDecoder(LogLevel.ALL, false).decode(segment, b);
+        for (String line : b.toString().split("\n")) {
+          assertEquals(next++, Integer.parseInt(line.split("\t")[2]));
+        }
+      }
+      assertEquals(entries, next);
+    } finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void testTruncatedSegment() throws Exception {
+    File dir = directory();
+    try {
+      BinaryLogAppender appender = new BinaryLogAppender(new JreLog(), dir, 1024 * 1024, 4);
+      for (int i = 0; i < 10; i++) {
+        appender.append(LogLevel.INFO, message("[INFO]", "a longer entry, to cut in half", i));
+      }
+      appender.close();
+      File segment = BinaryLogAppender.segments(dir)[0];
+      RandomAccessFile file = new RandomAccessFile(segment, "rw");
+      try {
+        file.setLength(file.length() - 3);
+      } finally {
+        file.close();
+      }
+      StringBuilder b = new StringBuilder();
+      assertEquals(9, new BinaryLogDecoder(LogLevel.ALL, true).decode(segment, b));
+      assertTrue(b.toString(), b.toString().endsWith("[INFO]\ta longer entry, to cut in half\t8\t\n"));
+    } finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void benchmarkBinaryVsText() throws Exception {
+    final long[] textBytes = new long[1];
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+        textBytes[0]++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        textBytes[0] += len;
+      }
+    }, true));
+    long text, binary, binaryBytes = 0;
+    File dir = directory();
+    try {
+      JreLog log = new JreLog();
+      run(log);
+      textBytes[0] = 0;
+      text = run(log);
+      BinaryLogAppender appender = new BinaryLogAppender(log, dir, BinaryLogAppender.DEFAULT_SEGMENT_SIZE, 8);
+      log.setAppender(appender);
+      run(log);
+      appender.close();
+      delete(dir);
+      dir = directory();
+      appender = new BinaryLogAppender(log, dir, BinaryLogAppender.DEFAULT_SEGMENT_SIZE, 8);
+      log.setAppender(appender);
+      binary = run(log);
+      appender.close();
+      for (File segment : BinaryLogAppender.segments(dir)) {
+        binaryBytes += segment.length();
+      }
+    } finally {
+      System.setOut(out);
+      delete(dir);
+    }
+    // X_Log lives downstream of this module, so we print through a plain JreLog
+    new JreLog().doLog(LogLevel.INFO, message("[INFO]", getClass(), ENTRIES, "trace entries; text:",
+      text / 1000000.0, "ms,", textBytes[0], "bytes; binary:", binary / 1000000.0, "ms,", binaryBytes, "bytes"));
+    assertTrue("Binary log took " + binaryBytes + " bytes, text " + textBytes[0], binaryBytes < textBytes[0]);
+  }
+
+  /**
+   * @return How long logging took, in nanos.
+   */
+  private long run(JreLog log) {
+    long start = System.nanoTime();
+    for (int i = 0; i < ENTRIES; i++) {
+      log.doLog(LogLevel.TRACE, message(TRACE, READ, i, "of", ENTRIES, "in", 0.5, "ms"));
+    }
+    return System.nanoTime() - start;
+  }
+
+}
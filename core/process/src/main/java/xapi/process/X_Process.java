@@ -6,18 +6,20 @@ import javax.inject.Provider;
 
 import xapi.inject.X_Inject;
 import xapi.process.api.AsyncLock;
+import xapi.process.api.ConcurrentEnvironment.Priority;
 import xapi.process.api.Process;
 import xapi.process.api.ProcessController;
 import xapi.process.service.ConcurrencyService;
 import xapi.util.api.ReceivesValue;
+import xapi.util.api.RemovalHandler;
 
 public class X_Process {
 
   private static final Provider<ConcurrencyService> service = X_Inject
       .singletonLazy(ConcurrencyService.class);
 
-  public static <T> void block(Future<T> future, ReceivesValue<T> receiver) {
-    service.get().resolve(future, receiver);
+  public static <T> RemovalHandler block(Future<T> future, ReceivesValue<T> receiver) {
+    return service.get().resolve(future, receiver);
   }
 
   public static void runDeferred(Runnable cmd) {
@@ -32,8 +34,8 @@ public class X_Process {
     service.get().runFinally(cmd);
   }
 
-  public static void runTimeout(Runnable cmd, int milliDelay) {
-    service.get().runTimeout(cmd, milliDelay);
+  public static RemovalHandler runTimeout(Runnable cmd, int milliDelay) {
+    return service.get().runTimeout(cmd, milliDelay);
   }
 
   public static Thread newThread(Runnable cmd) {
@@ -44,6 +46,10 @@ public class X_Process {
     return service.get().newProcess(process);
   }
 
+  public static <T> ProcessController<T> newProcess(Process<T> process, Priority priority) {
+    return service.get().newProcess(process, priority);
+  }
+
   public static boolean flush(int timeout) {
     return flush(Thread.currentThread(), timeout);
   }
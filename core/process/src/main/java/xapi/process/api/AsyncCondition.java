@@ -51,12 +51,17 @@ public interface AsyncCondition {
     , float millisToWait);
 
   /**
-   * Signals one waiting success handler, and returns true,
-   * -if the pool of waiting conditions was empty BEFORE calling onAcquire.onSuccess-
+   * Wakes the longest waiting success handler, which runs once it reacquires the lock.
    *
-   * @return - True is the waiting pool on SuccessHandlers had, at most one item
-   * in it when signal() is called.  This can allow a flushing method to safely
+   * @return - True if a handler was waiting.  This allows a flushing method to safely
    * call while(signal()); to drain a condition.
    */
   boolean signal();
+
+  /**
+   * Wakes every waiting success handler; each runs in turn, as it reacquires the lock.
+   *
+   * @return - How many handlers were woken.
+   */
+  int signalAll();
 }
@@ -7,19 +7,26 @@ import xapi.util.api.SuccessHandler;
 public interface AsyncLock {
 
   /**
-   * always throws {@link NotYetImplemented}.
+   * @return A condition whose handlers wait for, and run holding, this lock.
+   * Single-threaded environments may throw {@link NotYetImplemented}.
    */
   AsyncCondition newCondition();
 
   /**
    * In a single-threaded environment, tryLock always returns true.
    *
-   * In a threadsafe environment, only returns true if the current thread
-   * owns the lock.
+   * In a threadsafe environment, only returns true if the lock was free,
+   * and is now held by the caller.
    *
    */
   boolean tryLock();
 
+  /**
+   * Runs the handler once it holds the lock, without blocking the caller;
+   * the handler must call {@link #unlock()} when it is done.
+   *
+   * @return A handle which cancels the request, if the handler has not run yet.
+   */
   RemovalHandler lock(SuccessHandler<AsyncLock> onLocked);
 
   /**
@@ -8,6 +8,7 @@ import javax.inject.Provider;
 import xapi.log.X_Log;
 import xapi.process.X_Process;
 import xapi.util.X_Debug;
+import xapi.util.api.RemovalHandler;
 import static xapi.process.X_Process.now;
 
 public abstract class ConcurrentEnvironment {
@@ -19,12 +20,77 @@ public abstract class ConcurrentEnvironment {
     Block, FixedPeriod, DecayingPeriod, Recycle
   }
 
+  /**
+   * Checks a gate on the shared timer, backing off from a short delay up to a long one,
+   * until the gate opens or the monitor is removed.
+   */
+  private static final class Monitor implements Runnable, RemovalHandler {
+    private final Provider<Boolean> gate;
+    private final Runnable job;
+    private final int maxDelay;
+    private int delay;
+    private RemovalHandler pending = RemovalHandler.DoNothing;
+    private boolean removed;
+
+    Monitor(Priority priority, Provider<Boolean> gate, Runnable job) {
+      this.gate = gate;
+      this.job = job;
+      // High starts checking after 1ms, Medium after 4ms and Low after 16ms
+      this.delay = 1 << (priority.ordinal() * 2);
+      this.maxDelay = delay * 64;
+    }
+
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (removed) {
+          return;
+        }
+      }
+      if (Boolean.TRUE.equals(gate.get())) {
+        synchronized (this) {
+          if (removed) {
+            return;
+          }
+          removed = true;
+        }
+        job.run();
+        return;
+      }
+      synchronized (this) {
+        if (!removed) {
+          pending = X_Process.runTimeout(this, delay);
+          delay = Math.min(delay * 2, maxDelay);
+        }
+      }
+    }
+
+    @Override
+    public void remove() {
+      RemovalHandler cancel;
+      synchronized (this) {
+        removed = true;
+        cancel = pending;
+      }
+      cancel.remove();
+    }
+  }
+
   private final Object synchro = new Object();
 
   private static final double start = X_Process.now();
 
-  public void monitor(Priority priority, Provider<Boolean> gate, Runnable job) {
-
+  /**
+   * Runs the job once the gate returns true, checking it on the shared timer
+   * ({@link X_Process#runTimeout(Runnable, int)}) rather than blocking a thread.
+   * Higher priorities are checked sooner; each failed check waits twice as long as the last.
+   *
+   * @return A handle which stops the monitor, if the job has not run yet.
+   */
+  public RemovalHandler monitor(Priority priority, Provider<Boolean> gate, Runnable job) {
+    Monitor monitor = new Monitor(priority, gate, job);
+    monitor.run();
+    return monitor;
   }
 
   public boolean hasFinalies() {
@@ -98,8 +164,16 @@ public abstract class ConcurrentEnvironment {
     }
   }
 
-  public void scheduleFlush(int timeout) {
-
+  /**
+   * Flushes this environment from the shared timer, for a caller on another thread.
+   */
+  public void scheduleFlush(final int timeout) {
+    X_Process.runTimeout(new Runnable() {
+      @Override
+      public void run() {
+        flush(timeout);
+      }
+    }, 0);
   }
 
   public boolean destroy(int timeout) {
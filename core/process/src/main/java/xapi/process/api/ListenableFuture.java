@@ -0,0 +1,27 @@
+package xapi.process.api;
+
+import java.util.concurrent.Future;
+
+import xapi.util.api.RemovalHandler;
+
+/**
+ * A future which tells you when it is done, so nothing has to poll {@link #isDone()}.
+ * <p>
+ * {@link xapi.process.X_Process#block(Future, xapi.util.api.ReceivesValue)} waits on these
+ * by listening to them; any other future has to be checked on a timer.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public interface ListenableFuture <T> extends Future<T> {
+
+  /**
+   * Runs the listener once this future is done (completed, failed or cancelled);
+   * immediately, on the calling thread, if it already is.
+   * Otherwise it runs on whichever thread completes the future.
+   *
+   * @return A handle which stops the listener from being called, if it has not run yet.
+   */
+  RemovalHandler addListener(Runnable listener);
+
+}
@@ -1,11 +1,327 @@
 package xapi.process.api;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import xapi.log.X_Log;
+import xapi.process.api.ConcurrentEnvironment.Priority;
+
+/**
+ * A handle on a running {@link Process}.
+ * <p>
+ * A process runs in slices: each call to {@link #runSlice(float)} gives it a time budget
+ * to pass to {@link Process#process(float)}, which returns true while it has more work.
+ * Controllers returned by {@link xapi.process.X_Process#newProcess(Process)} are sliced for you
+ * by a shared scheduler; a controller you construct yourself runs only when you call {@link #runSlice(float)}.
+ * <p>
+ * The process is initialized and started before its first slice,
+ * and stopped and destroyed once it finishes, fails or is cancelled.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
 public class ProcessController <T> {
 
+  public static enum State {
+    /** Ready for its next slice. */
+    Waiting,
+    Running,
+    Paused,
+    Cancelled,
+    /** {@link Process#process(float)} returned false. */
+    Finished,
+    /** {@link Process#process(float)} threw; see {@link ProcessController#getFailure()}. */
+    Failed
+  }
+
+  private static final StageStats[] NO_STAGES = new StageStats[0];
+
   private final Process<T> process;
+  private final StageStats[] stages;
+
+  private Priority priority;
+  private State state = State.Waiting;
+  private boolean started;
+  private boolean pauseRequested;
+  private boolean cancelRequested;
+  private Throwable failure;
+  private long cpuNanos;
+  private int slices;
+  private List<Runnable> onDone;
 
   public ProcessController(Process<T> process) {
+    this(process, Priority.Medium);
+  }
+
+  public ProcessController(Process<T> process, Priority priority) {
+    this(process, priority, NO_STAGES);
+  }
+
+  /**
+   * @param stages - The counters of each stage, when the process runs as a staged pipeline.
+   */
+  public ProcessController(Process<T> process, StageStats[] stages) {
+    this(process, Priority.Medium, stages);
+  }
+
+  public ProcessController(Process<T> process, Priority priority, StageStats[] stages) {
     this.process = process;
+    this.priority = priority;
+    this.stages = stages;
+  }
+
+  public Process<T> getProcess() {
+    return process;
+  }
+
+  /**
+   * @return Live counters for each stage of this process, in the order signals pass through them;
+   * empty if the process is not running as a staged pipeline.
+   */
+  public StageStats[] getStageStats() {
+    return stages.clone();
+  }
+
+  public synchronized Priority getPriority() {
+    return priority;
+  }
+
+  /**
+   * Changes the priority used for this process' next slice.
+   */
+  public synchronized void setPriority(Priority priority) {
+    this.priority = priority;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  public synchronized boolean isDone() {
+    return state == State.Cancelled || state == State.Finished || state == State.Failed;
+  }
+
+  /**
+   * @return The exception which failed this process, if any.
+   */
+  public synchronized Throwable getFailure() {
+    return failure;
+  }
+
+  /**
+   * @return Milliseconds spent inside {@link Process#process(float)}, across all slices,
+   * as measured by {@link #cpuTime()}.
+   */
+  public synchronized double getCpuMillis() {
+    return cpuNanos / 1000000.0;
+  }
+
+  /**
+   * @return How many slices this process has run.
+   */
+  public synchronized int getSlices() {
+    return slices;
+  }
+
+  /**
+   * Runs one slice of the process.
+   *
+   * @param milliTimeLimit - The budget passed to {@link Process#process(float)}.
+   * @return true if the process is waiting for another slice;
+   * false if it finished, failed, was cancelled or paused, or was not ready to run.
+   */
+  public boolean runSlice(float milliTimeLimit) {
+    boolean first;
+    synchronized (this) {
+      if (state != State.Waiting) {
+        return false;
+      }
+      state = State.Running;
+      first = !started;
+      started = true;
+    }
+    boolean more = false;
+    Throwable error = null;
+    long start = cpuTime();
+    try {
+      if (first) {
+        process.onInit();
+        if (!process.onStart()) {
+          synchronized (this) {
+            cancelRequested = true;
+          }
+        }
+      }
+      if (!isCancelRequested()) {
+        more = process.process(milliTimeLimit);
+      }
+    } catch (RescheduleException e) {
+      more = true;
+    } catch (Throwable e) {
+      error = e;
+    }
+    long took = cpuTime() - start;
+    State next;
+    synchronized (this) {
+      cpuNanos += took;
+      slices++;
+      if (error != null) {
+        failure = error;
+        next = State.Failed;
+      } else if (cancelRequested) {
+        next = State.Cancelled;
+      } else if (!more) {
+        next = State.Finished;
+      } else if (pauseRequested) {
+        next = State.Paused;
+      } else {
+        next = State.Waiting;
+      }
+      pauseRequested = cancelRequested = false;
+      state = next;
+    }
+    if (error != null) {
+      X_Log.error(getClass(), "Process", process, "failed", error);
+    }
+    if (next == State.Waiting) {
+      return true;
+    }
+    if (next != State.Paused) {
+      end();
+    }
+    return false;
+  }
+
+  private synchronized boolean isCancelRequested() {
+    return cancelRequested;
+  }
+
+  /**
+   * Stops giving slices to this process; a running slice finishes first.
+   *
+   * @return false if the process is already done.
+   */
+  public boolean pause() {
+    synchronized (this) {
+      switch (state) {
+        case Waiting:
+          state = State.Paused;
+          return true;
+        case Running:
+          pauseRequested = true;
+          return true;
+        case Paused:
+          return true;
+        default:
+          return false;
+      }
+    }
+  }
+
+  /**
+   * Makes a paused process ready for its next slice.
+   *
+   * @return false if the process is already done.
+   */
+  public boolean resume() {
+    synchronized (this) {
+      switch (state) {
+        case Paused:
+          state = State.Waiting;
+          break;
+        case Running:
+          pauseRequested = false;
+          return true;
+        case Waiting:
+          return true;
+        default:
+          return false;
+      }
+    }
+    onReady();
+    return true;
+  }
+
+  /**
+   * Stops the process; if a slice is running, the process stops when it returns.
+   *
+   * @return false if the process was already done.
+   */
+  public boolean cancel() {
+    synchronized (this) {
+      switch (state) {
+        case Running:
+          cancelRequested = true;
+          return true;
+        case Waiting:
+        case Paused:
+          state = State.Cancelled;
+          break;
+        default:
+          return false;
+      }
+    }
+    end();
+    return true;
+  }
+
+  /**
+   * Runs the given command once this process is done; immediately, if it already is.
+   */
+  public void whenDone(Runnable cmd) {
+    synchronized (this) {
+      if (!isDone()) {
+        if (onDone == null) {
+          onDone = new ArrayList<Runnable>();
+        }
+        onDone.add(cmd);
+        return;
+      }
+    }
+    cmd.run();
+  }
+
+  /**
+   * @return The clock, in nanoseconds, used to account the time of each slice;
+   * wall time, unless the platform can read the cpu time of the current thread.
+   */
+  protected long cpuTime() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Called when a paused process is resumed, so a scheduler can give it slices again.
+   */
+  protected void onReady() {
+  }
+
+  private void end() {
+    boolean stop;
+    List<Runnable> done;
+    synchronized (this) {
+      stop = started;
+      done = onDone;
+      onDone = null;
+    }
+    if (stop) {
+      try {
+        process.onStop();
+        process.onDestroy();
+      } catch (Throwable e) {
+        X_Log.error(getClass(), "Process", process, "failed to stop", e);
+      }
+    }
+    if (done != null) {
+      for (Runnable cmd : done) {
+        cmd.run();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return process + " (" + getState() + ", " + getPriority() + ", " + getSlices() + " slices, "
+      + getCpuMillis() + "ms)";
   }
 
 }
@@ -0,0 +1,66 @@
+package xapi.process.api;
+
+/**
+ * Throughput and latency counters for one stage of a staged {@link Process};
+ * a stage is a process method annotated with
+ * {@link xapi.annotation.process.OneToOne}, {@link xapi.annotation.process.OneToMany}
+ * or {@link xapi.annotation.process.ManyToOne}.
+ *
+ * All values are live snapshots, safe to read from any thread while the stage runs.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public interface StageStats {
+
+  enum Kind {
+    OneToOne, OneToMany, ManyToOne
+  }
+
+  /**
+   * @return The name of the method behind this stage.
+   */
+  String name();
+
+  /**
+   * @return The stage number from the stage annotation.
+   */
+  int stage();
+
+  Kind kind();
+
+  /**
+   * @return How many signals this stage has finished with, successfully or not.
+   */
+  long processed();
+
+  /**
+   * @return How many signals this stage has sent on to the next stage.
+   */
+  long emitted();
+
+  /**
+   * @return How many signals stopped at this stage, because it returned null or threw.
+   */
+  long dropped();
+
+  /**
+   * @return How many invocations of this stage threw an exception.
+   */
+  long failed();
+
+  /**
+   * @return How many signals are waiting for this stage.
+   */
+  int queued();
+
+  double averageMillis();
+
+  double maxMillis();
+
+  /**
+   * @return Signals processed per second, from the first invocation to the last.
+   */
+  double throughput();
+
+}
@@ -15,6 +15,7 @@ import xapi.collect.impl.AbstractMultiInitMap;
 import xapi.log.X_Log;
 import xapi.process.api.ConcurrentEnvironment;
 import xapi.process.api.ConcurrentEnvironment.Priority;
+import xapi.process.api.ListenableFuture;
 import xapi.process.api.Process;
 import xapi.process.api.ProcessController;
 import xapi.process.service.ConcurrencyService;
@@ -22,6 +23,7 @@ import xapi.util.X_Runtime;
 import xapi.util.X_Util;
 import xapi.util.api.ConvertsValue;
 import xapi.util.api.ReceivesValue;
+import xapi.util.api.RemovalHandler;
 
 public abstract class ConcurrencyServiceAbstract implements ConcurrencyService{
 
@@ -37,10 +39,11 @@ public abstract class ConcurrencyServiceAbstract implements ConcurrencyService{
     public void run() {
 
       core.run();
-      destroy(Thread.currentThread(), threadFlushTime());
+      destroy(currentThread(), threadFlushTime());
 
       //Now that we've finished the job we were told to do,
       //let's attempt to reuse our current thread
+      //(in the jre, xapi.jre.process.WorkStealingExecutor does this for us).
 
 
       //We should choose how to "steal work" wisely,
@@ -94,7 +97,7 @@ public abstract class ConcurrencyServiceAbstract implements ConcurrencyService{
       super(new ConvertsValue<Thread,String>() {
         @Override
         public String convert(Thread from) {
-          return from.getName();
+          return key(from);
         }
       });
     }
@@ -118,6 +121,14 @@ public abstract class ConcurrencyServiceAbstract implements ConcurrencyService{
   }
 
 
+  /**
+   * Environments are keyed by thread id, as names are neither unique nor fixed;
+   * pooled workers, and any thread which renames itself, would otherwise share or lose them.
+   */
+  private static String key(Thread thread) {
+    return Long.toString(thread.getId());
+  }
+
   protected abstract ConcurrentEnvironment initializeEnvironment(Thread key, UncaughtExceptionHandler params);
 
   protected int threadFlushTime() {
@@ -128,17 +139,44 @@ public abstract class ConcurrencyServiceAbstract implements ConcurrencyService{
 
   private AtomicInteger threadCount = new AtomicInteger();
 
+  private ProcessScheduler scheduler;
+
   @Override
   public Thread newThread(Runnable cmd) {
     WrappedRunnable wrapped = wrap(cmd);
-    Thread childThread = new Thread(wrapped);
-    childThread.setName(cmd.getClass().getName()+"_"+threadCount.incrementAndGet());
-    Thread running = Thread.currentThread();
-    ConcurrentEnvironment enviro = environments.get(running, running.getUncaughtExceptionHandler());
+    Thread childThread = createThread(wrapped, cmd.getClass().getName()+"_"+threadCount.incrementAndGet());
+    ConcurrentEnvironment enviro = currentEnvironment();
     enviro.pushThread(childThread);
     return childThread;
   }
 
+  /**
+   * Creates the (unstarted) thread returned by {@link #newThread(Runnable)}.
+   *
+   * Subclasses may return a thread whose start() schedules the command on a pool,
+   * instead of starting a real thread; they should then also override
+   * {@link #currentThread()} and {@link #join(Thread, int)}.
+   */
+  protected Thread createThread(WrappedRunnable cmd, String name) {
+    Thread childThread = new Thread(cmd);
+    childThread.setName(name);
+    return childThread;
+  }
+
+  /**
+   * @return The thread whose environment the running code belongs to.
+   */
+  protected Thread currentThread() {
+    return Thread.currentThread();
+  }
+
+  /**
+   * Waits up to millis for a thread created by {@link #createThread(WrappedRunnable, String)} to finish.
+   */
+  protected void join(Thread thread, int millis) throws InterruptedException {
+    thread.join(millis);
+  }
+
   /**
    * Allow all subclasses to wrap Runnables for custom behavior.
    * @param cmd - The supplied Runnable to execute.
@@ -153,7 +191,7 @@ public abstract class ConcurrencyServiceAbstract implements ConcurrencyService{
   }
 
   protected ConcurrentEnvironment currentEnvironment() {
-    Thread running = Thread.currentThread();
+    Thread running = currentThread();
     return environments.get(running, running.getUncaughtExceptionHandler());
   }
 
@@ -163,29 +201,61 @@ public abstract class ConcurrencyServiceAbstract implements ConcurrencyService{
 
   @Override
   public <T> ProcessController<T> newProcess(Process<T> process) {
-    return new ProcessController<T>(process);
+    return newProcess(process, Priority.Medium);
   }
 
   @Override
-  public <T> void resolve(final Future<T> future, final ReceivesValue<T> receiver) {
+  public <T> ProcessController<T> newProcess(Process<T> process, Priority priority) {
+    return getScheduler().submit(process, priority);
+  }
+
+  protected ProcessScheduler getScheduler() {
+    synchronized (environments) {
+      if (scheduler == null) {
+        scheduler = newScheduler();
+      }
+      return scheduler;
+    }
+  }
+
+  /**
+   * Creates the run queue for {@link #newProcess(Process, Priority)};
+   * by default, a single core whose slices are run as deferred commands.
+   */
+  protected ProcessScheduler newScheduler() {
+    return new ProcessScheduler(1) {
+      @Override
+      protected void startCore(Runnable core) {
+        runDeferred(core);
+      }
+    };
+  }
+
+  @Override
+  public <T> RemovalHandler resolve(final Future<T> future, final ReceivesValue<T> receiver) {
     if (future.isDone()) {
       callback(future, receiver);
-      return;
+      return RemovalHandler.DoNothing;
+    }
+    Runnable callback = new Runnable() {
+      @Override
+      public void run() {
+        callback(future, receiver);
+      }
+    };
+    if (future instanceof ListenableFuture) {
+      // completion-driven; nobody polls
+      return ((ListenableFuture<T>)future).addListener(callback);
     }
     //The future isn't done.  Let's push a task into the enviro.
     Thread otherThread = getFuturesThread();
     ConcurrentEnvironment enviro = environments.get(otherThread, otherThread.getUncaughtExceptionHandler());
-    enviro.monitor(Priority.Low, new Provider<Boolean>() {
+    return enviro.monitor(Priority.Low, new Provider<Boolean>() {
       @Override
       public Boolean get() {
         return future.isDone();
       }
-    }, new Runnable() {
-      @Override
-      public void run() {
-        callback(future, receiver);
-      }
-    });
+    }, callback);
   }
 
   /**
@@ -194,7 +264,7 @@ public abstract class ConcurrencyServiceAbstract implements ConcurrencyService{
    * @return - The thread to be used for monitoring futures
    */
   protected Thread getFuturesThread() {
-    return Thread.currentThread();
+    return currentThread();
   }
 
   protected <T> void callback(Future<T> future, ReceivesValue<T> receiver) {
@@ -225,10 +295,10 @@ public abstract class ConcurrencyServiceAbstract implements ConcurrencyService{
   }
 
   private boolean destroy(Thread thread, int timeout) {
-    if (environments.hasValue(thread.getName())) {
+    if (environments.hasValue(key(thread))) {
       ConcurrentEnvironment enviro = environments.get(thread, thread.getUncaughtExceptionHandler());
       boolean success = enviro.destroy(timeout);
-      environments.removeValue(thread.getName());
+      environments.removeValue(key(thread));
       return success;
     }
     return true;
@@ -250,8 +320,8 @@ public abstract class ConcurrencyServiceAbstract implements ConcurrencyService{
 
   @Override
   public boolean flush(Thread thread, int timeout) {
-    ConcurrentEnvironment enviro = environments.getValue(thread.getName());
-    if (thread == Thread.currentThread()) {
+    ConcurrentEnvironment enviro = environments.getValue(key(thread));
+    if (thread == currentThread()) {
       if (enviro == null)
         return true;// nothin' to do here!
       long deadline = System.currentTimeMillis()+timeout;
@@ -272,9 +342,9 @@ public abstract class ConcurrencyServiceAbstract implements ConcurrencyService{
           }
 
         if (next != null)
-          next.join(timeLeft);
+          join(next, timeLeft);
         } catch (InterruptedException e) {
-          destroy(Thread.currentThread(), timeLeft);
+          destroy(currentThread(), timeLeft);
           Thread.currentThread().interrupt();
         }
         if (System.currentTimeMillis()>deadline)
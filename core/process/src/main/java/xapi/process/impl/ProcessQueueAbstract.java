@@ -3,85 +3,478 @@ package xapi.process.impl;
 import java.util.AbstractQueue;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
-import xapi.process.X_Process;
-import xapi.process.api.AsyncLock;
-import xapi.reflect.X_Reflect;
-import xapi.util.api.SuccessHandler;
+import xapi.util.api.ReceivesValue;
 
+/**
+ * A lock-free queue for any number of producers and consumers, built on sequenced ring buffers.
+ * <p>
+ * Every slot of a ring carries a sequence number, which says whether the slot is free for the producer
+ * at a given position, or holds the item for the consumer at that position.
+ * A producer claims a position by advancing the ring's tail with one compare-and-set,
+ * writes its item, then publishes it by advancing the slot's sequence;
+ * a consumer does the same with the head, and frees the slot for the producer one lap later.
+ * {@link #drain(ReceivesValue, int)} claims every published item it wants with a single compare-and-set.
+ * <p>
+ * A bounded queue never allocates after construction; {@link #offer(Object)} returns false when it is full.
+ * A growable queue links a new ring, twice the size of the last one, whenever the newest ring is full,
+ * so offer never fails; consumers close an older ring once it is empty, and move on to the next one.
+ * Items from one producer are always taken in the order they were offered.
+ * <p>
+ * {@link #poll()} and {@link #peek()} return null when the queue is empty,
+ * while {@link #take()} and {@link #put(Object)} wait for an item, or for room,
+ * using the queue's {@link WaitStrategy}.
+ * {@link #size()} is exact whenever no offer or poll is in progress.
+ * Iterators are weakly consistent; they never throw {@link java.util.ConcurrentModificationException},
+ * and do not support removal, so neither does {@link #remove(Object)}.
+ * <p>
+ * Null items are not permitted.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ * @param <T> - The type of item stored in the queue
+ */
 public abstract class ProcessQueueAbstract <T> extends AbstractQueue<T> {
 
-  private final int size;
-  private int writeIndex;
-  private int readIndex;
-  private final T[] all;
-  private final AsyncLock lock;
+  /**
+   * What a thread does while {@link ProcessQueueAbstract#take()} or {@link ProcessQueueAbstract#put(Object)}
+   * finds nothing to take, or no room to put.
+   */
+  public static interface WaitStrategy {
+    /**
+     * @param round - How many times in a row this waiter has found nothing, starting from 0.
+     */
+    void idle(int round);
+  }
+
+  /**
+   * Busy spins; the lowest latency, at the price of a whole cpu per waiting thread.
+   */
+  public static final WaitStrategy SPIN = new WaitStrategy() {
+    @Override
+    public void idle(int round) {
+    }
+  };
+
+  /**
+   * Spins for a while, then yields the cpu to other threads between each look.
+   */
+  public static final WaitStrategy YIELD = new WaitStrategy() {
+    @Override
+    public void idle(int round) {
+      if (round >= SPIN_ROUNDS) {
+        Thread.yield();
+      }
+    }
+  };
+
+  public static final int DEFAULT_CAPACITY = 1024;
 
-  public ProcessQueueAbstract(int knownSize) {
-    this.size = knownSize;
-    Class<T> cls = typeClass();
-    all = X_Reflect.newArray(cls, knownSize);
-    lock = X_Process.newLock();
+  /**
+   * How many times a waiting thread spins before it starts backing off.
+   */
+  protected static final int SPIN_ROUNDS = 100;
+
+  /**
+   * The largest ring a growable queue will link; positions are ints,
+   * so twice this must still fit within the distances they can measure.
+   */
+  private static final int MAX_RING = 1 << 28;
+
+  /**
+   * A slot is its own sequence number, so the ring needs no second array.
+   */
+  private static final class Slot <T> extends AtomicInteger {
+    private static final long serialVersionUID = -2393744523573108761L;
+    T item;
+
+    Slot(int sequence) {
+      super(sequence);
+    }
   }
 
-  protected abstract Class<T> typeClass();
+  /**
+   * One ring of slots; the reference it extends points to the ring linked after it, if any.
+   * <p>
+   * A slot whose sequence equals a position is free for the producer at that position;
+   * a slot whose sequence is one past a position holds the item for the consumer at that position.
+   * Positions are ints which may wrap, so they are only ever compared by subtracting them.
+   */
+  private static final class Ring <T> extends AtomicReference<Ring<T>> {
+    private static final long serialVersionUID = 4618470271315530413L;
 
-  @Override
-  public boolean offer(final T e) {
-    if (lock.tryLock()) {
-      // just do it
-      try {
-        doPut(e);
-      } finally {
-        lock.unlock();
-      }
-    } else {
-      lock.lock(new SuccessHandler<AsyncLock>() {
-        @Override
-        public void onSuccess(AsyncLock t) {
-          try {
-            doPut(e);
-          } finally {
-            t.unlock();
+    final Slot<T>[] slots;
+    final int mask;
+    final AtomicInteger head = new AtomicInteger();
+    final AtomicInteger tail = new AtomicInteger();
+
+    Ring(int capacity) {
+      // we only ever put Slot<T>s in this array
+      @SuppressWarnings("unchecked")
+      Slot<T>[] slots = (Slot<T>[])new Slot<?>[capacity];
+      this.slots = slots;
+      for (int i = 0; i < capacity; i++) {
+        slots[i] = new Slot<T>(i);
+      }
+      mask = capacity - 1;
+    }
+
+    int capacity() {
+      return slots.length;
+    }
+
+    Slot<T> slot(int position) {
+      return slots[position & mask];
+    }
+
+    /**
+     * @return false if the ring is full, or closed.
+     */
+    boolean offer(T item) {
+      int position = tail.get();
+      while (true) {
+        Slot<T> slot = slot(position);
+        int ahead = slot.get() - position;
+        if (ahead == 0) {
+          if (tail.compareAndSet(position, position + 1)) {
+            slot.item = item;
+            slot.set(position + 1);
+            return true;
           }
+        } else if (ahead < 0) {
+          // the slot still holds the item from the last lap
+          return false;
         }
-      });
+        position = tail.get();
+      }
+    }
+
+    T poll() {
+      int position = head.get();
+      while (true) {
+        Slot<T> slot = slot(position);
+        int ahead = slot.get() - (position + 1);
+        if (ahead == 0) {
+          if (head.compareAndSet(position, position + 1)) {
+            return release(slot, position);
+          }
+        } else if (ahead < 0) {
+          // nothing published here yet
+          return null;
+        }
+        position = head.get();
+      }
+    }
+
+    int drain(ReceivesValue<? super T> into, int max) {
+      int position, count;
+      do {
+        position = head.get();
+        count = 0;
+        // a slot from the next lap can never match, so this stops within one lap
+        while (count < max && slot(position + count).get() == position + count + 1) {
+          count++;
+        }
+        if (count == 0) {
+          return 0;
+        }
+      } while (!head.compareAndSet(position, position + count));
+      RuntimeException failure = null;
+      for (int i = 0; i < count; i++) {
+        T item = release(slot(position + i), position + i);
+        try {
+          into.set(item);
+        } catch (RuntimeException e) {
+          // we own the whole batch, so we deliver the rest of it before complaining
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return count;
+    }
+
+    private T release(Slot<T> slot, int position) {
+      T item = slot.item;
+      slot.item = null;
+      slot.set(position + slots.length);
+      return item;
+    }
+
+    /**
+     * Closes an empty ring, so no producer can ever use it again, by jumping its tail two laps ahead;
+     * every slot then looks full to producers, who move on to the next ring.
+     *
+     * @return true if the ring is closed; false if it may still hold an item, or an offer in progress.
+     */
+    boolean close() {
+      int size = span();
+      if (size > slots.length) {
+        return true;
+      }
+      if (size != 0) {
+        return false;
+      }
+      int end = head.get();
+      return tail.compareAndSet(end, end + 2 * slots.length);
+    }
+
+    int size() {
+      int size = span();
+      // a closed ring is empty, though its tail is two laps past its head
+      return size < 0 || size > slots.length ? 0 : size;
+    }
+
+    /**
+     * @return The distance from head to tail, read while the head stood still,
+     * so it is never more than one lap unless the ring is closed.
+     */
+    private int span() {
+      int start, end;
+      do {
+        start = head.get();
+        end = tail.get();
+      } while (start != head.get());
+      return end - start;
     }
-    return true;
   }
 
-  private void doPut(T e) {
-    if (writeIndex < size) {
-      all[writeIndex++] = e;
-    } else {
+  /**
+   * A weakly consistent walk over every published item, from the oldest ring to the newest.
+   */
+  private final class Itr implements Iterator<T> {
+
+    Ring<T> ring = readRing.get();
+    int position = ring.head.get();
+    T next = advance();
+
+    private T advance() {
+      while (ring != null) {
+        Slot<T> slot = ring.slot(position);
+        if (slot.get() == position + 1) {
+          T item = slot.item;
+          position++;
+          if (item != null) {
+            return item;
+          }
+          continue;
+        }
+        int head = ring.head.get();
+        if (head - position > 0) {
+          // consumers have passed us; catch up
+          position = head;
+          continue;
+        }
+        ring = ring.get();
+        if (ring != null) {
+          position = ring.head.get();
+        }
+      }
+      return null;
+    }
 
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public T next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      T item = next;
+      next = advance();
+      return item;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Items can only be removed from the head of a ProcessQueue");
     }
   }
 
-  void unlock() {
-    lock.unlock();
+  private final boolean growable;
+  private final WaitStrategy waitStrategy;
+  /** The ring consumers take from; never ahead of writeRing. */
+  private final AtomicReference<Ring<T>> readRing;
+  /** The newest ring, which producers offer to. */
+  private final AtomicReference<Ring<T>> writeRing;
+
+  /**
+   * @param capacity - The size of the first ring; rounded up to a power of two.
+   * @param growable - Whether to link bigger rings when full, rather than refusing new items.
+   * @param waitStrategy - What {@link #take()} and {@link #put(Object)} do while they wait.
+   */
+  public ProcessQueueAbstract(int capacity, boolean growable, WaitStrategy waitStrategy) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Queue capacity must be positive; you sent " + capacity);
+    }
+    int size = 1;
+    while (size < capacity && size < MAX_RING) {
+      size <<= 1;
+    }
+    Ring<T> ring = new Ring<T>(size);
+    this.growable = growable;
+    this.waitStrategy = waitStrategy == null ? YIELD : waitStrategy;
+    this.readRing = new AtomicReference<Ring<T>>(ring);
+    this.writeRing = new AtomicReference<Ring<T>>(ring);
+  }
+
+  public boolean isGrowable() {
+    return growable;
+  }
+
+  @Override
+  public boolean offer(T item) {
+    if (item == null) {
+      throw new NullPointerException("ProcessQueue does not accept null items");
+    }
+    Ring<T> ring = writeRing.get();
+    while (!ring.offer(item)) {
+      if (!growable) {
+        return false;
+      }
+      Ring<T> next = ring.get();
+      if (next == null) {
+        next = new Ring<T>(Math.min(ring.capacity() * 2, MAX_RING));
+        if (!ring.compareAndSet(null, next)) {
+          next = ring.get();
+        }
+      }
+      writeRing.compareAndSet(ring, next);
+      ring = next;
+    }
+    return true;
   }
 
   @Override
   public T poll() {
-    if (readIndex == size)
-      throw new NoSuchElementException();
-    return all[readIndex++];
+    Ring<T> ring = readRing.get();
+    while (true) {
+      T item = ring.poll();
+      if (item != null) {
+        return item;
+      }
+      ring = nextRing(ring);
+      if (ring == null) {
+        return null;
+      }
+    }
   }
 
   @Override
   public T peek() {
-    return all[readIndex];
+    Ring<T> ring = readRing.get();
+    while (ring != null) {
+      int position = ring.head.get();
+      Slot<T> slot = ring.slot(position);
+      int ahead = slot.get() - (position + 1);
+      if (ahead == 0) {
+        T item = slot.item;
+        // make sure no consumer took it, and no producer refilled the slot, while we looked
+        if (item != null && ring.head.get() == position) {
+          return item;
+        }
+      } else if (ahead < 0) {
+        ring = nextRing(ring);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Takes up to max items, in order, handing each one to the receiver.
+   * Items are claimed a whole run at a time, with one compare-and-set per ring.
+   * If the receiver throws, the rest of the claimed items are still delivered before the exception is rethrown.
+   *
+   * @return How many items were taken.
+   */
+  public int drain(ReceivesValue<? super T> into, int max) {
+    int drained = 0;
+    Ring<T> ring = readRing.get();
+    while (drained < max) {
+      int count = ring.drain(into, max - drained);
+      if (count == 0) {
+        ring = nextRing(ring);
+        if (ring == null) {
+          break;
+        }
+      }
+      drained += count;
+    }
+    return drained;
+  }
+
+  /**
+   * Takes the next item, waiting for one to arrive.
+   */
+  public T take() throws InterruptedException {
+    for (int round = 0;; round++) {
+      T item = poll();
+      if (item != null) {
+        return item;
+      }
+      idle(round);
+    }
+  }
+
+  /**
+   * Offers the item, waiting for room if this queue is bounded and full.
+   */
+  public void put(T item) throws InterruptedException {
+    for (int round = 0; !offer(item); round++) {
+      idle(round);
+    }
+  }
+
+  private void idle(int round) throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    waitStrategy.idle(round);
+  }
+
+  /**
+   * Called when a consumer finds a ring empty.
+   *
+   * @return The ring to look in next (which may be the same ring, if a producer is still writing to it),
+   * or null if there is nothing more to take.
+   */
+  private Ring<T> nextRing(Ring<T> ring) {
+    Ring<T> next = ring.get();
+    if (next == null) {
+      return null;
+    }
+    if (ring.close()) {
+      readRing.compareAndSet(ring, next);
+      return readRing.get();
+    }
+    return ring;
   }
 
   @Override
-  public Iterator<T> iterator() {
-    return null;
+  public boolean isEmpty() {
+    return peek() == null;
   }
 
   @Override
   public int size() {
-    return writeIndex - readIndex;
+    long size = 0;
+    for (Ring<T> ring = readRing.get(); ring != null; ring = ring.get()) {
+      size += ring.size();
+    }
+    return (int)Math.min(size, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new Itr();
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,219 @@
+package xapi.process.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import xapi.process.api.ConcurrentEnvironment.Priority;
+import xapi.process.api.Process;
+import xapi.process.api.ProcessController;
+
+/**
+ * A cooperative, time-sliced run queue for {@link Process}es.
+ * <p>
+ * Each process runs for one slice at a time, then goes to the back of its priority's queue
+ * if it has more work, so long-running processes share cores without a thread each.
+ * The next slice goes to the waiting process with the best priority;
+ * a process rises one priority for every {@link #setAging(int) aging} slices it waits,
+ * so low priority work is never starved, and ties go to whoever has waited longest.
+ * <p>
+ * Up to {@code cores} drain tasks run at once; each runs slices for {@link #setCoreBudget(float)}
+ * milliseconds before handing its core back to {@link #startCore(Runnable)},
+ * which subclasses implement with whatever the platform offers.
+ * You may also call {@link #drain(float)} yourself, from any thread.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public abstract class ProcessScheduler {
+
+  public static final float DEFAULT_TIME_SLICE = 10;
+  public static final float DEFAULT_CORE_BUDGET = 50;
+  public static final int DEFAULT_AGING = 16;
+
+  private final class Scheduled <T> extends ProcessController<T> {
+    private long since;
+    private boolean queued;
+
+    Scheduled(Process<T> process, Priority priority) {
+      super(process, priority);
+    }
+
+    @Override
+    protected void onReady() {
+      enqueue(this, true);
+    }
+
+    @Override
+    protected long cpuTime() {
+      return ProcessScheduler.this.cpuTime();
+    }
+  }
+
+  private final Runnable core = new Runnable() {
+    @Override
+    public void run() {
+      boolean more;
+      try {
+        more = drain(coreBudget);
+      } finally {
+        synchronized (ProcessScheduler.this) {
+          active--;
+        }
+      }
+      if (more) {
+        wake();
+      }
+    }
+  };
+
+  private final ArrayList<LinkedList<Scheduled<?>>> queues;
+  private final int cores;
+  private int active;
+  private int waiting;
+  private long tick;
+  private int aging = DEFAULT_AGING;
+  private float timeSlice = DEFAULT_TIME_SLICE;
+  private float coreBudget = DEFAULT_CORE_BUDGET;
+
+  public ProcessScheduler(int cores) {
+    this.cores = Math.max(1, cores);
+    Priority[] priorities = Priority.values();
+    queues = new ArrayList<LinkedList<Scheduled<?>>>(priorities.length);
+    for (int i = 0; i < priorities.length; i++) {
+      queues.add(new LinkedList<Scheduled<?>>());
+    }
+  }
+
+  /**
+   * @param millis - The budget given to each call of {@link Process#process(float)}.
+   */
+  public void setTimeSlice(float millis) {
+    this.timeSlice = millis;
+  }
+
+  /**
+   * @param millis - How long a drain task runs slices before yielding its core.
+   */
+  public void setCoreBudget(float millis) {
+    this.coreBudget = millis;
+  }
+
+  /**
+   * @param slices - How many slices a process may wait before rising one priority.
+   */
+  public void setAging(int slices) {
+    this.aging = Math.max(1, slices);
+  }
+
+  public int getCores() {
+    return cores;
+  }
+
+  /**
+   * Queues a process for its first slice.
+   */
+  public <T> ProcessController<T> submit(Process<T> process, Priority priority) {
+    Scheduled<T> controller = new Scheduled<T>(process, priority);
+    enqueue(controller, true);
+    return controller;
+  }
+
+  /**
+   * @return How many processes are waiting for a slice.
+   */
+  public synchronized int size() {
+    return waiting;
+  }
+
+  /**
+   * Runs slices on the calling thread until no process is waiting,
+   * or until the given time has passed.
+   *
+   * @return true if processes are still waiting.
+   */
+  public boolean drain(float millis) {
+    long deadline = System.nanoTime() + (long)(millis * 1000000);
+    do {
+      Scheduled<?> next = next();
+      if (next == null) {
+        return false;
+      }
+      if (next.runSlice(timeSlice)) {
+        // the core which ran a slice keeps going, so there is no need to wake another
+        enqueue(next, false);
+      }
+    } while (System.nanoTime() < deadline);
+    return size() > 0;
+  }
+
+  /**
+   * @return The clock used to account the time of each slice; see {@link ProcessController#cpuTime()}.
+   */
+  protected long cpuTime() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Runs a drain task on another core, such as a thread pool or an event loop.
+   * <p>
+   * Do not run the command on the calling thread;
+   * a drain task which yields its core calls this method again.
+   */
+  protected abstract void startCore(Runnable core);
+
+  private void enqueue(Scheduled<?> controller, boolean wake) {
+    synchronized (this) {
+      // a process paused and resumed while still queued keeps its place
+      if (!controller.queued) {
+        controller.queued = true;
+        controller.since = tick;
+        queues.get(controller.getPriority().ordinal()).add(controller);
+        waiting++;
+      }
+    }
+    if (wake) {
+      wake();
+    }
+  }
+
+  private void wake() {
+    synchronized (this) {
+      if (active >= cores || waiting == 0) {
+        return;
+      }
+      active++;
+    }
+    startCore(core);
+  }
+
+  /**
+   * Takes the waiting process with the best priority after aging, skipping any paused or cancelled.
+   */
+  private synchronized Scheduled<?> next() {
+    while (waiting > 0) {
+      int best = -1;
+      long bestScore = Long.MAX_VALUE, bestSince = Long.MAX_VALUE;
+      for (int i = 0; i < queues.size(); i++) {
+        Scheduled<?> head = queues.get(i).peek();
+        if (head == null) {
+          continue;
+        }
+        long score = Math.max(0, i - (tick - head.since) / aging);
+        if (score < bestScore || (score == bestScore && head.since < bestSince)) {
+          best = i;
+          bestScore = score;
+          bestSince = head.since;
+        }
+      }
+      Scheduled<?> next = queues.get(best).poll();
+      next.queued = false;
+      waiting--;
+      if (next.getState() == ProcessController.State.Waiting) {
+        tick++;
+        return next;
+      }
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,130 @@
+package xapi.process.impl;
+
+import xapi.process.api.StageStats;
+
+/**
+ * Counts the work of one pipeline stage.
+ * <p>
+ * Callers measure their own time (in nanoseconds, from any monotonic clock),
+ * so this class works the same on every platform;
+ * updates are synchronized on the counter, so one stage never contends with another.
+ * Override {@link #queued()} to report the depth of the stage's input queue.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class StageCounter implements StageStats {
+
+  private final String name;
+  private final int stage;
+  private final Kind kind;
+
+  private long processed;
+  private long emitted;
+  private long dropped;
+  private long failed;
+  private long busyNanos;
+  private long maxNanos;
+  private long firstStart;
+  private long lastEnd;
+
+  public StageCounter(String name, int stage, Kind kind) {
+    this.name = name;
+    this.stage = stage;
+    this.kind = kind;
+  }
+
+  /**
+   * Records one invocation of this stage.
+   *
+   * @param startNanos - When the invocation began.
+   * @param endNanos - When it finished.
+   * @param emitted - How many signals it sent downstream.
+   * @param error - Whether it threw.
+   */
+  public synchronized void record(long startNanos, long endNanos, int emitted, boolean error) {
+    long took = endNanos - startNanos;
+    if (processed == 0) {
+      firstStart = startNanos;
+    }
+    processed++;
+    busyNanos += took;
+    if (took > maxNanos) {
+      maxNanos = took;
+    }
+    if (endNanos > lastEnd) {
+      lastEnd = endNanos;
+    }
+    this.emitted += emitted;
+    if (error) {
+      failed++;
+    }
+    if (emitted == 0) {
+      dropped++;
+    }
+  }
+
+  @Override
+  public String name() {
+    return name;
+  }
+
+  @Override
+  public int stage() {
+    return stage;
+  }
+
+  @Override
+  public Kind kind() {
+    return kind;
+  }
+
+  @Override
+  public synchronized long processed() {
+    return processed;
+  }
+
+  @Override
+  public synchronized long emitted() {
+    return emitted;
+  }
+
+  @Override
+  public synchronized long dropped() {
+    return dropped;
+  }
+
+  @Override
+  public synchronized long failed() {
+    return failed;
+  }
+
+  @Override
+  public int queued() {
+    return 0;
+  }
+
+  @Override
+  public synchronized double averageMillis() {
+    return processed == 0 ? 0 : busyNanos / 1000000.0 / processed;
+  }
+
+  @Override
+  public synchronized double maxMillis() {
+    return maxNanos / 1000000.0;
+  }
+
+  @Override
+  public synchronized double throughput() {
+    long elapsed = lastEnd - firstStart;
+    return elapsed <= 0 ? 0 : processed * 1000000000.0 / elapsed;
+  }
+
+  @Override
+  public String toString() {
+    return kind + "(" + stage + ") " + name + ": " + processed() + " processed, "
+      + emitted() + " emitted, " + dropped() + " dropped, " + failed() + " failed, "
+      + queued() + " queued, avg " + averageMillis() + "ms, max " + maxMillis() + "ms";
+  }
+
+}
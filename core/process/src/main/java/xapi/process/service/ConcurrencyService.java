@@ -3,11 +3,15 @@ package xapi.process.service;
 import java.util.concurrent.Future;
 
 import xapi.process.api.AsyncLock;
+import xapi.process.api.ConcurrentEnvironment;
+import xapi.process.api.ConcurrentEnvironment.Priority;
+import xapi.process.api.ListenableFuture;
 import xapi.process.api.Process;
 import xapi.process.api.ProcessController;
 import xapi.time.service.TimeService;
 import xapi.util.api.ErrorHandler;
 import xapi.util.api.ReceivesValue;
+import xapi.util.api.RemovalHandler;
 
 public interface ConcurrencyService {
 
@@ -31,10 +35,25 @@ public interface ConcurrencyService {
    * Designed to give an abstract action-oriented workflow that functions in
    * both threadsafe and singlethreaded environments.
    *
+   * The process is scheduled at {@link Priority#Medium}; see {@link #newProcess(Process, Priority)}.
+   *
    * @param process
    * @return
    */
   <T> ProcessController<T> newProcess(Process<T> process);
+  /**
+   * Schedules a process to run in time slices on a shared run queue.
+   *
+   * Each slice calls {@link Process#process(float)} with a small budget,
+   * and the process is queued for another slice for as long as it returns true.
+   * Higher priorities are served first, but a process which waits long enough
+   * rises in priority, so no process starves.
+   *
+   * @param process - The process to run.
+   * @param priority - Where to queue the process.
+   * @return - A controller to pause, resume or cancel the process, and read its cpu time.
+   */
+  <T> ProcessController<T> newProcess(Process<T> process, Priority priority);
 
   /**
    * Runs the given command in a new environment, after all finalies have been
@@ -64,8 +83,9 @@ public interface ConcurrencyService {
    *
    * @param cmd - The command to run.
    * @param millisToWait - A minimum of milliseconds to wait.
+   * @return - A handle which cancels the command, if it has not run yet.
    */
-  void runTimeout(Runnable cmd, int millisToWait);
+  RemovalHandler runTimeout(Runnable cmd, int millisToWait);
   /**
    * Runs the command eventually, most likely on an unused thread.
    *
@@ -89,12 +109,10 @@ public interface ConcurrencyService {
   /**
    * Resolves a future in another thread / using a shared poller.
    *
-   * In concurrent environments allowed many threads, resolve will
-   * dedicate a single thread to wait on the future; but in a starved environment,
-   * a single thread will be used to check for completed futures, dispatch
-   * callbacks, sleep a little, and "busy wait" on all pending futures.
-   *
-   * (this functionality is not yet implemented).
+   * A {@link ListenableFuture} calls back the receiver as soon as it completes,
+   * on the completing thread; any other future is checked on the shared timer
+   * (see {@link ConcurrentEnvironment#monitor(Priority, javax.inject.Provider, Runnable)}),
+   * with a backoff, so no thread blocks waiting on it.
    *
    * @param future - The future to wait upon.
    * @param receiver - The handler to receive the value.
@@ -103,7 +121,7 @@ public interface ConcurrencyService {
    * any exceptions caused by the future (after unwrapping ExecutionException
    * and RuntimeException).
    */
-  <T> void resolve(Future<T> future, ReceivesValue<T> receiver);
+  <T> RemovalHandler resolve(Future<T> future, ReceivesValue<T> receiver);
 
   /**
    * Flushes all jobs for a given thread, up to a given millisecond timeout.
@@ -0,0 +1,243 @@
+package xapi.collect.impl;
+
+import xapi.annotation.inject.SingletonDefault;
+import xapi.collect.api.CharPool;
+
+/**
+ * A thread-safe, hash-consed {@link CharPool}:
+ * every distinct sequence of characters is stored exactly once,
+ * and every request for an equal sequence returns that same array.
+ * <p>
+ * The pool is split into independently locked segments, chosen by hash,
+ * so that concurrent scanner threads rarely contend with each other.
+ * Lookups never allocate; a copy is only made the first time a sequence is seen.
+ * <p>
+ * Arrays returned from this pool are shared, and must never be modified.
+ * <p>
+ * This implementation holds its arrays strongly; platforms which support
+ * weak references can override {@link #newEntry(int, char[], Entry)}
+ * to let unused arrays be collected.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+@SingletonDefault(implFor=CharPool.class)
+public class InterningCharPool implements CharPool {
+
+  /**
+   * One pooled array, in a singly linked hash bucket.
+   */
+  protected static class Entry {
+    protected final int hash;
+    protected Entry next;
+    private final char[] chars;
+
+    protected Entry(int hash, char[] chars, Entry next) {
+      this.hash = hash;
+      this.chars = chars;
+      this.next = next;
+    }
+
+    /**
+     * @return the pooled array, or null if it has been collected.
+     */
+    protected char[] get() {
+      return chars;
+    }
+  }
+
+  private final class Segment {
+    private Entry[] table = new Entry[16];
+    private int size;
+
+    synchronized char[] intern(int hash, char[] src, int start, int len) {
+      int index = hash & (table.length - 1);
+      Entry prev = null;
+      for (Entry e = table[index]; e != null; e = e.next) {
+        char[] chars = e.get();
+        if (chars == null) {
+          // expunge collected entries as we pass them
+          if (prev == null) {
+            table[index] = e.next;
+          } else {
+            prev.next = e.next;
+          }
+          size--;
+          continue;
+        }
+        if (e.hash == hash && matches(chars, src, start, len)) {
+          return chars;
+        }
+        prev = e;
+      }
+      char[] copy = new char[len];
+      System.arraycopy(src, start, copy, 0, len);
+      add(hash, copy);
+      return copy;
+    }
+
+    synchronized char[] intern(int hash, CharSequence src, int start, int len) {
+      int index = hash & (table.length - 1);
+      Entry prev = null;
+      for (Entry e = table[index]; e != null; e = e.next) {
+        char[] chars = e.get();
+        if (chars == null) {
+          if (prev == null) {
+            table[index] = e.next;
+          } else {
+            prev.next = e.next;
+          }
+          size--;
+          continue;
+        }
+        if (e.hash == hash && matches(chars, src, start, len)) {
+          return chars;
+        }
+        prev = e;
+      }
+      char[] copy = new char[len];
+      for (int i = 0; i < len; i++) {
+        copy[i] = src.charAt(start + i);
+      }
+      add(hash, copy);
+      return copy;
+    }
+
+    private void add(int hash, char[] chars) {
+      if (++size > table.length * 3 / 4) {
+        resize();
+      }
+      int index = hash & (table.length - 1);
+      table[index] = newEntry(hash, chars, table[index]);
+    }
+
+    private void resize() {
+      Entry[] old = table;
+      Entry[] resized = new Entry[old.length << 1];
+      int mask = resized.length - 1;
+      int live = 0;
+      for (Entry e : old) {
+        while (e != null) {
+          Entry next = e.next;
+          if (e.get() != null) {
+            int index = e.hash & mask;
+            e.next = resized[index];
+            resized[index] = e;
+            live++;
+          }
+          e = next;
+        }
+      }
+      table = resized;
+      // +1 for the entry which is about to be added
+      size = live + 1;
+    }
+
+    synchronized int size() {
+      return size;
+    }
+  }
+
+  private static final int SEGMENT_SHIFT = 28;
+
+  private final Segment[] segments;
+
+  public InterningCharPool() {
+    segments = new Segment[1 << (32 - SEGMENT_SHIFT)];
+    for (int i = segments.length; i-->0;) {
+      segments[i] = new Segment();
+    }
+  }
+
+  @Override
+  public char[] getArray(char[] src) {
+    return getArray(src, 0, src.length);
+  }
+
+  @Override
+  public char[] getArray(char[] src, int start, int len) {
+    assert start + len <= src.length;
+    if (len == 0) {
+      return EMPTY_STRING;
+    }
+    int hash = 0;
+    for (int i = start, end = start + len; i < end; i++) {
+      hash = 31 * hash + src[i];
+    }
+    hash = spread(hash);
+    return segmentFor(hash).intern(hash, src, start, len);
+  }
+
+  @Override
+  public char[] getArray(CharSequence src) {
+    return getArray(src, 0, src.length());
+  }
+
+  @Override
+  public char[] getArray(CharSequence src, int start, int len) {
+    assert start + len <= src.length();
+    if (len == 0) {
+      return EMPTY_STRING;
+    }
+    int hash = 0;
+    for (int i = start, end = start + len; i < end; i++) {
+      hash = 31 * hash + src.charAt(i);
+    }
+    hash = spread(hash);
+    return segmentFor(hash).intern(hash, src, start, len);
+  }
+
+  /**
+   * @return the number of arrays currently held by this pool;
+   * for weakly referenced pools, this may include arrays which have been collected
+   * but not yet expunged.
+   */
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  protected Entry newEntry(int hash, char[] chars, Entry next) {
+    return new Entry(hash, chars, next);
+  }
+
+  private Segment segmentFor(int hash) {
+    return segments[hash >>> SEGMENT_SHIFT];
+  }
+
+  private static int spread(int hash) {
+    // mix high bits into low bits and vice versa; segments use the high bits,
+    // and buckets the low bits, of a hash that is weak in its high bits for short keys.
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+    return hash * 0x9E3779B9;
+  }
+
+  private static boolean matches(char[] chars, char[] src, int start, int len) {
+    if (chars.length != len) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (chars[i] != src[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean matches(char[] chars, CharSequence src, int start, int len) {
+    if (chars.length != len) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (chars[i] != src.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
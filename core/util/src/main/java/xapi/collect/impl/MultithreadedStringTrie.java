@@ -2,37 +2,38 @@ package xapi.collect.impl;
 
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.concurrent.locks.Lock;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
-import static xapi.collect.api.CharPool.EMPTY_STRING;
 import xapi.collect.api.CharPool;
 import xapi.collect.api.PrefixedMap;
 
 /**
- * NSFW
- * This somewhat monsterous Trie implementation is a work in progress.
+ * A concurrent, path-compressed radix trie of Strings, built for
+ * the classpath scanner, where many threads insert java-package based keys at once.
  * <p>
- * It exists in a cleaner form in the labs module, but it was good enough
- * to act as a high-performance solution in multi-threaded environments.
+ * Every {@link Edge} holds a run of characters, and an adaptive child node
+ * keyed by the next character; like an adaptive radix tree, the child node
+ * grows from a small sorted array (up to 16 children), to a 256 slot byte index
+ * over 48 children, to a direct 256 slot table, so wide nodes such as
+ * <code>java.util.</code> are one array lookup rather than a linked walk.
+ * Characters outside of latin-1 are kept in a sorted overflow array.
  * <p>
- * It is really only used for our classpath scanner,
- * which can beat java.util concurrent maps in heavily threaded enviros
+ * Writers never lock: small nodes are immutable and replaced with
+ * compareAndSet on their parent edge, and direct nodes compareAndSet their slots.
+ * Edges themselves are never copied or moved once published; splitting an edge
+ * inserts a new parent above it, so concurrent writes to the split edge are never lost.
+ * This works because each edge stores the whole key to itself, and an end offset,
+ * rather than its own fragment; its fragment is whatever lies between its parent's end and its own.
  * <p>
- * Trie walking locks safely, but with minimal hold times, so contention
- * during concurrent operations will only occur if the keys overlap.
- * Once one thread is ahead of another, it will stay ahead of others.
+ * Readers never lock either; iteration is weakly consistent, and will see
+ * every key which was present when iteration began.
  * <p>
- * This class should NOT be used anywhere that doesn't explicitly need Trie
- * behavior in multi-threaded enviros.  It's not optimized for lookup time yet.
- * <p>
- * Application-wide, java-package based keys are good candidates for StringTrie.
- * <p>
- * Production Trie versions will be suitable for tasks like type-ahead,
- * with O(log(m)) lookup, where m = string length instead of n = collection size.
- * <p>
- * The in-progress upgrade to this class will include array-based deep node
- * support, so nodes with more than two branches can do faster lookup.
+ * Application-wide, java-package based keys are good candidates for this trie.
+ * For small or lightly threaded maps, a plain HashMap will be faster.
  * <p>
  * @author "James X. Nelson (james@wetheinter.net)"
  *
@@ -43,49 +44,59 @@ public class MultithreadedStringTrie<E> implements PrefixedMap<E> {
   private static final char[] emptyString = new char[0];
 
   /**
-   * Our Edge class is one node in the Trie graph. It is mutable so we can keep
-   * our memory impact light, and volatile so we can stay threadsafe. All of
-   * this is at relatively no extra cost to processing time, except for
-   * synchronization time on acquiring downward locks during puts (and a little
-   * extra processing time for deletes to acquire locks as well). Gwt doesn't
-   * pay for synchronization, so it performs optimally in js. Note that it does
-   * not hold a parent lock while taking a child lock, so multiple threads can
-   * still quickly transverse any potential hotspots, where there is alot of
-   * prefix-overlap in strings, such as java packages: com.foo.client.Something
-   * com.foo.client.SomethingElse com.foo.server.Something
-   * com.bar.client.Something com.bar.server.Something ...etc. The fragment com.
-   * would be locked and released before acquiring foo. | bar. This prevents
-   * concurrent modifications in different areas of the trie to avoid blocking
-   * each other.
+   * Sorted nodes larger than this are converted to indexed nodes.
+   */
+  private static final int MAX_SORTED = 16;
+  /**
+   * Indexed nodes larger than this are converted to direct nodes.
+   */
+  private static final int MAX_INDEXED = 48;
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<MultithreadedStringTrie.Edge, MultithreadedStringTrie.Node>
+    CHILDREN = AtomicReferenceFieldUpdater.newUpdater(
+        MultithreadedStringTrie.Edge.class, MultithreadedStringTrie.Node.class, "children");
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<MultithreadedStringTrie.DirectNode, MultithreadedStringTrie.SortedNode>
+    OVERFLOW = AtomicReferenceFieldUpdater.newUpdater(
+        MultithreadedStringTrie.DirectNode.class, MultithreadedStringTrie.SortedNode.class, "overflow");
+
+  /**
+   * Our Edge class is one node in the Trie graph.
+   * <p>
+   * The characters of this edge are key[parent.end, end); we keep the whole
+   * prefix, rather than just our fragment, so that an edge never has to change
+   * when a new parent is split in above it. Edges on the same path usually share
+   * a single key array, so this costs nothing but an int.
    *
    * @author "James X. Nelson (james@wetheinter.net)"
    */
   public class Edge implements Serializable {
     private static final long serialVersionUID = 5885970862972987462L;
 
-    protected E value;
-    protected volatile Edge greater;
-    protected volatile Edge lesser;
+    protected volatile E value;
     // use char[] instead of string for optimized .toString() on keys.
-    // we have to build keysets if requested,
-    // and the only way to avoid using buffers or power-of-two guessing,
-    // is to iteratively assemble exact length char[]s when assembling keys.
-    // this allows parent char[]s to be built once per all their children.
+    // key[0, end) is the full key to this edge; it may be swapped for an
+    // equal array by compress(), but is never modified.
     protected volatile char[] key;
+    protected final int end;
+    // only ever modified through CHILDREN.compareAndSet
+    volatile Node children;
 
     protected Edge() {
       this(emptyString, 0, 0);
     }
 
+    /**
+     * @param key - An array whose first end characters are the full key to this edge
+     * @param index - The position in the key where this edge begins
+     * @param end - The position in the key where this edge ends
+     */
     public Edge(final char[] key, final int index, final int end) {
-      if (index == 0 && end == key.length) {
-        this.key = key;
-        assert key == emptyString || end > 0;
-      } else {
-        this.key = new char[end - index];
-        assert this.key.length > 0;
-        System.arraycopy(key, index, this.key, 0, this.key.length);
-      }
+      assert index <= end && end <= key.length;
+      this.key = key;
+      this.end = end;
     }
 
     protected void setValue(E value) {
@@ -94,7 +105,237 @@ public class MultithreadedStringTrie<E> implements PrefixedMap<E> {
 
     @Override
     public String toString() {
-      return new String(key);
+      return new String(key, 0, end);
+    }
+  }
+
+  /**
+   * An adaptive child node, mapping the first char of each child edge to that edge.
+   */
+  abstract class Node {
+    /**
+     * @return the child edge beginning with c, or null
+     */
+    abstract Edge find(char c);
+
+    /**
+     * Replaces the child beginning with c, which must currently be expect (null to add),
+     * with update.
+     *
+     * @return this if the change was made in place, a new node which must be
+     * swapped in to the parent edge, or null if the node changed and the caller must retry.
+     */
+    abstract Node with(char c, Edge expect, Edge update);
+
+    /**
+     * Pushes all children onto the stack, greatest first, so they pop in ascending order.
+     */
+    abstract Stack push(Stack stack);
+  }
+
+  /**
+   * An immutable node with sorted keys, searched linearly while small.
+   * <p>
+   * Used for nodes of up to {@link #MAX_SORTED} children, and as the unbounded
+   * overflow for chars outside of latin-1 in larger nodes.
+   */
+  final class SortedNode extends Node {
+    final char[] keys;
+    final Edge[] edges;
+    final boolean overflow;
+
+    SortedNode(char c, Edge edge, boolean overflow) {
+      this(new char[] {c}, newEdges(edge), overflow);
+    }
+
+    SortedNode(char c0, Edge e0, char c1, Edge e1) {
+      this(c0 < c1 ? new char[] {c0, c1} : new char[] {c1, c0},
+          c0 < c1 ? newEdges(e0, e1) : newEdges(e1, e0), false);
+    }
+
+    SortedNode(char[] keys, Edge[] edges, boolean overflow) {
+      this.keys = keys;
+      this.edges = edges;
+      this.overflow = overflow;
+    }
+
+    private int indexOf(char c) {
+      if (keys.length > MAX_SORTED) {
+        return Arrays.binarySearch(keys, c);
+      }
+      for (int i = 0; i < keys.length; i++) {
+        char k = keys[i];
+        if (k == c) {
+          return i;
+        }
+        if (k > c) {
+          return -i - 1;
+        }
+      }
+      return -keys.length - 1;
+    }
+
+    @Override
+    Edge find(char c) {
+      int i = indexOf(c);
+      return i < 0 ? null : edges[i];
+    }
+
+    @Override
+    SortedNode with(char c, Edge expect, Edge update) {
+      int i = indexOf(c);
+      if (i >= 0) {
+        if (edges[i] != expect) {
+          return null;
+        }
+        Edge[] copy = edges.clone();
+        copy[i] = update;
+        return new SortedNode(keys, copy, overflow);
+      }
+      if (expect != null) {
+        return null;
+      }
+      i = -i - 1;
+      char[] newKeys = new char[keys.length + 1];
+      Edge[] newEdges = newEdges(keys.length + 1);
+      System.arraycopy(keys, 0, newKeys, 0, i);
+      System.arraycopy(edges, 0, newEdges, 0, i);
+      newKeys[i] = c;
+      newEdges[i] = update;
+      System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+      System.arraycopy(edges, i, newEdges, i + 1, edges.length - i);
+      return new SortedNode(newKeys, newEdges, overflow);
+    }
+
+    @Override
+    Stack push(Stack stack) {
+      for (int i = edges.length; i-->0;) {
+        stack = new Stack(stack, edges[i]);
+      }
+      return stack;
+    }
+  }
+
+  /**
+   * An immutable node of up to {@link #MAX_INDEXED} latin-1 children,
+   * found through a 256 byte index.
+   */
+  final class IndexedNode extends Node {
+    // index[c] is one more than the position of c's edge, or 0 if there is no such edge.
+    final byte[] index;
+    final Edge[] edges;
+    final SortedNode overflow;
+
+    IndexedNode(byte[] index, Edge[] edges, SortedNode overflow) {
+      this.index = index;
+      this.edges = edges;
+      this.overflow = overflow;
+    }
+
+    @Override
+    Edge find(char c) {
+      if (c < 256) {
+        int i = index[c];
+        return i == 0 ? null : edges[i - 1];
+      }
+      return overflow == null ? null : overflow.find(c);
+    }
+
+    @Override
+    Node with(char c, Edge expect, Edge update) {
+      if (c >= 256) {
+        SortedNode next = withOverflow(overflow, c, expect, update);
+        return next == null ? null : new IndexedNode(index, edges, next);
+      }
+      int i = index[c];
+      if (i != 0) {
+        if (edges[i - 1] != expect) {
+          return null;
+        }
+        Edge[] copy = edges.clone();
+        copy[i - 1] = update;
+        return new IndexedNode(index, copy, overflow);
+      }
+      if (expect != null) {
+        return null;
+      }
+      if (edges.length == MAX_INDEXED) {
+        DirectNode next = new DirectNode(overflow);
+        for (int k = 0; k < 256; k++) {
+          if (index[k] != 0) {
+            next.slots.set(k, edges[index[k] - 1]);
+          }
+        }
+        next.slots.set(c, update);
+        return next;
+      }
+      byte[] newIndex = index.clone();
+      Edge[] newEdges = newEdges(edges.length + 1);
+      System.arraycopy(edges, 0, newEdges, 0, edges.length);
+      newEdges[edges.length] = update;
+      newIndex[c] = (byte)newEdges.length;
+      return new IndexedNode(newIndex, newEdges, overflow);
+    }
+
+    @Override
+    Stack push(Stack stack) {
+      if (overflow != null) {
+        stack = overflow.push(stack);
+      }
+      for (int c = 256; c-->0;) {
+        if (index[c] != 0) {
+          stack = new Stack(stack, edges[index[c] - 1]);
+        }
+      }
+      return stack;
+    }
+  }
+
+  /**
+   * A mutable node with one slot for every latin-1 char;
+   * this node is never replaced, so its slots are updated in place.
+   */
+  final class DirectNode extends Node {
+    final AtomicReferenceArray<Edge> slots = new AtomicReferenceArray<Edge>(256);
+    // only ever modified through OVERFLOW.compareAndSet
+    volatile SortedNode overflow;
+
+    DirectNode(SortedNode overflow) {
+      this.overflow = overflow;
+    }
+
+    @Override
+    Edge find(char c) {
+      if (c < 256) {
+        return slots.get(c);
+      }
+      SortedNode over = overflow;
+      return over == null ? null : over.find(c);
+    }
+
+    @Override
+    Node with(char c, Edge expect, Edge update) {
+      if (c < 256) {
+        return slots.compareAndSet(c, expect, update) ? this : null;
+      }
+      SortedNode over = overflow;
+      SortedNode next = withOverflow(over, c, expect, update);
+      return next != null && OVERFLOW.compareAndSet(this, over, next) ? this : null;
+    }
+
+    @Override
+    Stack push(Stack stack) {
+      SortedNode over = overflow;
+      if (over != null) {
+        stack = over.push(stack);
+      }
+      for (int c = 256; c-->0;) {
+        Edge e = slots.get(c);
+        if (e != null) {
+          stack = new Stack(stack, e);
+        }
+      }
+      return stack;
     }
   }
 
@@ -110,101 +351,64 @@ public class MultithreadedStringTrie<E> implements PrefixedMap<E> {
 
   protected class Itr implements Iterator<E> {
 
-    Edge next;
-    Stack stack = new Stack(null, null);
+    Stack stack;
+    E value;
 
     public Itr(String prefix) {
-      int pos = 0;
-      next = root;
-      for (int m = prefix.length(); pos < m;) {
-        char[] key;
-        char k = prefix.charAt(pos);
-
-        if (next.lesser != null) {
-          key = next.lesser.key;
-          if (k == key[0]) {
-            int match = 0;
-            while (++match < key.length) {
-              if (key[pos + match] != key[match]) {
-                if (next.greater != null) {
-                  stack = new Stack(stack, next.greater);
-                }
-                next = next.lesser;
-                return;
-              }
-            }
-            pos += match;
-            next = next.lesser;
-            continue;
-          }
+      Edge e = root;
+      int depth = 0;
+      final int len = prefix.length();
+      while (depth < len) {
+        final Node node = e.children;
+        final Edge child = node == null ? null : node.find(prefix.charAt(depth));
+        if (child == null) {
+          return;
         }
-        if (next.greater != null) {
-          key = next.greater.key;
-          if (key.length == 0) {
-            next = next.greater;
-            continue;
-          } else {
-            if (k == key[0]) {
-              int match = 0;
-              while (++match < key.length) {
-                if (key[pos + match] != key[match]) {
-                  next = next.greater;
-                  return;
-                }
-              }
-              pos += match;
-              next = next.greater;
-              continue;
-            }
+        final char[] childKey = child.key;
+        final int max = Math.min(child.end, len);
+        for (int i = depth + 1; i < max; i++) {
+          if (childKey[i] != prefix.charAt(i)) {
+            return;
           }
         }
-        next = null;
-        return;
+        // the prefix may end part way through this edge;
+        // all of its descendants still match.
+        e = child;
+        depth = child.end;
       }
+      stack = new Stack(null, e);
     }
-    E value;
+
     @Override
     public boolean hasNext() {
-      if (next == null) return false;
-      while (stack != null) {
-        if (next.value != null) {
-          value = next.value;
-          if (next.lesser == null) {
-            if (next.greater == null) {
-              next = stack.value;
-              stack = stack.next;
-            } else {
-              next = next.greater;
-            }
-          } else if (next.greater == null) {
-            next = next.lesser;
-          } else {
-            stack = new Stack(stack, next.greater);
-            next = next.lesser;
-          }
-          return true;
+      while (value == null) {
+        if (stack == null) {
+          return false;
         }
-        if (next.lesser == null) {
-          assert next.greater == null;
-          next = stack.value;
-          stack = stack.next;
-        } else {
-          if (next.greater != null)
-            stack = new Stack(stack, next.greater);
-          next = next.lesser;
+        Edge next = stack.value;
+        stack = stack.next;
+        Node children = next.children;
+        if (children != null) {
+          stack = children.push(stack);
         }
+        value = next.value;
       }
-      return false;
+      return true;
     }
 
     @Override
     public E next() {
-      return value;
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      E next = value;
+      value = null;
+      return next;
     }
 
     @Override
     public void remove() {
-
+      throw new UnsupportedOperationException();
     }
 
   }
@@ -213,369 +417,179 @@ public class MultithreadedStringTrie<E> implements PrefixedMap<E> {
   protected final Edge root = newEdge();
 
   public void put(final char[] key, final int start, final int end, final E value) {
-    if (key == null || key.length == 0) {
+    if (key == null || key.length == 0 || start == end) {
       root.setValue(value);
     } else {
       if (start < 0 || end > key.length) throw new ArrayIndexOutOfBoundsException();
-      doPut(root, key, start, end, value);
+      if (start == 0) {
+        doPut(key, end, value, false);
+      } else {
+        char[] copy = new char[end - start];
+        System.arraycopy(key, start, copy, 0, copy.length);
+        doPut(copy, copy.length, value, false);
+      }
     }
   }
 
+  @Override
   public void put(final String key, final E value) {
     if (key == null || "".equals(key))
       root.setValue(value);
     else
-      doPut(root, key.toCharArray(), 0, key.length(), value);
+      doPut(key.toCharArray(), key.length(), value, false);
   }
 
-  protected void doPut(final Edge into, final char[] key, final int index, final int end, final E value) {
-    assert index < end;
-    try {
-      
-    // To stay threadsafe, we synchronize on Edges when we modify them.
-    // To stay fast, we don't recurse until we are out of the synchro block.
-
-    // We optimize for our worst-case scenario off the hop;
-    // which is a deep node transversal (when one node points to many).
-    final Edge nextInto;
-    int nextIndex;
-
-    final char k = key[index];
-    // handle peeking into deeper nodes that will result in recursion.
-    final Edge greater = into.greater;
-    if (greater != null) {
-      if (into.lesser == null) {
-        assert into.lesser != null : "Node structure inconsistent at "+into + " on key "+new String(key)
-         + " against existing key "+greater;
-      }
-      final char[] greaterKey = greater.key;
-      // deep nodes are stored in greater slot
-      if (greaterKey.length == 0) {// this is a deep node!
-        // bounds check on its lesser
-        if (k - greater.lesser.key[0] >= 0) {
-          // if inserted key is not less than the lesser of the deep node,
-          // then recurse into the greater, without locking.
-          doPut(greater, key, index, end, value);
-          return;
-        }
-
-        // we are in a deep node, and are less than the greater.
-        // check if we need to insert a new deep node.
-        synchronized (into) {
-          if (greater == into.greater) {
-            // The only comod we need to worry about here is the greater node;
-            // if the lesser is changed while we were waiting, we're still okay.
-            final Edge lesser = into.lesser;
-            final int delta = k - lesser.key[0];
-            if (delta != 0) {
-              final Edge newParent = newEdge();
-              newParent.greater = into.greater;
-
-              final Edge newNode = newEdge(key, index, end, value);
-
-              if (delta > 0) {
-                // new node is greater than current lesser; replace into.greater
-                newParent.lesser = newNode;
-              } else {
-                // new node is less than our lesser; take lesser spot
-                // and make the old lesser a new deep node
-                newParent.lesser = lesser;
-                into.lesser = newNode;
-              }
-              into.greater = newParent;
-              return;// done!
-            }
-            // we start with the same char as into.lesser;
-            // find out how far we match, and possibly recurse.
-            if (insertLesser(into, key, index, end, value)) return;
-            // if we didn't return, we must recurse into this lesser
-            nextInto = into.lesser;
-            nextIndex = index + lesser.key.length;
-          } else {
-            // the trie was modified while we were waiting,
-            // recurse, as we need to run the deep checks again.
-            nextInto = into;
-            nextIndex = index;
-          }
-        }// end synchro
-         // if we didn't return, we need to recurse.
-        if (nextIndex == end) {
-          nextInto.setValue(value);
-        } else {
-          doPut(nextInto, key, nextIndex, end, value);
-        }
-        return;
-      }// end deep node
-    }// end into.greater != null
-
-    // because we are only locking on the parent node,
-    // but potentially modifying the structure of child nodes,
-    // and we don't want to invite deadlock, we only ever iterate downward;
-    // we acquire the locks on children before modifying them
-    // or accessing the lesser / greater nodes during a put.
-    synchro: synchronized (into) {
-      // into.lesser will only ever be null on the very first put.
-      if (into.lesser == null) {
-        assert into.greater == null;
-        // both null, just take lesser and exit
-        into.lesser = newEdge(key, index, end, value);
-        return;
-      }
-      // start our compare on lesser...
-      final char[] lesserKey = into.lesser.key;
-      final int deltaLesser = k - lesserKey[0];
-      if (deltaLesser == 0) {
-        // we match the first char of the lesser.
-        if (insertLesser(into, key, index, end, value)) return;
-        // if we didn't return, we must recurse
-        nextInto = into.lesser;
-        nextIndex = index + lesserKey.length;
-        break synchro; // never recurse inside a synchro
-      }
-      // if we are less than the lesser, we need to usurp its position
-      if (into.greater == null) {
-        // with no greater node, our job is easy. Just fill this node up.
-        final Edge newNode = newEdge(key, index, end, value);
-        if (deltaLesser < 0) {
-          into.greater = into.lesser;
-          into.lesser = newNode;
-        } else {
-          into.greater = newNode;
+  /**
+   * Inserts a value for key[0, end).
+   *
+   * @param onlyIfAbsent - If true, an existing value will not be replaced.
+   * @return the existing value for the key, if any
+   */
+  protected E doPut(final char[] key, final int end, final E value, final boolean onlyIfAbsent) {
+    Edge e = root;
+    int depth = 0;
+    while (true) {
+      if (depth == end) {
+        return setValue(e, value, onlyIfAbsent);
+      }
+      final char k = key[depth];
+      final Node node = e.children;
+      final Edge child = node == null ? null : node.find(k);
+      if (child == null) {
+        // nobody starts with our char; add a leaf for the rest of the key
+        if (swap(e, node, k, null, newEdge(key, depth, end, value))) {
+          return null;
         }
-        return;
-      }
-
-      // we have to check the greater,
-      // which may have changed since we last deep-checked it...
-      final char[] greaterKey = into.greater.key;
-      if (greaterKey.length == 0) {
-        // the greater is now deep and it wasn't before.
-        // recurse back into the same node; we can't get back here once deep
-        nextInto = into;
-        nextIndex = index;
-        break synchro;
-      }
-
-      if (deltaLesser < 0) {
-        // A greater exists, but we still need to usurp lesser
-        final Edge newParent = newEdge();
-        final Edge newNode = newEdge(key, index, end, value);
-        newParent.lesser = into.lesser;
-        newParent.greater = into.greater;
-        into.greater = newParent;
-        into.lesser = newNode;
-        return;
-      }
-
-      // The only thing left to do is run a compare on greater
-      final int deltaGreater = k - greaterKey[0];
-      if (deltaGreater == 0) {
-        // we must insert into the greater, or else recurse
-        if (insertGreater(into, key, index, end, value)) return;
-        nextInto = into.greater;
-        nextIndex = index + into.greater.key.length;
-        break synchro;
-      }
-      // we don't start with greater or lesser, and must create a deep node
-      final Edge newParent = newEdge();
-      final Edge newNode = newEdge(key, index, end, value);
-      if (deltaGreater > 0) {
-        // new node is the greatest
-        newParent.greater = newNode;
-        newParent.lesser = into.greater;
+        continue;
+      }
+      final char[] childKey = child.key;
+      final int childEnd = child.end;
+      final int max = Math.min(childEnd, end);
+      int match = depth + 1;// we already matched the first char
+      while (match < max && childKey[match] == key[match]) {
+        match++;
+      }
+      if (match == childEnd) {
+        // we match the whole child; descend into it
+        e = child;
+        depth = childEnd;
+        continue;
+      }
+      // we diverge part way through the child, so we need a new parent above it.
+      final Edge split;
+      if (match == end) {
+        split = newEdge(key, depth, end, value);
+        split.children = new SortedNode(childKey[match], child, false);
       } else {
-        newParent.greater = into.greater;
-        newParent.lesser = newNode;
-      }
-      into.greater = newParent;
-      return;
-    }// end synchro. If we haven't returned, we need to recurse.
-    if (nextIndex == end) {
-      nextInto.setValue(value);
-    } else {
-      doPut(nextInto, key, nextIndex, end, value);
-    }
-    } finally {
-      if (into.greater != null)
-        assert into.lesser != null : "Trie structure malformed @ "+into+"; greater = "+into.greater+
-        " on key "+newString(key);
+        split = newEdge(key, depth, match, null);
+        split.children = new SortedNode(childKey[match], child,
+            key[match], newEdge(key, match, end, value));
+      }
+      if (swap(e, node, k, child, split)) {
+        return null;
+      }
+      // somebody beat us to it; try again from this edge.
     }
   }
 
-  private String newString(char[] key) {
-    return new String(key);
-  }
-
-  protected Edge newEdge() {
-    return new Edge();
+  private boolean swap(Edge e, Node node, char k, Edge expect, Edge update) {
+    if (node == null) {
+      return CHILDREN.compareAndSet(e, null, new SortedNode(k, update, false));
+    }
+    Node next = node.with(k, expect, update);
+    if (next instanceof MultithreadedStringTrie<?>.SortedNode) {
+      next = grow((SortedNode)next);
+    }
+    return next == node || (next != null && CHILDREN.compareAndSet(e, node, next));
   }
 
-  protected Edge newEdge(char[] key, int index, int end, E value) {
-    Edge e = new Edge(key, index, end);
+  private E setValue(Edge e, E value, boolean onlyIfAbsent) {
+    if (onlyIfAbsent) {
+      synchronized (e) {
+        E existing = e.value;
+        if (existing == null) {
+          e.setValue(value);
+        }
+        return existing;
+      }
+    }
+    E existing = e.value;
     e.setValue(value);
-    return e;
+    return existing;
   }
 
-  private boolean insertLesser(Edge into, char[] key, int index, int end, E value) {
-    int matchesTo = 1;// only called when we've already matched the first char
-    final int keyLen = end - index;
-    final char[] lesserKey = into.lesser.key;
-    for (; matchesTo < keyLen; matchesTo++) {
-      if (matchesTo == lesserKey.length) {
-        return false;
-      }
-      final int delta = key[index + matchesTo] - lesserKey[matchesTo];
-      if (delta < 0) {
-        // new node is less than lesser
-        into.lesser = newEdgeLesser(into.lesser, keyLen, lesserKey, matchesTo, key, index, end, value);
-        return true;
-      }
-      if (delta > 0) {
-        // new node is greater than lesser
-        into.lesser = newEdgeGreater(into.lesser, keyLen, lesserKey, matchesTo, key, index, end, value);
-        return true;
-      }
-    }
-    if (matchesTo == lesserKey.length) {
-      return false;
-    }
-    // If we haven't returned, than the existing key is longer than the one
-    // we are inserting. Thus, we must slip the new node behind the old one.
-    final Edge newNode = newEdge(key, index, end, value);
-    final char[] newLesser = new char[lesserKey.length - keyLen];
-    System.arraycopy(lesserKey, keyLen, newLesser, 0, newLesser.length);
-    newNode.lesser = into.lesser;
-    into.lesser = newNode;
-    newNode.lesser.key = newLesser;
-    return true;
+  private Node grow(SortedNode node) {
+    if (node.overflow || node.keys.length <= MAX_SORTED) {
+      return node;
+    }
+    final char[] keys = node.keys;
+    final Edge[] edges = node.edges;
+    // sorted, so any chars outside of latin-1 are at the end
+    int latin = keys.length;
+    while (latin > 0 && keys[latin - 1] >= 256) {
+      latin--;
+    }
+    if (latin <= MAX_SORTED) {
+      // mostly non-latin children; keep the whole node sorted
+      return new SortedNode(keys, edges, true);
+    }
+    SortedNode overflow = null;
+    if (latin < keys.length) {
+      overflow = new SortedNode(Arrays.copyOfRange(keys, latin, keys.length),
+          Arrays.copyOfRange(edges, latin, keys.length), true);
+    }
+    if (latin > MAX_INDEXED) {
+      DirectNode direct = new DirectNode(overflow);
+      for (int i = 0; i < latin; i++) {
+        direct.slots.set(keys[i], edges[i]);
+      }
+      return direct;
+    }
+    byte[] index = new byte[256];
+    for (int i = 0; i < latin; i++) {
+      index[keys[i]] = (byte)(i + 1);
+    }
+    return new IndexedNode(index, Arrays.copyOf(edges, latin), overflow);
   }
 
-  private boolean insertGreater(Edge into, char[] key, int index, int end, E value) {
-    int matchesTo = 1;// only called when we've already matched the first char
-    final int keyLen = end - index;
-    final char[] greaterKey = into.greater.key;
-    for (; matchesTo < keyLen; matchesTo++) {
-      if (matchesTo == greaterKey.length) {
-        return false;
-      }
-      final int delta = key[index + matchesTo] - greaterKey[matchesTo];
-      if (delta < 0) {
-        // new node is less than greater
-        into.greater = newEdgeLesser(into.greater, keyLen, greaterKey, matchesTo, key, index, end, value);
-        return true;
-      }
-      if (delta > 0) {
-        // new node is greater than lesser
-        into.greater = newEdgeGreater(into.greater, keyLen, greaterKey, matchesTo, key, index, end, value);
-        return true;
-      }
-    }
-    if (matchesTo == greaterKey.length) {
-      return false;
-    }
-    // If we haven't returned, then the existing key is longer than the one
-    // we are inserting. Thus, we must slip the new node behind the old one.
-    final Edge newNode = newEdge(key, index, end, value);
-    final char[] newGreater = new char[greaterKey.length - keyLen];
-    System.arraycopy(greaterKey, keyLen, newGreater, 0, newGreater.length);
-    newNode.lesser = into.greater;
-    into.greater = newNode;
-    newNode.lesser.key = newGreater;
-    return true;
+  private SortedNode withOverflow(SortedNode overflow, char c, Edge expect, Edge update) {
+    if (overflow == null) {
+      return expect == null ? new SortedNode(c, update, true) : null;
+    }
+    return overflow.with(c, expect, update);
   }
 
-  protected Edge newEdgeLesser(Edge previous, int keyMax, char[] existing, int matchesTo, char[] key,
-    int keyIndex, int keyEnd, E value) {
-    // found our break point
-    final char[] newRootKey = new char[matchesTo];
-    final char[] newExistingKey = new char[existing.length - newRootKey.length];
-    final char[] newInsertedKey = new char[keyMax - newRootKey.length];
-
-    // copy the common root into our new parent edge
-    System.arraycopy(existing, 0, newRootKey, 0, newRootKey.length);
-    final Edge newRoot = newEdge(newRootKey, 0, newRootKey.length, null);
-
-    // trim the existing key to it's unique suffix value
-    System.arraycopy(existing, newRootKey.length, newExistingKey, 0, newExistingKey.length);
-    previous.key = newExistingKey;
-
-    // create a new node for our value
-    System.arraycopy(key, keyIndex + newRootKey.length, newInsertedKey, 0, newInsertedKey.length);
-    final Edge newEdge = newEdge(newInsertedKey, 0, newInsertedKey.length, value);
-
-    assert newRoot.key.length > 0;
-    assert previous.key.length > 0;
-    assert newEdge.key.length > 0;
-
-    newRoot.lesser = newEdge;
-    newRoot.greater = previous;
-    assert newEdge.toString().compareTo(previous.toString()) < 0 : "Invalid greaterthan: " + newEdge +
-      " is not < " + previous;
-    return newRoot;
+  @SuppressWarnings("unchecked")
+  private Edge[] newEdges(int size) {
+    return (Edge[])new MultithreadedStringTrie<?>.Edge[size];
   }
 
-  protected Edge newEdgeGreater(Edge previous, int keyMax, char[] existing, int matchesTo, char[] key,
-    int keyIndex, int keyEnd, E value) {
-    // found our break point
-    final char[] newRootKey = new char[matchesTo];
-    final char[] newExistingKey = new char[existing.length - newRootKey.length];
-    final char[] newInsertedKey = new char[keyMax - newRootKey.length];
-
-    // copy the common root into our new parent edge
-    System.arraycopy(existing, 0, newRootKey, 0, newRootKey.length);
-    final Edge newRoot = newEdge(newRootKey, 0, newRootKey.length, null);
-
-    // trim the existing key to it's unique suffix value
-    System.arraycopy(existing, newRootKey.length, newExistingKey, 0, newExistingKey.length);
-    previous.key = newExistingKey;
-
-    // create a new node for our value
-    System.arraycopy(key, keyIndex + newRootKey.length, newInsertedKey, 0, newInsertedKey.length);
-    final Edge newEdge = newEdge(newInsertedKey, 0, newInsertedKey.length, value);
-
-    assert newRoot.key.length > 0;
-    assert previous.key.length > 0;
-    assert newEdge.key.length > 0;
-
-    newRoot.lesser = previous;
-    newRoot.greater = newEdge;
-    assert newEdge.toString().compareTo(previous.toString()) > 0;
+  private Edge[] newEdges(Edge e0) {
+    Edge[] edges = newEdges(1);
+    edges[0] = e0;
+    return edges;
+  }
 
-    return newRoot;
+  private Edge[] newEdges(Edge e0, Edge e1) {
+    Edge[] edges = newEdges(2);
+    edges[0] = e0;
+    edges[1] = e1;
+    return edges;
   }
 
-  /**
-   * @param into - The edge to lock
-   * @param ownsParent - Whether we already own an explicit lock on the parent.
-   * @return - Any object you want; null will do fine. This method is provided
-   * as a stub for more sophisticated, concurrent subclasses which may want to
-   * employ locking mechanisms (or event dispatch). You may call
-   * {@link Object#wait(long, int)}; as you already own the lock. long param is
-   * millis, should be zero. int param is nanos, keep it in the hundreds. DON'T
-   * DO ANYTHING WHICH COULD BLOCK FOR A LONG TIME. Acquire locks tentatively,
-   * either with {@link Lock#tryLock()} for failfast, or
-   * {@link Lock#tryLock(long, java.util.concurrent.TimeUnit)}. Wait times, if
-   * any, should be on a nano scale; If ownsParent is false, you should be
-   * running in unsynchronized code. The only use for synchronous method blocks
-   * in this case is to acquire a {@link Lock}. If ownsParent is true, you are
-   * safe from intrusion from above (nobody will be able to modify your parent),
-   * but you still have to contend
-   */
-  protected void lock(Edge into, boolean ownsParent) {
+  protected Edge newEdge() {
+    return new Edge();
   }
 
   /**
-   * @param into - The edge to lock
-   * @param ownsParent - If true, you are already synchronized on into.
-   * @param cursor - Whatever object you returned when you locked. This method
-   * is a stub for more sophisticated subclasses of StringTrie, which may need
-   * to perform proper concurrent locking, or event dispatch. It is called in
-   * the finally block of whatever code ran
-   * {@link MultithreadedStringTrie#lock(Edge, boolean)}. If you use Edge
-   * into.wait(0, nanos) in lock(), now would be a great time to call into
-   * into.notify() :)
+   * @param key - An array whose first end characters are the full key to the new edge
+   * @param index - The position in the key where the new edge begins
+   * @param end - The position in the key where the new edge ends
    */
-  protected void unlock(Edge into, boolean ownsParent) {
+  protected Edge newEdge(char[] key, int index, int end, E value) {
+    Edge e = new Edge(key, index, end);
+    e.setValue(value);
+    return e;
   }
 
   @Override
@@ -585,125 +599,74 @@ public class MultithreadedStringTrie<E> implements PrefixedMap<E> {
     if (root.value != null) {
       b.append("\"\" : " + root.value + "\n");
     }
-    if (root.greater != null) {
-      visit(root.greater, 1, new char[0], b);
-    }
-    if (root.lesser != null) {
-      visit(root.lesser, 1, new char[0], b);
-    }
+    visit(root, 0, 0, b);
     b.append("]");
     return b.toString();
   }
 
-  private void visit(Edge root, int depth, char[] key, StringBuilder b) {
-    boolean anyKey = key.length > 0;
-    if (root.key.length > 0) {
+  private void visit(Edge e, int start, int depth, StringBuilder b) {
+    if (e.end > 0) {
       for (int i = 0; i < depth; i++) {
         b.append(' ');
       }
-      b.append(root.key);
+      b.append(e.key, start, e.end - start);
       b.append("\t\t");
-      if (root.value == null) {
+      if (e.value == null) {
         b.append("[branch]");
       } else {
-        b.append(root.value);
+        b.append(e.value);
       }
       b.append('\n');
     }
-    if (root.lesser != null) {
-      // visit lesser edge
-      char[] childKey = root.lesser.key;
-      if (anyKey) {
-        // assert childKey.length > 0 : b;
-        char[] nextKey = new char[key.length + childKey.length];
-        System.arraycopy(key, 0, nextKey, 0, key.length);
-        System.arraycopy(childKey, 0, nextKey, key.length, childKey.length);
-        childKey = nextKey;
-        nextKey = null;
-      }
-      visit(root.lesser, depth + (anyKey ? 1 : 0), childKey, b);
-      childKey = null;
-    }
-    if (root.greater != null) {
-      // visit greater edge
-      char[] childKey = root.greater.key;
-      if (anyKey) {
-        char[] nextKey = new char[key.length + childKey.length];
-        System.arraycopy(key, 0, nextKey, 0, key.length);
-        System.arraycopy(childKey, 0, nextKey, key.length, childKey.length);
-        childKey = nextKey;
-        nextKey = null;
-      }
-      boolean addSpace = anyKey && root.greater.key.length > 0;
-      visit(root.greater, depth + (addSpace ? 1 : 0), childKey, b);
-      childKey = null;
+    Node children = e.children;
+    if (children != null) {
+      for (Stack s = children.push(null); s != null; s = s.next) {
+        visit(s.value, e.end, e.end > 0 ? depth + 1 : depth, b);
+      }
     }
   }
 
+  @Override
   public E get(String key) {
-    if (key == null) return get(EMPTY_STRING);
-    return get(new Chars(key.toCharArray()), 0, key.length());
+    if (key == null) return root.value;
+    return get(key, 0, key.length());
   }
 
   public E get(char[] key) {
-    if (key == null) key = EMPTY_STRING;
+    if (key == null) return root.value;
     return get(new Chars(key), 0, key.length);
   }
 
   public E get(char[] key, int pos, int end) {
-    if (key == null) key = EMPTY_STRING;
-    return get(new Chars(key, pos, end), pos, end);
+    if (key == null) return root.value;
+    return get(new Chars(key, pos, end), 0, end - pos);
   }
 
-  public E get(final Chars keys, int pos, final int end) {
+  /**
+   * @return the value for keys[pos, end), or null
+   */
+  public E get(final CharSequence keys, final int pos, final int end) {
+    final int len = end - pos;
     Edge e = root;
-    while (e != null) {
-      // our test for success is always when we make it through a for loop
-      // which matches our key, and when the next search position = key length.
-      // if there was a value at this key, we would have returned it.
-      if (pos == end) return returnValue(e, keys, pos, end);
-
-      if (e.lesser != null) {
-        final char[] lesser = e.lesser.key;
-        testlesser: {
-          for (int i = 0; i < lesser.length; i++) {
-            if (end <= pos + i) return onEmpty(e, keys, pos, end);
-            final int delta = keys.charAt(pos + i) - lesser[i];
-            if (delta < 0) {
-              // if a lesser is greater than us, there's nothing to return
-              return onEmpty(e, keys, pos, end);
-            }
-            if (delta > 0) {
-              break testlesser;
-            }
-          }// end for
-           // if we didn't break, we equal the lesser. Descend into it.
-          e = e.lesser;
-          pos += lesser.length;
-          continue;
-        }// end test lesser
-         // requested key is greater than lesser key. Carry on.
-      }// end lesser
-
-      if (e.greater == null) return onEmpty(e, keys, pos, end);
-      final char[] greater = e.greater.key;
-      if (greater.length == 0) {
-        // deep node, just continue search
-        e = e.greater;
-        continue;
-      }
-      final int len = greater.length;
-      if (len + pos > end) return onEmpty(e, keys, pos, end);
-      for (int i = 0; i < len; i++) {
-        if (keys.charAt(pos + i) != greater[i]) return onEmpty(e, keys, pos, end);
+    int depth = 0;
+    while (depth < len) {
+      final Node node = e.children;
+      if (node == null) return null;
+      final Edge child = node.find(keys.charAt(pos + depth));
+      if (child == null) return null;
+      final int childEnd = child.end;
+      if (childEnd > len) return null;
+      final char[] childKey = child.key;
+      for (int i = depth + 1; i < childEnd; i++) {
+        if (childKey[i] != keys.charAt(pos + i)) return null;
       }
-      pos += len;
-      // still haven't returned, so we match this greater
-      e = e.greater;
+      e = child;
+      depth = childEnd;
     }
-    return onEmpty(e, keys, pos, end);
+    return e.value;
   }
 
+  @Override
   public Iterable<E> findPrefixed(final String prefix) {
     return new Iterable<E>(){
       @Override
@@ -713,16 +676,34 @@ public class MultithreadedStringTrie<E> implements PrefixedMap<E> {
     };
   }
 
-  public void compress(CharPool charPoolTrie) {
-
-  }
-
-  protected E returnValue(Edge e, Chars keys, int pos, int end) {
-    return e.value;
+  /**
+   * Replaces the key of every edge with an equal array from the given pool,
+   * so that tries which share a pool also share the memory for their keys.
+   * <p>
+   * Leaf edges take the pooled copy of their key, and every parent edge
+   * shares the key of one of its children, so each key is stored once in the pool.
+   * Readers only look at key[0, end), which is the same in the old and new arrays,
+   * so no locking is needed.
+   */
+  public void compress(CharPool pool) {
+    compress(root, pool);
   }
 
-  protected E onEmpty(Edge e, Chars keys, int pos, int end) {
-    return null;
+  private char[] compress(Edge e, CharPool pool) {
+    char[] shared = null;
+    Node children = e.children;
+    if (children != null) {
+      for (Stack s = children.push(null); s != null; s = s.next) {
+        char[] key = compress(s.value, pool);
+        if (shared == null) {
+          shared = key;
+        }
+      }
+    }
+    if (e.end > 0) {
+      e.key = shared == null ? pool.getArray(e.key, 0, e.end) : shared;
+    }
+    return e.key;
   }
 
 }
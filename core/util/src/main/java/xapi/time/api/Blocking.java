@@ -0,0 +1,13 @@
+package xapi.time.api;
+
+/**
+ * Marks a command, given to {@link xapi.time.X_Time#runLater(Runnable)}, which may block
+ * for a long time, like draining a stream; a pooled executor then adds a worker
+ * to make up for it, instead of losing one of its own until the command returns.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public interface Blocking extends Runnable {
+
+}
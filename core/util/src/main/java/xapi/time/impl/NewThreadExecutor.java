@@ -0,0 +1,24 @@
+package xapi.time.impl;
+
+import java.util.concurrent.Executor;
+
+import xapi.annotation.inject.SingletonDefault;
+
+/**
+ * The fallback executor for {@link TimeServiceDefault#runLater(Runnable)},
+ * which simply starts a new thread for every command.
+ * <p>
+ * Jre runtimes with xapi-jre-process on the classpath override this with a bounded thread pool.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+@SingletonDefault(implFor=Executor.class)
+public class NewThreadExecutor implements Executor {
+
+  @Override
+  public void execute(Runnable command) {
+    new Thread(command).start();
+  }
+
+}
@@ -1,8 +1,12 @@
 package xapi.time.impl;
 
 import java.util.Date;
+import java.util.concurrent.Executor;
+
+import javax.inject.Provider;
 
 import xapi.annotation.inject.SingletonDefault;
+import xapi.inject.X_Inject;
 import xapi.time.service.TimeService;
 
 @SingletonDefault(implFor = TimeService.class)
@@ -10,9 +14,11 @@ public class TimeServiceDefault extends AbstractTimeService{
 
   private static final long serialVersionUID = -8070323612852368910L;
 
+  private static final Provider<Executor> executor = X_Inject.singletonLazy(Executor.class);
+
   @Override
   public void runLater(Runnable runnable) {
-    new Thread(runnable).start();
+    executor.get().execute(runnable);
   }
 
   @Override
@@ -1,7 +1,10 @@
 package xapi.dev.resource.impl;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -9,26 +12,97 @@ import xapi.dev.resource.api.ClasspathResource;
 
 public class JarBackedResource implements ClasspathResource{
 
-  private final JarEntry entry;
+  private JarEntry entry;
   private final JarFile jar;
   private final int priority;
+  private final String name;
+  private MappedJar mapped;
+  private volatile boolean resolved;
 
   public JarBackedResource(JarFile file, JarEntry entry, int priority) {
     this.entry = entry;
     this.jar = file;
     this.priority = priority;
+    this.name = entry.getName();
+  }
+
+  /**
+   * Creates a resource for a jar entry that will only be looked up when opened.
+   */
+  public JarBackedResource(JarFile file, String entryName, int priority) {
+    this.jar = file;
+    this.priority = priority;
+    this.name = entryName;
+  }
+
+  /**
+   * Creates a resource read through a mapping of its jar which the caller resolved once,
+   * for every entry it scans; a null mapping means the jar is read through the JarFile.
+   *
+   * @param entry - The entry, or null to look it up only when opened.
+   */
+  public JarBackedResource(JarFile file, String entryName, JarEntry entry, int priority, MappedJar mapped) {
+    this.jar = file;
+    this.entry = entry;
+    this.priority = priority;
+    this.name = entryName;
+    this.mapped = mapped;
+    this.resolved = true;
   }
 
   @Override
   public String getResourceName() {
-    return entry.getName();
+    return name;
   }
 
   @Override
   public InputStream open() throws IOException{
+    MappedJar mapped = mapped();
+    if (mapped != null) {
+      return mapped.open(name);
+    }
+    if (entry == null) {
+      entry = jar.getJarEntry(name);
+      if (entry == null) {
+        throw new FileNotFoundException(name+" not found in "+jar.getName());
+      }
+    }
     return jar.getInputStream(entry);
   }
 
+  /**
+   * @return the contents of this entry, read from a memory mapped copy of the jar if possible.
+   */
+  public ByteBuffer getBuffer() throws IOException {
+    MappedJar mapped = mapped();
+    if (mapped != null) {
+      return mapped.getBuffer(name);
+    }
+    InputStream in = open();
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int read;
+      while ((read = in.read(buf)) != -1) {
+        out.write(buf, 0, read);
+      }
+      return ByteBuffer.wrap(out.toByteArray());
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @return The mapping of our jar, looked up on first use if we were not given one.
+   */
+  private MappedJar mapped() {
+    if (!resolved) {
+      mapped = MappedJar.forFile(jar.getName());
+      resolved = true;
+    }
+    return mapped;
+  }
+
   @Override
   public int priority() {
     return priority;
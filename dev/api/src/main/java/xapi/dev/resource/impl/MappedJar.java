@@ -0,0 +1,290 @@
+package xapi.dev.resource.impl;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import xapi.log.X_Log;
+
+/**
+ * A read-only view of a jar which memory maps the whole file and parses
+ * the zip central directory once, so that any number of threads can read
+ * entries concurrently without going through the synchronized {@link java.util.zip.ZipFile}.
+ * <p>
+ * Stored entries are returned as read-only slices of the mapped file;
+ * deflated entries are inflated in one pass by a pooled {@link Inflater}.
+ * <p>
+ * Zip64 archives and archives larger than 2GB are not supported;
+ * {@link #forFile(String)} returns null for those, and callers should fall back to JarFile.
+ * <p>
+ * Shared mappings are checked against the length and modification time of their file,
+ * like the scan cache, so a rewritten jar is mapped again; only the most recently used
+ * {@value #MAX_MAPPED_JARS} are kept, and the jvm unmaps the rest once they are collected.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class MappedJar {
+
+  private static final int LOCAL_HEADER = 0x04034b50;
+  private static final int CENTRAL_HEADER = 0x02014b50;
+  private static final int END_HEADER = 0x06054b50;
+  private static final int END_SIZE = 22;
+  private static final int MAX_POOLED_INFLATERS = 32;
+  private static final int MAX_MAPPED_JARS = 64;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  @SuppressWarnings("serial")
+  private static final Map<String, MappedJar> jars = new LinkedHashMap<String, MappedJar>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, MappedJar> eldest) {
+      return size() > MAX_MAPPED_JARS;
+    }
+  };
+
+  private static final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+
+  private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[8192];
+    }
+  };
+
+  /**
+   * Each call checks the jar on disk and takes a shared lock, so callers should resolve
+   * a jar once per scan, and hand the result to every resource they read from it.
+   *
+   * @return the shared mapping of the given jar, or null if the jar cannot be mapped.
+   */
+  public static MappedJar forFile(String path) {
+    File file = new File(path);
+    long length = file.length();
+    long modified = file.lastModified();
+    MappedJar jar;
+    synchronized (jars) {
+      jar = jars.get(path);
+    }
+    if (jar == null || jar.length != length || jar.modified != modified) {
+      try {
+        jar = new MappedJar(file, length, modified);
+      } catch (IOException e) {
+        X_Log.trace(MappedJar.class, "Unable to map", path, "; falling back to JarFile", e);
+        jar = new MappedJar(path, length, modified);
+      }
+      synchronized (jars) {
+        MappedJar existing = jars.get(path);
+        if (existing != null && existing.length == length && existing.modified == modified) {
+          jar = existing;
+        } else {
+          jars.put(path, jar);
+        }
+      }
+    }
+    return jar.buffer == null ? null : jar;
+  }
+
+  private final String path;
+  private final long length;
+  private final long modified;
+  private final MappedByteBuffer buffer;
+  private final Map<String, Integer> index;
+  private final int[] methods;
+  private final int[] compressedSizes;
+  private final int[] sizes;
+  private final int[] headerOffsets;
+  private final int[] dataOffsets;
+
+  /**
+   * Remembers that the given version of a jar cannot be mapped.
+   */
+  private MappedJar(String path, long length, long modified) {
+    this.path = path;
+    this.length = length;
+    this.modified = modified;
+    buffer = null;
+    index = null;
+    methods = compressedSizes = sizes = headerOffsets = dataOffsets = null;
+  }
+
+  public MappedJar(File file) throws IOException {
+    this(file, file.length(), file.lastModified());
+  }
+
+  private MappedJar(File file, long length, long modified) throws IOException {
+    path = file.getPath();
+    this.length = length;
+    this.modified = modified;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new ZipException("Jar too large to map: " + file);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } finally {
+      // the mapping remains valid after the channel is closed
+      raf.close();
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    int end = findEndOfCentralDirectory();
+    int count = buffer.getShort(end + 10) & 0xffff;
+    int pos = buffer.getInt(end + 16);
+    if (count == 0xffff || pos == -1) {
+      throw new ZipException("Zip64 jars are not supported: " + file);
+    }
+    index = new HashMap<String, Integer>(count * 4 / 3 + 1);
+    methods = new int[count];
+    compressedSizes = new int[count];
+    sizes = new int[count];
+    headerOffsets = new int[count];
+    dataOffsets = new int[count];
+    byte[] name = new byte[256];
+    for (int i = 0; i < count; i++) {
+      if (buffer.getInt(pos) != CENTRAL_HEADER) {
+        throw new ZipException("Invalid central directory entry " + i + " in " + file);
+      }
+      methods[i] = buffer.getShort(pos + 10) & 0xffff;
+      compressedSizes[i] = buffer.getInt(pos + 20);
+      sizes[i] = buffer.getInt(pos + 24);
+      int nameLen = buffer.getShort(pos + 28) & 0xffff;
+      int extraLen = buffer.getShort(pos + 30) & 0xffff;
+      int commentLen = buffer.getShort(pos + 32) & 0xffff;
+      headerOffsets[i] = buffer.getInt(pos + 42);
+      dataOffsets[i] = -1;
+      if (name.length < nameLen) {
+        name = new byte[nameLen];
+      }
+      ByteBuffer dup = buffer.duplicate();
+      dup.position(pos + 46);
+      dup.get(name, 0, nameLen);
+      index.put(new String(name, 0, nameLen, UTF8), i);
+      pos += 46 + nameLen + extraLen + commentLen;
+    }
+  }
+
+  private int findEndOfCentralDirectory() throws ZipException {
+    int min = Math.max(0, buffer.limit() - END_SIZE - 0xffff);
+    for (int pos = buffer.limit() - END_SIZE; pos >= min; pos--) {
+      if (buffer.getInt(pos) == END_HEADER) {
+        return pos;
+      }
+    }
+    throw new ZipException("No zip central directory found in " + path);
+  }
+
+  public boolean hasEntry(String name) {
+    return index.containsKey(name);
+  }
+
+  public Iterable<String> getEntryNames() {
+    return index.keySet();
+  }
+
+  /**
+   * @return the uncompressed contents of the named entry.
+   * The buffer is read only for stored entries; its position is 0 and its limit is the entry size.
+   *
+   * @throws FileNotFoundException if there is no such entry.
+   */
+  public ByteBuffer getBuffer(String name) throws IOException {
+    Integer entry = index.get(name);
+    if (entry == null) {
+      throw new FileNotFoundException(name + " not found in " + path);
+    }
+    int i = entry;
+    int data = dataOffset(i);
+    switch (methods[i]) {
+      case 0: // stored
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(data);
+        slice.limit(data + sizes[i]);
+        return slice.slice().asReadOnlyBuffer();
+      case 8: // deflated
+        return ByteBuffer.wrap(inflate(data, compressedSizes[i], sizes[i]));
+      default:
+        throw new ZipException("Unsupported compression method " + methods[i] + " for " + name + " in " + path);
+    }
+  }
+
+  public InputStream open(String name) throws IOException {
+    return new ByteBufferInputStream(getBuffer(name));
+  }
+
+  private int dataOffset(int i) throws ZipException {
+    int data = dataOffsets[i];
+    if (data == -1) {
+      // Benign race; every thread computes the same value
+      int header = headerOffsets[i];
+      if (buffer.getInt(header) != LOCAL_HEADER) {
+        throw new ZipException("Invalid local header at " + header + " in " + path);
+      }
+      data = header + 30 + (buffer.getShort(header + 26) & 0xffff) + (buffer.getShort(header + 28) & 0xffff);
+      dataOffsets[i] = data;
+    }
+    return data;
+  }
+
+  private byte[] inflate(int data, int compressedSize, int size) throws IOException {
+    byte[] input = scratch.get();
+    if (input.length < compressedSize + 1) {
+      input = new byte[compressedSize + 1];
+      scratch.set(input);
+    }
+    ByteBuffer dup = buffer.duplicate();
+    dup.position(data);
+    dup.get(input, 0, compressedSize);
+    // a trailing dummy byte is needed by nowrap inflaters
+    input[compressedSize] = 0;
+    byte[] result = new byte[size];
+    Inflater inflater = inflaters.poll();
+    if (inflater == null) {
+      inflater = new Inflater(true);
+    }
+    try {
+      inflater.setInput(input, 0, compressedSize + 1);
+      int read = 0;
+      while (read < size) {
+        int n = inflater.inflate(result, read, size - read);
+        if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        read += n;
+      }
+      if (read != size) {
+        throw new ZipException("Expected " + size + " bytes, but inflated " + read + " in " + path);
+      }
+      return result;
+    } catch (DataFormatException e) {
+      throw new ZipException(e.getMessage() + " in " + path);
+    } finally {
+      inflater.reset();
+      if (inflaters.size() < MAX_POOLED_INFLATERS) {
+        inflaters.offer(inflater);
+      } else {
+        inflater.end();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MappedJar " + path;
+  }
+
+}
@@ -2,6 +2,7 @@ package xapi.dev.resource.impl;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import xapi.bytecode.ClassFile;
 import xapi.dev.resource.api.ClasspathResource;
@@ -9,12 +10,45 @@ import xapi.util.X_Util;
 
 public class ByteCodeResource extends DelegateClasspathResource{
 
-  private ClassFile data;
+  private static final ClassHeaderReader headerReader = new ClassHeaderReader(true);
+
+  private volatile ClassFile data;
+  private volatile ClassHeader header;
 
   public ByteCodeResource(ClasspathResource source) {
     super(source);
   }
 
+  /**
+   * Creates a resource whose header is already known; used when rehydrating a scan from cache.
+   */
+  public ByteCodeResource(ClasspathResource source, ClassHeader header) {
+    super(source);
+    this.header = header;
+  }
+
+  /**
+   * @return the name, supertypes and annotation names of this class,
+   * without parsing the whole class file.
+   * <p>
+   * Prefer this over {@link #getClassData()} whenever you only need to filter classes.
+   */
+  public ClassHeader getHeader() {
+    if (header == null) {
+      try {
+        InputStream in = open();
+        try {
+          header = headerReader.read(in);
+        } finally {
+          in.close();
+        }
+      } catch(IOException e) {
+        throw X_Util.rethrow(e);
+      }
+    }
+    return header;
+  }
+
   public ClassFile getClassData() {
     if (data == null) {
       try {
@@ -30,9 +64,16 @@ public class ByteCodeResource extends DelegateClasspathResource{
     }
     return data;
   }
-  
+
+  /**
+   * @return true if the full class file has already been parsed.
+   */
+  public boolean hasClassData() {
+    return data != null;
+  }
+
   public String toString() {
-    return getClassData().getName();
+    return getHeader().getName();
   };
-  
+
 }
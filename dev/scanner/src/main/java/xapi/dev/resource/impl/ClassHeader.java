@@ -0,0 +1,179 @@
+package xapi.dev.resource.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import xapi.source.X_Modifier;
+
+/**
+ * A compact view of a class file, containing only what the classpath scanner
+ * needs to decide whether a class is interesting: its name, supertypes, and
+ * the type names of any annotations present on the class (and, optionally,
+ * on its members).
+ * <p>
+ * Instances are produced by {@link ClassHeaderReader}, which skips over
+ * everything else in the class file without allocating it.
+ * <p>
+ * All type names are in the same format as {@link xapi.bytecode.ClassFile#getName()};
+ * that is, java binary names like java.util.Map$Entry.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public final class ClassHeader {
+
+  static final String[] EMPTY = new String[0];
+
+  private final String name;
+  private final String superclass;
+  private final String[] interfaces;
+  private final String[] annotations;
+  private final String[] memberAnnotations;
+  private final int accessFlags;
+
+  ClassHeader(String name, String superclass, String[] interfaces, int accessFlags,
+    String[] annotations, String[] memberAnnotations) {
+    this.name = name;
+    this.superclass = superclass;
+    this.interfaces = interfaces;
+    this.accessFlags = accessFlags;
+    this.annotations = annotations;
+    this.memberAnnotations = memberAnnotations;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the super class name, or null for java.lang.Object.
+   */
+  public String getSuperclass() {
+    return superclass;
+  }
+
+  /**
+   * @return the directly implemented interfaces.  The returned array is read only.
+   */
+  public String[] getInterfaces() {
+    return interfaces;
+  }
+
+  public int getAccessFlags() {
+    return accessFlags;
+  }
+
+  public boolean isInterface() {
+    return (accessFlags & X_Modifier.INTERFACE) != 0;
+  }
+
+  public boolean isAnnotation() {
+    return (accessFlags & X_Modifier.ANNOTATION) != 0;
+  }
+
+  /**
+   * @return the type names of all runtime and compile time annotations on the class.
+   * The returned array is read only.
+   */
+  public String[] getAnnotations() {
+    return annotations;
+  }
+
+  /**
+   * @return the type names of all runtime and compile time annotations present
+   * on any method or field of this class, or an empty array if member annotations
+   * were not read.  The returned array is read only.
+   */
+  public String[] getMemberAnnotations() {
+    return memberAnnotations;
+  }
+
+  public boolean hasAnnotation(String annoName) {
+    return contains(annotations, annoName);
+  }
+
+  public boolean hasMemberAnnotation(String annoName) {
+    return contains(memberAnnotations, annoName);
+  }
+
+  public boolean hasSuperClass(String superClass) {
+    return superClass.equals(superclass);
+  }
+
+  public boolean hasInterface(String iface) {
+    return contains(interfaces, iface);
+  }
+
+  public String getPackage() {
+    return X_Modifier.sourceNameToPackage(name);
+  }
+
+  public String getEnclosedName() {
+    return X_Modifier.sourceNameToEnclosed(name);
+  }
+
+  /**
+   * Writes this header in the format understood by {@link #read(DataInput)}.
+   */
+  public void write(DataOutput out) throws IOException {
+    out.writeUTF(name);
+    out.writeUTF(superclass == null ? "" : superclass);
+    out.writeShort(accessFlags);
+    writeNames(out, interfaces);
+    writeNames(out, annotations);
+    writeNames(out, memberAnnotations);
+  }
+
+  public static ClassHeader read(DataInput in) throws IOException {
+    String name = in.readUTF();
+    String superclass = in.readUTF();
+    int access = in.readUnsignedShort();
+    return new ClassHeader(name, superclass.length() == 0 ? null : superclass,
+      readNames(in), access, readNames(in), readNames(in));
+  }
+
+  private static void writeNames(DataOutput out, String[] names) throws IOException {
+    out.writeShort(names.length);
+    for (String name : names) {
+      out.writeUTF(name);
+    }
+  }
+
+  private static String[] readNames(DataInput in) throws IOException {
+    int size = in.readUnsignedShort();
+    if (size == 0) {
+      return EMPTY;
+    }
+    String[] names = new String[size];
+    for (int i = 0; i < size; i++) {
+      names[i] = in.readUTF();
+    }
+    return names;
+  }
+
+  private static boolean contains(String[] names, String name) {
+    for (String n : names) {
+      if (n.equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    return name.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof ClassHeader && name.equals(((ClassHeader)obj).name);
+  }
+
+  @Override
+  public String toString() {
+    return X_Modifier.classModifiers(accessFlags)+name;
+  }
+
+}
@@ -0,0 +1,318 @@
+package xapi.dev.resource.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A skip-ahead class file reader which extracts a {@link ClassHeader}
+ * without building a full {@link xapi.bytecode.ClassFile}.
+ * <p>
+ * The constant pool is indexed by offset only; the only utf8 entries which
+ * are ever decoded into Strings are the class name, supertypes and
+ * annotation type names.  Fields, methods, code and all other attributes
+ * are skipped by length.
+ * <p>
+ * Unlike {@link xapi.bytecode.ConstPool}, this reader understands every
+ * constant pool tag up to java 11 (method handles, invokedynamic, modules),
+ * so it can read headers of classes that the full parser would reject.
+ * <p>
+ * Instances are stateless and threadsafe; the read buffer is thread local.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class ClassHeaderReader {
+
+  private static final String VISIBLE_ANNOS = "RuntimeVisibleAnnotations";
+  private static final String INVISIBLE_ANNOS = "RuntimeInvisibleAnnotations";
+
+  private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[8192];
+    }
+  };
+
+  private final boolean readMembers;
+
+  /**
+   * @param readMembers - Whether to also collect annotations on fields and methods.
+   */
+  public ClassHeaderReader(boolean readMembers) {
+    this.readMembers = readMembers;
+  }
+
+  /**
+   * Reads a class header from the supplied stream.
+   * The stream is fully consumed, but not closed.
+   */
+  public ClassHeader read(InputStream in) throws IOException {
+    byte[] buf = buffers.get();
+    int len = 0;
+    int read;
+    while ((read = in.read(buf, len, buf.length - len)) != -1) {
+      len += read;
+      if (len == buf.length) {
+        buf = Arrays.copyOf(buf, buf.length * 2);
+        buffers.set(buf);
+      }
+    }
+    return read(buf, 0, len);
+  }
+
+  public ClassHeader read(byte[] bytes) throws IOException {
+    return read(bytes, 0, bytes.length);
+  }
+
+  public ClassHeader read(byte[] bytes, int offset, int length) throws IOException {
+    try {
+      return new Parse(bytes, offset, offset + length).parse();
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IOException("Truncated class file", e);
+    }
+  }
+
+  private final class Parse {
+
+    private final byte[] b;
+    private final int end;
+    private int pos;
+    private int[] offsets;
+    private List<String> annos;
+    private List<String> memberAnnos;
+
+    Parse(byte[] bytes, int pos, int end) {
+      this.b = bytes;
+      this.pos = pos;
+      this.end = end;
+    }
+
+    ClassHeader parse() throws IOException {
+      int magic = u4();
+      if (magic != 0xCAFEBABE) {
+        throw new IOException("bad magic number: " + Integer.toHexString(magic));
+      }
+      pos += 4; // minor, major
+      readConstPool();
+      int access = u2();
+      String name = classInfo(u2());
+      String superclass = classInfo(u2());
+      int n = u2();
+      String[] interfaces;
+      if (n == 0) {
+        interfaces = ClassHeader.EMPTY;
+      } else {
+        interfaces = new String[n];
+        for (int i = 0; i < n; i++) {
+          interfaces[i] = classInfo(u2());
+        }
+      }
+      // fields, then methods
+      for (int members = 2; members-- > 0;) {
+        n = u2();
+        while (n-- > 0) {
+          pos += 6; // access, name, descriptor
+          readAttributes(true);
+        }
+      }
+      readAttributes(false);
+      return new ClassHeader(name, superclass, interfaces, access,
+        toArray(annos), toArray(memberAnnos));
+    }
+
+    private void readConstPool() throws IOException {
+      int count = u2();
+      offsets = new int[count];
+      for (int i = 1; i < count; i++) {
+        offsets[i] = pos;
+        int tag = b[pos++] & 0xff;
+        switch (tag) {
+          case 1: // utf8
+            pos += 2 + u2At(pos);
+            break;
+          case 3: // int
+          case 4: // float
+          case 9: // field ref
+          case 10: // method ref
+          case 11: // interface method ref
+          case 12: // name and type
+          case 17: // dynamic
+          case 18: // invokedynamic
+            pos += 4;
+            break;
+          case 5: // long
+          case 6: // double
+            pos += 8;
+            i++;
+            break;
+          case 7: // class
+          case 8: // string
+          case 16: // method type
+          case 19: // module
+          case 20: // package
+            pos += 2;
+            break;
+          case 15: // method handle
+            pos += 3;
+            break;
+          default:
+            throw new IOException("invalid constant type: " + tag + " at " + pos);
+        }
+      }
+    }
+
+    private void readAttributes(boolean member) throws IOException {
+      int n = u2();
+      while (n-- > 0) {
+        int nameIndex = u2();
+        int len = u4();
+        int next = pos + len;
+        if (!member || readMembers) {
+          if (isUtf8(nameIndex, VISIBLE_ANNOS) || isUtf8(nameIndex, INVISIBLE_ANNOS)) {
+            if (member) {
+              if (memberAnnos == null) {
+                memberAnnos = new ArrayList<String>();
+              }
+              readAnnotations(memberAnnos);
+            } else {
+              if (annos == null) {
+                annos = new ArrayList<String>(4);
+              }
+              readAnnotations(annos);
+            }
+          }
+        }
+        pos = next;
+      }
+      if (pos > end) {
+        throw new IOException("Truncated class file");
+      }
+    }
+
+    private void readAnnotations(List<String> into) {
+      int n = u2();
+      while (n-- > 0) {
+        String type = typeName(u2());
+        if (!into.contains(type)) {
+          into.add(type);
+        }
+        skipAnnotationBody();
+      }
+    }
+
+    private void skipAnnotationBody() {
+      int pairs = u2();
+      while (pairs-- > 0) {
+        pos += 2;
+        skipElementValue();
+      }
+    }
+
+    private void skipElementValue() {
+      int tag = b[pos++];
+      switch (tag) {
+        case 'e':
+          pos += 4;
+          break;
+        case '@':
+          pos += 2;
+          skipAnnotationBody();
+          break;
+        case '[':
+          int n = u2();
+          while (n-- > 0) {
+            skipElementValue();
+          }
+          break;
+        default:
+          // primitives, strings and classes are all a single constant index
+          pos += 2;
+      }
+    }
+
+    private String classInfo(int index) {
+      if (index == 0) {
+        return null;
+      }
+      // class info -> utf8 index
+      int utf = u2At(offsets[index] + 1);
+      int at = offsets[utf] + 1;
+      return decode(at + 2, u2At(at));
+    }
+
+    private String typeName(int utf) {
+      int at = offsets[utf] + 1;
+      int len = u2At(at);
+      at += 2;
+      if (len > 1 && b[at] == 'L') {
+        // strip L and ;
+        return decode(at + 1, len - 2);
+      }
+      return decode(at, len);
+    }
+
+    private boolean isUtf8(int index, String value) {
+      int at = offsets[index];
+      if (b[at] != 1) {
+        return false;
+      }
+      int len = u2At(at + 1);
+      if (len != value.length()) {
+        return false;
+      }
+      at += 3;
+      for (int i = 0; i < len; i++) {
+        if (b[at + i] != value.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Decodes modified utf8, translating / into .
+     */
+    private String decode(int at, int len) {
+      char[] chars = new char[len];
+      int size = 0;
+      int max = at + len;
+      while (at < max) {
+        int c = b[at++] & 0xff;
+        if (c < 0x80) {
+          chars[size++] = c == '/' ? '.' : (char)c;
+        } else if ((c & 0xe0) == 0xc0) {
+          chars[size++] = (char)(((c & 0x1f) << 6) | (b[at++] & 0x3f));
+        } else {
+          chars[size++] = (char)(((c & 0x0f) << 12) | ((b[at++] & 0x3f) << 6) | (b[at++] & 0x3f));
+        }
+      }
+      return new String(chars, 0, size);
+    }
+
+    private int u2() {
+      int v = u2At(pos);
+      pos += 2;
+      return v;
+    }
+
+    private int u2At(int at) {
+      return ((b[at] & 0xff) << 8) | (b[at + 1] & 0xff);
+    }
+
+    private int u4() {
+      int v = ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16)
+        | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+      pos += 4;
+      return v;
+    }
+
+  }
+
+  private static String[] toArray(List<String> list) {
+    return list == null ? ClassHeader.EMPTY : list.toArray(new String[list.size()]);
+  }
+
+}
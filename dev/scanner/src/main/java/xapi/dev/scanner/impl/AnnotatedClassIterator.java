@@ -6,15 +6,18 @@ import java.util.concurrent.ExecutorService;
 import xapi.bytecode.ClassFile;
 import xapi.collect.api.Fifo;
 import xapi.collect.api.HasPrefixed;
-import xapi.collect.impl.SimpleFifo;
+import xapi.collect.impl.SingleConsumerFifo;
 import xapi.dev.resource.impl.ByteCodeResource;
+import xapi.dev.resource.impl.ClassHeader;
 import xapi.util.api.MatchesValue;
 
 /**
  * Finds all classes that have any annotation.
  *
  * If you want more fine-grained search capabilities,
- * override {@link #matches(ClassFile)}.
+ * override {@link #matches(ClassFile)}; classes are first filtered
+ * by {@link #matchesHeader(ClassHeader)}, so only classes which pass
+ * that cheap check are fully parsed.
  *
  * @author "James X. Nelson (james@wetheinter.net)"
  *
@@ -22,11 +25,16 @@ import xapi.util.api.MatchesValue;
 class AnnotatedClassIterator implements Iterable<ClassFile>, MatchesValue<ClassFile> {
 
   final Iterator<ClassFile> allClasses;
-  Fifo<ClassFile> results = new SimpleFifo<ClassFile>();
+  Fifo<ClassFile> results = new SingleConsumerFifo<ClassFile>();
   boolean working = true, waiting = false;
 
   public AnnotatedClassIterator(ExecutorService executor, HasPrefixed<ByteCodeResource> bytecode) {
-    allClasses = new ClassFileIterator(this, bytecode).iterator();
+    allClasses = new ClassFileIterator(new MatchesValue<ClassHeader>() {
+      @Override
+      public boolean matches(ClassHeader value) {
+        return matchesHeader(value);
+      }
+    }, this, bytecode).iterator();
     executor.submit(new Runnable() {
       @Override
       public void run() {
@@ -97,4 +105,11 @@ class AnnotatedClassIterator implements Iterable<ClassFile>, MatchesValue<ClassF
   public boolean matches(ClassFile value) {
     return value.getAnnotations().length > 0;
   }
+
+  /**
+   * @return true if the class file should be parsed and passed to {@link #matches(ClassFile)}.
+   */
+  protected boolean matchesHeader(ClassHeader value) {
+    return value.getAnnotations().length > 0;
+  }
 }
\ No newline at end of file
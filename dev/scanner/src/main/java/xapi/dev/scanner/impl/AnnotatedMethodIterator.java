@@ -6,6 +6,7 @@ import xapi.bytecode.ClassFile;
 import xapi.bytecode.MethodInfo;
 import xapi.bytecode.annotation.Annotation;
 import xapi.dev.resource.impl.ByteCodeResource;
+import xapi.dev.resource.impl.ClassHeader;
 
 
 /**
@@ -27,6 +28,10 @@ class AnnotatedMethodIterator extends AnnotatedClassIterator {
     super(executor, bytecode);
   }
   @Override
+  protected boolean matchesHeader(ClassHeader value) {
+    return value.getMemberAnnotations().length > 0;
+  }
+  @Override
   public boolean matches(ClassFile value) {
     for (MethodInfo method : value.getMethods()) {
       if (scanMethod(method)) {
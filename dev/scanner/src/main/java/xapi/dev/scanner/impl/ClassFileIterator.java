@@ -5,10 +5,12 @@ import java.util.Iterator;
 import xapi.bytecode.ClassFile;
 import xapi.collect.api.HasPrefixed;
 import xapi.dev.resource.impl.ByteCodeResource;
+import xapi.dev.resource.impl.ClassHeader;
 import xapi.util.api.MatchesValue;
 
 class ClassFileIterator implements Iterable<ClassFile> {
 
+  private final MatchesValue<ClassHeader> headerMatcher;
   private final MatchesValue<ClassFile> matcher;
   private final HasPrefixed<ByteCodeResource> bytecode;
   
@@ -20,9 +22,13 @@ class ClassFileIterator implements Iterable<ClassFile> {
     @Override
     public boolean hasNext() {
       while(iter.hasNext()) {
-        cls = iter.next().getClassData();
-        if (matcher.matches(cls)) {
-          return true;
+        ByteCodeResource next = iter.next();
+        // Only parse the full class file for classes whose header is interesting
+        if (headerMatcher.matches(next.getHeader())) {
+          cls = next.getClassData();
+          if (matcher.matches(cls)) {
+            return true;
+          }
         }
       }
       return false;
@@ -39,8 +45,16 @@ class ClassFileIterator implements Iterable<ClassFile> {
     }
   }
   
+  @SuppressWarnings("unchecked")
   ClassFileIterator(MatchesValue<ClassFile> matcher, HasPrefixed<ByteCodeResource> bytecode) {
+    this(MatchesValue.ANY, matcher, bytecode);
+  }
+
+  ClassFileIterator(MatchesValue<ClassHeader> headerMatcher, MatchesValue<ClassFile> matcher,
+    HasPrefixed<ByteCodeResource> bytecode) {
+    assert headerMatcher != null;
     assert matcher != null;
+    this.headerMatcher = headerMatcher;
     this.matcher = matcher;
     this.bytecode = bytecode;
   }
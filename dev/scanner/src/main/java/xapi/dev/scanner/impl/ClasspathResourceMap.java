@@ -5,6 +5,7 @@ import java.lang.annotation.Annotation;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Target;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
@@ -13,13 +14,13 @@ import xapi.bytecode.ClassFile;
 import xapi.bytecode.FieldInfo;
 import xapi.bytecode.MemberInfo;
 import xapi.bytecode.MethodInfo;
-import xapi.collect.api.Fifo;
 import xapi.collect.impl.MultithreadedStringTrie;
-import xapi.collect.impl.SimpleFifo;
 import xapi.dev.resource.api.ClasspathResource;
 import xapi.dev.resource.impl.ByteCodeResource;
+import xapi.dev.resource.impl.ClassHeader;
 import xapi.dev.resource.impl.SourceCodeResource;
 import xapi.dev.resource.impl.StringDataResource;
+import xapi.log.X_Log;
 import xapi.source.X_Source;
 import xapi.util.X_Debug;
 import xapi.util.api.MatchesValue;
@@ -34,9 +35,9 @@ public class ClasspathResourceMap {
   private final ExecutorService executor;
   private final Set<Pattern> resourceMatchers;
   private final Set<Pattern> sourceMatchers;
-  private final Fifo<ByteCodeResource> pending;
   private AnnotatedClassIterator allAnnos;
   private AnnotatedMethodIterator allMethodsWithAnnos;
+  private volatile HierarchyIndex hierarchy;
 
   public ClasspathResourceMap(ExecutorService executor, Set<Class<? extends Annotation>> annotations,
     Set<Pattern> bytecodeMatchers, Set<Pattern> resourceMatchers, Set<Pattern> sourceMatchers) {
@@ -48,44 +49,20 @@ public class ClasspathResourceMap {
     this.bytecode = new ResourceTrie<ByteCodeResource>();
     this.sources = new ResourceTrie<SourceCodeResource>();
     this.resources = new ResourceTrie<StringDataResource>();
-    this.pending = new SimpleFifo<ByteCodeResource>();
   }
 
   public void addBytecode(final String name, final ByteCodeResource bytecode) {
     this.bytecode.put(X_Source.stripClassExtension(name.replace(File.separatorChar, '.')), bytecode);
-      if (!preloadClasses())
-        return;
-      if (pending.isEmpty()) {
-        synchronized (pending) {
-          // double-checked lock
-          if (pending.isEmpty()) {
-            executor.submit(new Runnable() {
-              // We use one thread to iterate and preload class files
-              @Override
-              public void run() {
-                while (!pending.isEmpty()) {
-                  Iterator<ByteCodeResource> iter = pending.iterator();
-                  while (iter.hasNext()) {
-                    // Preload classes
-                    addSubclasses(iter.next().getClassData());
-                    iter.remove();
-                  }
-                }
-              }
-            });
-          }
-          pending.give(bytecode);
-        } // end synchro
-      } else {
-        pending.give(bytecode);
+    if (preloadClasses()) {
+      // Preload the class header on the scanning thread;
+      // jars and directories are already split across workers.
+      // Full class files are parsed on demand.
+      try {
+        bytecode.getHeader();
+      } catch (Throwable e) {
+        X_Log.warn(getClass(), "Unable to read class header of", name, e);
       }
-  }
-
-  protected void addSubclasses(ClassFile classData) {
-    // TODO reenable or delete this
-//    if (classData.getEnclosedName().indexOf('.')>-1) {
-//      bytecode.put(classData.getQualifiedName(), classData);
-//    }
+    }
   }
 
   private boolean preloadClasses() {
@@ -93,21 +70,25 @@ public class ClasspathResourceMap {
   }
 
   protected void accept(String name, ByteCodeResource bytecode, Iterable<Class<? extends Annotation>> classAnnotations) {
-    ClassFile classFile = bytecode.getClassData();
+    ClassHeader header = bytecode.getHeader();
     for (Class<? extends Annotation> annoClass : classAnnotations) {
-      maybeAccept(name, bytecode, classFile, annoClass);
+      maybeAccept(name, bytecode, header, annoClass);
     }
   }
 
   protected void maybeAccept(String name, ByteCodeResource bytecode,
-      ClassFile classFile, Class<? extends Annotation> annoClass) {
-    xapi.bytecode.annotation.Annotation anno = classFile.getAnnotation(annoClass.getName());
-    if (anno != null) {
+      ClassHeader header, Class<? extends Annotation> annoClass) {
+    if (header.hasAnnotation(annoClass.getName())) {
       this.bytecode.put(name, bytecode);
       return;
     }
+    if (!header.hasMemberAnnotation(annoClass.getName())) {
+      // No need to parse the class file if no member has this annotation
+      return;
+    }
     // check the target retention of these annotations, and scan methods or fields
     try {
+      ClassFile classFile = bytecode.getClassData();
       Target target = annoClass.getAnnotation(Target.class);
       ElementType[] targets;
       if (target == null) {
@@ -239,6 +220,10 @@ public class ClasspathResourceMap {
     };
   }
 
+  public final Iterable<ByteCodeResource> findClassResources(String prefix) {
+    return bytecode.findPrefixed(prefix);
+  }
+
   public final ClassFile findClass(String clsName) {
     ByteCodeResource resource = bytecode.get(clsName);
     return resource == null ? null : resource.getClassData();
@@ -249,31 +234,34 @@ public class ClasspathResourceMap {
     return new ClassFileIterator(MatchesValue.ANY, bytecode);
   }
 
+  @SuppressWarnings("unchecked")
   public Iterable<ClassFile> findClassesInPackage(final String name) {
-    return new ClassFileIterator(new MatchesValue<ClassFile>() {
+    return new ClassFileIterator(new MatchesValue<ClassHeader>() {
       @Override
-      public boolean matches(ClassFile value) {
+      public boolean matches(ClassHeader value) {
         return !"package-info".equals(value.getEnclosedName()) && value.getPackage().equals(name);
       }
-    }, bytecode);
+    }, MatchesValue.ANY, bytecode);
   }
 
+  @SuppressWarnings("unchecked")
   public Iterable<ClassFile> findClassesBelowPackage(final String name) {
-    return new ClassFileIterator(new MatchesValue<ClassFile>() {
+    return new ClassFileIterator(new MatchesValue<ClassHeader>() {
       @Override
-      public boolean matches(ClassFile value) {
+      public boolean matches(ClassHeader value) {
         return !"package-info".equals(value.getEnclosedName()) && value.getPackage().startsWith(name);
       }
-    }, bytecode);
+    }, MatchesValue.ANY, bytecode);
   }
 
+  @SuppressWarnings("unchecked")
   public Iterable<ClassFile> findPackagesBelowPackage(final String name) {
-    return new ClassFileIterator(new MatchesValue<ClassFile>() {
+    return new ClassFileIterator(new MatchesValue<ClassHeader>() {
       @Override
-      public boolean matches(ClassFile value) {
+      public boolean matches(ClassHeader value) {
         return "package-info".equals(value.getEnclosedName()) && value.getPackage().startsWith(name+".");
       }
-    }, bytecode);
+    }, MatchesValue.ANY, bytecode);
   }
 
   /**
@@ -290,73 +278,90 @@ public class ClasspathResourceMap {
    */
   public final Iterable<ClassFile> findDirectSubclasses(
       final Class<?> ... superClasses) {
-    // Local class to capture the final method parameter
-    class Itr implements Iterator<ClassFile> {
-      ClassFile cls;
-      Iterator<ByteCodeResource> iter = bytecode.findPrefixed("").iterator();
-      final MatchesDirectSubclasses matcher = new MatchesDirectSubclasses(X_Source.toStringBinary(superClasses));
-      @Override
-      public boolean hasNext() {
-        while(iter.hasNext()) {
-          cls = iter.next().getClassData();
-          if (matcher.matches(cls)) {
-            return true;
-          }
+    String[] names = X_Source.toStringBinary(superClasses);
+    MatchesDirectSubclasses matcher = new MatchesDirectSubclasses(names);
+    HierarchyIndex index = getHierarchy();
+    Set<String> results = new LinkedHashSet<String>();
+    for (String name : names) {
+      for (String subtype : index.getDirectSubtypes(name)) {
+        ByteCodeResource resource = bytecode.get(subtype);
+        if (resource != null && matcher.matches(resource.getHeader())) {
+          results.add(subtype);
         }
-        return false;
-      }
-
-      @Override
-      public ClassFile next() {
-        return cls;
-      }
-
-      @Override
-      public void remove() {
-        throw new UnsupportedOperationException();
       }
     }
-    return new Iterable<ClassFile>() {
-      @Override
-      public Iterator<ClassFile> iterator() {
-        return new Itr();
-      }
-    };
+    return toClassFiles(results);
   }
 
+  /**
+   * Finds all classes and interfaces which extend or implement any of the supplied types,
+   * whether directly, or through any superclass or super-interface.
+   * <p>
+   * It will _not_ match types equal to the supplied types,
+   * unless they are subtypes of one of the other supplied types.
+   */
   public final Iterable<ClassFile> findImplementationOf(
       final Class<?> ... superClasses) {
-    // Local class to capture the final method parameter
-    class Itr implements Iterator<ClassFile> {
-      ClassFile cls;
-      Iterator<ByteCodeResource> iter = bytecode.findPrefixed("").iterator();
-      final MatchesImplementationsOf matcher = new MatchesImplementationsOf(bytecode, X_Source.toStringBinary(superClasses));
-      @Override
-      public boolean hasNext() {
-        while(iter.hasNext()) {
-          cls = iter.next().getClassData();
-          if (matcher.matches(cls)) {
-            return true;
-          }
-        }
-
-        return false;
-      }
+    return toClassFiles(findSubtypeNames(X_Source.toStringBinary(superClasses)));
+  }
 
-      @Override
-      public ClassFile next() {
-        return cls;
-      }
+  /**
+   * Computes the transitive closure of subtypes of the supplied binary type names,
+   * without parsing any class files.
+   *
+   * @return the binary names of all scanned types which extend or implement any of the supplied types.
+   */
+  public final Set<String> findSubtypeNames(String ... binaryNames) {
+    return getHierarchy().getAllSubtypes(binaryNames);
+  }
 
-      @Override
-      public void remove() {
-        throw new UnsupportedOperationException();
+  /**
+   * @return the reverse type hierarchy of all scanned classes.
+   * <p>
+   * This is built once, on first use, so it should only be called after the scan is complete.
+   */
+  public final HierarchyIndex getHierarchy() {
+    HierarchyIndex index = hierarchy;
+    if (index == null) {
+      synchronized (this) {
+        index = hierarchy;
+        if (index == null) {
+          hierarchy = index = HierarchyIndex.build(bytecode.findPrefixed(""), executor);
+        }
       }
     }
+    return index;
+  }
+
+  private Iterable<ClassFile> toClassFiles(final Iterable<String> names) {
     return new Iterable<ClassFile>() {
       @Override
       public Iterator<ClassFile> iterator() {
-        return new Itr();
+        final Iterator<String> iter = names.iterator();
+        return new Iterator<ClassFile>() {
+          ClassFile cls;
+          @Override
+          public boolean hasNext() {
+            while (iter.hasNext()) {
+              ByteCodeResource resource = bytecode.get(iter.next());
+              if (resource != null) {
+                cls = resource.getClassData();
+                return true;
+              }
+            }
+            return false;
+          }
+
+          @Override
+          public ClassFile next() {
+            return cls;
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
       }
     };
   }
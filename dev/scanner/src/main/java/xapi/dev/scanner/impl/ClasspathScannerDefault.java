@@ -3,19 +3,24 @@ package xapi.dev.scanner.impl;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.Thread.UncaughtExceptionHandler;
 import java.lang.annotation.Annotation;
 import java.net.JarURLConnection;
 import java.net.URL;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.regex.Pattern;
@@ -24,12 +29,17 @@ import xapi.annotation.inject.InstanceDefault;
 import xapi.collect.api.Fifo;
 import xapi.collect.impl.SimpleFifo;
 import xapi.dev.resource.impl.ByteCodeResource;
+import xapi.dev.resource.impl.ClassHeader;
+import xapi.dev.resource.impl.ClassHeaderReader;
 import xapi.dev.resource.impl.FileBackedResource;
 import xapi.dev.resource.impl.JarBackedResource;
+import xapi.dev.resource.impl.MappedJar;
 import xapi.dev.resource.impl.SourceCodeResource;
 import xapi.dev.resource.impl.StringDataResource;
 import xapi.dev.scanner.api.ClasspathScanner;
+import xapi.dev.scanner.impl.ScanCache.JarIndex;
 import xapi.except.ThreadsafeUncaughtExceptionHandler;
+import xapi.log.X_Log;
 import xapi.util.X_Debug;
 import xapi.util.X_Namespace;
 import xapi.util.X_Properties;
@@ -45,13 +55,20 @@ public class ClasspathScannerDefault implements ClasspathScanner {
   final Set<Pattern> sourceMatchers;
   final Set<String> activeJars;
 
+  private static final ClassHeaderReader headerReader = new ClassHeaderReader(true);
+
+  /**
+   * Jars with more entries than this are split into ranges scanned by separate jobs.
+   */
+  protected static final int JAR_CHUNK_SIZE = 512;
+
   public ClasspathScannerDefault() {
     pkgs = new HashSet<String>();
     annotations = new HashSet<Class<? extends Annotation>>();
     resourceMatchers = new HashSet<Pattern>();
     bytecodeMatchers = new HashSet<Pattern>();
     sourceMatchers = new HashSet<Pattern>();
-    activeJars = new HashSet<String>();
+    activeJars = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
   }
 
   protected class ScanRunner implements Runnable {
@@ -60,22 +77,36 @@ public class ClasspathScannerDefault implements ClasspathScanner {
     private final ClasspathResourceMap map;
     private final int priority;
     private final Iterable<String> pathRoot;
-    private Thread creatorThread;
+    private final ScanCache cache;
+    private final ScanJobs jobs;
+    private final UncaughtExceptionHandler handler;
 
     public ScanRunner(URL classpath, Iterable<String> pkgs,
       ClasspathResourceMap map, int priority) {
+      this(classpath, pkgs, map, priority, null, null);
+    }
+
+    /**
+     * @param cache - The jar index cache to use, or null to always read jars.
+     * @param jobs - The tracker to fork directory and jar range jobs into,
+     * or null to scan everything on the calling thread.
+     */
+    ScanRunner(URL classpath, Iterable<String> pkgs,
+      ClasspathResourceMap map, int priority, ScanCache cache, ScanJobs jobs) {
       this.classpath = classpath;
       this.map = map;
       this.priority = priority;
       this.pathRoot = pkgs;
-      creatorThread = Thread.currentThread();
+      this.cache = cache;
+      this.jobs = jobs;
+      handler = new ThreadsafeUncaughtExceptionHandler(Thread.currentThread());
     }
 
     @Override
     public void run() {
-      Thread.currentThread().setUncaughtExceptionHandler(new ThreadsafeUncaughtExceptionHandler(creatorThread));
-      creatorThread = null;
-      
+      Thread.currentThread().setUncaughtExceptionHandler(handler);
+
+
       // determine if we should run in jar mode or file mode
       File file;
       String path = classpath.toExternalForm();
@@ -122,8 +153,28 @@ public class ClasspathScannerDefault implements ClasspathScanner {
           }
         }
       } catch (Exception e) {
-        Thread t = Thread.currentThread();
-        t.getUncaughtExceptionHandler().uncaughtException(t, e);
+        handler.uncaughtException(Thread.currentThread(), e);
+      }
+    }
+
+    /**
+     * Runs a piece of this scan, either on a forked job, or inline if we have no job tracker.
+     */
+    private void fork(final Runnable job) {
+      Runnable guarded = new Runnable() {
+        @Override
+        public void run() {
+          try {
+            job.run();
+          } catch (Throwable e) {
+            handler.uncaughtException(Thread.currentThread(), e);
+          }
+        }
+      };
+      if (jobs == null) {
+        guarded.run();
+      } else {
+        jobs.submit(guarded);
       }
     }
 
@@ -135,19 +186,132 @@ public class ClasspathScannerDefault implements ClasspathScanner {
       }
     }
 
-    private void scan(File[] listFiles, String pathRoot) throws IOException {
-      for (File file : listFiles) {
-        scan(file, pathRoot);
+    private void scan(File[] listFiles, final String pathRoot) throws IOException {
+      for (final File file : listFiles) {
+        if (file.isDirectory()) {
+          // Each subdirectory is its own job, so deep trees spread across workers
+          fork(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                scan(file.listFiles(), pathRoot);
+              } catch (IOException e) {
+                throw X_Util.rethrow(e);
+              }
+            }
+          });
+        } else {
+          addFile(file, pathRoot);
+        }
       }
     }
 
-    private final void scan(JarFile jarFile) {
+    private final void scan(final JarFile jarFile) {
       if (activeJars.add(jarFile.getName())) {
-        Enumeration<JarEntry> entries = jarFile.entries();
-        while (entries.hasMoreElements()) {
-          JarEntry next = entries.nextElement();
-          addEntry(jarFile, next);
+        final File file = new File(jarFile.getName());
+        // resolved, and checked against the jar on disk, once per scan; every entry shares it
+        final MappedJar mapped = MappedJar.forFile(jarFile.getName());
+        final JarIndex cached = cache == null ? null : cache.load(file);
+        if (cached != null) {
+          // Unchanged jar; replay the cached index instead of reading entries
+          forkRanges(cached.size(), new RangeJob() {
+            @Override
+            public void scan(int from, int to) {
+              for (int i = from; i < to; i++) {
+                addEntry(jarFile, mapped, cached.getName(i), null, cached.getHeader(i));
+              }
+            }
+          });
+          return;
+        }
+        final List<JarEntry> entries = Collections.list(jarFile.entries());
+        final JarIndex index = cache == null ? null : new JarIndex();
+        forkRanges(entries.size(), new RangeJob() {
+          @Override
+          public void scan(int from, int to) {
+            for (int i = from; i < to; i++) {
+              JarEntry next = entries.get(i);
+              if (index == null) {
+                addEntry(jarFile, mapped, next.getName(), next, null);
+              } else {
+                String name = next.getName();
+                ClassHeader header = name.endsWith(".class") ? readHeader(jarFile, next) : null;
+                index.add(name, header);
+                addEntry(jarFile, mapped, name, next, header);
+              }
+            }
+          }
+          @Override
+          void done() {
+            if (index != null) {
+              cache.save(file, index);
+            }
+          }
+          @Override
+          void failed() {
+            if (index != null) {
+              // never let a partial index stand in for this jar
+              cache.discard(file);
+            }
+          }
+        });
+      }
+    }
+
+    /**
+     * Splits [0, size) into ranges of {@link #JAR_CHUNK_SIZE}, forks all but the first,
+     * scans the first on this thread, and, after the last range completes,
+     * calls {@link RangeJob#done()} if every range succeeded, or {@link RangeJob#failed()} if any threw.
+     */
+    private void forkRanges(int size, final RangeJob job) {
+      int chunks = Math.max(1, (size + JAR_CHUNK_SIZE - 1) / JAR_CHUNK_SIZE);
+      final AtomicInteger remaining = new AtomicInteger(chunks);
+      final AtomicBoolean failed = new AtomicBoolean();
+      class Range implements Runnable {
+        final int from, to;
+        Range(int from, int to) {
+          this.from = from;
+          this.to = to;
+        }
+        @Override
+        public void run() {
+          try {
+            job.scan(from, to);
+          } catch (RuntimeException e) {
+            failed.set(true);
+            throw e;
+          } catch (Error e) {
+            failed.set(true);
+            throw e;
+          } finally {
+            if (remaining.decrementAndGet() == 0) {
+              if (failed.get()) {
+                job.failed();
+              } else {
+                job.done();
+              }
+            }
+          }
+        }
+      }
+      for (int chunk = 1; chunk < chunks; chunk++) {
+        int from = chunk * JAR_CHUNK_SIZE;
+        fork(new Range(from, Math.min(size, from + JAR_CHUNK_SIZE)));
+      }
+      new Range(0, Math.min(size, JAR_CHUNK_SIZE)).run();
+    }
+
+    private ClassHeader readHeader(JarFile jarFile, JarEntry entry) {
+      try {
+        InputStream in = jarFile.getInputStream(entry);
+        try {
+          return headerReader.read(in);
+        } finally {
+          in.close();
         }
+      } catch (IOException e) {
+        X_Log.trace(getClass(), "Unable to read class header of", entry.getName(), "in", jarFile.getName(), e);
+        return null;
       }
     }
 
@@ -175,23 +339,27 @@ public class ClasspathScannerDefault implements ClasspathScanner {
     }
 
     protected void addEntry(JarFile file, JarEntry entry) {
-      String name = entry.getName();
+      addEntry(file, MappedJar.forFile(file.getName()), entry.getName(), entry, null);
+    }
+
+    private void addEntry(JarFile file, MappedJar mapped, String name, JarEntry entry, ClassHeader header) {
       for (String pkg : pkgs) {
         if (name.startsWith(pkg)) {
           if (name.endsWith(".class")) {
             if (map.includeBytecode(name)) {
-              map.addBytecode(name, new ByteCodeResource(
-                  new JarBackedResource(file, entry, priority)));
+              JarBackedResource resource = newJarResource(file, mapped, name, entry);
+              map.addBytecode(name, header == null ? new ByteCodeResource(resource)
+                : new ByteCodeResource(resource, header));
             }
           } else if (name.endsWith(".java")) {
             if (map.includeSourcecode(name)) {
               map.addSourcecode(name, new SourceCodeResource(
-                  new JarBackedResource(file, entry, priority)));
+                  newJarResource(file, mapped, name, entry)));
             }
           } else {
             if (map.includeResource(name)) {
               map.addResource(name, new StringDataResource(
-                  new JarBackedResource(file, entry, priority)));
+                  newJarResource(file, mapped, name, entry)));
             }
           }
           return;
@@ -199,6 +367,24 @@ public class ClasspathScannerDefault implements ClasspathScanner {
       }
     }
 
+    private abstract class RangeJob {
+      abstract void scan(int from, int to);
+      /**
+       * Called once, after every range was scanned without error.
+       */
+      void done() {
+      }
+      /**
+       * Called once, after the last range finishes, if any range threw.
+       */
+      void failed() {
+      }
+    }
+
+    private JarBackedResource newJarResource(JarFile file, MappedJar mapped, String name, JarEntry entry) {
+      return new JarBackedResource(file, name, entry, priority, mapped);
+    }
+
   }
 
   @Override
@@ -273,38 +459,35 @@ public class ClasspathScannerDefault implements ClasspathScanner {
     int pos = 0;
     final ClasspathResourceMap map = new ClasspathResourceMap(executor,
       annotations, bytecodeMatchers, resourceMatchers, sourceMatchers);
-    final Fifo<Future<?>> jobs = new SimpleFifo<Future<?>>();
+    final ScanJobs jobs = new ScanJobs(executor);
     class Finisher implements Callable<ClasspathResourceMap>{
       @Override
       public ClasspathResourceMap call() throws Exception {
-        while (!jobs.isEmpty()) {
-          // drain the work pool
-          Iterator<Future<?>> iter = jobs.forEach().iterator();
-          while (iter.hasNext()) {
-            if (iter.next().isDone()) {
-              iter.remove();
-            }
-          }
-          try {
-            Thread.sleep(0, 500);
-          } catch (InterruptedException e) {
-            throw X_Debug.rethrow(e);
-          }
-        }
+        // Blocks until the last scan job, including all forked jobs, is done
+        jobs.await();
         return map;
       }
     }
+    ScanCache cache = newScanCache();
     for (URL url : classPaths.keySet()) {
       Fifo<String> packages = classPaths.get(url);
-      ScanRunner scanner = newScanRunner(url, map, executor, packages.forEach(), pos);
-      jobs.give(executor.submit(scanner));
+      ScanRunner scanner = newScanRunner(url, map, executor, packages.forEach(), pos, cache, jobs);
+      jobs.submit(scanner);
     }
+    jobs.release();
     return new Finisher();
   }
 
   private ScanRunner newScanRunner(URL classPath, ClasspathResourceMap map, ExecutorService executor,
-    Iterable<String> pkgs, int priority) {
-    return new ScanRunner(classPath, pkgs, map, priority);
+    Iterable<String> pkgs, int priority, ScanCache cache, ScanJobs jobs) {
+    return new ScanRunner(classPath, pkgs, map, priority, cache, jobs);
+  }
+
+  /**
+   * @return the cache to use for jar indexes, or null to always scan jars.
+   */
+  protected ScanCache newScanCache() {
+    return ScanCache.fromProperties();
   }
 
   @Override
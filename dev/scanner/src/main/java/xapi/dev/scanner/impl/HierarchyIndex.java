@@ -0,0 +1,157 @@
+package xapi.dev.scanner.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import xapi.dev.resource.impl.ByteCodeResource;
+import xapi.dev.resource.impl.ClassHeader;
+import xapi.log.X_Log;
+import xapi.util.X_Debug;
+
+/**
+ * A reverse type hierarchy of a set of scanned classes:
+ * for every type name, the names of all scanned classes and interfaces
+ * which directly extend or implement it.
+ * <p>
+ * The index is built once, from class headers only, by splitting the classes
+ * into one chunk per processor; queries against it cost time proportional to
+ * the size of their result, rather than to the size of the classpath.
+ * <p>
+ * The index is immutable once built, and safe to query from any thread.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class HierarchyIndex {
+
+  private final Map<String, List<String>> subtypes;
+
+  private HierarchyIndex(Map<String, List<String>> subtypes) {
+    this.subtypes = subtypes;
+  }
+
+  public static HierarchyIndex build(Iterable<ByteCodeResource> classes, ExecutorService executor) {
+    final List<ByteCodeResource> all = new ArrayList<ByteCodeResource>();
+    for (ByteCodeResource cls : classes) {
+      all.add(cls);
+    }
+    int chunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), all.size() / 256));
+    int chunkSize = (all.size() + chunks - 1) / chunks;
+    List<Future<Map<String, List<String>>>> results = new ArrayList<Future<Map<String, List<String>>>>();
+    List<Map<String, List<String>>> inline = new ArrayList<Map<String, List<String>>>();
+    for (int from = chunkSize; from < all.size(); from += chunkSize) {
+      final int start = from, end = Math.min(all.size(), from + chunkSize);
+      Callable<Map<String, List<String>>> job = new Callable<Map<String, List<String>>>() {
+        @Override
+        public Map<String, List<String>> call() {
+          return index(all, start, end);
+        }
+      };
+      try {
+        results.add(executor.submit(job));
+      } catch (RejectedExecutionException e) {
+        inline.add(index(all, start, end));
+      }
+    }
+    // The first chunk is indexed on this thread
+    Map<String, List<String>> merged = index(all, 0, Math.min(all.size(), chunkSize));
+    for (Map<String, List<String>> result : inline) {
+      merge(merged, result);
+    }
+    try {
+      for (Future<Map<String, List<String>>> result : results) {
+        merge(merged, result.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw X_Debug.rethrow(e);
+    } catch (ExecutionException e) {
+      throw X_Debug.rethrow(e.getCause());
+    }
+    return new HierarchyIndex(merged);
+  }
+
+  private static Map<String, List<String>> index(List<ByteCodeResource> classes, int from, int to) {
+    Map<String, List<String>> map = new HashMap<String, List<String>>();
+    for (int i = from; i < to; i++) {
+      ClassHeader header;
+      try {
+        header = classes.get(i).getHeader();
+      } catch (Throwable e) {
+        X_Log.warn(HierarchyIndex.class, "Unable to read class header of", classes.get(i).getResourceName(), e);
+        continue;
+      }
+      if (header.getSuperclass() != null) {
+        add(map, header.getSuperclass(), header.getName());
+      }
+      for (String iface : header.getInterfaces()) {
+        add(map, iface, header.getName());
+      }
+    }
+    return map;
+  }
+
+  private static void add(Map<String, List<String>> map, String supertype, String subtype) {
+    List<String> list = map.get(supertype);
+    if (list == null) {
+      list = new ArrayList<String>(2);
+      map.put(supertype, list);
+    }
+    list.add(subtype);
+  }
+
+  private static void merge(Map<String, List<String>> into, Map<String, List<String>> from) {
+    for (Entry<String, List<String>> entry : from.entrySet()) {
+      List<String> existing = into.get(entry.getKey());
+      if (existing == null) {
+        into.put(entry.getKey(), entry.getValue());
+      } else {
+        existing.addAll(entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * @return the names of all scanned types which directly extend or implement the given type.
+   */
+  public List<String> getDirectSubtypes(String typeName) {
+    List<String> list = subtypes.get(typeName);
+    return list == null ? Collections.<String>emptyList() : Collections.unmodifiableList(list);
+  }
+
+  /**
+   * @return the names of all scanned types which extend or implement any of the given types,
+   * directly or transitively (through superclasses or super-interfaces), in breadth-first order.
+   */
+  public Set<String> getAllSubtypes(String ... typeNames) {
+    Set<String> result = new LinkedHashSet<String>();
+    ArrayDeque<String> todo = new ArrayDeque<String>();
+    for (String typeName : typeNames) {
+      todo.add(typeName);
+    }
+    while (!todo.isEmpty()) {
+      List<String> direct = subtypes.get(todo.poll());
+      if (direct != null) {
+        for (String subtype : direct) {
+          if (result.add(subtype)) {
+            todo.add(subtype);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+}
@@ -1,6 +1,7 @@
 package xapi.dev.scanner.impl;
 
 import xapi.bytecode.ClassFile;
+import xapi.dev.resource.impl.ClassHeader;
 import xapi.util.api.MatchesValue;
 
 public class MatchesDirectSubclasses implements MatchesValue<ClassFile>{
@@ -30,5 +31,14 @@ public class MatchesDirectSubclasses implements MatchesValue<ClassFile>{
     }
     return false;
   }
-  
+
+  public boolean matches(ClassHeader value) {
+    for (String subclass : subclasses) {
+      if (value.isInterface() ? value.hasInterface(subclass) : value.hasSuperClass(subclass)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
 }
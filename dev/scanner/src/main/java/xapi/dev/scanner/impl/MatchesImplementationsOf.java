@@ -1,80 +1,76 @@
 package xapi.dev.scanner.impl;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
 
 import xapi.bytecode.ClassFile;
 import xapi.collect.api.PrefixedMap;
 import xapi.dev.resource.impl.ByteCodeResource;
+import xapi.dev.resource.impl.ClassHeader;
 import xapi.log.X_Log;
 import xapi.util.api.MatchesValue;
 
+/**
+ * Matches classes or interfaces which extend or implement any of the given types,
+ * either directly or through any superclass or super-interface.
+ * <p>
+ * This walks the supertypes of each candidate; when matching many classes,
+ * prefer {@link ClasspathResourceMap#findImplementationOf(Class...)},
+ * which uses a {@link HierarchyIndex}.
+ *
+ */
 public class MatchesImplementationsOf implements MatchesValue<ClassFile> {
 
 
   private final PrefixedMap<ByteCodeResource> bytecode;
-  private final List<String> interfaces, classes;
+  private final Set<String> supertypes;
 
   public MatchesImplementationsOf(PrefixedMap<ByteCodeResource> bytecode, String ... subclasses) {
     this.bytecode = bytecode;
-    interfaces = new ArrayList<String>();
-    classes = new ArrayList<String>();
+    supertypes = new HashSet<String>();
     for (String subclass : subclasses) {
-      ByteCodeResource resource = bytecode.get(subclass);
-      if (resource == null) {
+      if (bytecode.get(subclass) == null) {
         X_Log.warn(getClass(), "Searching for implementations of",subclass,"that are not on search classpath");
-        interfaces.add(subclass);
-        classes.add(subclass);
-      } else {
-        ClassFile cls = bytecode.get(subclass).getClassData();
-        (cls.isInterface() ? interfaces : classes).add(subclass);
       }
+      supertypes.add(subclass);
     }
   }
-  
+
   @Override
   public boolean matches(ClassFile value) {
-    if (value.isInterface()) {
-      for (String iface : value.getInterfaces()) {
-        for (String subclass : interfaces) {
-          if (iface.equals(subclass)) {
-            return true;
-          }
-        }
-      }
-    } else {
-      for (String superclass : getHierarchy(value)) {
-        for (String subclass : classes) {
-          if (superclass.equals(subclass)) {
-            return true;
-          }
-        }
-      }
-    }
-    return false;
+    return matches(value.getName(), value.getInterfaces(), value.getSuperclass(), new HashSet<String>());
   }
 
-  private Iterable<String> getHierarchy(ClassFile value) {
-    List<String> hierarchy = new ArrayList<String>();
-    addSuperclasses(hierarchy, value.getSuperclass(), value);
-    return hierarchy;
+  public boolean matches(ClassHeader value) {
+    return matches(value.getName(), value.getInterfaces(), value.getSuperclass(), new HashSet<String>());
   }
 
-  private void addSuperclasses(List<String> hierarchy, String superclass, ClassFile clazz) {
-    if (superclass != null) {
-      hierarchy.add(superclass);
-      if (superclass.equals("java.lang.Object")) {
-        return;
-      }
-      ByteCodeResource resource = bytecode.get(superclass);
-      if (resource == null) {
-        X_Log.trace(getClass(), "Unable to find superclass",superclass,"of",clazz,"on classpath; supertype search will end");
-      } else {
-        ClassFile cls = resource.getClassData();
-        addSuperclasses(hierarchy, cls.getSuperclass(), cls);
+  private boolean matches(String name, String[] ifaces, String superclass, Set<String> seen) {
+    if (superclass != null && matchesType(name, superclass, seen)) {
+      return true;
+    }
+    for (String iface : ifaces) {
+      if (matchesType(name, iface, seen)) {
+        return true;
       }
     }
+    return false;
+  }
+
+  private boolean matchesType(String subtype, String type, Set<String> seen) {
+    if (supertypes.contains(type)) {
+      return true;
+    }
+    if (!seen.add(type) || type.equals("java.lang.Object")) {
+      return false;
+    }
+    ByteCodeResource resource = bytecode.get(type);
+    if (resource == null) {
+      X_Log.trace(getClass(), "Unable to find supertype",type,"of",subtype,"on classpath; supertype search will end");
+      return false;
+    }
+    ClassHeader cls = resource.getHeader();
+    return matches(cls.getName(), cls.getInterfaces(), cls.getSuperclass(), seen);
   }
 
-  
 }
@@ -0,0 +1,178 @@
+package xapi.dev.scanner.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import xapi.dev.resource.impl.ByteBufferInputStream;
+import xapi.dev.resource.impl.ClassHeader;
+import xapi.log.X_Log;
+import xapi.util.X_Namespace;
+import xapi.util.X_Properties;
+
+/**
+ * An on-disk index of scanned jars, so that unchanged jars do not need to be
+ * re-enumerated and have every class header re-read on every startup.
+ * <p>
+ * Each jar gets its own index file, keyed by the jar's canonical path,
+ * and validated against the jar's size and modification time.
+ * The index stores every entry name in the jar, plus the {@link ClassHeader}
+ * of every class, so that it can be replayed through any set of scanner filters.
+ * <p>
+ * Directories are not cached; they are usually the project's own mutable output,
+ * and walking them is cheap compared to reading jars.
+ * <p>
+ * Enable by setting {@link X_Namespace#PROPERTY_SCAN_CACHE} to a directory.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class ScanCache {
+
+  private static final int MAGIC = 0x58534331; // XSC1
+
+  public static class JarIndex {
+    private final List<String> names = new ArrayList<String>();
+    private final List<ClassHeader> headers = new ArrayList<ClassHeader>();
+
+    /**
+     * @param name - The jar entry name
+     * @param header - The header of the class, or null for non-class entries
+     */
+    public synchronized void add(String name, ClassHeader header) {
+      names.add(name);
+      headers.add(header);
+    }
+
+    public int size() {
+      return names.size();
+    }
+
+    public String getName(int i) {
+      return names.get(i);
+    }
+
+    public ClassHeader getHeader(int i) {
+      return headers.get(i);
+    }
+  }
+
+  private final File dir;
+
+  public ScanCache(File dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * @return a scan cache in the directory named by {@link X_Namespace#PROPERTY_SCAN_CACHE},
+   * or null if that property is not set.
+   */
+  public static ScanCache fromProperties() {
+    String dir = X_Properties.getProperty(X_Namespace.PROPERTY_SCAN_CACHE);
+    if (dir == null || dir.length() == 0) {
+      return null;
+    }
+    return new ScanCache(new File(dir));
+  }
+
+  /**
+   * @return the cached index of the given jar, or null if there is no index,
+   * or if the jar has changed since it was indexed.
+   */
+  public JarIndex load(File jar) {
+    File index = indexFile(jar);
+    if (!index.isFile()) {
+      return null;
+    }
+    try {
+      RandomAccessFile raf = new RandomAccessFile(index, "r");
+      try {
+        FileChannel channel = raf.getChannel();
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(mapped));
+        if (in.readInt() != MAGIC
+            || !in.readUTF().equals(jar.getCanonicalPath())
+            || in.readLong() != jar.length()
+            || in.readLong() != jar.lastModified()) {
+          return null;
+        }
+        JarIndex result = new JarIndex();
+        for (int i = in.readInt(); i --> 0; ) {
+          String name = in.readUTF();
+          result.add(name, in.readBoolean() ? ClassHeader.read(in) : null);
+        }
+        return result;
+      } finally {
+        raf.close();
+      }
+    } catch (IOException e) {
+      X_Log.warn(getClass(), "Unable to read scan cache", index, "for", jar, e);
+      return null;
+    }
+  }
+
+  public void save(File jar, JarIndex result) {
+    File index = indexFile(jar);
+    try {
+      if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+        X_Log.warn(getClass(), "Unable to create scan cache directory", dir);
+        return;
+      }
+      // write to a temp file and rename, so concurrent processes never see a partial index
+      File tmp = File.createTempFile(index.getName(), ".tmp", dir);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeUTF(jar.getCanonicalPath());
+        out.writeLong(jar.length());
+        out.writeLong(jar.lastModified());
+        int size = result.size();
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+          out.writeUTF(result.getName(i));
+          ClassHeader header = result.getHeader(i);
+          out.writeBoolean(header != null);
+          if (header != null) {
+            header.write(out);
+          }
+        }
+      } finally {
+        out.close();
+      }
+      Files.move(tmp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      X_Log.warn(getClass(), "Unable to write scan cache", index, "for", jar, e);
+    }
+  }
+
+  /**
+   * Deletes any index of the given jar, so the next scan reads the jar itself.
+   */
+  public void discard(File jar) {
+    File index = indexFile(jar);
+    if (index.exists() && !index.delete()) {
+      X_Log.warn(getClass(), "Unable to delete scan cache", index, "for", jar);
+    }
+  }
+
+  protected File indexFile(File jar) {
+    String path;
+    try {
+      path = jar.getCanonicalPath();
+    } catch (IOException e) {
+      path = jar.getAbsolutePath();
+    }
+    return new File(dir, jar.getName() + "-" + Integer.toHexString(path.hashCode()) + ".idx");
+  }
+
+}
@@ -0,0 +1,68 @@
+package xapi.dev.scanner.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks every job (and every job forked by a job) of a single classpath scan,
+ * so that the scan can be joined exactly when the last job completes,
+ * without polling futures.
+ * <p>
+ * The tracker starts with one outstanding party, held by the thread which
+ * submits the initial jobs; call {@link #release()} once all initial jobs are submitted.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+class ScanJobs {
+
+  private final ExecutorService executor;
+  private final AtomicInteger pending = new AtomicInteger(1);
+  private final CountDownLatch done = new CountDownLatch(1);
+
+  ScanJobs(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Submits a job; may be called from inside running jobs to fork more work.
+   */
+  void submit(final Runnable job) {
+    pending.incrementAndGet();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            job.run();
+          } finally {
+            finish();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      finish();
+      throw e;
+    }
+  }
+
+  /**
+   * Releases the submitting thread's hold on this tracker.
+   */
+  void release() {
+    finish();
+  }
+
+  void await() throws InterruptedException {
+    done.await();
+  }
+
+  private void finish() {
+    if (pending.decrementAndGet() == 0) {
+      done.countDown();
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+package xapi.dev.scanner.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import xapi.bytecode.ClassFile;
+import xapi.bytecode.annotation.Annotation;
+import xapi.dev.resource.impl.ByteCodeResource;
+import xapi.dev.resource.impl.ClassHeader;
+import xapi.dev.resource.impl.ClassHeaderReader;
+import xapi.dev.scanner.X_Scanner;
+import xapi.log.X_Log;
+import xapi.util.X_String;
+
+/**
+ * Compares the cost of reading a {@link ClassHeader} against parsing a full {@link ClassFile},
+ * using the class files found on the test classpath.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class ClassHeaderBenchmark {
+
+  private static final int ROUNDS = 5;
+  private static final List<byte[]> classes = new ArrayList<byte[]>();
+
+  @BeforeClass
+  public static void readClasses() throws IOException {
+    for (ByteCodeResource resource : X_Scanner.scanClassloader(
+        ClassHeaderBenchmark.class.getClassLoader(), true, false, false, "xapi")
+        .findClassResources("")) {
+      InputStream in = resource.open();
+      try {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+          out.write(buf, 0, read);
+        }
+        classes.add(out.toByteArray());
+      } finally {
+        in.close();
+      }
+    }
+    assertTrue("No classes found on classpath", classes.size() > 0);
+  }
+
+  @Test
+  public void testHeaderMatchesClassFile() throws IOException {
+    ClassHeaderReader reader = new ClassHeaderReader(true);
+    for (byte[] bytes : classes) {
+      ClassFile full = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+      ClassHeader header = reader.read(bytes);
+      assertEquals(full.getName(), header.getName());
+      assertEquals(full.isInterface(), header.isInterface());
+      assertArrayEquals(full.getInterfaces(), header.getInterfaces());
+      if (header.getSuperclass() != null) {
+        assertEquals(full.getSuperclass(), header.getSuperclass());
+      }
+      for (Annotation anno : full.getAnnotations()) {
+        assertTrue(header+" missing "+anno.getTypeName(), header.hasAnnotation(anno.getTypeName()));
+      }
+    }
+  }
+
+  @Test
+  public void benchmarkHeaderVsClassFile() throws IOException {
+    ClassHeaderReader reader = new ClassHeaderReader(true);
+    long fullTime = 0, headerTime = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (byte[] bytes : classes) {
+        new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+      }
+      long mid = System.nanoTime();
+      for (byte[] bytes : classes) {
+        reader.read(bytes);
+      }
+      long end = System.nanoTime();
+      if (round > 0) {
+        // first round is warmup
+        fullTime += mid - start;
+        headerTime += end - mid;
+      }
+    }
+    X_Log.info(getClass(), "Read", classes.size(), "classes", ROUNDS - 1, "times;"
+      ,"full ClassFile:", X_String.toMetricSuffix(fullTime / 1000000000.0)+"s"
+      ,"ClassHeader:", X_String.toMetricSuffix(headerTime / 1000000000.0)+"s");
+  }
+
+}
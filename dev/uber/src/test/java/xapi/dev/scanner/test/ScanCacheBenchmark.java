@@ -0,0 +1,65 @@
+package xapi.dev.scanner.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import xapi.dev.resource.impl.ByteCodeResource;
+import xapi.dev.scanner.X_Scanner;
+import xapi.log.X_Log;
+import xapi.util.X_Namespace;
+
+/**
+ * Compares a cold classpath scan against a scan which is rehydrated from the jar index cache.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class ScanCacheBenchmark {
+
+  @Test
+  public void benchmarkColdVsWarmScan() throws IOException {
+    File dir = File.createTempFile("scan-cache", "");
+    dir.delete();
+    String was = System.getProperty(X_Namespace.PROPERTY_SCAN_CACHE);
+    System.setProperty(X_Namespace.PROPERTY_SCAN_CACHE, dir.getAbsolutePath());
+    try {
+      long start = System.nanoTime();
+      int cold = scanHeaders();
+      long mid = System.nanoTime();
+      int warm = scanHeaders();
+      long end = System.nanoTime();
+      assertEquals(cold, warm);
+      X_Log.info(getClass(), "Scanned", cold, "classes;"
+        ,"cold:", (mid - start) / 1000000, "ms"
+        ,"warm:", (end - mid) / 1000000, "ms");
+    } finally {
+      if (was == null) {
+        System.clearProperty(X_Namespace.PROPERTY_SCAN_CACHE);
+      } else {
+        System.setProperty(X_Namespace.PROPERTY_SCAN_CACHE, was);
+      }
+      File[] files = dir.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+      dir.delete();
+    }
+  }
+
+  private int scanHeaders() {
+    int count = 0;
+    for (ByteCodeResource resource : X_Scanner.scanClassloader(getClass().getClassLoader(),
+        true, false, false, "").findClassResources("")) {
+      resource.getHeader();
+      count++;
+    }
+    return count;
+  }
+
+}
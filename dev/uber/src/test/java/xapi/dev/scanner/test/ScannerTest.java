@@ -14,6 +14,10 @@ public class ScannerTest {
 
   private static class PrivateSubclass extends ScannerTest{}
   private static class SecondSubclass extends PrivateSubclass{}
+  private static interface Marker {}
+  private static interface SubMarker extends Marker {}
+  private static class MarkerImpl implements SubMarker {}
+  private static class InheritsMarker extends MarkerImpl {}
   
   @Test
   public void testFindTestClasses() {
@@ -50,6 +54,18 @@ public class ScannerTest {
     fail("Could not find "+SecondSubclass.class.getName()+" using X_Scanner.findImplementationsOf()");
   }
 
+  @Test
+  public void testFindInheritedInterface() {
+    Moment start = X_Time.now();
+    for (ClassFile cls : X_Scanner.findImplementationsOf(getClass().getClassLoader(), Marker.class)) {
+      if (cls.getName().equals(InheritsMarker.class.getName())) {
+        X_Log.info("Found inherited interface in "+X_Time.difference(start), cls);
+        return;
+      }
+    };
+    fail("Could not find "+InheritsMarker.class.getName()+" using X_Scanner.findImplementationsOf()");
+  }
+
   @Test
   public void testFindInPackage() {
     Moment start = X_Time.now();
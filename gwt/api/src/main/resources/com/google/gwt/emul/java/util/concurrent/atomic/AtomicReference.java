@@ -0,0 +1,62 @@
+package java.util.concurrent.atomic;
+
+/**
+ * Emulation of AtomicReference for gwt.
+ * <p>
+ * Javascript is single threaded, so every operation is a plain field access;
+ * this class only exists so that shared lock-free code (like ConcurrentFifo) compiles.
+ * It is not final, since shared code may extend it to save an object per node.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ * @param <V> The type of object referred to by this reference
+ */
+public class AtomicReference<V> implements java.io.Serializable {
+
+  private static final long serialVersionUID = -1848883965231344442L;
+
+  private V value;
+
+  public AtomicReference(V initialValue) {
+    value = initialValue;
+  }
+
+  public AtomicReference() {
+  }
+
+  public final V get() {
+    return value;
+  }
+
+  public final void set(V newValue) {
+    value = newValue;
+  }
+
+  public final void lazySet(V newValue) {
+    value = newValue;
+  }
+
+  public final boolean compareAndSet(V expect, V update) {
+    if (value == expect) {
+      value = update;
+      return true;
+    }
+    return false;
+  }
+
+  public final boolean weakCompareAndSet(V expect, V update) {
+    return compareAndSet(expect, update);
+  }
+
+  public final V getAndSet(V newValue) {
+    V was = value;
+    value = newValue;
+    return was;
+  }
+
+  @Override
+  public String toString() {
+    return String.valueOf(value);
+  }
+
+}
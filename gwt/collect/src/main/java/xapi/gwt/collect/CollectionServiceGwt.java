@@ -5,12 +5,18 @@ import xapi.collect.api.ClassTo;
 import xapi.collect.api.CollectionOptions;
 import xapi.collect.api.Fifo;
 import xapi.collect.api.IntTo;
+import xapi.collect.api.IntToDouble;
+import xapi.collect.api.IntToInt;
+import xapi.collect.api.IntToLong;
 import xapi.collect.api.ObjectTo;
 import xapi.collect.api.ObjectTo.Many;
 import xapi.collect.api.StringDictionary;
 import xapi.collect.api.StringTo;
+import xapi.collect.api.StringToInt;
+import xapi.collect.api.StringToLong;
+import xapi.collect.impl.IntToLongList;
+import xapi.collect.impl.StringToLongMap;
 import xapi.collect.service.CollectionService;
-import xapi.except.NotYetImplemented;
 import xapi.platform.GwtPlatform;
 
 @GwtPlatform
@@ -24,7 +30,7 @@ public class CollectionServiceGwt implements CollectionService{
 
   @Override
   public <V> IntTo<V> newSet(Class<V> cls, CollectionOptions opts) {
-    throw new NotYetImplemented("IntTo not yet implemented");
+    return new xapi.collect.impl.IntToSet<V>(cls, opts);
   }
 
   @Override
@@ -52,18 +58,19 @@ public class CollectionServiceGwt implements CollectionService{
 
   @Override
   public <K,V> Many<K,V> newMultiMap(Class<K> key, Class<V> cls, CollectionOptions opts) {
-    throw new NotYetImplemented("MultiMap not yet implemented");
+    return new xapi.collect.impl.ObjectToManyMap<K, V>(key, cls, opts);
   }
 
   @Override
   public <V> xapi.collect.api.ClassTo.Many<V> newClassMultiMap(Class<V> cls, CollectionOptions opts) {
-    throw new NotYetImplemented("MultiMap not yet implemented");
+    return new xapi.collect.impl.ClassToManyMap<V>(cls, opts);
   }
 
   @Override
   public <V> xapi.collect.api.StringTo.Many<V> newStringMultiMap(Class<V> cls,
     CollectionOptions opts) {
-    throw new NotYetImplemented("MultiMap not yet implemented");
+    // js is single threaded; the buckets come from newList, like the rest of our collections
+    return new xapi.collect.impl.StringToManyList<V>(cls);
   }
 
   @Override
@@ -71,4 +78,35 @@ public class CollectionServiceGwt implements CollectionService{
     return JsFifo.newFifo();
   }
 
+  @Override
+  public <V> Fifo<V> newFifo(CollectionOptions opts) {
+    return JsFifo.newFifo();
+  }
+
+  @Override
+  public IntToInt newIntToInt(CollectionOptions opts) {
+    return IntToIntGwt.newInstance();
+  }
+
+  @Override
+  public IntToLong newIntToLong(CollectionOptions opts) {
+    // js numbers cannot hold a long, so we use the (emulated) long[] implementation
+    return new IntToLongList();
+  }
+
+  @Override
+  public IntToDouble newIntToDouble(CollectionOptions opts) {
+    return IntToDoubleGwt.newInstance();
+  }
+
+  @Override
+  public StringToInt newStringToInt(CollectionOptions opts) {
+    return StringToIntGwt.newInstance();
+  }
+
+  @Override
+  public StringToLong newStringToLong(CollectionOptions opts) {
+    return new StringToLongMap();
+  }
+
 }
@@ -0,0 +1,108 @@
+package xapi.gwt.collect;
+
+import xapi.collect.api.IntToDouble;
+import xapi.platform.GwtPlatform;
+
+import com.google.gwt.core.client.GwtScriptOnly;
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * A javascript array of numbers; in compiled script, double values are never boxed.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+@GwtPlatform
+@GwtScriptOnly
+public class IntToDoubleGwt extends JavaScriptObject implements IntToDouble {
+
+  protected IntToDoubleGwt() {}
+
+  public static native IntToDouble newInstance()
+  /*-{
+   return [];
+  }-*/;
+
+  @Override
+  public final native int size()
+  /*-{
+    return this.length;
+  }-*/;
+
+  @Override
+  public final boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public final native void clear()
+  /*-{
+    this.length = 0;
+  }-*/;
+
+  @Override
+  public final native double at(int index)
+  /*-{
+    return this[index] || 0;
+  }-*/;
+
+  @Override
+  public final native void set(int index, double value)
+  /*-{
+    while (this.length < index)
+      this[this.length] = 0;
+    this[index] = value;
+  }-*/;
+
+  @Override
+  public final native void add(double value)
+  /*-{
+    this.push(value);
+  }-*/;
+
+  @Override
+  public final void push(double value) {
+    add(value);
+  }
+
+  @Override
+  public final native double pop()
+  /*-{
+    return this.pop() || 0;
+  }-*/;
+
+  @Override
+  public final native int indexOf(double value)
+  /*-{
+    return this.indexOf(value);
+  }-*/;
+
+  @Override
+  public final boolean contains(double value) {
+    return indexOf(value) != -1;
+  }
+
+  @Override
+  public final native boolean remove(int index)
+  /*-{
+    if (index < 0 || index >= this.length)
+      return false;
+    this.splice(index, 1);
+    return true;
+  }-*/;
+
+  @Override
+  public final void forEach(Visitor visitor) {
+    for (int i = 0, m = size(); i < m; i++) {
+      visitor.visit(i, at(i));
+    }
+  }
+
+  @Override
+  public final double[] toArray() {
+    double[] copy = new double[size()];
+    for (int i = copy.length; i-- > 0; copy[i] = at(i));
+    return copy;
+  }
+
+}
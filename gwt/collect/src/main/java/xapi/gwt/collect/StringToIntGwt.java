@@ -0,0 +1,123 @@
+package xapi.gwt.collect;
+
+import xapi.collect.api.StringToInt;
+import xapi.platform.GwtPlatform;
+
+import com.google.gwt.core.client.GwtScriptOnly;
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * A javascript object of numbers; in compiled script, int values are never boxed.
+ * <p>
+ * Keys are prefixed with : so they cannot collide with Object.prototype.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+@GwtPlatform
+@GwtScriptOnly
+public class StringToIntGwt extends JavaScriptObject implements StringToInt {
+
+  protected StringToIntGwt() {}
+
+  public static native StringToInt newInstance()
+  /*-{
+   return {_m: {}, _s: 0};
+  }-*/;
+
+  @Override
+  public final native int size()
+  /*-{
+    return this._s;
+  }-*/;
+
+  @Override
+  public final boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public final native void clear()
+  /*-{
+    this._m = {};
+    this._s = 0;
+  }-*/;
+
+  @Override
+  public final native boolean containsKey(String key)
+  /*-{
+    return (':' + key) in this._m;
+  }-*/;
+
+  @Override
+  public final int get(String key) {
+    return get(key, 0);
+  }
+
+  @Override
+  public final native int get(String key, int dflt)
+  /*-{
+    var k = ':' + key;
+    return k in this._m ? this._m[k] : dflt;
+  }-*/;
+
+  @Override
+  public final native int put(String key, int value)
+  /*-{
+    var k = ':' + key;
+    var was = 0;
+    if (k in this._m) {
+      was = this._m[k];
+    } else {
+      this._s++;
+    }
+    this._m[k] = value;
+    return was;
+  }-*/;
+
+  @Override
+  public final native int add(String key, int delta)
+  /*-{
+    var k = ':' + key;
+    if (k in this._m) {
+      return this._m[k] = (this._m[k] + delta) | 0;
+    }
+    this._s++;
+    return this._m[k] = delta;
+  }-*/;
+
+  @Override
+  public final native boolean remove(String key)
+  /*-{
+    var k = ':' + key;
+    if (k in this._m) {
+      delete this._m[k];
+      this._s--;
+      return true;
+    }
+    return false;
+  }-*/;
+
+  @Override
+  public final String[] keyArray() {
+    String[] keys = new String[size()];
+    fillKeys(keys);
+    return keys;
+  }
+
+  private native void fillKeys(String[] keys)
+  /*-{
+    var i = 0;
+    for (var k in this._m) {
+      keys[i++] = k.substring(1);
+    }
+  }-*/;
+
+  @Override
+  public final void forEach(Visitor visitor) {
+    for (String key : keyArray()) {
+      visitor.visit(key, get(key, 0));
+    }
+  }
+
+}
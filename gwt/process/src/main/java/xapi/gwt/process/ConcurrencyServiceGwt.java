@@ -99,13 +99,20 @@ public class ConcurrencyServiceGwt extends ConcurrencyServiceAbstract{
   }
 
   @Override
-  public void runTimeout(final Runnable cmd, int millisToWait) {
-    new Timer() {
+  public RemovalHandler runTimeout(final Runnable cmd, int millisToWait) {
+    final Timer timer = new Timer() {
       @Override
       public void run() {
         cmd.run();
       }
-    }.schedule(millisToWait);
+    };
+    timer.schedule(millisToWait);
+    return new RemovalHandler() {
+      @Override
+      public void remove() {
+        timer.cancel();
+      }
+    };
   }
 
   @Override
@@ -0,0 +1,44 @@
+package xapi.jre.collect;
+
+import java.lang.ref.WeakReference;
+
+import xapi.annotation.inject.SingletonOverride;
+import xapi.collect.api.CharPool;
+import xapi.collect.impl.InterningCharPool;
+import xapi.platform.GwtDevPlatform;
+import xapi.platform.JrePlatform;
+
+/**
+ * An {@link InterningCharPool} which only holds weak references to its arrays,
+ * so that sequences which are no longer used by any collection can be collected.
+ * <p>
+ * Collected entries are expunged lazily, as their buckets are walked or resized.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+@JrePlatform
+@GwtDevPlatform
+@SingletonOverride(implFor=CharPool.class)
+public class WeakCharPool extends InterningCharPool {
+
+  private static final class WeakEntry extends Entry {
+    private final WeakReference<char[]> ref;
+
+    WeakEntry(int hash, char[] chars, Entry next) {
+      super(hash, null, next);
+      ref = new WeakReference<char[]>(chars);
+    }
+
+    @Override
+    protected char[] get() {
+      return ref.get();
+    }
+  }
+
+  @Override
+  protected Entry newEntry(int hash, char[] chars, Entry next) {
+    return new WeakEntry(hash, chars, next);
+  }
+
+}
@@ -0,0 +1,185 @@
+package xapi.jre.inject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import xapi.bytecode.Bytecode;
+import xapi.bytecode.ClassFile;
+import xapi.bytecode.ConstPool;
+import xapi.bytecode.MethodInfo;
+import xapi.bytecode.api.Opcode;
+import xapi.inject.impl.InjectionTable;
+import xapi.log.X_Log;
+import xapi.source.X_Modifier;
+
+/**
+ * Writes the bytecode of a generated {@link InjectionTable}.
+ * <p>
+ * Each factory method is a single tableswitch over the index of an interface
+ * in its key array, where every case is <code>return new Impl();</code>.
+ * The implementation names are written out too, so the injector can check them against META-INF.
+ * We target java 5 bytecode, so we do not need to compute stack map frames.
+ * <p>
+ * Only public, concrete types with a public zero-arg constructor can be put in the table;
+ * anything else is left to the META-INF lookup of the injector.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class InjectionTableWriter {
+
+  private static final String OBJECT_FACTORY = "(I)Ljava/lang/Object;";
+  private static final String STRING_ARRAY = "()[Ljava/lang/String;";
+
+  public static boolean isConstructible(ClassFile cls) {
+    int modifiers = cls.getAccessFlags();
+    if (!X_Modifier.isPublic(modifiers) || X_Modifier.isAbstract(modifiers)
+        || X_Modifier.isInterface(modifiers)) {
+      return false;
+    }
+    for (MethodInfo method : cls.getMethods()) {
+      if (method.isConstructor() && "()V".equals(method.getDescriptor())) {
+        return X_Modifier.isPublic(method.getAccessFlags());
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Writes the table class into the given classes directory.
+   *
+   * @return the class file that was written.
+   */
+  public File write(File classesDir, String tableName,
+      Map<String, ClassFile> singletons, Map<String, ClassFile> instances) throws IOException {
+    File file = new File(classesDir, tableName.replace('.', File.separatorChar) + ".class");
+    File parent = file.getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Unable to create directory for injection table " + parent.getAbsolutePath());
+    }
+    byte[] bytes = generate(tableName, singletons, instances);
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  public byte[] generate(String tableName, Map<String, ClassFile> singletons, Map<String, ClassFile> instances) {
+    ClassFile table = new ClassFile(false, tableName, InjectionTable.class.getName());
+    table.setVersionToJava5();
+    table.setAccessFlags(X_Modifier.PUBLIC | X_Modifier.SUPER);
+    ConstPool cp = table.getConstPool();
+
+    List<String[]> singletonTargets = constructible(singletons);
+    List<String[]> instanceTargets = constructible(instances);
+
+    table.addMethod(constructor(cp));
+    table.addMethod(names(cp, "singletonKeys", singletonTargets, 0));
+    table.addMethod(names(cp, "instanceKeys", instanceTargets, 0));
+    table.addMethod(names(cp, "singletonImpls", singletonTargets, 1));
+    table.addMethod(names(cp, "instanceImpls", instanceTargets, 1));
+    table.addMethod(factory(cp, "newSingleton", singletonTargets));
+    table.addMethod(factory(cp, "newInstance", instanceTargets));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      table.write(out);
+      out.close();
+    } catch (IOException e) {
+      // cannot happen writing to memory
+      throw new AssertionError(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @return [interface, implementation] pairs for every implementation we can call new on.
+   */
+  private List<String[]> constructible(Map<String, ClassFile> targets) {
+    List<String[]> pairs = new ArrayList<String[]>();
+    for (Entry<String, ClassFile> target : targets.entrySet()) {
+      if (isConstructible(target.getValue())) {
+        pairs.add(new String[] {target.getKey(), target.getValue().getName()});
+      } else {
+        X_Log.debug(getClass(), "Leaving", target.getValue().getName(),
+          "out of the injection table; it has no public zero-arg constructor");
+      }
+    }
+    return pairs;
+  }
+
+  private MethodInfo constructor(ConstPool cp) {
+    Bytecode code = new Bytecode(cp, 1, 1);
+    code.addAload(0);
+    code.addInvokespecial(InjectionTable.class.getName(), MethodInfo.nameInit, "()V");
+    code.addOpcode(Opcode.RETURN);
+    return method(cp, MethodInfo.nameInit, "()V", X_Modifier.PUBLIC, code);
+  }
+
+  /**
+   * @param column 0 for the interface names, 1 for the implementation names.
+   */
+  private MethodInfo names(ConstPool cp, String name, List<String[]> targets, int column) {
+    Bytecode code = new Bytecode(cp, 0, 1);
+    code.addIconst(targets.size());
+    code.addAnewarray(String.class.getName());
+    for (int i = 0; i < targets.size(); i++) {
+      code.addOpcode(Opcode.DUP);
+      code.addIconst(i);
+      code.addLdc(targets.get(i)[column]);
+      code.addOpcode(Opcode.AASTORE);
+    }
+    code.addOpcode(Opcode.ARETURN);
+    return method(cp, name, STRING_ARRAY, X_Modifier.PROTECTED, code);
+  }
+
+  private MethodInfo factory(ConstPool cp, String name, List<String[]> targets) {
+    Bytecode code = new Bytecode(cp, 0, 2);
+    int size = targets.size();
+    if (size > 0) {
+      code.addIload(1);
+      int switchPc = code.currentPc();
+      code.addOpcode(Opcode.TABLESWITCH);
+      while ((code.currentPc() & 3) != 0) {
+        code.add(0);
+      }
+      int defaultOffset = code.currentPc();
+      code.add32bit(0);
+      code.add32bit(0);
+      code.add32bit(size - 1);
+      int jumpTable = code.currentPc();
+      code.addGap(size * 4);
+      for (int i = 0; i < size; i++) {
+        code.write32bit(jumpTable + i * 4, code.currentPc() - switchPc);
+        String impl = targets.get(i)[1];
+        code.addNew(impl);
+        code.addOpcode(Opcode.DUP);
+        code.addInvokespecial(impl, MethodInfo.nameInit, "()V");
+        code.addOpcode(Opcode.ARETURN);
+      }
+      code.write32bit(defaultOffset, code.currentPc() - switchPc);
+    }
+    code.addOpcode(Opcode.ACONST_NULL);
+    code.addOpcode(Opcode.ARETURN);
+    return method(cp, name, OBJECT_FACTORY, X_Modifier.PROTECTED, code);
+  }
+
+  private MethodInfo method(ConstPool cp, String name, String desc, int modifiers, Bytecode code) {
+    MethodInfo method = new MethodInfo(cp, name, desc);
+    method.setAccessFlags(modifiers);
+    method.setCodeAttribute(code.toCodeAttribute());
+    return method;
+  }
+
+}
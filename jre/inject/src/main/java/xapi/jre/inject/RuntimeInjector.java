@@ -5,6 +5,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -28,12 +29,14 @@ import xapi.dev.scanner.impl.ClasspathResourceMap;
 import xapi.dev.scanner.impl.ClasspathScannerDefault;
 import xapi.except.NotConfiguredCorrectly;
 import xapi.inject.X_Inject;
+import xapi.inject.impl.InjectionTable;
 import xapi.inject.impl.JavaInjector;
 import xapi.log.X_Log;
 import xapi.platform.Platform;
 import xapi.time.X_Time;
 import xapi.time.api.Moment;
 import xapi.time.impl.ImmutableMoment;
+import xapi.util.X_Namespace;
 import xapi.util.X_Properties;
 import xapi.util.X_Runtime;
 import xapi.util.api.ReceivesValue;
@@ -46,8 +49,16 @@ public class RuntimeInjector implements ReceivesValue<String> {
     writeMetaInfo(targetDir, prefix+"singletons", prefix+"instances");
   }
   
-  @SuppressWarnings("unchecked")
   public void writeMetaInfo(String targetDir, String singletonDir, String instanceDir){
+    writeMetaInfo(Thread.currentThread().getContextClassLoader(), targetDir, singletonDir, instanceDir);
+  }
+
+  /**
+   * Scans the given classloader for injection annotations, and writes both the
+   * META-INF injection files and a compiled {@link InjectionTable} into targetDir.
+   */
+  @SuppressWarnings("unchecked")
+  public void writeMetaInfo(ClassLoader loader, String targetDir, String singletonDir, String instanceDir){
     if (!targetDir.endsWith(File.separator))
       targetDir += File.separator;
     File target = new File(targetDir).getAbsoluteFile();
@@ -71,7 +82,7 @@ public class RuntimeInjector implements ReceivesValue<String> {
       )
       .matchResource("META[-]INF/(instances|singletons)")
       .matchClassFile(".*")
-      .scan(Thread.currentThread().getContextClassLoader())
+      .scan(loader)
       ;
     // Only collect platform types if we are not running in a known platform.
     String runtime[] = X_Properties.platform.get().split(",");
@@ -188,13 +199,14 @@ public class RuntimeInjector implements ReceivesValue<String> {
     }
     Moment startInject = now();
     for (String iface : injectionTargets.keySet()) {
-      JavaInjector.registerSingletonProvider(iface, injectionTargets.get(iface).getName());
+      registerSingleton(iface, injectionTargets.get(iface).getName());
     }
     try {
       writeMeta(injectionTargets, new File(target, singletonDir));
     } catch( Exception e) {e.printStackTrace();}
     
-    injectionTargets.clear();
+    Map<String, ClassFile> singletonTargets = injectionTargets;
+    injectionTargets = new HashMap<String,ClassFile>();
 
     //determine injection by priority
     for (ClassFile cls : defaultInstances.forEach()){
@@ -230,13 +242,18 @@ public class RuntimeInjector implements ReceivesValue<String> {
       }
     }
     for (String iface : injectionTargets.keySet()) {
-      JavaInjector.registerInstanceProvider(iface, injectionTargets.get(iface).getName());
+      registerInstance(iface, injectionTargets.get(iface).getName());
     }
     try{ 
       writeMeta(injectionTargets, new File(target, instanceDir));
     } catch (Throwable e) {
       X_Log.warn("Trouble encountered writing instance meta to ",new File(target, instanceDir),e);
     }
+    try {
+      writeTable(singletonTargets, injectionTargets, target);
+    } catch (Throwable e) {
+      X_Log.warn("Trouble encountered writing injection table to ",target,e);
+    }
     Moment finished = now();
     
     if (X_Runtime.isDebug()) {
@@ -278,6 +295,31 @@ public class RuntimeInjector implements ReceivesValue<String> {
       "current runtime "+platform+"; please ensure this class is on the " +
       "classpath, and that it is annotated with @Platform");
   }
+  /**
+   * Registers a singleton provider with the live injector, for injection later in this runtime.
+   */
+  protected void registerSingleton(String iface, String impl) {
+    JavaInjector.registerSingletonProvider(iface, impl);
+  }
+
+  /**
+   * Registers an instance provider with the live injector, for injection later in this runtime.
+   */
+  protected void registerInstance(String iface, String impl) {
+    JavaInjector.registerInstanceProvider(iface, impl);
+  }
+
+  /**
+   * Writes the compiled injection table, so later runtimes can inject without reflection.
+   */
+  protected void writeTable(Map<String, ClassFile> singletons, Map<String, ClassFile> instances,
+      File target) throws IOException {
+    String tableName = System.getProperty(X_Namespace.PROPERTY_INJECTION_TABLE,
+      X_Namespace.DEFAULT_INJECTION_TABLE);
+    File table = new InjectionTableWriter().write(target, tableName, singletons, instances);
+    X_Log.info("Wrote injection table to ",table);
+  }
+
   protected void writeMeta(Map<String, ClassFile> injectables,
       File target) {
     X_Log.info("Writing meta to ",target.getAbsoluteFile());
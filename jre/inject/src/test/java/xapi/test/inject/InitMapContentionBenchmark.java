@@ -0,0 +1,252 @@
+package xapi.test.inject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import xapi.collect.impl.AbstractInitMap;
+import xapi.collect.impl.InitMapDefault;
+import xapi.log.X_Log;
+import xapi.util.X_Runtime;
+import xapi.util.api.ConvertsValue;
+
+/**
+ * Simulates injector startup, where many threads miss on different keys at once,
+ * and each initialization is slow (like reading META-INF/singletons);
+ * compares per-key initialization against a single global lock.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class InitMapContentionBenchmark {
+
+  private static final int THREADS = 16;
+  private static final int KEYS_PER_THREAD = 8;
+  private static final int INIT_MILLIS = 2;
+
+  private static final Object GLOBAL_LOCK = new Object();
+
+  private static class SlowInit implements ConvertsValue<String, String> {
+    final AtomicInteger calls = new AtomicInteger();
+    @Override
+    public String convert(String from) {
+      calls.incrementAndGet();
+      try {
+        Thread.sleep(INIT_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return "value of " + from;
+    }
+  }
+
+  @Test
+  public void benchmarkStartupContention() throws InterruptedException {
+    assertTrue(X_Runtime.isMultithreaded());
+    SlowInit legacyInit = new SlowInit();
+    InitMapDefault<String, String> legacy = new InitMapDefault<String, String>(AbstractInitMap.PASS_THRU, legacyInit) {
+      @Override
+      protected String initializeOnce(String k, String key) {
+        // the old behavior: every miss, in every map, behind one monitor
+        synchronized (GLOBAL_LOCK) {
+          return super.initializeOnce(k, key);
+        }
+      }
+    };
+    SlowInit perKeyInit = new SlowInit();
+    InitMapDefault<String, String> perKey = new InitMapDefault<String, String>(AbstractInitMap.PASS_THRU, perKeyInit);
+
+    long legacyTime = run(legacy);
+    long perKeyTime = run(perKey);
+    // every thread asks for every key, but each key is initialized exactly once
+    assertEquals(THREADS * KEYS_PER_THREAD, legacyInit.calls.get());
+    assertEquals(THREADS * KEYS_PER_THREAD, perKeyInit.calls.get());
+    X_Log.info(getClass(), THREADS, "threads initializing", THREADS * KEYS_PER_THREAD, "keys;"
+      , "global lock:", legacyTime, "ms", "per key:", perKeyTime, "ms");
+  }
+
+  @Test
+  public void testCyclicInitFailsInsteadOfDeadlocking() throws InterruptedException {
+    final InitMapDefault<String, String>[] maps = newMaps();
+    final CountDownLatch bothStarted = new CountDownLatch(2);
+    // each key needs the other; the thread which closes the cycle fails,
+    // and the other finishes both keys, without ever making a second value for either
+    final ThreadLocal<Boolean> nested = new ThreadLocal<Boolean>();
+    maps[0] = new InitMapDefault<String, String>(AbstractInitMap.PASS_THRU, new ConvertsValue<String, String>() {
+      @Override
+      public String convert(String from) {
+        if (from.equals("outer")) {
+          // nested initialization of another key, on the same thread, is fine
+          return "outer of " + maps[0].get("inner");
+        }
+        if (!(from.equals("a") || from.equals("b")) || nested.get() != null) {
+          return from;
+        }
+        nested.set(true);
+        try {
+          bothStarted.countDown();
+          awaitQuietly(bothStarted);
+          return from + " needs " + maps[0].get(from.equals("a") ? "b" : "a");
+        } finally {
+          nested.remove();
+        }
+      }
+    });
+    final String[] results = new String[2];
+    final Throwable[] failures = new Throwable[2];
+    Thread[] threads = new Thread[2];
+    for (int i = 0; i < 2; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            results[index] = maps[0].get(index == 0 ? "a" : "b");
+          } catch (Throwable e) {
+            failures[index] = e;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join(5000);
+      assertFalse("Cyclic initialization deadlocked", thread.isAlive());
+    }
+    int winner = failures[0] == null ? 0 : 1;
+    assertTrue(failures[1 - winner] instanceof IllegalStateException);
+    assertNull(failures[winner]);
+    String key = winner == 0 ? "a" : "b", other = winner == 0 ? "b" : "a";
+    assertEquals(key + " needs " + other, results[winner]);
+    assertEquals(results[winner], maps[0].get(key));
+    assertEquals(other, maps[0].get(other));
+    assertEquals("outer of inner", maps[0].get("outer"));
+  }
+
+  @Test
+  public void testReentrantInitFallsBack() {
+    final InitMapDefault<String, String>[] maps = newMaps();
+    final String[] nested = new String[1];
+    final AtomicInteger depth = new AtomicInteger();
+    maps[0] = new InitMapDefault<String, String>(AbstractInitMap.PASS_THRU, new ConvertsValue<String, String>() {
+      @Override
+      public String convert(String from) {
+        if (depth.getAndIncrement() > 0) {
+          // asked again while we are still creating it; make do
+          return "fallback";
+        }
+        nested[0] = maps[0].get(from);
+        return "real";
+      }
+    });
+    assertEquals("real", maps[0].get("log"));
+    assertEquals("fallback", nested[0]);
+    // only the outer value is kept
+    assertEquals("real", maps[0].get("log"));
+    assertEquals(2, depth.get());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testRecursiveInitFails() {
+    final InitMapDefault<String, String>[] maps = newMaps();
+    maps[0] = new InitMapDefault<String, String>(AbstractInitMap.PASS_THRU, new ConvertsValue<String, String>() {
+      @Override
+      public String convert(String from) {
+        return maps[0].get(from);
+      }
+    });
+    maps[0].get("self");
+  }
+
+  @Test
+  public void testInterruptedWaiterGetsTheSameValue() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final InitMapDefault<String, Object> map = new InitMapDefault<String, Object>(AbstractInitMap.PASS_THRU,
+      new ConvertsValue<String, Object>() {
+        @Override
+        public Object convert(String from) {
+          started.countDown();
+          awaitQuietly(release);
+          return new Object();
+        }
+      });
+    final Object[] waited = new Object[1];
+    final boolean[] interrupted = new boolean[1];
+    Thread owner = new Thread() {
+      @Override
+      public void run() {
+        map.get("key");
+      }
+    };
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        waited[0] = map.get("key");
+        interrupted[0] = isInterrupted();
+      }
+    };
+    owner.start();
+    started.await();
+    waiter.start();
+    Thread.sleep(50);
+    waiter.interrupt();
+    Thread.sleep(50);
+    assertTrue("An interrupt should not stop the wait", waiter.isAlive());
+    release.countDown();
+    owner.join(5000);
+    waiter.join(5000);
+    assertSame(map.get("key"), waited[0]);
+    assertTrue(interrupted[0]);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static InitMapDefault<String, String>[] newMaps() {
+    return new InitMapDefault[1];
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private long run(final InitMapDefault<String, String> map) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(THREADS);
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            // each thread starts on its own keys, then reads everyone else's
+            for (int i = 0; i < THREADS * KEYS_PER_THREAD; i++) {
+              int key = (thread * KEYS_PER_THREAD + i) % (THREADS * KEYS_PER_THREAD);
+              map.get("key" + key);
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    long begin = System.nanoTime();
+    start.countDown();
+    done.await();
+    return (System.nanoTime() - begin) / 1000000;
+  }
+
+}
@@ -0,0 +1,217 @@
+package xapi.test.inject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Provider;
+
+import org.junit.Test;
+
+import xapi.bytecode.ClassFile;
+import xapi.inject.impl.InjectionTable;
+import xapi.inject.impl.JreInjector;
+import xapi.jre.inject.InjectionTableWriter;
+import xapi.jre.inject.RuntimeInjector;
+import xapi.log.X_Log;
+import xapi.util.X_Namespace;
+
+/**
+ * Checks the generated injection table, and compares the cost of creating
+ * instances through it against the reflective providers it replaces.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class InjectionTableBenchmark {
+
+  private static final int ITERATIONS = 2000000;
+
+  public interface Service {
+  }
+
+  public static class ServiceImpl implements Service {
+  }
+
+  public static class OtherImpl implements Service {
+  }
+
+  public static class NoDefaultConstructor implements Service {
+    public NoDefaultConstructor(String name) {
+    }
+  }
+
+  public static class DeclaredTask implements Runnable {
+    @Override
+    public void run() {
+    }
+  }
+
+  public static class StaleTask implements Runnable {
+    @Override
+    public void run() {
+    }
+  }
+
+  private static final class TableLoader extends ClassLoader {
+    private TableLoader() {
+      super(InjectionTableBenchmark.class.getClassLoader());
+    }
+    private Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  private static ClassFile classFile(Class<?> cls) throws IOException {
+    InputStream in = cls.getResourceAsStream("/" + cls.getName().replace('.', '/') + ".class");
+    try {
+      return new ClassFile(new DataInputStream(in));
+    } finally {
+      in.close();
+    }
+  }
+
+  private InjectionTable newTable() throws Exception {
+    Map<String, ClassFile> singletons = new HashMap<String, ClassFile>();
+    singletons.put(Service.class.getName(), classFile(OtherImpl.class));
+    Map<String, ClassFile> instances = new HashMap<String, ClassFile>();
+    instances.put(Service.class.getName(), classFile(ServiceImpl.class));
+    instances.put(Runnable.class.getName(), classFile(NoDefaultConstructor.class));
+    String name = "xapi.test.inject.TestInjectionTable";
+    byte[] bytes = new InjectionTableWriter().generate(name, singletons, instances);
+    return (InjectionTable) new TableLoader().define(name, bytes).getDeclaredConstructor().newInstance();
+  }
+
+  @Test
+  public void testGeneratedTable() throws Exception {
+    InjectionTable table = newTable();
+    assertTrue(table.hasInstance(Service.class.getName()));
+    assertEquals(ServiceImpl.class.getName(), table.instanceImpl(Service.class.getName()));
+    assertEquals(OtherImpl.class.getName(), table.singletonImpl(Service.class.getName()));
+    assertNull(table.instanceImpl(Runnable.class.getName()));
+    assertFalse("Types without a public zero-arg constructor must be left out",
+      table.hasInstance(Runnable.class.getName()));
+    assertNull(table.instanceProvider(Runnable.class));
+
+    Provider<Object> instances = table.instanceProvider(Service.class);
+    Object first = instances.get();
+    assertEquals(ServiceImpl.class, first.getClass());
+    assertNotSame(first, instances.get());
+
+    Provider<Object> singleton = table.singletonProvider(Service.class);
+    assertEquals(OtherImpl.class, singleton.get().getClass());
+    assertSame(singleton.get(), singleton.get());
+  }
+
+  @Test
+  public void testRuntimeInjectorWritesTable() throws Exception {
+    File dir = File.createTempFile("xapi", "table");
+    assertTrue(dir.delete());
+    new RuntimeInjector() {
+      @Override
+      protected void registerSingleton(String iface, String impl) {
+      }
+      @Override
+      protected void registerInstance(String iface, String impl) {
+      }
+    }.writeMetaInfo(getClass().getClassLoader(), dir.getAbsolutePath(), "META-INF/singletons", "META-INF/instances");
+    String tableFile = X_Namespace.DEFAULT_INJECTION_TABLE.replace('.', '/') + ".class";
+    assertTrue(new File(dir, tableFile).isFile());
+
+    URLClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL()}, getClass().getClassLoader());
+    InjectionTable table = InjectionTable.load(loader);
+    assertNotNull(table);
+    assertTrue(table.hasSingleton(JreInjectionTest.ImportSingleton.class.getName()));
+    assertTrue(table.hasInstance(JreInjectionTest.class.getName() + "$ImportTestInstance"));
+    assertEquals(JreInjectionTest.ImportSingleton.class,
+      table.singletonProvider(JreInjectionTest.ImportSingleton.class).get().getClass());
+    assertEquals(JreInjectionTest.ImportSingleton.class.getName(),
+      table.singletonImpl(JreInjectionTest.ImportSingleton.class.getName()));
+  }
+
+  @Test
+  public void testStaleTableIsIgnored() throws Exception {
+    File dir = File.createTempFile("xapi", "stale");
+    assertTrue(dir.delete());
+    File meta = new File(dir, "META-INF/instances/" + Runnable.class.getName());
+    assertTrue(meta.getParentFile().mkdirs());
+    FileWriter writer = new FileWriter(meta);
+    try {
+      writer.write(DeclaredTask.class.getName());
+    } finally {
+      writer.close();
+    }
+    // a table left over from a build where StaleTask still won
+    Map<String, ClassFile> instances = new HashMap<String, ClassFile>();
+    instances.put(Runnable.class.getName(), classFile(StaleTask.class));
+    String name = "xapi.test.inject.StaleInjectionTable";
+    new InjectionTableWriter().write(dir, name, new HashMap<String, ClassFile>(), instances);
+
+    // jdk types are looked up through the context classloader
+    Thread thread = Thread.currentThread();
+    ClassLoader was = thread.getContextClassLoader();
+    String tableName = System.getProperty(X_Namespace.PROPERTY_INJECTION_TABLE);
+    thread.setContextClassLoader(new URLClassLoader(new URL[] {dir.toURI().toURL()}, getClass().getClassLoader()));
+    System.setProperty(X_Namespace.PROPERTY_INJECTION_TABLE, name);
+    try {
+      Runnable task = new JreInjector().create(Runnable.class);
+      assertEquals(DeclaredTask.class, task.getClass());
+    } finally {
+      thread.setContextClassLoader(was);
+      if (tableName == null) {
+        System.clearProperty(X_Namespace.PROPERTY_INJECTION_TABLE);
+      } else {
+        System.setProperty(X_Namespace.PROPERTY_INJECTION_TABLE, tableName);
+      }
+    }
+  }
+
+  @Test
+  public void benchmarkInstanceCreation() throws Exception {
+    final Class<?> cls = ServiceImpl.class;
+    Provider<Object> reflective = new Provider<Object>() {
+      @Override
+      public Object get() {
+        try {
+          return cls.getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    Provider<Object> generated = newTable().instanceProvider(Service.class);
+    // warm up both paths before timing them
+    run(reflective);
+    run(generated);
+    long start = System.nanoTime();
+    int reflectiveHash = run(reflective);
+    long reflected = System.nanoTime();
+    int generatedHash = run(generated);
+    long end = System.nanoTime();
+    X_Log.info(getClass(), ITERATIONS, "instances; reflection:", (reflected - start) / 1000000, "ms"
+      , "generated table:", (end - reflected) / 1000000, "ms", "(" + (reflectiveHash ^ generatedHash) + ")");
+  }
+
+  private static int run(Provider<Object> provider) {
+    int hash = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      hash += provider.get().hashCode() & 1;
+    }
+    return hash;
+  }
+
+}
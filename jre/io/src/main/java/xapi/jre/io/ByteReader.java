@@ -0,0 +1,35 @@
+package xapi.jre.io;
+
+import java.nio.ByteBuffer;
+
+import xapi.collect.api.StringDictionary;
+
+/**
+ * Implement this on a callback given to {@link IOServiceJre#sendBinary}, to stream a response body
+ * as it arrives, rather than have it collected into one buffer;
+ * the {@link HttpMessage} sent to the callback once the body is done will then have no body.
+ * <p>
+ * Like {@link xapi.io.api.LineReader}, but for bytes.  Every method is called on the io thread,
+ * so should not block.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public interface ByteReader {
+
+  /**
+   * Called once the status line and headers have arrived.
+   */
+  void onStart(int status, StringDictionary<String> headers);
+
+  /**
+   * Called with each piece of the body; the buffer is only valid during the call.
+   */
+  void onBytes(ByteBuffer bytes);
+
+  /**
+   * Called once the whole body has arrived, just before the callback's onSuccess.
+   */
+  void onEnd();
+
+}
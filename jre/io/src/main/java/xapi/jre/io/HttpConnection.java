@@ -0,0 +1,343 @@
+package xapi.jre.io;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+import xapi.collect.X_Collect;
+import xapi.collect.api.StringDictionary;
+import xapi.io.IOConstants;
+
+/**
+ * One keep-alive socket to a server, with the requests written to it which are still waiting for their responses,
+ * and the parser for those responses, which come back in the order the requests were sent.
+ * Only ever touched on the io thread.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+final class HttpConnection {
+
+  private static final int INITIAL_BUFFER = 8 * 1024;
+  /** The longest status line or header we will buffer. */
+  private static final int MAX_LINE = 64 * 1024;
+
+  // where the parser is in the response at the head of the line
+  private static final int STATUS = 0;
+  private static final int HEADERS = 1;
+  private static final int FIXED = 2;
+  private static final int CHUNK_SIZE = 3;
+  private static final int CHUNK_DATA = 4;
+  private static final int CHUNK_END = 5;
+  private static final int TRAILERS = 6;
+  private static final int UNTIL_CLOSE = 7;
+
+  final IOServiceJre service;
+  final IOServiceJre.Route route;
+  final SocketChannel channel;
+  final ArrayDeque<HttpExchange> inFlight = new ArrayDeque<HttpExchange>();
+  SelectionKey key;
+  boolean connected;
+  /** Set once a response has shown that the server keeps the connection open, so we may pipeline on it. */
+  boolean proven;
+  /** Set once the server has said it will close the connection; nothing more is sent on it. */
+  boolean closing;
+  boolean closed;
+  long idleSince;
+
+  private final ArrayDeque<ByteBuffer> writes = new ArrayDeque<ByteBuffer>();
+  private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER);
+  private int state = STATUS;
+  private long remaining;
+  private String version;
+  private int status;
+  private String reason;
+  private StringDictionary<String> headers;
+
+  HttpConnection(IOServiceJre service, IOServiceJre.Route route, SocketChannel channel, long now) {
+    this.service = service;
+    this.route = route;
+    this.channel = channel;
+    this.idleSince = now;
+  }
+
+  void send(HttpExchange exchange) {
+    inFlight.add(exchange);
+    for (ByteBuffer buffer : exchange.request()) {
+      writes.add(buffer);
+    }
+    updateInterest();
+  }
+
+  boolean isPipelinable() {
+    for (HttpExchange exchange : inFlight) {
+      if (!IOConstants.isIdempotent(exchange.method)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  void updateInterest() {
+    if (key != null && key.isValid()) {
+      key.interestOps(connected
+        ? SelectionKey.OP_READ | (writes.isEmpty() ? 0 : SelectionKey.OP_WRITE)
+        : SelectionKey.OP_CONNECT);
+    }
+  }
+
+  void finishConnect() throws IOException {
+    if (channel.finishConnect()) {
+      connected = true;
+      updateInterest();
+    }
+  }
+
+  void write() throws IOException {
+    while (!writes.isEmpty()) {
+      ByteBuffer buffer = writes.peek();
+      channel.write(buffer);
+      if (buffer.hasRemaining()) {
+        return;
+      }
+      writes.poll();
+    }
+    updateInterest();
+  }
+
+  /**
+   * Reads what has arrived, and hands any complete responses back to the service.
+   *
+   * @return false once the server has closed the connection.
+   */
+  boolean read() throws IOException {
+    int read = channel.read(in);
+    if (read < 0) {
+      if (state == UNTIL_CLOSE && !inFlight.isEmpty()) {
+        // the end of the stream is the end of this body
+        complete(false);
+      }
+      return false;
+    }
+    in.flip();
+    try {
+      parse();
+    } finally {
+      in.compact();
+    }
+    if (!in.hasRemaining()) {
+      // a line which does not fit yet
+      if (in.capacity() >= MAX_LINE) {
+        throw new ProtocolException("Response header line longer than " + MAX_LINE + " bytes");
+      }
+      ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+      in.flip();
+      bigger.put(in);
+      in = bigger;
+    }
+    return true;
+  }
+
+  private void parse() throws IOException {
+    while (!closed) {
+      HttpExchange exchange = inFlight.peek();
+      if (exchange == null) {
+        if (in.hasRemaining()) {
+          throw new ProtocolException("Unexpected bytes from " + route.key + " with no request waiting");
+        }
+        return;
+      }
+      String line;
+      switch (state) {
+        case STATUS:
+          if ((line = readLine()) == null) {
+            return;
+          }
+          if (line.length() == 0) {
+            continue;
+          }
+          exchange.received = true;
+          parseStatus(line);
+          state = HEADERS;
+          break;
+        case HEADERS:
+          if ((line = readLine()) == null) {
+            return;
+          }
+          if (line.length() > 0) {
+            addHeader(line);
+          } else {
+            startBody(exchange);
+          }
+          break;
+        case FIXED:
+        case CHUNK_DATA:
+          if (!in.hasRemaining()) {
+            return;
+          }
+          int size = (int)Math.min(remaining, in.remaining());
+          deliver(exchange, size);
+          remaining -= size;
+          if (remaining == 0) {
+            if (state == FIXED) {
+              complete(keepAlive());
+            } else {
+              state = CHUNK_END;
+            }
+          }
+          break;
+        case CHUNK_SIZE:
+          if ((line = readLine()) == null) {
+            return;
+          }
+          int extension = line.indexOf(';');
+          try {
+            remaining = Long.parseLong((extension == -1 ? line : line.substring(0, extension)).trim(), 16);
+          } catch (NumberFormatException e) {
+            throw new ProtocolException("Bad chunk size from " + route.key + ": " + line);
+          }
+          state = remaining == 0 ? TRAILERS : CHUNK_DATA;
+          break;
+        case CHUNK_END:
+          if (readLine() == null) {
+            return;
+          }
+          state = CHUNK_SIZE;
+          break;
+        case TRAILERS:
+          if ((line = readLine()) == null) {
+            return;
+          }
+          if (line.length() == 0) {
+            complete(keepAlive());
+          }
+          break;
+        case UNTIL_CLOSE:
+          if (in.hasRemaining()) {
+            deliver(exchange, in.remaining());
+          }
+          return;
+      }
+    }
+  }
+
+  private void parseStatus(String line) throws ProtocolException {
+    // HTTP/1.1 200 OK
+    int first = line.indexOf(' ');
+    if (!line.startsWith("HTTP/") || first == -1) {
+      throw new ProtocolException("Bad status line from " + route.key + ": " + line);
+    }
+    int second = line.indexOf(' ', first + 1);
+    version = line.substring(0, first);
+    try {
+      status = Integer.parseInt(second == -1 ? line.substring(first + 1) : line.substring(first + 1, second));
+    } catch (NumberFormatException e) {
+      throw new ProtocolException("Bad status line from " + route.key + ": " + line);
+    }
+    reason = second == -1 ? "" : line.substring(second + 1);
+    headers = X_Collect.newStringDictionary();
+  }
+
+  private void addHeader(String line) throws ProtocolException {
+    int colon = line.indexOf(':');
+    if (colon < 1) {
+      throw new ProtocolException("Bad header from " + route.key + ": " + line);
+    }
+    String name = canonical(line.substring(0, colon).trim());
+    String value = line.substring(colon + 1).trim();
+    String was = headers.getValue(name);
+    headers.setValue(name, was == null ? value : was + ", " + value);
+  }
+
+  private void startBody(HttpExchange exchange) throws IOException {
+    if (status / 100 == 1) {
+      // 100 Continue, and friends; the real response follows
+      state = STATUS;
+      return;
+    }
+    long length = -1;
+    String contentLength = headers.getValue("Content-Length");
+    if (contentLength != null) {
+      int comma = contentLength.indexOf(',');
+      try {
+        length = Long.parseLong((comma == -1 ? contentLength : contentLength.substring(0, comma)).trim());
+      } catch (NumberFormatException e) {
+        throw new ProtocolException("Bad Content-Length from " + route.key + ": " + contentLength);
+      }
+    }
+    String encoding = headers.getValue("Transfer-Encoding");
+    boolean chunked = encoding != null && encoding.toLowerCase().contains("chunked");
+    boolean empty = exchange.method == IOConstants.METHOD_HEAD || status == 204 || status == 304;
+    exchange.onHead(status, reason, headers, empty ? 0 : chunked ? -1 : length);
+    if (empty || (!chunked && length == 0)) {
+      complete(keepAlive());
+    } else if (chunked) {
+      state = CHUNK_SIZE;
+    } else if (length > 0) {
+      remaining = length;
+      state = FIXED;
+    } else {
+      state = UNTIL_CLOSE;
+    }
+  }
+
+  private boolean keepAlive() {
+    String connection = headers.getValue("Connection");
+    connection = connection == null ? "" : connection.toLowerCase();
+    return "HTTP/1.0".equals(version) ? connection.contains("keep-alive") : !connection.contains("close");
+  }
+
+  private void deliver(HttpExchange exchange, int size) {
+    int end = in.position() + size;
+    if (!exchange.abandoned) {
+      ByteBuffer chunk = in.duplicate();
+      chunk.limit(end);
+      exchange.onBody(chunk);
+    }
+    in.position(end);
+  }
+
+  private void complete(boolean keepAlive) {
+    HttpExchange exchange = inFlight.poll();
+    state = STATUS;
+    headers = null;
+    service.completed(this, exchange, keepAlive);
+  }
+
+  /**
+   * @return The next line, without its line break, or null if it has not all arrived.
+   */
+  private String readLine() {
+    int start = in.position();
+    for (int i = start, end = in.limit(); i < end; i++) {
+      if (in.get(i) == '\n') {
+        int last = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+        char[] chars = new char[last - start];
+        for (int c = 0; c < chars.length; c++) {
+          // headers are latin-1
+          chars[c] = (char)(in.get(start + c) & 0xff);
+        }
+        in.position(i + 1);
+        return new String(chars);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return The header name with each word capitalized, like "Content-Type", whatever case the server used.
+   */
+  static String canonical(String name) {
+    char[] chars = name.toCharArray();
+    boolean upper = true;
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = upper ? Character.toUpperCase(chars[i]) : Character.toLowerCase(chars[i]);
+      upper = chars[i] == '-';
+    }
+    return new String(chars);
+  }
+
+}
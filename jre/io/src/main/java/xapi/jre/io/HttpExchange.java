@@ -0,0 +1,137 @@
+package xapi.jre.io;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import xapi.collect.api.StringDictionary;
+import xapi.io.api.IOCallback;
+import xapi.io.api.IOMessage;
+import xapi.log.X_Log;
+
+/**
+ * One request sent by {@link IOServiceJre}, and the response as it arrives.
+ * Only ever touched on the io thread, once submitted.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+final class HttpExchange {
+
+  private static final int INITIAL_BODY = 1024;
+  /** The most we will allocate up front on the word of a Content-Length header. */
+  private static final int MAX_PRESIZE = 1024 * 1024;
+
+  final int method;
+  final String url;
+  final String route;
+  final InetSocketAddress address;
+  final long deadline;
+  private final ByteBuffer head;
+  private final ByteBuffer body;
+  private final IOCallback<IOMessage<ByteBuffer>> callback;
+  private final ByteReader reader;
+
+  int retries;
+  /** Set once any of the response has been read; such an exchange cannot be retried. */
+  boolean received;
+  /**
+   * Set once the callback has been told the exchange timed out or was cancelled,
+   * while its response may still be on its way; that response is read and discarded.
+   */
+  boolean abandoned;
+
+  private int status;
+  private String reason;
+  private StringDictionary<String> headers;
+  private byte[] bytes;
+  private int length;
+
+  HttpExchange(int method, String url, String route, InetSocketAddress address, long deadline,
+    ByteBuffer head, ByteBuffer body, IOCallback<IOMessage<ByteBuffer>> callback) {
+    this.method = method;
+    this.url = url;
+    this.route = route;
+    this.address = address;
+    this.deadline = deadline;
+    this.head = head;
+    this.body = body;
+    this.callback = callback;
+    this.reader = callback instanceof ByteReader ? (ByteReader)callback : null;
+  }
+
+  /**
+   * @return Fresh views of the request bytes, so it can be sent again.
+   */
+  ByteBuffer[] request() {
+    return body == null ? new ByteBuffer[] {head.duplicate()}
+      : new ByteBuffer[] {head.duplicate(), body.duplicate()};
+  }
+
+  boolean isCancelled() {
+    try {
+      return callback.isCancelled();
+    } catch (Throwable e) {
+      X_Log.error(getClass(), "IO callback failed", e);
+      return false;
+    }
+  }
+
+  void onHead(int status, String reason, StringDictionary<String> headers, long contentLength) {
+    this.status = status;
+    this.reason = reason;
+    this.headers = headers;
+    if (reader != null) {
+      reader.onStart(status, headers);
+    } else {
+      bytes = new byte[contentLength < 0 ? INITIAL_BODY : (int)Math.min(contentLength, MAX_PRESIZE)];
+    }
+  }
+
+  void onBody(ByteBuffer chunk) {
+    if (reader != null) {
+      reader.onBytes(chunk);
+      return;
+    }
+    int size = chunk.remaining();
+    if (length + size > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(length + size, bytes.length * 2));
+    }
+    chunk.get(bytes, length, size);
+    length += size;
+  }
+
+  void succeed() {
+    try {
+      if (reader != null) {
+        reader.onEnd();
+      }
+      HttpMessage<ByteBuffer> message = new HttpMessage<ByteBuffer>(method, url, status, reason, headers,
+        reader == null ? ByteBuffer.wrap(bytes, 0, length).slice() : null);
+      if (status >= 400) {
+        callback.onError(new HttpStatusException(message));
+      } else {
+        callback.onSuccess(message);
+      }
+    } catch (Throwable e) {
+      X_Log.error(getClass(), "IO callback failed for", url, e);
+    }
+  }
+
+  void fail(Throwable cause) {
+    try {
+      callback.onError(cause);
+    } catch (Throwable e) {
+      X_Log.error(getClass(), "IO callback failed for", url, e);
+    }
+  }
+
+  void cancel() {
+    try {
+      callback.onCancel();
+    } catch (Throwable e) {
+      X_Log.error(getClass(), "IO callback failed for", url, e);
+    }
+  }
+
+}
@@ -0,0 +1,75 @@
+package xapi.jre.io;
+
+import xapi.collect.api.StringDictionary;
+import xapi.io.api.IOMessage;
+
+/**
+ * A response received by {@link IOServiceJre}; an {@link IOMessage} which also knows its status line.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ * @param <B> - The type of the body; a String, or a ByteBuffer.
+ */
+public class HttpMessage <B> implements IOMessage<B> {
+
+  private final int modifier;
+  private final String url;
+  private final int status;
+  private final String reason;
+  private final StringDictionary<String> headers;
+  private final B body;
+
+  public HttpMessage(int modifier, String url, int status, String reason,
+    StringDictionary<String> headers, B body) {
+    this.modifier = modifier;
+    this.url = url;
+    this.status = status;
+    this.reason = reason;
+    this.headers = headers;
+    this.body = body;
+  }
+
+  @Override
+  public int modifier() {
+    return modifier;
+  }
+
+  @Override
+  public String url() {
+    return url;
+  }
+
+  /**
+   * @return The http status code, like 200.
+   */
+  public int status() {
+    return status;
+  }
+
+  /**
+   * @return The reason phrase which followed the status code, like "OK".
+   */
+  public String reason() {
+    return reason;
+  }
+
+  /**
+   * @return The response headers, by their canonical names, like "Content-Type";
+   * a header sent more than once has its values joined with ", ".
+   */
+  @Override
+  public StringDictionary<String> headers() {
+    return headers;
+  }
+
+  @Override
+  public B body() {
+    return body;
+  }
+
+  @Override
+  public String toString() {
+    return status + " " + reason + " " + url;
+  }
+
+}
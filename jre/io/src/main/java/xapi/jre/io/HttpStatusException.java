@@ -0,0 +1,31 @@
+package xapi.jre.io;
+
+import java.io.IOException;
+
+/**
+ * Sent to {@link xapi.io.api.IOCallback#onError(Throwable)} when a server answers with a status of 400 or more;
+ * the response, with its headers and body, is still available.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class HttpStatusException extends IOException {
+
+  private static final long serialVersionUID = -2818569231418562146L;
+
+  private final transient HttpMessage<?> response;
+
+  public HttpStatusException(HttpMessage<?> response) {
+    super("HTTP " + response);
+    this.response = response;
+  }
+
+  public int getStatus() {
+    return response.status();
+  }
+
+  public HttpMessage<?> getResponse() {
+    return response;
+  }
+
+}
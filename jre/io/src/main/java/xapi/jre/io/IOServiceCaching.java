@@ -0,0 +1,690 @@
+package xapi.jre.io;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import xapi.annotation.inject.SingletonOverride;
+import xapi.collect.X_Collect;
+import xapi.collect.api.StringDictionary;
+import xapi.io.IOConstants;
+import xapi.io.api.IOCallback;
+import xapi.io.api.IOMessage;
+import xapi.io.api.IORequestBuilder;
+import xapi.io.service.IOService;
+import xapi.log.X_Log;
+import xapi.util.api.ConvertsValue;
+import xapi.util.api.ReceivesValue;
+import xapi.util.api.RemovalHandler;
+
+/**
+ * An {@link IOService} which sits in front of another, by default an {@link IOServiceJre},
+ * and saves it from sending the same GET twice.
+ * <p>
+ * A GET for a url which is already on its way, with the same request headers, joins that request
+ * instead of sending another, and every callback gets the one response.
+ * A 200 response is kept while its Cache-Control max-age, or its Expires, says it is fresh,
+ * and GETs for it are answered straight from memory, on the calling thread.
+ * Once it is stale, or if it said no-cache, a response with an ETag or Last-Modified is revalidated
+ * with If-None-Match or If-Modified-Since, and a 304 answers from memory again;
+ * this needs a service which reports the status, like {@link IOServiceJre}.
+ * Responses which say no-store, or Vary: *, are never kept; a successful PUT, POST or DELETE
+ * drops what we have for its url.
+ * <p>
+ * What is kept is bounded by {@link #getMaxSize()}, roughly in bytes, least recently used first out;
+ * {@link #getHits()}, {@link #getMisses()} and friends say how well it is doing.
+ * <p>
+ * A request carrying its own Cache-Control, Pragma, Range, If-None-Match or If-Modified-Since
+ * goes straight through, as the caller has asked for something we do not second guess.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+@SingletonOverride(implFor=IOService.class, priority=Integer.MIN_VALUE+1)
+public class IOServiceCaching implements IOService {
+
+  public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+  /** What we charge each cached response on top of its body, for its headers and bookkeeping. */
+  private static final int ENTRY_OVERHEAD = 512;
+  /** The longest we will believe a response stays fresh. */
+  private static final long MAX_FRESHNESS = TimeUnit.DAYS.toMillis(365);
+  private static final String[] BYPASS = new String[] {
+    "cache-control", "pragma", "range", "if-none-match", "if-modified-since"
+  };
+
+  /**
+   * A response we have kept.
+   */
+  private static final class Entry {
+    final String url;
+    final String body;
+    final StringDictionary<String> headers;
+    final String etag;
+    final String lastModified;
+    /** System.nanoTime() until which we may answer without asking the server. */
+    final long freshUntil;
+    /** Whether the service which sent it reports status codes, so we can trust it to tell us of a 304. */
+    final boolean revalidates;
+    final long size;
+
+    Entry(String url, String body, StringDictionary<String> headers, String etag, String lastModified,
+      long freshUntil, boolean revalidates) {
+      this.url = url;
+      this.body = body;
+      this.headers = headers;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.freshUntil = freshUntil;
+      this.revalidates = revalidates;
+      this.size = ENTRY_OVERHEAD + 2L * body.length();
+    }
+
+    boolean isFresh(long now) {
+      return now - freshUntil < 0;
+    }
+
+    boolean canRevalidate() {
+      return revalidates && (etag != null || lastModified != null);
+    }
+
+    IOMessage<String> message() {
+      // each caller gets its own headers, so none can spoil them for the rest
+      StringDictionary<String> copy = X_Collect.newStringDictionary();
+      X_Collect.copyDictionary(headers, copy);
+      return new HttpMessage<String>(IOConstants.METHOD_GET, url, 200, "OK", copy, body);
+    }
+  }
+
+  /**
+   * A GET on its way to the server, and every callback waiting on it.
+   */
+  private final class Flight implements IOCallback<IOMessage<String>> {
+    private final String key;
+    private final String url;
+    private final Entry stale;
+    private final List<IOCallback<IOMessage<String>>> waiting = new ArrayList<IOCallback<IOMessage<String>>>(2);
+    private boolean done;
+
+    Flight(String key, String url, Entry stale, IOCallback<IOMessage<String>> callback) {
+      this.key = key;
+      this.url = url;
+      this.stale = stale;
+      waiting.add(callback);
+    }
+
+    void send(String uri, StringDictionary<String> headers) {
+      if (stale != null && stale.canRevalidate()) {
+        StringDictionary<String> conditional = X_Collect.newStringDictionary();
+        if (headers != null) {
+          X_Collect.copyDictionary(headers, conditional);
+        }
+        if (stale.etag != null) {
+          conditional.setValue("If-None-Match", stale.etag);
+        }
+        if (stale.lastModified != null) {
+          conditional.setValue("If-Modified-Since", stale.lastModified);
+        }
+        headers = conditional;
+      }
+      delegate.get(uri, headers, this);
+    }
+
+    /**
+     * @return false if this flight has already landed, and the caller must look again.
+     */
+    synchronized boolean join(IOCallback<IOMessage<String>> callback) {
+      if (done) {
+        return false;
+      }
+      waiting.add(callback);
+      return true;
+    }
+
+    /**
+     * Stops anyone else from joining, and gives back everyone who did.
+     */
+    private List<IOCallback<IOMessage<String>>> land() {
+      flights.remove(key, this);
+      synchronized (this) {
+        done = true;
+        return new ArrayList<IOCallback<IOMessage<String>>>(waiting);
+      }
+    }
+
+    @Override
+    public void onSuccess(IOMessage<String> message) {
+      Entry kept = null;
+      if (stale != null && status(message) == 304) {
+        revalidated.incrementAndGet();
+        Entry refreshed = store(key, url, merge(stale.headers, message.headers()), stale.body,
+          message instanceof HttpMessage);
+        kept = refreshed == null ? stale : refreshed;
+      } else if (status(message) == 200) {
+        // kept apart from the headers the callbacks get, which they may change
+        store(key, url, merge(message.headers(), null), message.body(), message instanceof HttpMessage);
+      }
+      boolean first = true;
+      for (IOCallback<IOMessage<String>> callback : land()) {
+        if (cancelled(callback)) {
+          notifyCancel(callback);
+        } else {
+          // like a cache hit, each waiter gets its own message and headers to scribble on
+          IOMessage<String> answer = kept != null ? kept.message() : first ? message : copy(message);
+          first = false;
+          try {
+            callback.onSuccess(answer);
+          } catch (Throwable e) {
+            X_Log.error(getClass(), "IO callback failed for", url, e);
+          }
+        }
+      }
+    }
+
+    @Override
+    public void onError(Throwable e) {
+      for (IOCallback<IOMessage<String>> callback : land()) {
+        try {
+          callback.onError(e);
+        } catch (Throwable failed) {
+          X_Log.error(getClass(), "IO callback failed for", url, failed);
+        }
+      }
+    }
+
+    @Override
+    public void onCancel() {
+      for (IOCallback<IOMessage<String>> callback : land()) {
+        notifyCancel(callback);
+      }
+    }
+
+    /**
+     * The request is only dropped once everyone waiting on it has given up.
+     */
+    @Override
+    public synchronized boolean isCancelled() {
+      for (IOCallback<IOMessage<String>> callback : waiting) {
+        if (!cancelled(callback)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private final IOService delegate;
+  private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+  // guarded by itself; in access order, so the eldest is the least recently used
+  private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+  private long size;
+  private volatile long maxSize = DEFAULT_MAX_SIZE;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong revalidated = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public IOServiceCaching() {
+    this(new IOServiceJre());
+  }
+
+  public IOServiceCaching(IOService delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * The builder comes from the service we wrap, but sends its requests through
+   * {@link xapi.io.X_IO#getIOService()}, which is this one, when we are the injected service.
+   */
+  @Override
+  public <V> IORequestBuilder<V> request(Class<V> classLit, String id) {
+    return delegate.request(classLit, id);
+  }
+
+  @Override
+  public <V> RemovalHandler registerParser(Class<V> classLit, ConvertsValue<V, String> serializer,
+    ConvertsValue<String, V> deserializer) {
+    return delegate.registerParser(classLit, serializer, deserializer);
+  }
+
+  @Override
+  public void get(String uri, StringDictionary<String> headers, IOCallback<IOMessage<String>> callback) {
+    if (callback.isCancelled()) {
+      callback.onCancel();
+      return;
+    }
+    if (bypass(headers)) {
+      misses.incrementAndGet();
+      delegate.get(uri, headers, callback);
+      return;
+    }
+    String url = normalize(uri);
+    String key = key(url, headers);
+    while (true) {
+      Entry entry;
+      synchronized (cache) {
+        entry = cache.get(key);
+      }
+      if (entry != null && entry.isFresh(System.nanoTime())) {
+        hits.incrementAndGet();
+        callback.onSuccess(entry.message());
+        return;
+      }
+      Flight flight = flights.get(key);
+      if (flight == null) {
+        flight = new Flight(key, url, entry, callback);
+        if (flights.putIfAbsent(key, flight) == null) {
+          misses.incrementAndGet();
+          flight.send(uri, headers);
+          return;
+        }
+      } else if (flight.join(callback)) {
+        coalesced.incrementAndGet();
+        return;
+      }
+      // we raced with another flight taking off or landing; look again
+    }
+  }
+
+  @Override
+  public void put(String url, byte[] body, StringDictionary<String> headers, IOCallback<IOMessage<String>> callback) {
+    delegate.put(url, body, headers, invalidating(url, callback));
+  }
+
+  @Override
+  public void post(String url, String body, StringDictionary<String> headers, IOCallback<IOMessage<String>> callback) {
+    delegate.post(url, body, headers, invalidating(url, callback));
+  }
+
+  @Override
+  public void delete(String url, StringDictionary<String> headers, IOCallback<IOMessage<String>> callback) {
+    delegate.delete(url, headers, invalidating(url, callback));
+  }
+
+  /**
+   * Forgets every response we have for a url, whatever headers it was asked for with.
+   */
+  public void invalidate(String uri) {
+    String prefix = normalize(uri) + "\n";
+    synchronized (cache) {
+      for (Iterator<Map.Entry<String, Entry>> i = cache.entrySet().iterator(); i.hasNext();) {
+        Map.Entry<String, Entry> next = i.next();
+        if (next.getKey().startsWith(prefix)) {
+          size -= next.getValue().size;
+          i.remove();
+        }
+      }
+    }
+  }
+
+  public void clear() {
+    synchronized (cache) {
+      cache.clear();
+      size = 0;
+    }
+  }
+
+  /**
+   * @return GETs answered from memory.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return GETs which sent a request of their own, including revalidations.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return GETs which joined a request already on its way, instead of sending another.
+   */
+  public long getCoalesced() {
+    return coalesced.get();
+  }
+
+  /**
+   * @return Revalidations the server answered with 304 Not Modified.
+   */
+  public long getRevalidated() {
+    return revalidated.get();
+  }
+
+  /**
+   * @return Responses dropped to make room for newer ones.
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * @return Roughly how many bytes the responses we keep take up.
+   */
+  public long getSize() {
+    synchronized (cache) {
+      return size;
+    }
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  public void setMaxSize(long maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("maxSize must not be negative; you sent " + maxSize);
+    }
+    this.maxSize = maxSize;
+    synchronized (cache) {
+      evict();
+    }
+  }
+
+  public IOService getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public String toString() {
+    return "IOServiceCaching [hits=" + hits + ", misses=" + misses + ", coalesced=" + coalesced
+      + ", revalidated=" + revalidated + ", evictions=" + evictions + ", size=" + getSize() + "]";
+  }
+
+  /**
+   * Keeps a response, if its headers allow it, in place of any we had for the same key.
+   *
+   * @return The entry kept, or null if we may not keep it.
+   */
+  private Entry store(String key, String url, StringDictionary<String> headers, String body, boolean revalidates) {
+    String control = header(headers, "Cache-Control");
+    control = control == null ? "" : control.toLowerCase();
+    String vary = header(headers, "Vary");
+    Entry entry = null;
+    if (body != null && !control.contains("no-store") && !(vary != null && vary.trim().equals("*"))) {
+      String etag = header(headers, "ETag");
+      String lastModified = header(headers, "Last-Modified");
+      long fresh = control.contains("no-cache") ? 0 : freshness(control, headers);
+      if (fresh > 0 || (revalidates && (etag != null || lastModified != null))) {
+        entry = new Entry(url, body, headers, etag, lastModified,
+          System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fresh), revalidates);
+      }
+    }
+    synchronized (cache) {
+      Entry was = entry == null ? cache.remove(key) : cache.put(key, entry);
+      if (was != null) {
+        size -= was.size;
+      }
+      if (entry != null) {
+        if (entry.size > maxSize) {
+          // it would push out everything else, and then itself
+          cache.remove(key);
+          return null;
+        }
+        size += entry.size;
+        evict();
+      }
+    }
+    return entry;
+  }
+
+  // call while holding the cache lock
+  private void evict() {
+    for (Iterator<Entry> i = cache.values().iterator(); size > maxSize && i.hasNext();) {
+      size -= i.next().size;
+      i.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  /**
+   * @return How many millis a response stays fresh; zero if it must be revalidated before each use.
+   */
+  private static long freshness(String control, StringDictionary<String> headers) {
+    long age = 0;
+    String ageHeader = header(headers, "Age");
+    if (ageHeader != null) {
+      try {
+        age = Long.parseLong(ageHeader.trim()) * 1000;
+      } catch (NumberFormatException ignored) {
+      }
+    }
+    int maxAge = control.indexOf("max-age");
+    if (maxAge != -1) {
+      int start = control.indexOf('=', maxAge) + 1;
+      int end = start;
+      while (end < control.length() && Character.isDigit(control.charAt(end))) {
+        end++;
+      }
+      if (start > 0 && end > start) {
+        try {
+          long seconds = Math.min(Long.parseLong(control.substring(start, end)), MAX_FRESHNESS / 1000);
+          return Math.max(0, seconds * 1000 - age);
+        } catch (NumberFormatException ignored) {
+          // too big for a long
+          return MAX_FRESHNESS;
+        }
+      }
+      return 0;
+    }
+    String expires = header(headers, "Expires");
+    if (expires != null) {
+      long expiry = parseDate(expires);
+      if (expiry == -1) {
+        // an invalid date, like "0", means already expired
+        return 0;
+      }
+      String date = header(headers, "Date");
+      long sent = date == null ? -1 : parseDate(date);
+      return Math.max(0, Math.min(MAX_FRESHNESS, expiry - (sent == -1 ? System.currentTimeMillis() : sent) - age));
+    }
+    return 0;
+  }
+
+  private static long parseDate(String date) {
+    SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    try {
+      Date parsed = format.parse(date.trim());
+      return parsed.getTime();
+    } catch (ParseException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * @return A copy of the headers of a response we kept, updated with any sent along with a 304.
+   */
+  private static StringDictionary<String> merge(StringDictionary<String> kept, final StringDictionary<String> update) {
+    final StringDictionary<String> merged = X_Collect.newStringDictionary();
+    if (kept != null) {
+      X_Collect.copyDictionary(kept, merged);
+    }
+    if (update != null) {
+      update.forKeys(new ReceivesValue<String>() {
+        @Override
+        public void set(String name) {
+          if (!name.equalsIgnoreCase("Content-Length")) {
+            String existing = name(merged, name);
+            if (existing != null) {
+              merged.removeValue(existing);
+            }
+            merged.setValue(name, update.getValue(name));
+          }
+        }
+      });
+    }
+    return merged;
+  }
+
+  private IOCallback<IOMessage<String>> invalidating(final String url, final IOCallback<IOMessage<String>> callback) {
+    return new IOCallback<IOMessage<String>>() {
+      @Override
+      public void onSuccess(IOMessage<String> message) {
+        invalidate(url);
+        callback.onSuccess(message);
+      }
+
+      @Override
+      public void onError(Throwable e) {
+        callback.onError(e);
+      }
+
+      @Override
+      public void onCancel() {
+        callback.onCancel();
+      }
+
+      @Override
+      public boolean isCancelled() {
+        return callback.isCancelled();
+      }
+    };
+  }
+
+  private static boolean bypass(StringDictionary<String> headers) {
+    if (headers != null) {
+      for (String name : BYPASS) {
+        if (name(headers, name) != null) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return The url, with its scheme and host in lower case, without a default port or a fragment,
+   * followed by the request headers, in order; requests with the same key get the same response.
+   */
+  private static String key(String url, StringDictionary<String> headers) {
+    StringBuilder key = new StringBuilder(url).append('\n');
+    if (headers != null) {
+      final TreeMap<String, String> sorted = new TreeMap<String, String>();
+      final StringDictionary<String> from = headers;
+      headers.forKeys(new ReceivesValue<String>() {
+        @Override
+        public void set(String name) {
+          sorted.put(name.toLowerCase(), from.getValue(name));
+        }
+      });
+      for (Map.Entry<String, String> header : sorted.entrySet()) {
+        key.append(header.getKey()).append(':').append(header.getValue()).append('\n');
+      }
+    }
+    return key.toString();
+  }
+
+  private static String normalize(String url) {
+    try {
+      URI uri = new URI(url).normalize();
+      if (uri.getScheme() == null || uri.getHost() == null) {
+        return url;
+      }
+      String scheme = uri.getScheme().toLowerCase();
+      int port = uri.getPort();
+      if ((port == 80 && scheme.equals("http")) || (port == 443 && scheme.equals("https"))) {
+        port = -1;
+      }
+      String path = uri.getRawPath();
+      StringBuilder b = new StringBuilder(scheme).append("://").append(uri.getHost().toLowerCase());
+      if (port != -1) {
+        b.append(':').append(port);
+      }
+      b.append(path == null || path.length() == 0 ? "/" : path);
+      if (uri.getRawQuery() != null) {
+        b.append('?').append(uri.getRawQuery());
+      }
+      return b.toString();
+    } catch (URISyntaxException e) {
+      return url;
+    }
+  }
+
+  /**
+   * @return The same response, over its own copy of the headers.
+   */
+  private static IOMessage<String> copy(IOMessage<String> message) {
+    StringDictionary<String> headers = X_Collect.newStringDictionary();
+    if (message.headers() != null) {
+      X_Collect.copyDictionary(message.headers(), headers);
+    }
+    if (message instanceof HttpMessage) {
+      HttpMessage<String> http = (HttpMessage<String>)message;
+      return new HttpMessage<String>(http.modifier(), http.url(), http.status(), http.reason(), headers, http.body());
+    }
+    return new HttpMessage<String>(message.modifier(), message.url(), 200, "OK", headers, message.body());
+  }
+
+  private static int status(IOMessage<String> message) {
+    return message instanceof HttpMessage ? ((HttpMessage<String>)message).status() : 200;
+  }
+
+  /**
+   * @return The value of a header, whatever case its name was given in.
+   */
+  private static String header(StringDictionary<String> headers, String name) {
+    if (headers == null) {
+      return null;
+    }
+    String value = headers.getValue(name);
+    if (value != null) {
+      return value;
+    }
+    String actual = name(headers, name);
+    return actual == null ? null : headers.getValue(actual);
+  }
+
+  /**
+   * @return The name a header is stored under, whatever case it was given in, or null if it is not there.
+   */
+  private static String name(StringDictionary<String> headers, final String name) {
+    if (headers.hasValue(name)) {
+      return name;
+    }
+    final String[] found = new String[1];
+    headers.forKeys(new ReceivesValue<String>() {
+      @Override
+      public void set(String key) {
+        if (found[0] == null && key.equalsIgnoreCase(name)) {
+          found[0] = key;
+        }
+      }
+    });
+    return found[0];
+  }
+
+  private static boolean cancelled(IOCallback<?> callback) {
+    try {
+      return callback.isCancelled();
+    } catch (Throwable e) {
+      X_Log.error(IOServiceCaching.class, "IO callback failed", e);
+      return false;
+    }
+  }
+
+  private static void notifyCancel(IOCallback<?> callback) {
+    try {
+      callback.onCancel();
+    } catch (Throwable e) {
+      X_Log.error(IOServiceCaching.class, "IO callback failed", e);
+    }
+  }
+
+}
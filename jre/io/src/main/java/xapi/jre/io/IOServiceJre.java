@@ -0,0 +1,585 @@
+package xapi.jre.io;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import xapi.annotation.inject.SingletonOverride;
+import xapi.collect.api.StringDictionary;
+import xapi.io.IOConstants;
+import xapi.io.api.IOCallback;
+import xapi.io.api.IOMessage;
+import xapi.io.api.LineReader;
+import xapi.io.api.StringReader;
+import xapi.io.impl.IOServiceDefault;
+import xapi.io.service.IOService;
+import xapi.log.X_Log;
+import xapi.util.X_String;
+import xapi.util.api.ReceivesValue;
+
+/**
+ * An {@link IOService} which sends every http request from a single io thread, on a non-blocking {@link Selector},
+ * instead of blocking the caller on a {@link java.net.URLConnection}.
+ * <p>
+ * Connections are kept alive and pooled per host and port, up to {@link #getMaxConnections()} each.
+ * A request goes to an idle connection, else to a new one, else it is pipelined behind the requests
+ * already waiting on a connection which has proven it stays open, up to {@link #getMaxPipeline()} deep;
+ * only idempotent requests are pipelined.  If a server closes a connection before answering,
+ * the idempotent requests which got no response are retried once on another.
+ * <p>
+ * Every request fails with a {@link SocketTimeoutException} after {@link #getTimeout()} millis, and is dropped,
+ * and its callback's onCancel called, as soon as {@link IOCallback#isCancelled()} says so.
+ * Response headers are in {@link IOMessage#headers()}, and responses of status 400 and up
+ * go to onError as a {@link HttpStatusException}.
+ * <p>
+ * The String methods of {@link IOService} decode the body as its Content-Type charset, or UTF-8;
+ * {@link #sendBinary(int, String, ByteBuffer, StringDictionary, IOCallback)} leaves it as bytes,
+ * and streams it to a callback which is a {@link ByteReader}.
+ * Only plain http goes through the selector; other protocols, like https,
+ * are still sent through a URLConnection by {@link IOServiceDefault}.
+ * <p>
+ * Callbacks are called on the io thread, so must not block; in particular, they must not wait for another request.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+@SingletonOverride(implFor=IOService.class)
+public class IOServiceJre extends IOServiceDefault {
+
+  public static final int DEFAULT_TIMEOUT = 30000;
+  public static final int DEFAULT_MAX_CONNECTIONS = 6;
+  public static final int DEFAULT_MAX_PIPELINE = 8;
+  public static final int DEFAULT_KEEP_ALIVE = 30000;
+
+  /** How often we check for timeouts and cancellations, while anything is open. */
+  private static final long TICK_MILLIS = 20;
+  private static final int MAX_RETRIES = 1;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+  /**
+   * Everything we know about one host and port.
+   */
+  static final class Route {
+    final String key;
+    final ArrayDeque<HttpExchange> waiting = new ArrayDeque<HttpExchange>();
+    final ArrayList<HttpConnection> connections = new ArrayList<HttpConnection>();
+
+    Route(String key) {
+      this.key = key;
+    }
+  }
+
+  /**
+   * Adapts a callback of String messages to one of bytes.
+   */
+  private static final class TextCallback implements IOCallback<IOMessage<ByteBuffer>> {
+    private final IOCallback<IOMessage<String>> callback;
+
+    TextCallback(IOCallback<IOMessage<String>> callback) {
+      this.callback = callback;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked") // we only ever send HttpMessages
+    public void onSuccess(IOMessage<ByteBuffer> message) {
+      HttpMessage<ByteBuffer> response = (HttpMessage<ByteBuffer>)message;
+      String body = charset(response.headers()).decode(response.body()).toString();
+      if (callback instanceof LineReader) {
+        StringReader lines = new StringReader();
+        lines.forwardTo((LineReader)callback);
+        lines.onStart();
+        for (String line : X_String.splitNewLine(body)) {
+          lines.onLine(line);
+        }
+        lines.onEnd();
+      }
+      callback.onSuccess(new HttpMessage<String>(response.modifier(), response.url(), response.status(),
+        response.reason(), response.headers(), body));
+    }
+
+    @Override
+    public void onError(Throwable e) {
+      callback.onError(e);
+    }
+
+    @Override
+    public void onCancel() {
+      callback.onCancel();
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return callback.isCancelled();
+    }
+  }
+
+  private final ConcurrentLinkedQueue<HttpExchange> submitted = new ConcurrentLinkedQueue<HttpExchange>();
+  private final AtomicInteger connectionsOpened = new AtomicInteger();
+  private final Object startLock = new Object();
+  private volatile Selector selector;
+  private volatile boolean shutdown;
+  private volatile int timeout = DEFAULT_TIMEOUT;
+  private volatile int maxConnections = DEFAULT_MAX_CONNECTIONS;
+  private volatile int maxPipeline = DEFAULT_MAX_PIPELINE;
+  private volatile int keepAlive = DEFAULT_KEEP_ALIVE;
+
+  // only touched by the io thread
+  private final HashMap<String, Route> routes = new HashMap<String, Route>();
+
+  /**
+   * Sends plain http through the selector; anything else through a URLConnection.
+   */
+  @Override
+  protected void send(int modifier, String uri, byte[] body, StringDictionary<String> headers,
+    IOCallback<IOMessage<String>> callback) {
+    String url = normalize(uri);
+    if (!url.startsWith("http:")) {
+      super.send(modifier, url, body, headers, callback);
+      return;
+    }
+    sendBinary(modifier, url, body == null ? null : ByteBuffer.wrap(body), headers, new TextCallback(callback));
+  }
+
+  /**
+   * Sends a request, and gives back the response body as bytes, without decoding it;
+   * if the callback is a {@link ByteReader}, the body is streamed to it as it arrives.
+   *
+   * @param modifier - The http method; see {@link IOConstants#METHOD_GET} and friends.
+   * @param body - The bytes to send, from its position to its limit, or null for none.
+   * It is not copied, and must not change until the callback is called.
+   */
+  public void sendBinary(int modifier, String uri, ByteBuffer body, StringDictionary<String> headers,
+    IOCallback<IOMessage<ByteBuffer>> callback) {
+    String url = normalize(uri);
+    if (callback.isCancelled()) {
+      return;
+    }
+    try {
+      URL parsed = new URL(url);
+      if (!"http".equals(parsed.getProtocol())) {
+        throw new MalformedURLException("Only plain http urls can be sent as binary, not " + url);
+      }
+      if (shutdown) {
+        throw new IOException("This IOService has been shut down");
+      }
+      int port = parsed.getPort() == -1 ? parsed.getDefaultPort() : parsed.getPort();
+      InetSocketAddress address = new InetSocketAddress(parsed.getHost(), port);
+      if (address.isUnresolved()) {
+        throw new UnknownHostException(parsed.getHost());
+      }
+      ByteBuffer head = encodeHead(modifier, parsed, body, headers);
+      HttpExchange exchange = new HttpExchange(modifier, url, parsed.getHost() + ":" + port, address,
+        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout), head,
+        body == null ? null : body.slice(), callback);
+      submitted.add(exchange);
+      if (shutdown && submitted.remove(exchange)) {
+        // the io thread may already be gone
+        throw new IOException("This IOService has been shut down");
+      }
+      start().wakeup();
+    } catch (Throwable e) {
+      callback.onError(e);
+    }
+  }
+
+  private ByteBuffer encodeHead(int modifier, URL url, ByteBuffer body, final StringDictionary<String> headers) {
+    final StringBuilder b = new StringBuilder(256);
+    String file = url.getFile();
+    b.append(IOConstants.methodName(modifier)).append(' ').append(file.length() == 0 ? "/" : file)
+      .append(" HTTP/1.1\r\n");
+    final boolean[] hasHost = new boolean[1];
+    if (headers != null) {
+      headers.forKeys(new ReceivesValue<String>() {
+        @Override
+        public void set(String key) {
+          // we frame the body ourselves
+          if (key.equalsIgnoreCase("Content-Length") || key.equalsIgnoreCase("Transfer-Encoding")) {
+            return;
+          }
+          hasHost[0] |= key.equalsIgnoreCase("Host");
+          b.append(key).append(": ").append(headers.getValue(key)).append("\r\n");
+        }
+      });
+    }
+    if (!hasHost[0]) {
+      b.append("Host: ").append(url.getHost());
+      if (url.getPort() != -1) {
+        b.append(':').append(url.getPort());
+      }
+      b.append("\r\n");
+    }
+    if (body != null) {
+      b.append("Content-Length: ").append(body.remaining()).append("\r\n");
+    } else if (modifier == IOConstants.METHOD_POST || modifier == IOConstants.METHOD_PUT) {
+      b.append("Content-Length: 0\r\n");
+    }
+    b.append("\r\n");
+    return ByteBuffer.wrap(b.toString().getBytes(LATIN1));
+  }
+
+  private Selector start() throws IOException {
+    Selector running = selector;
+    if (running != null) {
+      return running;
+    }
+    synchronized (startLock) {
+      if (selector == null) {
+        final Selector opened = Selector.open();
+        Thread loop = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            loop(opened);
+          }
+        }, "xapi-io-selector");
+        loop.setDaemon(true);
+        selector = opened;
+        loop.start();
+      }
+      return selector;
+    }
+  }
+
+  private void loop(Selector selector) {
+    Throwable failure = null;
+    try {
+      while (!shutdown) {
+        selector.select(routes.isEmpty() ? 0 : TICK_MILLIS);
+        HttpExchange exchange;
+        while ((exchange = submitted.poll()) != null) {
+          Route route = routes.get(exchange.route);
+          if (route == null) {
+            route = new Route(exchange.route);
+            routes.put(exchange.route, route);
+          }
+          route.waiting.add(exchange);
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          handle((HttpConnection)key.attachment(), key);
+        }
+        sweep(selector, System.nanoTime());
+      }
+    } catch (ClosedSelectorException e) {
+      // shut down
+    } catch (Throwable e) {
+      X_Log.error(getClass(), "The io thread failed; failing every request", e);
+      failure = e;
+    } finally {
+      IOException closed = new IOException("This IOService has been shut down", failure);
+      for (Route route : routes.values()) {
+        for (HttpConnection connection : new ArrayList<HttpConnection>(route.connections)) {
+          close(connection, closed, false);
+        }
+        for (HttpExchange exchange : route.waiting) {
+          exchange.fail(closed);
+        }
+      }
+      routes.clear();
+      HttpExchange exchange;
+      while ((exchange = submitted.poll()) != null) {
+        exchange.fail(closed);
+      }
+      try {
+        selector.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  private void handle(HttpConnection connection, SelectionKey key) {
+    try {
+      if (key.isValid() && key.isConnectable()) {
+        connection.finishConnect();
+      }
+      if (key.isValid() && key.isWritable()) {
+        connection.write();
+      }
+      if (key.isValid() && key.isReadable() && !connection.read()) {
+        close(connection, null, true);
+      }
+    } catch (Throwable e) {
+      close(connection, e, true);
+    }
+  }
+
+  /**
+   * Drops what was cancelled, fails what timed out, closes idle connections, and hands out what is waiting.
+   */
+  private void sweep(Selector selector, long now) {
+    long idleNanos = TimeUnit.MILLISECONDS.toNanos(keepAlive);
+    Iterator<Route> each = routes.values().iterator();
+    while (each.hasNext()) {
+      Route route = each.next();
+      Iterator<HttpExchange> waiting = route.waiting.iterator();
+      while (waiting.hasNext()) {
+        HttpExchange exchange = waiting.next();
+        if (exchange.isCancelled()) {
+          waiting.remove();
+          exchange.cancel();
+        } else if (now - exchange.deadline > 0) {
+          waiting.remove();
+          exchange.fail(new SocketTimeoutException("Timed out waiting for a connection for " + exchange.url));
+        }
+      }
+      for (HttpConnection connection : new ArrayList<HttpConnection>(route.connections)) {
+        if (connection.inFlight.isEmpty()) {
+          if (now - connection.idleSince > idleNanos) {
+            close(connection, null, false);
+          }
+          continue;
+        }
+        boolean first = true, stuck = false;
+        for (HttpExchange exchange : connection.inFlight) {
+          if (!exchange.abandoned) {
+            boolean cancelled = exchange.isCancelled();
+            if (cancelled || now - exchange.deadline > 0) {
+              exchange.abandoned = true;
+              if (cancelled) {
+                exchange.cancel();
+              } else {
+                exchange.fail(new SocketTimeoutException("Timed out waiting for " + exchange.url));
+              }
+              // we cannot skip past a response we are in the middle of; anything behind it will be retried
+              stuck |= first;
+            }
+          }
+          first = false;
+        }
+        if (stuck) {
+          close(connection, null, true);
+        }
+      }
+      dispatch(selector, route, now);
+      if (route.waiting.isEmpty() && route.connections.isEmpty()) {
+        each.remove();
+      }
+    }
+  }
+
+  private void dispatch(Selector selector, Route route, long now) {
+    while (!route.waiting.isEmpty()) {
+      HttpExchange exchange = route.waiting.peek();
+      HttpConnection connection = pick(route, exchange);
+      if (connection == null) {
+        if (route.connections.size() >= maxConnections) {
+          // everything is busy; wait for a response
+          return;
+        }
+        try {
+          connection = open(selector, route, exchange.address, now);
+        } catch (IOException e) {
+          route.waiting.poll();
+          exchange.fail(e);
+          continue;
+        }
+      }
+      route.waiting.poll();
+      connection.send(exchange);
+    }
+  }
+
+  /**
+   * @return An idle connection, or null if we may open a new one,
+   * or else the least busy connection we can pipeline on, if any.
+   */
+  private HttpConnection pick(Route route, HttpExchange exchange) {
+    HttpConnection best = null;
+    boolean idempotent = IOConstants.isIdempotent(exchange.method);
+    for (HttpConnection connection : route.connections) {
+      if (connection.closing || connection.closed) {
+        continue;
+      }
+      if (connection.inFlight.isEmpty()) {
+        return connection;
+      }
+      if (idempotent && connection.proven && connection.inFlight.size() < maxPipeline
+        && connection.isPipelinable() && (best == null || connection.inFlight.size() < best.inFlight.size())) {
+        best = connection;
+      }
+    }
+    return route.connections.size() < maxConnections ? null : best;
+  }
+
+  private HttpConnection open(Selector selector, Route route, InetSocketAddress address, long now)
+    throws IOException {
+    SocketChannel channel = SocketChannel.open();
+    try {
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      HttpConnection connection = new HttpConnection(this, route, channel, now);
+      connection.connected = channel.connect(address);
+      connection.key = channel.register(selector, 0, connection);
+      connection.updateInterest();
+      route.connections.add(connection);
+      connectionsOpened.incrementAndGet();
+      return connection;
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Called by a connection once it has read a whole response.
+   */
+  void completed(HttpConnection connection, HttpExchange exchange, boolean keepAlive) {
+    if (!exchange.abandoned) {
+      exchange.succeed();
+    }
+    if (keepAlive) {
+      connection.proven = true;
+    } else {
+      connection.closing = true;
+    }
+    if (connection.inFlight.isEmpty()) {
+      if (connection.closing) {
+        close(connection, null, false);
+      } else {
+        connection.idleSince = System.nanoTime();
+      }
+    }
+  }
+
+  /**
+   * Closes the connection, and retries, or fails, whatever it had not yet answered.
+   *
+   * @param cause - Why the connection is closing, if it failed.
+   * @param retry - Whether idempotent requests which had no response yet may be retried.
+   */
+  private void close(HttpConnection connection, Throwable cause, boolean retry) {
+    if (connection.closed) {
+      return;
+    }
+    connection.closed = true;
+    if (connection.key != null) {
+      connection.key.cancel();
+    }
+    try {
+      connection.channel.close();
+    } catch (IOException ignored) {
+    }
+    Route route = connection.route;
+    route.connections.remove(connection);
+    ArrayDeque<HttpExchange> again = new ArrayDeque<HttpExchange>();
+    for (HttpExchange exchange : connection.inFlight) {
+      if (exchange.abandoned) {
+        continue;
+      }
+      if (retry && !exchange.received && exchange.retries < MAX_RETRIES
+        && IOConstants.isIdempotent(exchange.method)) {
+        exchange.retries++;
+        again.add(exchange);
+      } else {
+        exchange.fail(cause != null ? cause
+          : new IOException("Connection to " + route.key + " closed before the response to " + exchange.url));
+      }
+    }
+    connection.inFlight.clear();
+    // ahead of anything else waiting, in the order they were sent
+    Iterator<HttpExchange> backwards = again.descendingIterator();
+    while (backwards.hasNext()) {
+      route.waiting.addFirst(backwards.next());
+    }
+  }
+
+  /**
+   * Fails everything not yet answered, closes every connection, and stops the io thread;
+   * later requests fail at once.
+   */
+  public void shutdown() {
+    shutdown = true;
+    Selector running = selector;
+    if (running != null) {
+      running.wakeup();
+    }
+  }
+
+  private static Charset charset(StringDictionary<String> headers) {
+    String type = headers.getValue("Content-Type");
+    if (type != null) {
+      int at = type.toLowerCase().indexOf("charset=");
+      if (at != -1) {
+        String name = type.substring(at + 8).trim();
+        int end = name.indexOf(';');
+        name = (end == -1 ? name : name.substring(0, end)).replace("\"", "").trim();
+        try {
+          return Charset.forName(name);
+        } catch (RuntimeException unsupported) {
+          // fall back to utf-8
+        }
+      }
+    }
+    return UTF8;
+  }
+
+  /**
+   * @return How many connections this service has opened; a measure of how well keep-alive is working.
+   */
+  public int getConnectionsOpened() {
+    return connectionsOpened.get();
+  }
+
+  /**
+   * @return How many millis a request may take, from being sent to being answered, before it fails.
+   */
+  public int getTimeout() {
+    return timeout;
+  }
+
+  public void setTimeout(int timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * @return How many connections we keep open to each host and port.
+   */
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = Math.max(1, maxConnections);
+  }
+
+  /**
+   * @return How many requests may wait on one connection; 1 to turn off pipelining.
+   */
+  public int getMaxPipeline() {
+    return maxPipeline;
+  }
+
+  public void setMaxPipeline(int maxPipeline) {
+    this.maxPipeline = Math.max(1, maxPipeline);
+  }
+
+  /**
+   * @return How many millis an idle connection is kept open.
+   */
+  public int getKeepAlive() {
+    return keepAlive;
+  }
+
+  public void setKeepAlive(int keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+}
@@ -0,0 +1,329 @@
+package xapi.jre.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import xapi.collect.X_Collect;
+import xapi.collect.api.StringDictionary;
+import xapi.io.IOConstants;
+import xapi.io.api.IOCallback;
+import xapi.io.api.IOMessage;
+import xapi.io.api.IORequestBuilder;
+import xapi.io.service.IOService;
+import xapi.jre.io.IOServiceJreTest.LoopbackServer;
+import xapi.jre.io.IOServiceJreTest.Result;
+import xapi.log.X_Log;
+import xapi.util.api.ConvertsValue;
+import xapi.util.api.RemovalHandler;
+
+/**
+ * Runs {@link IOServiceCaching} in front of a service which answers only when told to,
+ * so we can see exactly what reaches it; and once in front of a real {@link IOServiceJre}.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class IOServiceCachingTest {
+
+  /**
+   * Holds on to every request, until the test answers it.
+   */
+  static final class HeldService implements IOService {
+    static final class Call {
+      final int method;
+      final String url;
+      final StringDictionary<String> headers;
+      final IOCallback<IOMessage<String>> callback;
+
+      Call(int method, String url, StringDictionary<String> headers, IOCallback<IOMessage<String>> callback) {
+        this.method = method;
+        this.url = url;
+        this.headers = headers;
+        this.callback = callback;
+      }
+
+      void answer(int status, String body, String ... headers) {
+        StringDictionary<String> response = X_Collect.newStringDictionary();
+        for (int i = 0; i < headers.length; i += 2) {
+          response.setValue(headers[i], headers[i + 1]);
+        }
+        callback.onSuccess(new HttpMessage<String>(method, url, status, "", response, body));
+      }
+    }
+
+    final List<Call> calls = new ArrayList<Call>();
+
+    Call last() {
+      return calls.get(calls.size() - 1);
+    }
+
+    @Override
+    public <V> IORequestBuilder<V> request(Class<V> classLit, String id) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <V> RemovalHandler registerParser(Class<V> classLit, ConvertsValue<V, String> serializer,
+      ConvertsValue<String, V> deserializer) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void put(String url, byte[] body, StringDictionary<String> headers, IOCallback<IOMessage<String>> callback) {
+      calls.add(new Call(IOConstants.METHOD_PUT, url, headers, callback));
+    }
+
+    @Override
+    public void get(String url, StringDictionary<String> headers, IOCallback<IOMessage<String>> callback) {
+      calls.add(new Call(IOConstants.METHOD_GET, url, headers, callback));
+    }
+
+    @Override
+    public void post(String url, String body, StringDictionary<String> headers, IOCallback<IOMessage<String>> callback) {
+      calls.add(new Call(IOConstants.METHOD_POST, url, headers, callback));
+    }
+
+    @Override
+    public void delete(String url, StringDictionary<String> headers, IOCallback<IOMessage<String>> callback) {
+      calls.add(new Call(IOConstants.METHOD_DELETE, url, headers, callback));
+    }
+  }
+
+  private static final String URL = "http://example.com/thing";
+
+  private final HeldService held = new HeldService();
+  private final IOServiceCaching service = new IOServiceCaching(held);
+
+  private Result<String> get(String url, String ... headers) {
+    StringDictionary<String> request = null;
+    if (headers.length > 0) {
+      request = X_Collect.newStringDictionary();
+      for (int i = 0; i < headers.length; i += 2) {
+        request.setValue(headers[i], headers[i + 1]);
+      }
+    }
+    Result<String> result = new Result<String>();
+    service.get(url, request, result);
+    return result;
+  }
+
+  @Test
+  public void testConcurrentGetsShareOneRequest() throws Exception {
+    List<Result<String>> results = new ArrayList<Result<String>>();
+    for (int i = 0; i < 10; i++) {
+      results.add(get(i % 2 == 0 ? URL : "HTTP://Example.COM:80/thing#part"));
+    }
+    assertEquals(1, held.calls.size());
+    held.last().answer(200, "shared");
+    for (Result<String> result : results) {
+      assertEquals("shared", result.await().body());
+    }
+    assertEquals(1, service.getMisses());
+    assertEquals(9, service.getCoalesced());
+    // nothing said it could be kept
+    get(URL);
+    assertEquals(2, held.calls.size());
+  }
+
+  @Test
+  public void testCoalescedCallersGetTheirOwnHeaders() throws Exception {
+    Result<String> first = get(URL), second = get(URL);
+    held.last().answer(200, "shared", "Etag", "\"v1\"");
+    assertNotSame(first.await(), second.await());
+    first.message.headers().setValue("Etag", "spoilt");
+    assertEquals("\"v1\"", second.message.headers().getValue("Etag"));
+
+    Result<String> third = get(URL), fourth = get(URL);
+    held.last().answer(304, "", "Etag", "\"v1\"");
+    assertNotSame(third.await(), fourth.await());
+    third.message.headers().setValue("Etag", "spoilt");
+    assertEquals("\"v1\"", fourth.message.headers().getValue("Etag"));
+  }
+
+  @Test
+  public void testDifferentHeadersAreDifferentRequests() throws Exception {
+    get(URL, "Authorization", "alice");
+    get(URL, "authorization", "alice");
+    get(URL, "Authorization", "bob");
+    assertEquals(2, held.calls.size());
+    assertEquals(1, service.getCoalesced());
+  }
+
+  @Test
+  public void testFreshResponsesAreKept() throws Exception {
+    get(URL);
+    held.last().answer(200, "kept", "Cache-Control", "public, max-age=60");
+    Result<String> hit = get(URL);
+    assertEquals("kept", hit.await().body());
+    assertEquals(1, held.calls.size());
+    assertEquals(1, service.getHits());
+
+    // callers may scribble on what they get without spoiling it for the next
+    hit.message.headers().setValue("Cache-Control", "spoilt");
+    assertEquals("public, max-age=60", get(URL).await().headers().getValue("Cache-Control"));
+
+    // asking for something else goes straight through
+    get(URL, "Cache-Control", "no-cache");
+    assertEquals(2, held.calls.size());
+  }
+
+  @Test
+  public void testExpiredAndUnstorableResponsesAreNotKept() throws Exception {
+    String[][] answers = new String[][] {
+      {"Cache-Control", "max-age=60, no-store"},
+      {"Cache-Control", "max-age=0"},
+      {"Cache-Control", "max-age=60", "Vary", "*"},
+      {"Expires", "0"},
+      {"Date", "Mon, 01 Jan 2024 00:00:00 GMT", "Expires", "Mon, 01 Jan 2024 00:00:00 GMT"},
+    };
+    for (String[] headers : answers) {
+      get(URL);
+      held.last().answer(200, "gone", headers);
+    }
+    assertEquals(0, service.getSize());
+    get(URL);
+    held.last().answer(200, "kept", "Date", "Mon, 01 Jan 2024 00:00:00 GMT",
+      "Expires", "Mon, 01 Jan 2024 00:01:00 GMT");
+    get(URL);
+    assertEquals(answers.length + 1, held.calls.size());
+    assertEquals(1, service.getHits());
+  }
+
+  @Test
+  public void testErrorsGoToEveryone() throws Exception {
+    Result<String> first = get(URL), second = get(URL);
+    held.last().callback.onError(new IOException("down"));
+    assertEquals("down", first.awaitError().getMessage());
+    assertEquals("down", second.awaitError().getMessage());
+    get(URL);
+    assertEquals(2, held.calls.size());
+  }
+
+  @Test
+  public void testRevalidation() throws Exception {
+    get(URL);
+    held.last().answer(200, "tagged", "Etag", "\"v1\"", "Cache-Control", "no-cache");
+    Result<String> first = get(URL), second = get(URL);
+    assertEquals(2, held.calls.size());
+    assertEquals("\"v1\"", held.last().headers.getValue("If-None-Match"));
+    held.last().answer(304, "", "Etag", "\"v1\"", "Cache-Control", "max-age=60");
+    assertEquals("tagged", first.await().body());
+    assertEquals("tagged", second.await().body());
+    assertEquals(1, service.getRevalidated());
+    // the 304 said it is fresh for a minute now
+    assertEquals("tagged", get(URL).await().body());
+    assertEquals(2, held.calls.size());
+    assertEquals("max-age=60", get(URL).await().headers().getValue("Cache-Control"));
+  }
+
+  @Test
+  public void testChangedResourceReplacesTheOldOne() throws Exception {
+    get(URL);
+    held.last().answer(200, "old", "Last-Modified", "Mon, 01 Jan 2024 00:00:00 GMT");
+    Result<String> result = get(URL);
+    assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", held.last().headers.getValue("If-Modified-Since"));
+    held.last().answer(200, "new", "Last-Modified", "Tue, 02 Jan 2024 00:00:00 GMT");
+    assertEquals("new", result.await().body());
+    get(URL);
+    assertEquals("Tue, 02 Jan 2024 00:00:00 GMT", held.last().headers.getValue("If-Modified-Since"));
+    assertEquals(0, service.getRevalidated());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() throws Exception {
+    service.setMaxSize(3 * (512 + 2));
+    for (String path : new String[] {"/a", "/b", "/c"}) {
+      get(URL + path);
+      held.last().answer(200, path.substring(1), "Cache-Control", "max-age=60");
+    }
+    get(URL + "/a");
+    get(URL + "/d");
+    held.last().answer(200, "d", "Cache-Control", "max-age=60");
+    assertEquals(1, service.getEvictions());
+    int calls = held.calls.size();
+    get(URL + "/a");
+    get(URL + "/c");
+    get(URL + "/d");
+    assertEquals(calls, held.calls.size());
+    get(URL + "/b");
+    assertEquals(calls + 1, held.calls.size());
+  }
+
+  @Test
+  public void testWritesInvalidate() throws Exception {
+    get(URL, "Accept", "text/plain");
+    held.last().answer(200, "before", "Cache-Control", "max-age=60");
+    Result<String> posted = new Result<String>();
+    service.post(URL, "change", null, posted);
+    held.last().answer(200, "ok");
+    posted.await();
+    assertEquals(0, service.getSize());
+    get(URL, "Accept", "text/plain");
+    assertEquals(IOConstants.METHOD_GET, held.last().method);
+    assertEquals(3, held.calls.size());
+  }
+
+  @Test
+  public void testCancellation() throws Exception {
+    Result<String> first = get(URL), second = get(URL);
+    IOCallback<IOMessage<String>> flight = held.last().callback;
+    first.cancel = true;
+    assertFalse(flight.isCancelled());
+    held.last().answer(200, "late");
+    assertTrue(first.cancelled);
+    assertNull(first.message);
+    assertEquals("late", second.await().body());
+
+    Result<String> third = get(URL);
+    third.cancel = true;
+    assertTrue(held.last().callback.isCancelled());
+    held.last().callback.onCancel();
+    assertTrue(third.cancelled);
+  }
+
+  @Test
+  public void testAgainstLoopbackServer() throws Exception {
+    LoopbackServer server = new LoopbackServer();
+    IOServiceJre jre = new IOServiceJre();
+    IOServiceCaching caching = new IOServiceCaching(jre);
+    try {
+      List<Result<String>> results = new ArrayList<Result<String>>();
+      for (int i = 0; i < 20; i++) {
+        Result<String> result = new Result<String>();
+        caching.get(server.url("/etag"), null, result);
+        results.add(result);
+      }
+      for (Result<String> result : results) {
+        assertEquals("tagged", result.await().body());
+      }
+      assertEquals(1, server.requests.get());
+      assertEquals(19, caching.getCoalesced());
+
+      long start = System.nanoTime();
+      for (int i = 0; i < 100; i++) {
+        Result<String> result = new Result<String>();
+        caching.get(server.url("/etag"), null, result);
+        IOMessage<String> message = result.await();
+        assertEquals("tagged", message.body());
+        assertNotNull(message.headers().getValue("Etag"));
+      }
+      X_Log.info(getClass(), "100 revalidated GETs took", (System.nanoTime() - start) / 1000000, "ms;", caching);
+      assertEquals(101, server.requests.get());
+      assertEquals(100, caching.getRevalidated());
+    } finally {
+      jre.shutdown();
+      server.close();
+    }
+  }
+
+}
@@ -0,0 +1,476 @@
+package xapi.jre.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import xapi.collect.api.StringDictionary;
+import xapi.io.IOConstants;
+import xapi.io.api.IOCallback;
+import xapi.io.api.IOMessage;
+import xapi.io.impl.IOServiceDefault;
+import xapi.log.X_Log;
+
+/**
+ * Runs {@link IOServiceJre} against a small http server on the loopback interface,
+ * which counts connections, and notices when requests are pipelined.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class IOServiceJreTest {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Serves each connection on its own thread, answering requests in the order they arrive.
+   */
+  static final class LoopbackServer implements Runnable {
+    final ServerSocket socket;
+    final AtomicInteger accepted = new AtomicInteger();
+    final AtomicInteger requests = new AtomicInteger();
+    /** Requests which had already arrived before we answered the one in front of them. */
+    final AtomicInteger pipelined = new AtomicInteger();
+    final List<Socket> open = new ArrayList<Socket>();
+
+    LoopbackServer() throws IOException {
+      socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      Thread thread = new Thread(this, "loopback-server");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    String url(String path) {
+      return "http://127.0.0.1:" + socket.getLocalPort() + path;
+    }
+
+    @Override
+    public void run() {
+      while (!socket.isClosed()) {
+        try {
+          final Socket client = socket.accept();
+          accepted.incrementAndGet();
+          synchronized (open) {
+            open.add(client);
+          }
+          Thread thread = new Thread("loopback-connection") {
+            @Override
+            public void run() {
+              try {
+                serve(client);
+              } catch (IOException e) {
+                // the client went away
+              } finally {
+                try {
+                  client.close();
+                } catch (IOException ignored) {
+                }
+              }
+            }
+          };
+          thread.setDaemon(true);
+          thread.start();
+        } catch (IOException e) {
+          return;
+        }
+      }
+    }
+
+    void close() throws IOException {
+      socket.close();
+      synchronized (open) {
+        for (Socket client : open) {
+          client.close();
+        }
+      }
+    }
+
+    private void serve(Socket client) throws IOException {
+      InputStream in = new BufferedInputStream(client.getInputStream());
+      // one write per response, or nagle and delayed acks cost us 40ms a request
+      OutputStream out = new BufferedOutputStream(client.getOutputStream());
+      int served = 0;
+      while (true) {
+        String request = readLine(in);
+        if (request == null) {
+          return;
+        }
+        String[] parts = request.split(" ");
+        String method = parts[0], path = parts[1];
+        int length = 0;
+        String line, etag = null;
+        while ((line = readLine(in)).length() > 0) {
+          if (line.toLowerCase().startsWith("content-length:")) {
+            length = Integer.parseInt(line.substring(15).trim());
+          } else if (line.toLowerCase().startsWith("if-none-match:")) {
+            etag = line.substring(14).trim();
+          }
+        }
+        byte[] body = new byte[length];
+        for (int read = 0; read < length;) {
+          read += in.read(body, read, length - read);
+        }
+        requests.incrementAndGet();
+        served++;
+        if (in.available() > 0) {
+          pipelined.incrementAndGet();
+        }
+        boolean keepAlive = respond(out, method, path, etag, body, served);
+        out.flush();
+        if (!keepAlive) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * @return false to close the connection.
+     */
+    private boolean respond(OutputStream out, String method, String path, String etag, byte[] body, int served)
+      throws IOException {
+      if (path.equals("/hello")) {
+        write(out, "200 OK", "Hello, world", "X-Test: one\r\nx-test: two\r\nx-LOWER: yes\r\n");
+      } else if (path.equals("/echo")) {
+        write(out, "200 OK", method + " " + new String(body, UTF8), "Content-Type: text/plain; charset=UTF-8\r\n");
+      } else if (path.equals("/count")) {
+        write(out, "200 OK", Integer.toString(served), "");
+      } else if (path.equals("/chunked")) {
+        out.write(("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+          + "3\r\none\r\n3;ext=1\r\ntwo\r\n5\r\nthree\r\n0\r\nX-Trailer: done\r\n\r\n").getBytes(UTF8));
+      } else if (path.startsWith("/big")) {
+        int size = Integer.parseInt(path.substring(5));
+        out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + size + "\r\n\r\n").getBytes(UTF8));
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+          bytes[i] = (byte)i;
+        }
+        out.write(bytes);
+      } else if (path.equals("/slow")) {
+        try {
+          Thread.sleep(2000);
+        } catch (InterruptedException e) {
+          return false;
+        }
+        write(out, "200 OK", "slow", "");
+      } else if (path.equals("/etag")) {
+        if ("\"v1\"".equals(etag)) {
+          out.write("HTTP/1.1 304 Not Modified\r\nETag: \"v1\"\r\n\r\n".getBytes(UTF8));
+        } else {
+          // slow enough that concurrent requests for it overlap
+          try {
+            Thread.sleep(300);
+          } catch (InterruptedException e) {
+            return false;
+          }
+          write(out, "200 OK", "tagged", "ETag: \"v1\"\r\nCache-Control: no-cache\r\n");
+        }
+      } else if (path.equals("/close")) {
+        write(out, "200 OK", "closing", "Connection: close\r\n");
+        return false;
+      } else if (path.equals("/drop")) {
+        // a keep-alive response, after which we hang up anyway
+        write(out, "200 OK", "dropped", "");
+        return false;
+      } else if (path.equals("/eof")) {
+        out.write("HTTP/1.0 200 OK\r\n\r\nuntil the end".getBytes(UTF8));
+        return false;
+      } else {
+        write(out, "404 Not Found", "nope", "");
+      }
+      return true;
+    }
+
+    private static void write(OutputStream out, String status, String body, String headers) throws IOException {
+      byte[] bytes = body.getBytes(UTF8);
+      out.write(("HTTP/1.1 " + status + "\r\n" + headers + "Content-Length: " + bytes.length + "\r\n\r\n")
+        .getBytes(UTF8));
+      out.write(bytes);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+      StringBuilder b = new StringBuilder();
+      int next;
+      while ((next = in.read()) != '\n') {
+        if (next == -1) {
+          return null;
+        }
+        if (next != '\r') {
+          b.append((char)next);
+        }
+      }
+      return b.toString();
+    }
+  }
+
+  static class Result <B> implements IOCallback<IOMessage<B>> {
+    final CountDownLatch done = new CountDownLatch(1);
+    volatile IOMessage<B> message;
+    volatile Throwable error;
+    volatile boolean cancel, cancelled;
+
+    @Override
+    public void onSuccess(IOMessage<B> t) {
+      message = t;
+      done.countDown();
+    }
+
+    @Override
+    public void onError(Throwable e) {
+      error = e;
+      done.countDown();
+    }
+
+    @Override
+    public void onCancel() {
+      cancelled = true;
+      done.countDown();
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancel;
+    }
+
+    IOMessage<B> await() throws InterruptedException {
+      assertTrue("No response", done.await(10, TimeUnit.SECONDS));
+      if (error != null) {
+        throw new AssertionError(error);
+      }
+      return message;
+    }
+
+    Throwable awaitError() throws InterruptedException {
+      assertTrue("No response", done.await(10, TimeUnit.SECONDS));
+      assertNull(message);
+      return error;
+    }
+  }
+
+  private LoopbackServer server;
+  private IOServiceJre service;
+
+  @Before
+  public void start() throws IOException {
+    server = new LoopbackServer();
+    service = new IOServiceJre();
+  }
+
+  @After
+  public void stop() throws IOException {
+    service.shutdown();
+    server.close();
+  }
+
+  private String get(String path) throws InterruptedException {
+    Result<String> result = new Result<String>();
+    service.get(server.url(path), null, result);
+    return result.await().body();
+  }
+
+  @Test
+  public void testEveryVerb() throws Exception {
+    Result<String> get = new Result<String>();
+    service.get(server.url("/hello"), null, get);
+    IOMessage<String> message = get.await();
+    assertEquals("Hello, world", message.body());
+    assertEquals(IOConstants.METHOD_GET, message.modifier());
+    assertEquals("one, two", message.headers().getValue("X-Test"));
+    assertEquals("yes", message.headers().getValue("X-Lower"));
+    assertEquals("12", message.headers().getValue("Content-Length"));
+    assertEquals(200, ((HttpMessage<String>)message).status());
+
+    Result<String> post = new Result<String>();
+    service.post(server.url("/echo"), "posted ü", null, post);
+    assertEquals("POST posted ü", post.await().body());
+
+    Result<String> put = new Result<String>();
+    service.put(server.url("/echo"), "put".getBytes(UTF8), null, put);
+    assertEquals("PUT put", put.await().body());
+
+    Result<String> delete = new Result<String>();
+    service.delete(server.url("/echo"), null, delete);
+    assertEquals("DELETE ", delete.await().body());
+  }
+
+  @Test
+  public void testKeepAlive() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      assertEquals("Hello, world", get("/hello"));
+    }
+    assertEquals(1, service.getConnectionsOpened());
+    assertEquals(1, server.accepted.get());
+  }
+
+  @Test
+  public void testPipelining() throws Exception {
+    service.setMaxConnections(1);
+    // the first response proves the connection stays open
+    assertEquals("1", get("/count"));
+    List<Result<String>> results = new ArrayList<Result<String>>();
+    for (int i = 0; i < 20; i++) {
+      Result<String> result = new Result<String>();
+      results.add(result);
+      service.get(server.url("/count"), null, result);
+    }
+    for (int i = 0; i < results.size(); i++) {
+      // responses come back in the order we asked
+      assertEquals(Integer.toString(i + 2), results.get(i).await().body());
+    }
+    assertEquals(1, server.accepted.get());
+    assertTrue("Nothing was pipelined", server.pipelined.get() > 0);
+  }
+
+  @Test
+  public void testChunkedAndStreamedBodies() throws Exception {
+    assertEquals("onetwothree", get("/chunked"));
+
+    class Streamed extends Result<ByteBuffer> implements ByteReader {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      int status, chunks;
+      boolean ended;
+
+      @Override
+      public void onStart(int status, StringDictionary<String> headers) {
+        this.status = status;
+      }
+
+      @Override
+      public void onBytes(ByteBuffer buffer) {
+        chunks++;
+        while (buffer.hasRemaining()) {
+          bytes.write(buffer.get());
+        }
+      }
+
+      @Override
+      public void onEnd() {
+        ended = true;
+      }
+    }
+    Streamed streamed = new Streamed();
+    service.sendBinary(IOConstants.METHOD_GET, server.url("/chunked"), null, null, streamed);
+    assertNull(streamed.await().body());
+    assertEquals(200, streamed.status);
+    assertTrue(streamed.ended);
+    assertEquals("onetwothree", new String(streamed.bytes.toByteArray(), UTF8));
+
+    Result<ByteBuffer> big = new Result<ByteBuffer>();
+    service.sendBinary(IOConstants.METHOD_GET, server.url("/big/3000000"), null, null, big);
+    ByteBuffer body = big.await().body();
+    assertEquals(3000000, body.remaining());
+    for (int i = 0; i < 3000000; i += 997) {
+      assertEquals((byte)i, body.get(i));
+    }
+  }
+
+  @Test
+  public void testConnectionsTheServerCloses() throws Exception {
+    assertEquals("until the end", get("/eof"));
+    for (int i = 0; i < 5; i++) {
+      assertEquals("closing", get("/close"));
+    }
+    assertEquals(6, server.accepted.get());
+    // the server hangs up on a connection we think is alive; the next request is retried on a new one
+    for (int i = 0; i < 5; i++) {
+      assertEquals("dropped", get("/drop"));
+    }
+    assertEquals(11, server.accepted.get());
+  }
+
+  @Test
+  public void testErrorStatus() throws Exception {
+    Result<String> result = new Result<String>();
+    service.get(server.url("/missing"), null, result);
+    Throwable error = result.awaitError();
+    assertTrue(String.valueOf(error), error instanceof HttpStatusException);
+    HttpStatusException status = (HttpStatusException)error;
+    assertEquals(404, status.getStatus());
+    assertEquals("nope", UTF8.decode((ByteBuffer)status.getResponse().body()).toString());
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    service.setTimeout(300);
+    Result<String> result = new Result<String>();
+    long start = System.nanoTime();
+    service.get(server.url("/slow"), null, result);
+    Throwable error = result.awaitError();
+    assertTrue(String.valueOf(error), error instanceof SocketTimeoutException);
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+    service.setTimeout(IOServiceJre.DEFAULT_TIMEOUT);
+    assertEquals("Hello, world", get("/hello"));
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    Result<String> result = new Result<String>();
+    long start = System.nanoTime();
+    service.get(server.url("/slow"), null, result);
+    Thread.sleep(100);
+    result.cancel = true;
+    assertTrue(result.done.await(1, TimeUnit.SECONDS));
+    assertTrue(result.cancelled);
+    assertNull(result.message);
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+  }
+
+  @Test
+  public void benchmarkAgainstUrlConnection() throws Exception {
+    int requests = 500;
+    IOServiceDefault blocking = new IOServiceDefault();
+    // warm up both
+    for (int i = 0; i < 50; i++) {
+      get("/hello");
+      blocking.get(server.url("/hello"), null, new Result<String>());
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < requests; i++) {
+      blocking.get(server.url("/hello"), null, new Result<String>());
+    }
+    long urlConnection = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < requests; i++) {
+      get("/hello");
+    }
+    long sequential = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    List<Result<String>> results = new ArrayList<Result<String>>();
+    for (int i = 0; i < requests; i++) {
+      Result<String> result = new Result<String>();
+      results.add(result);
+      service.get(server.url("/hello"), null, result);
+    }
+    for (Result<String> result : results) {
+      result.await();
+    }
+    long concurrent = System.nanoTime() - start;
+    X_Log.info(getClass(), requests, "GETs; url connection:", urlConnection / 1000000.0,
+      "ms, selector one at a time:", sequential / 1000000.0, "ms, selector all at once:", concurrent / 1000000.0,
+      "ms, over", service.getConnectionsOpened(), "connections");
+  }
+
+}
@@ -0,0 +1,356 @@
+package xapi.jre.process;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+import xapi.log.X_Log;
+import xapi.process.X_Process;
+import xapi.process.api.AsyncCondition;
+import xapi.process.api.AsyncLock;
+import xapi.util.api.ErrorHandler;
+import xapi.util.api.Pair;
+import xapi.util.api.RemovalHandler;
+import xapi.util.api.SuccessHandler;
+import xapi.util.impl.PairBuilder;
+
+/**
+ * An {@link AsyncLock} which never blocks a thread.
+ * <p>
+ * A caller who cannot take the lock leaves its callback in a queue and returns at once;
+ * when the holder calls {@link #unlock()}, the lock passes to the next callback in the queue,
+ * which runs on the executor (or on the unlocking thread, if there is no executor).
+ * The lock is held by whoever is running a callback, not by a thread,
+ * so it is not reentrant: a callback which locks again is queued behind the current holder.
+ * Every callback must call {@link #unlock()} when it is done, even if it fails.
+ * <p>
+ * A fair lock serves callbacks strictly in order; {@link #tryLock()} fails while any are queued.
+ * An unfair lock lets {@link #tryLock()} and {@link #lock(SuccessHandler)} take a free lock
+ * ahead of the queue, which is faster under contention, as the lock is never idle
+ * while a queued callback is waiting for a thread.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class AsyncLockJre implements AsyncLock {
+
+  /**
+   * A queued callback; cancelled waiters stay in the queue, and are skipped when they reach the front.
+   */
+  private abstract class Waiter implements RemovalHandler, Runnable {
+    final Object handler;
+    /** Both guarded by the lock's monitor. */
+    boolean cancelled, taken;
+
+    Waiter(Object handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public void remove() {
+      synchronized (AsyncLockJre.this) {
+        if (cancelled || taken) {
+          return;
+        }
+        cancelled = true;
+      }
+      fail(handler, new CancellationException("Lock request cancelled"));
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    @Override
+    public abstract void run();
+  }
+
+  private final class LockWaiter extends Waiter {
+    LockWaiter(SuccessHandler<AsyncLock> handler) {
+      super(handler);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void run() {
+      callback((SuccessHandler<AsyncLock>)handler, AsyncLockJre.this);
+    }
+  }
+
+  private final class ConditionWaiter extends Waiter {
+    final Condition condition;
+    RemovalHandler deadline = RemovalHandler.DoNothing;
+
+    ConditionWaiter(SuccessHandler<Pair<AsyncLock, AsyncCondition>> handler, Condition condition) {
+      super(handler);
+      this.condition = condition;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void run() {
+      RemovalHandler deadline;
+      synchronized (AsyncLockJre.this) {
+        deadline = this.deadline;
+      }
+      deadline.remove();
+      callback((SuccessHandler<Pair<AsyncLock, AsyncCondition>>)handler,
+        PairBuilder.<AsyncLock, AsyncCondition>pairOf(AsyncLockJre.this, condition));
+    }
+  }
+
+  private final class Condition implements AsyncCondition {
+
+    private final ArrayDeque<ConditionWaiter> waiting = new ArrayDeque<ConditionWaiter>();
+
+    private void add(ConditionWaiter waiter) {
+      synchronized (AsyncLockJre.this) {
+        if (!held) {
+          throw new IllegalMonitorStateException("Await a condition only while holding its lock");
+        }
+        waiting.add(waiter);
+      }
+    }
+
+    /**
+     * Call while holding the lock; the lock is released, and the handler runs,
+     * holding the lock again, once another holder signals this condition.
+     */
+    @Override
+    public RemovalHandler await(SuccessHandler<Pair<AsyncLock, AsyncCondition>> onAcquire) {
+      ConditionWaiter waiter = new ConditionWaiter(onAcquire, this);
+      add(waiter);
+      unlock();
+      return waiter;
+    }
+
+    /**
+     * As {@link #await(SuccessHandler)}, but once the time is up the handler is woken as if signalled;
+     * as with any condition, it should check whether what it waited for has happened.
+     */
+    @Override
+    public RemovalHandler awaitWithDeadline(SuccessHandler<Pair<AsyncLock, AsyncCondition>> onAcquire,
+      float millisToWait) {
+      final ConditionWaiter waiter = new ConditionWaiter(onAcquire, this);
+      add(waiter);
+      RemovalHandler deadline = X_Process.runTimeout(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (AsyncLockJre.this) {
+            if (waiter.cancelled || !waiting.remove(waiter)) {
+              return;
+            }
+          }
+          requeue(waiter);
+        }
+      }, (int)Math.ceil(millisToWait));
+      synchronized (AsyncLockJre.this) {
+        waiter.deadline = deadline;
+      }
+      unlock();
+      return waiter;
+    }
+
+    @Override
+    public boolean signal() {
+      ConditionWaiter waiter;
+      synchronized (AsyncLockJre.this) {
+        do {
+          waiter = waiting.poll();
+        } while (waiter != null && waiter.cancelled);
+      }
+      if (waiter == null) {
+        return false;
+      }
+      requeue(waiter);
+      return true;
+    }
+
+    @Override
+    public int signalAll() {
+      int signalled = 0;
+      while (signal()) {
+        signalled++;
+      }
+      return signalled;
+    }
+  }
+
+  private final Executor executor;
+  private final boolean fair;
+  private final ArrayDeque<Waiter> queue = new ArrayDeque<Waiter>();
+  private boolean held;
+  /** Set while a released lock is on its way to a queued waiter, in an unfair lock. */
+  private boolean waking;
+
+  private final Runnable wake = new Runnable() {
+    @Override
+    public void run() {
+      Waiter next;
+      synchronized (AsyncLockJre.this) {
+        waking = false;
+        if (held) {
+          // someone barged in; they will hand the lock on when they unlock
+          return;
+        }
+        next = pollWaiter();
+        if (next == null) {
+          return;
+        }
+        held = true;
+      }
+      next.run();
+    }
+  };
+
+  public AsyncLockJre(Executor executor) {
+    this(executor, false);
+  }
+
+  /**
+   * @param executor - Where queued callbacks run once they get the lock; null to run them on the unlocking thread.
+   * @param fair - Whether queued callbacks always get the lock before new callers.
+   */
+  public AsyncLockJre(Executor executor, boolean fair) {
+    this.executor = executor;
+    this.fair = fair;
+  }
+
+  public boolean isFair() {
+    return fair;
+  }
+
+  @Override
+  public AsyncCondition newCondition() {
+    return new Condition();
+  }
+
+  @Override
+  public synchronized boolean tryLock() {
+    if (held || (fair && hasWaiters())) {
+      return false;
+    }
+    held = true;
+    return true;
+  }
+
+  /**
+   * Runs the callback now, on this thread, if the lock is free;
+   * otherwise queues it and returns at once.
+   */
+  @Override
+  public RemovalHandler lock(SuccessHandler<AsyncLock> onLocked) {
+    LockWaiter waiter = new LockWaiter(onLocked);
+    synchronized (this) {
+      if (held || (fair && hasWaiters())) {
+        queue.add(waiter);
+        return waiter;
+      }
+      held = true;
+    }
+    waiter.run();
+    return RemovalHandler.DoNothing;
+  }
+
+  @Override
+  public void unlock() {
+    Waiter next;
+    synchronized (this) {
+      if (!held) {
+        throw new IllegalMonitorStateException("AsyncLock is not locked");
+      }
+      if (!fair) {
+        held = false;
+        if (waking || !hasWaiters()) {
+          return;
+        }
+        waking = true;
+        next = null;
+      } else {
+        next = pollWaiter();
+        // a fair lock goes straight to the next waiter, and stays held
+        held = next != null;
+        if (next == null) {
+          return;
+        }
+      }
+    }
+    dispatch(next == null ? wake : next);
+  }
+
+  /**
+   * @return How many callbacks are waiting for the lock.
+   */
+  public synchronized int getQueueLength() {
+    int size = 0;
+    for (Waiter waiter : queue) {
+      if (!waiter.cancelled) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  public synchronized boolean isLocked() {
+    return held;
+  }
+
+  private void requeue(ConditionWaiter waiter) {
+    synchronized (this) {
+      if (held || (fair && hasWaiters())) {
+        queue.add(waiter);
+        return;
+      }
+      held = true;
+      waiter.taken = true;
+    }
+    dispatch(waiter);
+  }
+
+  private void dispatch(Runnable task) {
+    if (executor == null) {
+      task.run();
+    } else {
+      executor.execute(task);
+    }
+  }
+
+  private boolean hasWaiters() {
+    while (!queue.isEmpty() && queue.peek().cancelled) {
+      queue.poll();
+    }
+    return !queue.isEmpty();
+  }
+
+  private Waiter pollWaiter() {
+    Waiter next;
+    do {
+      next = queue.poll();
+    } while (next != null && next.cancelled);
+    if (next != null) {
+      next.taken = true;
+    }
+    return next;
+  }
+
+  private <T> void callback(SuccessHandler<T> handler, T value) {
+    try {
+      handler.onSuccess(value);
+    } catch (Throwable e) {
+      if (!fail(handler, e)) {
+        X_Log.warn(getClass(), "Error occured while performing lock callback on", handler, e);
+      }
+    }
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private boolean fail(Object handler, Throwable e) {
+    if (handler instanceof ErrorHandler) {
+      try {
+        ((ErrorHandler)handler).onError(e);
+      } catch (Throwable ignored) {}
+      return true;
+    }
+    return false;
+  }
+
+}
@@ -1,24 +1,26 @@
 package xapi.jre.process;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import xapi.annotation.inject.SingletonDefault;
-import xapi.except.NotYetImplemented;
+import xapi.inject.X_Inject;
 import xapi.inject.impl.LazyPojo;
 import xapi.inject.impl.SingletonProvider;
-import xapi.log.X_Log;
 import xapi.platform.JrePlatform;
-import xapi.process.api.AsyncCondition;
 import xapi.process.api.AsyncLock;
 import xapi.process.api.ConcurrentEnvironment;
+import xapi.process.api.Process;
 import xapi.process.impl.ConcurrencyServiceAbstract;
+import xapi.process.impl.ProcessScheduler;
 import xapi.process.service.ConcurrencyService;
 import xapi.util.X_Namespace;
-import xapi.util.api.ErrorHandler;
 import xapi.util.api.RemovalHandler;
-import xapi.util.api.SuccessHandler;
 
 @JrePlatform
 @SingletonDefault(implFor=ConcurrencyService.class)
@@ -89,82 +91,232 @@ public class ConcurrencyServiceJre extends ConcurrencyServiceAbstract{
     }
   }
 
+  /**
+   * A handle to a command running on our {@link WorkStealingExecutor}.
+   * <p>
+   * It is never started as a real thread; start() schedules the command on the pool's
+   * blocking path (these commands, like shell sessions, tend to wait on something),
+   * interrupt() interrupts whichever worker is running it, and getState() reports
+   * the command's progress.  Thread's own join() and isAlive() are final, and only know
+   * about real threads, so wait on the handle with {@link #await(long)}, or through
+   * {@link ConcurrencyServiceJre#flush(Thread, int)}.
+   */
+  protected class PooledThread extends Thread {
+
+    private final Runnable task;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private Thread worker;
+    private boolean started;
+    private boolean cancelled;
+
+    public PooledThread(Runnable task, String name) {
+      super(name);
+      this.task = task;
+    }
+
+    @Override
+    public synchronized void start() {
+      if (started) {
+        throw new IllegalThreadStateException(getName()+" has already been started");
+      }
+      started = true;
+      executor.get().executeBlocking(new Runnable() {
+        @Override
+        public void run() {
+          runPooled();
+        }
+      });
+    }
+
+    @Override
+    public void run() {
+      runPooled();
+    }
+
+    private void runPooled() {
+      boolean run;
+      synchronized (this) {
+        run = !cancelled;
+        worker = Thread.currentThread();
+      }
+      current.set(this);
+      try {
+        if (run) {
+          task.run();
+        }
+      } finally {
+        current.remove();
+        synchronized (this) {
+          worker = null;
+          done.countDown();
+        }
+      }
+    }
+
+    @Override
+    public void interrupt() {
+      synchronized (this) {
+        if (worker == null) {
+          cancelled = done.getCount() > 0;
+        } else {
+          worker.interrupt();
+        }
+      }
+    }
+
+    @Override
+    public State getState() {
+      synchronized (this) {
+        if (done.getCount() == 0) {
+          return State.TERMINATED;
+        }
+        if (worker != null) {
+          return worker.getState();
+        }
+        return started ? State.RUNNABLE : State.NEW;
+      }
+    }
+
+    public boolean isDone() {
+      return done.getCount() == 0;
+    }
+
+    /**
+     * @return true if the command finished within millis.
+     */
+    public boolean await(long millis) throws InterruptedException {
+      return done.await(millis, TimeUnit.MILLISECONDS);
+    }
+  }
+
   private final SingletonProvider<Integer> maxThreads = new SingletonProvider<Integer>() {
     @Override
     protected Integer initialValue() {
-      return Integer.parseInt(System.getProperty(X_Namespace.PROPERTY_MULTITHREADED, "5"));
+      try {
+        return Integer.parseInt(System.getProperty(X_Namespace.PROPERTY_MULTITHREADED,
+          Integer.toString(WorkStealingExecutor.DEFAULT_MAX_THREADS)));
+      } catch (NumberFormatException e) {
+        return WorkStealingExecutor.DEFAULT_MAX_THREADS;
+      }
     }
   };
 
-  @Override
-  public ConcurrentEnvironment initializeEnvironment(
-    Thread key, UncaughtExceptionHandler params) {
-    ConcurrentEnvironment enviro = new JreConcurrentEnvironment();
-    return enviro;
+  private final SingletonProvider<WorkStealingExecutor> executor = new SingletonProvider<WorkStealingExecutor>() {
+    @Override
+    protected WorkStealingExecutor initialValue() {
+      Executor injected = X_Inject.singleton(Executor.class);
+      if (injected instanceof WorkStealingExecutor) {
+        return (WorkStealingExecutor) injected;
+      }
+      return new WorkStealingExecutor();
+    }
   };
 
-  protected int maxThreads() {
-    return maxThreads.get();
-  }
+  private final SingletonProvider<HashedWheelTimer> timer = new SingletonProvider<HashedWheelTimer>() {
+    @Override
+    protected HashedWheelTimer initialValue() {
+      return new HashedWheelTimer(executor.get());
+    }
+  };
 
+  private final ThreadLocal<PooledThread> current = new ThreadLocal<PooledThread>();
+
+  /**
+   * @return A {@link PooledThread}, whose start() runs the command on our pool.
+   */
   @Override
-  public boolean isMultiThreaded() {
-    return maxThreads() > 1;
+  protected Thread createThread(WrappedRunnable cmd, String name) {
+    return new PooledThread(cmd, name);
   }
 
   @Override
-  public void runTimeout(Runnable cmd, int millisToWait) {
-
+  protected Thread currentThread() {
+    PooledThread pooled = current.get();
+    return pooled == null ? Thread.currentThread() : pooled;
   }
 
-
   @Override
-  public AsyncLock newLock() {
-    return new LockWrapper();
+  protected void join(Thread thread, int millis) throws InterruptedException {
+    if (thread instanceof PooledThread) {
+      ((PooledThread) thread).await(millis);
+    } else {
+      super.join(thread, millis);
+    }
   }
 
-}
-
-class LockWrapper implements AsyncLock {
+  /**
+   * @return The pool which runs our threads, timeouts, scheduled processes, pipelines
+   * and lock callbacks.
+   */
+  public WorkStealingExecutor getExecutor() {
+    return executor.get();
+  }
 
-  private final ReentrantLock lock = new ReentrantLock();
+  /**
+   * @return A staged pipeline running the annotated stages of the given process on our pool.
+   */
+  public <T> PipelineJre<T> newPipeline(Process<T> process) {
+    return new PipelineJre<T>(process, getExecutor());
+  }
 
+  /**
+   * Runs scheduled processes on our pool, one drain task per available processor,
+   * and accounts their slices in thread cpu time where the jvm supports it.
+   */
   @Override
-  public AsyncCondition newCondition() {
-    throw new NotYetImplemented("AsyncCondition not yet implemented");
+  protected ProcessScheduler newScheduler() {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    final boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+    return new ProcessScheduler(Runtime.getRuntime().availableProcessors()) {
+      @Override
+      protected void startCore(Runnable core) {
+        getExecutor().execute(core);
+      }
+
+      @Override
+      protected long cpuTime() {
+        return cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+      }
+    };
   }
 
   @Override
-  public boolean tryLock() {
-    return lock.tryLock();
+  public ConcurrentEnvironment initializeEnvironment(
+    Thread key, UncaughtExceptionHandler params) {
+    ConcurrentEnvironment enviro = new JreConcurrentEnvironment();
+    return enviro;
+  };
+
+  protected int maxThreads() {
+    return maxThreads.get();
   }
 
-  @SuppressWarnings({ "unchecked", "rawtypes" })
   @Override
-  public RemovalHandler lock(SuccessHandler<AsyncLock> onLocked) {
-    // TODO actually push the callback onto a deferred stack,
-    // and return without blocking.
-    try {
-      lock.lock();
-      onLocked.onSuccess(this);
-    } catch (Throwable e){
-      if (onLocked instanceof ErrorHandler) {
-        try {
-          ((ErrorHandler)onLocked).onError(e);
-        } catch (Throwable ignored) {}
-      } else {
-        X_Log.warn("Error occured while performing lock callback on "+onLocked,
-          onLocked);
-      }
-    }
-    return RemovalHandler.DoNothing;
+  public boolean isMultiThreaded() {
+    return maxThreads() > 1;
   }
 
+  /**
+   * Schedules the command on our shared {@link HashedWheelTimer}, which runs it on our pool.
+   */
   @Override
-  public void unlock() {
-    lock.unlock();
+  public RemovalHandler runTimeout(Runnable cmd, int millisToWait) {
+    return timer.get().schedule(cmd, millisToWait);
   }
 
+  /**
+   * @return An unfair {@link AsyncLockJre}, whose queued callbacks run on our pool.
+   */
+  @Override
+  public AsyncLock newLock() {
+    return newLock(false);
+  }
 
+  /**
+   * @param fair - Whether queued callbacks always get the lock ahead of new callers.
+   */
+  public AsyncLockJre newLock(boolean fair) {
+    return new AsyncLockJre(getExecutor(), fair);
+  }
 
 }
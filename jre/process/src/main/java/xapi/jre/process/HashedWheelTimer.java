@@ -0,0 +1,278 @@
+package xapi.jre.process;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import xapi.log.X_Log;
+import xapi.util.api.RemovalHandler;
+
+/**
+ * A hashed timing wheel: one thread serving any number of timeouts,
+ * with constant time schedule and cancel.
+ * <p>
+ * The wheel is a ring of buckets, one per tick; a timeout goes into the bucket of the tick it expires in,
+ * with a count of how many more turns of the wheel it must wait first.
+ * Each tick, the timer thread expires one bucket and hands the due commands to the executor,
+ * so a slow command never delays the wheel.
+ * <p>
+ * Threads scheduling or cancelling only touch lock-free queues;
+ * the buckets themselves belong to the timer thread, which sleeps whenever nothing is scheduled.
+ * Commands run no earlier than their delay, and usually within one tick after it.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class HashedWheelTimer {
+
+  public static final int DEFAULT_TICK_MILLIS = 1;
+  public static final int DEFAULT_WHEEL_SIZE = 1024;
+
+  private static final int PENDING = 0, CANCELLED = 1, EXPIRED = 2;
+
+  /**
+   * How many new timeouts the timer thread moves into the wheel per tick,
+   * so a flood of schedules cannot stall expiry.
+   */
+  private static final int MAX_TRANSFER = 100000;
+
+  private final class Timeout extends AtomicInteger implements RemovalHandler {
+    private static final long serialVersionUID = 3519553950823637618L;
+
+    final Runnable task;
+    final long deadline;
+    long rounds;
+    Bucket bucket;
+    Timeout prev, next;
+
+    Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public void remove() {
+      if (compareAndSet(PENDING, CANCELLED)) {
+        pending.decrementAndGet();
+        cancelled.add(this);
+      }
+    }
+  }
+
+  /**
+   * A doubly linked list of timeouts, only touched by the timer thread.
+   */
+  private static final class Bucket {
+    Timeout head, tail;
+
+    void add(Timeout timeout) {
+      timeout.bucket = this;
+      if (head == null) {
+        head = tail = timeout;
+      } else {
+        tail.next = timeout;
+        timeout.prev = tail;
+        tail = timeout;
+      }
+    }
+
+    Timeout remove(Timeout timeout) {
+      Timeout next = timeout.next;
+      if (timeout.prev != null) {
+        timeout.prev.next = next;
+      }
+      if (next != null) {
+        next.prev = timeout.prev;
+      }
+      if (timeout == head) {
+        head = next;
+      }
+      if (timeout == tail) {
+        tail = timeout.prev;
+      }
+      timeout.prev = timeout.next = null;
+      timeout.bucket = null;
+      return next;
+    }
+  }
+
+  private final Executor executor;
+  private final long tickNanos;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+  private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+  private final AtomicInteger pending = new AtomicInteger();
+  private final Object idle = new Object();
+  private final long startTime = System.nanoTime();
+
+  private Thread worker;
+  private volatile boolean stopped;
+  /** The tick we expire next; only read and written by the timer thread. */
+  private long tick;
+
+  public HashedWheelTimer(Executor executor) {
+    this(executor, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+  }
+
+  /**
+   * @param executor - Where expired commands run; null to run them on the timer thread.
+   * @param tickMillis - The resolution of the timer.
+   * @param wheelSize - How many ticks make up one turn of the wheel; rounded up to a power of two.
+   */
+  public HashedWheelTimer(Executor executor, int tickMillis, int wheelSize) {
+    this.executor = executor;
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+    int size = 1;
+    while (size < wheelSize) {
+      size <<= 1;
+    }
+    wheel = new Bucket[size];
+    for (int i = 0; i < size; i++) {
+      wheel[i] = new Bucket();
+    }
+    mask = size - 1;
+  }
+
+  /**
+   * Runs the command once the delay has passed.
+   *
+   * @return A handle which cancels the command, if it has not started yet.
+   */
+  public RemovalHandler schedule(Runnable task, long delayMillis) {
+    if (stopped) {
+      throw new IllegalStateException("Timer is stopped");
+    }
+    long deadline = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+    Timeout timeout = new Timeout(task, deadline);
+    pending.incrementAndGet();
+    added.add(timeout);
+    start();
+    return timeout;
+  }
+
+  /**
+   * @return How many commands are scheduled, and neither run nor cancelled.
+   */
+  public int pending() {
+    return pending.get();
+  }
+
+  /**
+   * Stops the timer thread; commands which have not yet run never will.
+   */
+  public void stop() {
+    stopped = true;
+    synchronized (idle) {
+      idle.notifyAll();
+    }
+  }
+
+  private void start() {
+    synchronized (idle) {
+      if (worker == null) {
+        worker = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            runWheel();
+          }
+        }, "xapi-wheel-timer");
+        worker.setDaemon(true);
+        worker.start();
+      } else {
+        idle.notify();
+      }
+    }
+  }
+
+  private void runWheel() {
+    try {
+      while (!stopped) {
+        if (pending.get() == 0 && added.isEmpty()) {
+          synchronized (idle) {
+            while (!stopped && pending.get() == 0 && added.isEmpty()) {
+              idle.wait();
+            }
+          }
+          removeCancelled();
+          // every bucket is empty, so we can skip the ticks we slept through
+          tick = Math.max(tick, (System.nanoTime() - startTime) / tickNanos);
+        }
+        waitForTick();
+        removeCancelled();
+        transferAdded();
+        expire(wheel[(int)(tick & mask)]);
+        tick++;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void waitForTick() throws InterruptedException {
+    long deadline = (tick + 1) * tickNanos;
+    while (true) {
+      long sleep = deadline - (System.nanoTime() - startTime);
+      if (sleep <= 0) {
+        return;
+      }
+      TimeUnit.NANOSECONDS.sleep(sleep);
+    }
+  }
+
+  private void removeCancelled() {
+    Timeout timeout;
+    while ((timeout = cancelled.poll()) != null) {
+      if (timeout.bucket != null) {
+        timeout.bucket.remove(timeout);
+      }
+    }
+  }
+
+  private void transferAdded() {
+    for (int i = 0; i < MAX_TRANSFER; i++) {
+      Timeout timeout = added.poll();
+      if (timeout == null) {
+        return;
+      }
+      if (timeout.get() != PENDING) {
+        continue;
+      }
+      // a timeout already due goes into the current bucket
+      long due = Math.max(timeout.deadline / tickNanos, tick);
+      timeout.rounds = (due - tick) / wheel.length;
+      wheel[(int)(due & mask)].add(timeout);
+    }
+  }
+
+  private void expire(Bucket bucket) {
+    Timeout timeout = bucket.head;
+    while (timeout != null) {
+      if (timeout.rounds > 0) {
+        timeout.rounds--;
+        timeout = timeout.next;
+        continue;
+      }
+      Timeout next = bucket.remove(timeout);
+      if (timeout.compareAndSet(PENDING, EXPIRED)) {
+        pending.decrementAndGet();
+        run(timeout.task);
+      }
+      timeout = next;
+    }
+  }
+
+  private void run(Runnable task) {
+    try {
+      if (executor == null) {
+        task.run();
+      } else {
+        executor.execute(task);
+      }
+    } catch (Throwable e) {
+      X_Log.error(getClass(), "Timeout failed", task, e);
+    }
+  }
+
+}
@@ -0,0 +1,691 @@
+package xapi.jre.process;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import xapi.annotation.process.Blocking;
+import xapi.annotation.process.ManyToOne;
+import xapi.annotation.process.OneToMany;
+import xapi.annotation.process.OneToOne;
+import xapi.annotation.process.RunParallel;
+import xapi.log.X_Log;
+import xapi.process.api.Process;
+import xapi.process.api.ProcessController;
+import xapi.process.api.StageStats;
+import xapi.process.api.StageStats.Kind;
+import xapi.process.impl.StageCounter;
+import xapi.util.X_Util;
+
+/**
+ * Runs a {@link Process} as a staged dataflow, wired from its methods annotated with
+ * {@link OneToOne}, {@link OneToMany} and {@link ManyToOne}.
+ * <p>
+ * Signals given to the pipeline pass through the stages in order of stage number;
+ * at the same stage number, OneToOne and OneToMany methods run before a ManyToOne.
+ * <ul>
+ * <li>A OneToOne passes on what it returns; a void method passes on the signal it was given,
+ * and a boolean method is called again until it returns false (there is more work),
+ * then passes on its signal.  A null return drops the signal.</li>
+ * <li>A OneToMany returns an Iterable, Iterator or array, and passes on each of its items.</li>
+ * <li>A ManyToOne is called once with every item of the nearest fan-out before it,
+ * as an array or a List, after all of them have arrived or been dropped,
+ * and passes on what it returns (or, if void, the items it was given).
+ * A ManyToOne with no fan-out before it collects every signal given to the pipeline,
+ * once {@link #finish()} is called.</li>
+ * </ul>
+ * A stage parameter of type int receives the signal's index within its fan-out,
+ * a float receives the pipeline's time slice in milliseconds (as for {@link Process#process(float)}),
+ * and any other parameter receives the signal itself.
+ * <p>
+ * Every stage reads from a bounded queue, so a fast stage blocks when the stage after it falls behind,
+ * all the way back to {@link #give(Object)}.
+ * Stages marked {@link RunParallel} (on the method or the process type) are drained by up to
+ * {@link #setParallelism(int)} tasks at once on the shared executor,
+ * but never hold a pool thread while their queue is empty; other stages, and every ManyToOne,
+ * run on a single thread of their own, in arrival order.
+ * {@link Blocking} parallel stages get threads of their own, rather than tying up the shared pool.
+ * <p>
+ * Per-stage counters are available from {@link #getController()}.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class PipelineJre <T> {
+
+  public static final int DEFAULT_CAPACITY = 1024;
+  public static final float DEFAULT_TIME_SLICE = 100;
+
+  private enum Param {
+    Signal, Index, TimeSlice
+  }
+
+  /**
+   * One signal travelling through the pipeline, with its place in the fan-out which produced it.
+   * An envelope with no item tells a ManyToOne that its group is complete.
+   */
+  private final class Envelope {
+    final Object item;
+    final Group group;
+    final int index;
+
+    Envelope(Object item, Group group, int index) {
+      this.item = item;
+      this.group = group;
+      this.index = index;
+    }
+  }
+
+  /**
+   * The items of one fan-out, collected for the ManyToOne which closes it.
+   */
+  private final class Group {
+    final Group parent;
+    final int parentIndex;
+    final Step collector;
+    private final ArrayList<Object> items = new ArrayList<Object>();
+    private int arrived, dropped, expected = -1;
+    private boolean fired;
+
+    Group(Group parent, int parentIndex, Step collector) {
+      this.parent = parent;
+      this.parentIndex = parentIndex;
+      this.collector = collector;
+    }
+
+    void arrive(int index, Object item) {
+      boolean complete;
+      synchronized (this) {
+        while (items.size() <= index) {
+          items.add(null);
+        }
+        items.set(index, item);
+        arrived++;
+        complete = isComplete();
+      }
+      if (complete) {
+        fire();
+      }
+    }
+
+    void drop() {
+      boolean complete;
+      synchronized (this) {
+        dropped++;
+        complete = isComplete();
+      }
+      if (complete) {
+        fire();
+      }
+    }
+
+    void close(int count) {
+      boolean complete;
+      synchronized (this) {
+        expected = count;
+        complete = isComplete();
+      }
+      if (complete) {
+        fire();
+      }
+    }
+
+    private boolean isComplete() {
+      if (fired || collector == null || expected < 0 || arrived + dropped != expected) {
+        return false;
+      }
+      fired = true;
+      return true;
+    }
+
+    private void fire() {
+      inFlight.incrementAndGet();
+      collector.enqueue(new Envelope(null, this, -1));
+    }
+
+    synchronized List<Object> collected() {
+      List<Object> all = new ArrayList<Object>(arrived);
+      for (Object item : items) {
+        if (item != null) {
+          all.add(item);
+        }
+      }
+      return all;
+    }
+  }
+
+  private final class Step implements Runnable {
+    final Method method;
+    final Kind kind;
+    final int position;
+    final Param[] params;
+    final boolean parallel;
+    final boolean blocking;
+    final BlockingQueue<Envelope> queue;
+    final StageCounter stats;
+    final AtomicInteger active = new AtomicInteger();
+    /**
+     * For a OneToMany, the ManyToOne which collects its fan-out, if any.
+     */
+    Step collector;
+
+    Step(Method method, Kind kind, int stage, int position) {
+      this.method = method;
+      this.kind = kind;
+      this.position = position;
+      Class<?> owner = process.getClass();
+      this.parallel = kind != Kind.ManyToOne
+        && (method.getAnnotation(RunParallel.class) != null || owner.getAnnotation(RunParallel.class) != null);
+      this.blocking = method.getAnnotation(Blocking.class) != null;
+      this.queue = new ArrayBlockingQueue<Envelope>(capacity);
+      this.stats = new StageCounter(method.getName(), stage, kind) {
+        @Override
+        public int queued() {
+          return queue.size();
+        }
+      };
+      Class<?>[] types = method.getParameterTypes();
+      params = new Param[types.length];
+      for (int i = 0; i < types.length; i++) {
+        if (types[i] == int.class) {
+          params[i] = Param.Index;
+        } else if (types[i] == float.class) {
+          params[i] = Param.TimeSlice;
+        } else {
+          params[i] = Param.Signal;
+          if (kind == Kind.ManyToOne && !types[i].isArray() && !types[i].isAssignableFrom(ArrayList.class)) {
+            throw new IllegalArgumentException("ManyToOne stage " + method
+              + " must accept its signals as an array or a List, not " + types[i]);
+          }
+        }
+      }
+      // harmless when the method is already accessible
+      method.setAccessible(true);
+    }
+
+    void enqueue(Envelope envelope) {
+      try {
+        queue.put(envelope);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw X_Util.rethrow(e);
+      }
+      if (parallel && !blocking) {
+        schedule();
+      }
+    }
+
+    /**
+     * Starts another drain task, unless this stage is already at full parallelism.
+     */
+    private void schedule() {
+      while (true) {
+        int running = active.get();
+        if (running >= parallelism) {
+          return;
+        }
+        if (active.compareAndSet(running, running + 1)) {
+          executor.execute(this);
+          return;
+        }
+      }
+    }
+
+    /**
+     * Drains our queue on a pooled thread, and returns the thread once the queue is empty.
+     */
+    @Override
+    public void run() {
+      while (true) {
+        Envelope next = queue.poll();
+        if (next == null) {
+          active.decrementAndGet();
+          // an enqueue may have seen us still running just before we quit
+          if (!queue.isEmpty()) {
+            schedule();
+          }
+          return;
+        }
+        process(next);
+      }
+    }
+
+    /**
+     * Runs this stage on a thread of its own until the pipeline shuts down.
+     */
+    void runDedicated() {
+      try {
+        while (!stopped) {
+          Envelope next = queue.poll(100, TimeUnit.MILLISECONDS);
+          if (next != null) {
+            process(next);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    void process(Envelope envelope) {
+      long start = System.nanoTime();
+      int emitted = 0;
+      boolean error = false;
+      // hold the pipeline open until our stats are recorded, even if the signal leaves it in here
+      inFlight.incrementAndGet();
+      try {
+        switch (kind) {
+          case OneToOne:
+            emitted = oneToOne(envelope);
+            break;
+          case OneToMany:
+            emitted = oneToMany(envelope);
+            break;
+          case ManyToOne:
+            emitted = manyToOne(envelope);
+            break;
+        }
+      } catch (Throwable e) {
+        error = true;
+        X_Log.warn(getClass(), "Stage", kind, method, "failed on", envelope.item, e);
+        if (kind == Kind.ManyToOne && envelope.item == null) {
+          // a failed fan-in drops the signal it would have sent to the enclosing fan-out
+          drop(new Envelope(null, envelope.group.parent, envelope.group.parentIndex));
+        } else {
+          drop(envelope);
+        }
+      } finally {
+        stats.record(start, System.nanoTime(), emitted, error);
+        done();
+      }
+    }
+
+    private int oneToOne(Envelope envelope) throws Throwable {
+      Object result = invoke(envelope.item, envelope.index);
+      Class<?> returns = method.getReturnType();
+      if (returns == boolean.class || returns == Boolean.class) {
+        while (Boolean.TRUE.equals(result)) {
+          result = invoke(envelope.item, envelope.index);
+        }
+        result = envelope.item;
+      } else if (returns == void.class) {
+        result = envelope.item;
+      }
+      if (result == null) {
+        drop(envelope);
+        return 0;
+      }
+      route(new Envelope(result, envelope.group, envelope.index), position);
+      return 1;
+    }
+
+    private int oneToMany(Envelope envelope) throws Throwable {
+      Object result = invoke(envelope.item, envelope.index);
+      Group group = new Group(envelope.group, envelope.index, collector);
+      int count = 0;
+      if (result instanceof Iterable) {
+        result = ((Iterable<?>)result).iterator();
+      }
+      if (result instanceof Iterator) {
+        for (Iterator<?> itr = (Iterator<?>)result; itr.hasNext();) {
+          count = emit(itr.next(), group, count);
+        }
+      } else if (result != null && result.getClass().isArray()) {
+        for (int i = 0, m = Array.getLength(result); i < m; i++) {
+          count = emit(Array.get(result, i), group, count);
+        }
+      } else if (result != null) {
+        count = emit(result, group, count);
+      }
+      group.close(count);
+      // the signal we fanned out is replaced by its items
+      done();
+      return count;
+    }
+
+    private int emit(Object item, Group group, int count) {
+      if (item == null) {
+        return count;
+      }
+      inFlight.incrementAndGet();
+      route(new Envelope(item, group, count), position);
+      return count + 1;
+    }
+
+    private int manyToOne(Envelope envelope) throws Throwable {
+      List<Object> items;
+      Group into;
+      int index;
+      if (envelope.item == null) {
+        items = envelope.group.collected();
+        into = envelope.group.parent;
+        index = envelope.group.parentIndex;
+      } else {
+        // a signal which was not part of our fan-out is a fan-out of one
+        items = Collections.singletonList(envelope.item);
+        into = envelope.group;
+        index = envelope.index;
+      }
+      Object collected = null;
+      Object[] args = new Object[params.length];
+      for (int i = 0; i < args.length; i++) {
+        switch (params[i]) {
+          case Index:
+            args[i] = index;
+            break;
+          case TimeSlice:
+            args[i] = timeSlice;
+            break;
+          default:
+            collected = convert(items, method.getParameterTypes()[i]);
+            args[i] = collected;
+        }
+      }
+      Object result = call(args);
+      if (method.getReturnType() == void.class) {
+        result = collected == null ? items : collected;
+      }
+      Envelope out = new Envelope(result, into, index);
+      if (result == null) {
+        drop(out);
+        return 0;
+      }
+      route(out, position);
+      return 1;
+    }
+
+    private Object convert(List<Object> items, Class<?> type) {
+      if (type.isArray()) {
+        Object array = Array.newInstance(type.getComponentType(), items.size());
+        for (int i = 0; i < items.size(); i++) {
+          Array.set(array, i, items.get(i));
+        }
+        return array;
+      }
+      return new ArrayList<Object>(items);
+    }
+
+    private Object invoke(Object item, int index) throws Throwable {
+      Object[] args = new Object[params.length];
+      for (int i = 0; i < args.length; i++) {
+        switch (params[i]) {
+          case Index:
+            args[i] = index;
+            break;
+          case TimeSlice:
+            args[i] = timeSlice;
+            break;
+          default:
+            args[i] = item;
+        }
+      }
+      return call(args);
+    }
+
+    private Object call(Object[] args) throws Throwable {
+      try {
+        return method.invoke(process, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+
+  private final Process<T> process;
+  private final Executor executor;
+  private final List<Step> steps = new ArrayList<Step>();
+  private final Group root;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger given = new AtomicInteger();
+  private final CountDownLatch finished = new CountDownLatch(1);
+  private final List<Thread> threads = new ArrayList<Thread>();
+  private final ProcessController<T> controller;
+
+  private final int capacity;
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+  private float timeSlice = DEFAULT_TIME_SLICE;
+  private volatile boolean started;
+  private volatile boolean closed;
+  private volatile boolean stopped;
+
+  public PipelineJre(Process<T> process, Executor executor) {
+    this(process, executor, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity - How many signals may wait for each stage before the stages before it block.
+   */
+  public PipelineJre(Process<T> process, Executor executor, int capacity) {
+    this.process = process;
+    this.executor = executor;
+    this.capacity = capacity;
+    process.onInit();
+    List<Method> methods = new ArrayList<Method>();
+    for (Method method : process.getClass().getMethods()) {
+      if (!method.isBridge() && !Modifier.isStatic(method.getModifiers()) && stageOf(method) != null) {
+        methods.add(method);
+      }
+    }
+    Collections.sort(methods, new Comparator<Method>() {
+      @Override
+      public int compare(Method a, Method b) {
+        int cmp = stageNumber(a) - stageNumber(b);
+        if (cmp == 0) {
+          // a ManyToOne sees the items of its stage after any OneToOne at the same stage
+          cmp = (kindOf(a) == Kind.ManyToOne ? 1 : 0) - (kindOf(b) == Kind.ManyToOne ? 1 : 0);
+        }
+        return cmp == 0 ? a.getName().compareTo(b.getName()) : cmp;
+      }
+    });
+    // pair every ManyToOne with the nearest unclosed fan-out before it
+    List<Step> open = new ArrayList<Step>();
+    Step rootCollector = null;
+    for (Method method : methods) {
+      Step step = new Step(method, kindOf(method), stageNumber(method), steps.size());
+      steps.add(step);
+      if (step.kind == Kind.OneToMany) {
+        open.add(step);
+      } else if (step.kind == Kind.ManyToOne) {
+        if (!open.isEmpty()) {
+          open.remove(open.size() - 1).collector = step;
+        } else if (rootCollector == null) {
+          rootCollector = step;
+        }
+      }
+    }
+    root = new Group(null, 0, rootCollector);
+    StageStats[] stats = new StageStats[steps.size()];
+    for (int i = 0; i < stats.length; i++) {
+      stats[i] = steps.get(i).stats;
+    }
+    controller = new ProcessController<T>(process, stats);
+  }
+
+  private static Annotation stageOf(Method method) {
+    Annotation stage = find(method, OneToOne.class);
+    if (stage == null) {
+      stage = find(method, OneToMany.class);
+    }
+    if (stage == null) {
+      stage = find(method, ManyToOne.class);
+    }
+    return stage;
+  }
+
+  /**
+   * Finds a stage annotation on the method, or on any method it overrides,
+   * since overriding {@link xapi.process.impl.AbstractProcess#process(float)} should not remove its stage.
+   */
+  private static <A extends Annotation> A find(Method method, Class<A> type) {
+    A found = method.getAnnotation(type);
+    for (Class<?> cls = method.getDeclaringClass().getSuperclass(); found == null && cls != null; cls = cls.getSuperclass()) {
+      try {
+        found = cls.getDeclaredMethod(method.getName(), method.getParameterTypes()).getAnnotation(type);
+      } catch (NoSuchMethodException ignored) {
+      }
+    }
+    return found;
+  }
+
+  private static Kind kindOf(Method method) {
+    Annotation stage = stageOf(method);
+    return stage instanceof OneToOne ? Kind.OneToOne : stage instanceof OneToMany ? Kind.OneToMany : Kind.ManyToOne;
+  }
+
+  private static int stageNumber(Method method) {
+    Annotation stage = stageOf(method);
+    if (stage instanceof OneToOne) {
+      return ((OneToOne)stage).stage();
+    }
+    if (stage instanceof OneToMany) {
+      return ((OneToMany)stage).stage();
+    }
+    return ((ManyToOne)stage).stage();
+  }
+
+  public void setParallelism(int parallelism) {
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  /**
+   * @param millis - The budget passed to any float parameter of a stage.
+   */
+  public void setTimeSlice(float millis) {
+    this.timeSlice = millis;
+  }
+
+  public ProcessController<T> getController() {
+    return controller;
+  }
+
+  /**
+   * Starts the threads of our serial and blocking stages; called for you by the first {@link #give(Object)}.
+   *
+   * @return false if the process refused to start.
+   */
+  public synchronized boolean start() {
+    if (started) {
+      return true;
+    }
+    if (!process.onStart()) {
+      return false;
+    }
+    started = true;
+    for (final Step step : steps) {
+      int count = !step.parallel ? 1 : step.blocking ? parallelism : 0;
+      for (int i = 0; i < count; i++) {
+        Thread thread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            step.runDedicated();
+          }
+        }, "xapi-pipeline-" + step.method.getName() + (count > 1 ? "-" + i : ""));
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Sends a signal into the first stage, blocking while that stage is full.
+   */
+  public void give(Object signal) {
+    if (signal == null) {
+      return;
+    }
+    if (closed) {
+      throw new IllegalStateException("Pipeline for " + process + " is already finished");
+    }
+    if (!started && !start()) {
+      throw new IllegalStateException("Process " + process + " refused to start");
+    }
+    inFlight.incrementAndGet();
+    route(new Envelope(signal, root, given.getAndIncrement()), -1);
+  }
+
+  /**
+   * Tells the pipeline that no more signals will be given;
+   * any ManyToOne which collects the whole input runs once every signal reaches it.
+   */
+  public void finish() {
+    if (!started) {
+      start();
+    }
+    root.close(given.get());
+    closed = true;
+    if (inFlight.get() == 0) {
+      complete();
+    }
+  }
+
+  /**
+   * Waits for every signal to leave the pipeline, after {@link #finish()}.
+   *
+   * @return true if the pipeline drained before the timeout.
+   */
+  public boolean await(long millis) throws InterruptedException {
+    return finished.await(millis, TimeUnit.MILLISECONDS);
+  }
+
+  public boolean isFinished() {
+    return finished.getCount() == 0;
+  }
+
+  private void route(Envelope envelope, int from) {
+    int next = from + 1;
+    if (next == steps.size()) {
+      done();
+      return;
+    }
+    Step step = steps.get(next);
+    Group group = envelope.group;
+    if (step.kind == Kind.ManyToOne && group != null && group.collector == step) {
+      // arrivals are stored in their group; the collector only runs once the group is complete
+      group.arrive(envelope.index, envelope.item);
+      done();
+    } else {
+      step.enqueue(envelope);
+    }
+  }
+
+  private void drop(Envelope envelope) {
+    Group group = envelope.group;
+    if (group != null && group.collector != null) {
+      group.drop();
+    }
+    done();
+  }
+
+  private void done() {
+    if (inFlight.decrementAndGet() == 0 && closed) {
+      complete();
+    }
+  }
+
+  private void complete() {
+    synchronized (this) {
+      if (stopped) {
+        return;
+      }
+      stopped = true;
+    }
+    process.onStop();
+    process.onDestroy();
+    finished.countDown();
+  }
+
+}
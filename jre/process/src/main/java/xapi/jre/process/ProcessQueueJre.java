@@ -0,0 +1,53 @@
+package xapi.jre.process;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import xapi.process.impl.ProcessQueueAbstract;
+
+/**
+ * The jre {@link ProcessQueueAbstract}, which can also park its waiting threads.
+ * <p>
+ * By default it is growable, and waits with {@link #PARK}.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ * @param <T> - The type of item stored in the queue
+ */
+public class ProcessQueueJre <T> extends ProcessQueueAbstract<T> {
+
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /**
+   * Spins, then yields, then parks for longer and longer (up to a millisecond) between each look.
+   * Producers never need to wake anyone, so offers cost nothing extra; the price is up to a millisecond
+   * of latency for a consumer which has been idle for a while.
+   */
+  public static final WaitStrategy PARK = new WaitStrategy() {
+    @Override
+    public void idle(int round) {
+      if (round < SPIN_ROUNDS) {
+        return;
+      }
+      if (round < 2 * SPIN_ROUNDS) {
+        Thread.yield();
+        return;
+      }
+      int backoff = Math.min(round - 2 * SPIN_ROUNDS, 10);
+      LockSupport.parkNanos(this, Math.min(1000L << backoff, MAX_PARK_NANOS));
+    }
+  };
+
+  public ProcessQueueJre() {
+    this(DEFAULT_CAPACITY, true);
+  }
+
+  public ProcessQueueJre(int capacity, boolean growable) {
+    this(capacity, growable, PARK);
+  }
+
+  public ProcessQueueJre(int capacity, boolean growable, WaitStrategy waitStrategy) {
+    super(capacity, growable, waitStrategy);
+  }
+
+}
@@ -0,0 +1,146 @@
+package xapi.jre.process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import xapi.log.X_Log;
+import xapi.process.api.ListenableFuture;
+import xapi.util.api.RemovalHandler;
+
+/**
+ * A {@link ListenableFuture} completed by calling {@link #set(Object)} or {@link #setException(Throwable)}.
+ * <p>
+ * Only the first completion counts; later calls return false.
+ * Listeners run on the completing thread, in the order they were added.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class SettableFuture <T> implements ListenableFuture<T> {
+
+  private final CountDownLatch done = new CountDownLatch(1);
+  private List<Runnable> listeners = new ArrayList<Runnable>();
+  private T value;
+  private Throwable failure;
+  private boolean cancelled;
+
+  public boolean set(T value) {
+    List<Runnable> toRun;
+    synchronized (this) {
+      if (listeners == null) {
+        return false;
+      }
+      this.value = value;
+      toRun = listeners;
+      listeners = null;
+    }
+    complete(toRun);
+    return true;
+  }
+
+  public boolean setException(Throwable failure) {
+    List<Runnable> toRun;
+    synchronized (this) {
+      if (listeners == null) {
+        return false;
+      }
+      this.failure = failure;
+      toRun = listeners;
+      listeners = null;
+    }
+    complete(toRun);
+    return true;
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    List<Runnable> toRun;
+    synchronized (this) {
+      if (listeners == null) {
+        return false;
+      }
+      cancelled = true;
+      toRun = listeners;
+      listeners = null;
+    }
+    complete(toRun);
+    return true;
+  }
+
+  /**
+   * Runs the listeners, which the caller took, and nulled, in the same lock in which it completed us,
+   * so that only one completion ever wins.
+   */
+  private void complete(List<Runnable> toRun) {
+    done.countDown();
+    for (Runnable listener : toRun) {
+      try {
+        listener.run();
+      } catch (Throwable e) {
+        X_Log.error(getClass(), "Listener", listener, "failed", e);
+      }
+    }
+  }
+
+  @Override
+  public RemovalHandler addListener(final Runnable listener) {
+    synchronized (this) {
+      if (listeners != null) {
+        listeners.add(listener);
+        return new RemovalHandler() {
+          @Override
+          public void remove() {
+            synchronized (SettableFuture.this) {
+              if (listeners != null) {
+                listeners.remove(listener);
+              }
+            }
+          }
+        };
+      }
+    }
+    listener.run();
+    return RemovalHandler.DoNothing;
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  @Override
+  public boolean isDone() {
+    return done.getCount() == 0;
+  }
+
+  @Override
+  public T get() throws InterruptedException, ExecutionException {
+    done.await();
+    return report();
+  }
+
+  @Override
+  public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+    TimeoutException {
+    if (!done.await(timeout, unit)) {
+      throw new TimeoutException();
+    }
+    return report();
+  }
+
+  private synchronized T report() throws ExecutionException {
+    if (cancelled) {
+      throw new CancellationException();
+    }
+    if (failure != null) {
+      throw new ExecutionException(failure);
+    }
+    return value;
+  }
+
+}
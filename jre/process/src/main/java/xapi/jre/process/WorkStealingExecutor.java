@@ -0,0 +1,559 @@
+package xapi.jre.process;
+
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import xapi.annotation.inject.SingletonOverride;
+import xapi.log.X_Log;
+import xapi.platform.JrePlatform;
+import xapi.process.api.ConcurrentEnvironment.Priority;
+import xapi.time.api.Blocking;
+import xapi.util.X_Namespace;
+
+/**
+ * A bounded, work-stealing thread pool, used by {@link ConcurrencyServiceJre},
+ * {@link xapi.time.X_Time#runLater(Runnable)} and X_IO, instead of a new thread per command.
+ * <p>
+ * Each worker owns a deque; commands submitted from a worker go on the front of its own deque,
+ * and idle workers steal from the back of everyone else's.  Commands submitted from other threads
+ * go in a shared queue per {@link Priority}.  A worker looking for work checks, in order:
+ * <ol>
+ * <li>the heads of the medium and low queues, taking any command that has waited long enough
+ * to be aged past everything else, so that nothing starves</li>
+ * <li>its own deque (a thread that forks work usually wants to continue it)</li>
+ * <li>the high priority queue</li>
+ * <li>the medium queue, then the deques of other workers, then the low queue</li>
+ * </ol>
+ * We start at most {@link #getParallelism()} workers on demand, and retire them when they stay idle.
+ * If every worker is busy (or blocked) while commands wait too long, we add workers, up to
+ * {@link #getMaxThreads()}.
+ * <p>
+ * Commands which may block for a long time, like draining a stream, go through
+ * {@link #executeBlocking(Runnable)} (or implement {@link Blocking}); each one raises the number
+ * of workers we may start by one, for as long as it is queued or running, so it never takes
+ * a worker away from everything else.
+ * <p>
+ * Workers are daemons; a shutdown hook gives queued commands up to
+ * {@link X_Namespace#PROPERTY_THREADS_DRAIN_MILLIS} to finish before the jvm exits.
+ * <p>
+ * When {@link X_Namespace#PROPERTY_VIRTUAL_THREADS} is true and the jdk supports virtual threads,
+ * every command gets its own virtual thread instead.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+@JrePlatform
+@SingletonOverride(implFor=Executor.class)
+public class WorkStealingExecutor implements Executor {
+
+  public static final int DEFAULT_MAX_THREADS = 64;
+
+  private static final int MAX_THREADS_LIMIT = 0x7fff;
+
+  /**
+   * How long a queued command waits before it is aged up one priority.
+   */
+  private static final long AGING_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  /**
+   * How long the oldest command may wait, with no idle workers, before we add a worker.
+   */
+  private static final long STARVING_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /**
+   * How long an idle worker waits for work before it retires.
+   */
+  private static final long KEEP_ALIVE_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+  /**
+   * How long the shutdown hook waits for queued commands, unless told otherwise.
+   */
+  private static final long DEFAULT_DRAIN_MILLIS = 5000;
+
+  /**
+   * The first ring of each shared queue; they grow as needed.
+   */
+  private static final int SHARED_CAPACITY = 256;
+
+  private static final int HIGH = Priority.High.ordinal();
+  private static final int MEDIUM = Priority.Medium.ordinal();
+  private static final int LOW = Priority.Low.ordinal();
+
+  private static final class Task {
+    final Runnable command;
+    final boolean blocking;
+    final long queued = System.nanoTime();
+
+    Task(Runnable command, boolean blocking) {
+      this.command = command;
+      this.blocking = blocking;
+    }
+  }
+
+  private static final class WorkerThread extends Thread {
+    final Worker worker;
+
+    WorkerThread(Worker worker, String name) {
+      super(worker, name);
+      this.worker = worker;
+      setDaemon(true);
+    }
+  }
+
+  private final class Worker implements Runnable {
+    final ConcurrentLinkedDeque<Task> local = new ConcurrentLinkedDeque<Task>();
+    final AtomicBoolean waiting = new AtomicBoolean();
+    final int slot;
+    Thread thread;
+
+    Worker(int slot) {
+      this.slot = slot;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Task task = findWork(this);
+          if (task == null) {
+            task = await(this);
+            if (task == null) {
+              return;
+            }
+          }
+          runTask(task);
+        }
+      } finally {
+        retire(this);
+      }
+    }
+
+    WorkStealingExecutor pool() {
+      return WorkStealingExecutor.this;
+    }
+  }
+
+  private final int parallelism;
+  private final int maxThreads;
+  private final Method startVirtual;
+  private final Object virtualBuilder;
+
+  private final ProcessQueueJre<Task>[] shared;
+  private final AtomicReferenceArray<Worker> workers;
+  private final ConcurrentLinkedQueue<Worker> idle = new ConcurrentLinkedQueue<Worker>();
+  private final AtomicInteger live = new AtomicInteger();
+  private final AtomicInteger ids = new AtomicInteger();
+  private final AtomicBoolean sentinelRunning = new AtomicBoolean();
+  private final AtomicBoolean hooked = new AtomicBoolean();
+  /**
+   * Commands queued or running on our workers, and how many of those may block.
+   */
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicInteger blocking = new AtomicInteger();
+
+  /**
+   * Creates a pool sized from the system properties; {@link X_Namespace#PROPERTY_MULTITHREADED}
+   * limits the total number of threads, and {@link X_Namespace#PROPERTY_VIRTUAL_THREADS}
+   * asks for virtual threads.
+   */
+  public WorkStealingExecutor() {
+    this(Runtime.getRuntime().availableProcessors(),
+      maxThreadsProperty(),
+      "true".equals(System.getProperty(X_Namespace.PROPERTY_VIRTUAL_THREADS)));
+  }
+
+  public WorkStealingExecutor(int parallelism, int maxThreads, boolean virtual) {
+    this.maxThreads = Math.max(1, Math.min(maxThreads, MAX_THREADS_LIMIT));
+    this.parallelism = Math.max(1, Math.min(parallelism, this.maxThreads));
+    // we only ever put ProcessQueueJre<Task>s in this array
+    @SuppressWarnings("unchecked")
+    ProcessQueueJre<Task>[] shared = (ProcessQueueJre<Task>[])new ProcessQueueJre<?>[Priority.values().length];
+    this.shared = shared;
+    for (int i = 0; i < shared.length; i++) {
+      shared[i] = new ProcessQueueJre<Task>(SHARED_CAPACITY, true);
+    }
+    this.workers = new AtomicReferenceArray<Worker>(this.maxThreads);
+    Object builder = null;
+    Method start = null;
+    if (virtual) {
+      try {
+        builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        start = Class.forName("java.lang.Thread$Builder").getMethod("start", Runnable.class);
+      } catch (Exception e) {
+        X_Log.info(getClass(), "Virtual threads are not supported by this jdk; using pooled threads");
+        builder = null;
+        start = null;
+      }
+    }
+    this.virtualBuilder = builder;
+    this.startVirtual = start;
+  }
+
+  private static int maxThreadsProperty() {
+    String max = System.getProperty(X_Namespace.PROPERTY_MULTITHREADED);
+    if (max != null) {
+      try {
+        return Integer.parseInt(max.trim());
+      } catch (NumberFormatException ignored) {
+        // any non-integer value simply enables multithreading
+      }
+    }
+    return DEFAULT_MAX_THREADS;
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    execute(command, Priority.Medium);
+  }
+
+  public void execute(Runnable command, Priority priority) {
+    if (command instanceof Blocking) {
+      executeBlocking(command);
+      return;
+    }
+    if (command == null) {
+      throw new NullPointerException("Cannot execute a null command");
+    }
+    if (startVirtual(command)) {
+      return;
+    }
+    Task task = new Task(command, false);
+    pending.incrementAndGet();
+    Thread current = Thread.currentThread();
+    if (priority == Priority.Medium && current instanceof WorkerThread
+        && ((WorkerThread) current).worker.pool() == this) {
+      ((WorkerThread) current).worker.local.addFirst(task);
+    } else {
+      shared[priority.ordinal()].add(task);
+    }
+    signalWork();
+  }
+
+  /**
+   * Runs a command which may block for a long time, like a stream drain or a shell session.
+   * <p>
+   * It is queued at high priority, so it starts promptly, and until it finishes
+   * we may start one more worker than we otherwise would, up to {@link #getMaxThreads()}.
+   */
+  public void executeBlocking(Runnable command) {
+    if (command == null) {
+      throw new NullPointerException("Cannot execute a null command");
+    }
+    if (startVirtual(command)) {
+      return;
+    }
+    blocking.incrementAndGet();
+    pending.incrementAndGet();
+    shared[HIGH].add(new Task(command, true));
+    signalWork();
+  }
+
+  private boolean startVirtual(Runnable command) {
+    if (startVirtual != null) {
+      try {
+        startVirtual.invoke(virtualBuilder, command);
+        return true;
+      } catch (Exception e) {
+        X_Log.warn(getClass(), "Unable to start virtual thread; using pooled threads", e);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Waits until every command queued on our workers, other than those which may block
+   * for as long as they like, has finished.
+   *
+   * @return true if we are idle, false if we ran out of time first.
+   */
+  public boolean flush(long millis) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    while (pending.get() > blocking.get()) {
+      if (deadline - System.nanoTime() <= 0) {
+        return false;
+      }
+      LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    return true;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  /**
+   * @return The number of live worker threads.
+   */
+  public int getPoolSize() {
+    return live.get();
+  }
+
+  public boolean isVirtual() {
+    return startVirtual != null;
+  }
+
+  private void signalWork() {
+    for (Worker w; (w = idle.poll()) != null;) {
+      if (w.waiting.compareAndSet(true, false)) {
+        LockSupport.unpark(w.thread);
+        return;
+      }
+    }
+    spawn(parallelism + blocking.get());
+  }
+
+  private boolean spawn(int limit) {
+    while (true) {
+      int count = live.get();
+      if (count >= limit) {
+        return false;
+      }
+      if (live.compareAndSet(count, count + 1)) {
+        break;
+      }
+    }
+    // A retiring worker frees its slot before it decrements live, so there is always a free slot.
+    for (int i = 0; i < maxThreads; i++) {
+      if (workers.get(i) == null) {
+        Worker worker = new Worker(i);
+        if (workers.compareAndSet(i, null, worker)) {
+          worker.thread = new WorkerThread(worker, "xapi-worker-" + ids.incrementAndGet());
+          worker.thread.start();
+          startSentinel();
+          addShutdownHook();
+          return true;
+        }
+      }
+    }
+    live.decrementAndGet();
+    return false;
+  }
+
+  private Task findWork(Worker worker) {
+    long now = System.nanoTime();
+    for (int priority = MEDIUM; priority <= LOW; priority++) {
+      Task head = shared[priority].peek();
+      if (head != null && now - head.queued > AGING_NANOS * priority) {
+        // anything behind the head is younger, so whichever task we get is as good as the one we saw
+        Task task = shared[priority].poll();
+        if (task != null) {
+          return task;
+        }
+      }
+    }
+    Task task = worker.local.pollFirst();
+    if (task != null) {
+      return task;
+    }
+    task = shared[HIGH].poll();
+    if (task != null) {
+      return task;
+    }
+    task = shared[MEDIUM].poll();
+    if (task != null) {
+      return task;
+    }
+    task = steal(worker);
+    if (task != null) {
+      return task;
+    }
+    return shared[LOW].poll();
+  }
+
+  private Task steal(Worker thief) {
+    int start = ThreadLocalRandom.current().nextInt(maxThreads);
+    for (int i = 0; i < maxThreads; i++) {
+      Worker victim = workers.get((start + i) % maxThreads);
+      if (victim != null && victim != thief) {
+        Task task = victim.local.pollLast();
+        if (task != null) {
+          return task;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Parks an idle worker until it is signalled, or until it has been idle long enough to retire.
+   *
+   * @return The next task, or null if the worker should retire.
+   */
+  private Task await(Worker worker) {
+    while (true) {
+      worker.waiting.set(true);
+      idle.add(worker);
+      // Check again, now that we are visible to submitters, so we cannot miss a signal.
+      Task task = findWork(worker);
+      if (task != null) {
+        if (worker.waiting.compareAndSet(true, false)) {
+          idle.remove(worker);
+        } else {
+          // we were signalled for a task we did not take; pass the signal on.
+          signalWork();
+        }
+        return task;
+      }
+      long deadline = System.nanoTime() + KEEP_ALIVE_NANOS;
+      while (worker.waiting.get()) {
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+          break;
+        }
+        LockSupport.parkNanos(this, left);
+        Thread.interrupted();
+      }
+      if (worker.waiting.compareAndSet(true, false)) {
+        // Nobody signalled us; retire.
+        idle.remove(worker);
+        return null;
+      }
+      task = findWork(worker);
+      if (task != null) {
+        return task;
+      }
+      // our signal was for a task some other worker already took; wait again
+    }
+  }
+
+  private void retire(Worker worker) {
+    workers.compareAndSet(worker.slot, worker, null);
+    live.decrementAndGet();
+    // Someone may have submitted work after our last look, but before we left.
+    if (hasQueuedWork()) {
+      signalWork();
+    }
+  }
+
+  private boolean hasQueuedWork() {
+    for (ProcessQueueJre<Task> queue : shared) {
+      if (!queue.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void runTask(Task task) {
+    try {
+      task.command.run();
+    } catch (Throwable e) {
+      Thread thread = Thread.currentThread();
+      UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+      try {
+        handler.uncaughtException(thread, e);
+      } catch (Throwable ignored) {
+      }
+    } finally {
+      if (task.blocking) {
+        blocking.decrementAndGet();
+      }
+      pending.decrementAndGet();
+      // do not leak an interrupt meant for this command into the next one
+      Thread.interrupted();
+    }
+  }
+
+  /**
+   * Our workers are daemons, so they do not hold the jvm open once main returns;
+   * instead, we give queued commands a bounded time to finish as the jvm shuts down.
+   */
+  private void addShutdownHook() {
+    if (!hooked.compareAndSet(false, true)) {
+      return;
+    }
+    final long millis = drainMillisProperty();
+    if (millis <= 0) {
+      return;
+    }
+    try {
+      Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          flush(millis);
+        }
+      }, "xapi-worker-drain"));
+    } catch (IllegalStateException e) {
+      // already shutting down
+    }
+  }
+
+  private static long drainMillisProperty() {
+    String millis = System.getProperty(X_Namespace.PROPERTY_THREADS_DRAIN_MILLIS);
+    if (millis != null) {
+      try {
+        return Long.parseLong(millis.trim());
+      } catch (NumberFormatException ignored) {
+      }
+    }
+    return DEFAULT_DRAIN_MILLIS;
+  }
+
+  /**
+   * Starts the thread which adds workers past our parallelism when every worker is busy
+   * (or blocked) and queued commands are starving.  It stops when the pool is empty.
+   */
+  private void startSentinel() {
+    if (parallelism == maxThreads || !sentinelRunning.compareAndSet(false, true)) {
+      return;
+    }
+    Thread sentinel = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (true) {
+          LockSupport.parkNanos(this, STARVING_NANOS);
+          if (live.get() == 0) {
+            sentinelRunning.set(false);
+            if (live.get() == 0 || !sentinelRunning.compareAndSet(false, true)) {
+              return;
+            }
+          }
+          if (isStarving()) {
+            spawn(maxThreads);
+          }
+        }
+      }
+    }, "xapi-worker-sentinel");
+    sentinel.setDaemon(true);
+    sentinel.start();
+  }
+
+  private boolean isStarving() {
+    for (Worker worker : idle) {
+      if (worker.waiting.get()) {
+        return false;
+      }
+    }
+    long now = System.nanoTime();
+    for (ProcessQueueJre<Task> queue : shared) {
+      Task head = queue.peek();
+      if (head != null && now - head.queued > STARVING_NANOS) {
+        return true;
+      }
+    }
+    for (int i = 0; i < maxThreads; i++) {
+      Worker worker = workers.get(i);
+      if (worker != null) {
+        Task oldest = worker.local.peekLast();
+        if (oldest != null && now - oldest.queued > STARVING_NANOS) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+}
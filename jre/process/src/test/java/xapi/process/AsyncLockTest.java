@@ -0,0 +1,259 @@
+package xapi.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+
+import xapi.jre.process.AsyncLockJre;
+import xapi.jre.process.WorkStealingExecutor;
+import xapi.log.X_Log;
+import xapi.process.api.AsyncCondition;
+import xapi.process.api.AsyncLock;
+import xapi.util.api.ErrorHandler;
+import xapi.util.api.Pair;
+import xapi.util.api.RemovalHandler;
+import xapi.util.api.SuccessHandler;
+
+/**
+ * Checks that {@link AsyncLockJre} is exclusive without blocking callers,
+ * and compares it against threads blocking on a {@link ReentrantLock}.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class AsyncLockTest {
+
+  private static final int WAITERS = 1000;
+
+  private static SuccessHandler<AsyncLock> record(final List<String> log, final String name) {
+    return new SuccessHandler<AsyncLock>() {
+      @Override
+      public void onSuccess(AsyncLock lock) {
+        log.add(name);
+        lock.unlock();
+      }
+    };
+  }
+
+  @Test
+  public void testLockDoesNotBlock() throws Exception {
+    AsyncLockJre lock = new AsyncLockJre(null);
+    List<String> log = new ArrayList<String>();
+    assertTrue(lock.tryLock());
+    assertFalse(lock.tryLock());
+    lock.lock(record(log, "queued"));
+    // we are still here, and the callback is waiting for us
+    assertTrue(log.isEmpty());
+    assertEquals(1, lock.getQueueLength());
+    lock.unlock();
+    assertEquals("[queued]", log.toString());
+    assertFalse(lock.isLocked());
+  }
+
+  @Test
+  public void testFairOrder() throws Exception {
+    AsyncLockJre lock = new AsyncLockJre(null, true);
+    List<String> log = new ArrayList<String>();
+    assertTrue(lock.tryLock());
+    lock.lock(record(log, "a"));
+    lock.lock(record(log, "b"));
+    lock.lock(record(log, "c"));
+    lock.unlock();
+    assertEquals("[a, b, c]", log.toString());
+    assertFalse(lock.isLocked());
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    AsyncLockJre lock = new AsyncLockJre(null);
+    final List<String> log = new ArrayList<String>();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    class Handler implements SuccessHandler<AsyncLock>, ErrorHandler<Throwable> {
+      @Override
+      public void onSuccess(AsyncLock t) {
+        log.add("ran");
+        t.unlock();
+      }
+
+      @Override
+      public void onError(Throwable e) {
+        error.set(e);
+      }
+    }
+    assertTrue(lock.tryLock());
+    RemovalHandler handle = lock.lock(new Handler());
+    handle.remove();
+    assertTrue(error.get() instanceof CancellationException);
+    assertEquals(0, lock.getQueueLength());
+    lock.unlock();
+    assertTrue(log.isEmpty());
+  }
+
+  @Test
+  public void testExclusiveUnderContention() throws Exception {
+    WorkStealingExecutor pool = new WorkStealingExecutor(4, 8, false);
+    final AsyncLockJre lock = new AsyncLockJre(pool);
+    final int[] counter = new int[1];
+    final AtomicInteger inside = new AtomicInteger();
+    final AtomicInteger overlaps = new AtomicInteger();
+    final CountDownLatch latch = new CountDownLatch(WAITERS);
+    for (int i = 0; i < WAITERS; i++) {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          lock.lock(new SuccessHandler<AsyncLock>() {
+            @Override
+            public void onSuccess(AsyncLock t) {
+              if (inside.incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+              }
+              counter[0]++;
+              inside.decrementAndGet();
+              t.unlock();
+              latch.countDown();
+            }
+          });
+        }
+      });
+    }
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertEquals(0, overlaps.get());
+    assertEquals(WAITERS, counter[0]);
+  }
+
+  @Test
+  public void testCondition() throws Exception {
+    AsyncLockJre lock = new AsyncLockJre(null);
+    final AsyncCondition ready = lock.newCondition();
+    final List<String> log = new ArrayList<String>();
+    SuccessHandler<Pair<AsyncLock, AsyncCondition>> waiter = new SuccessHandler<Pair<AsyncLock, AsyncCondition>>() {
+      @Override
+      public void onSuccess(Pair<AsyncLock, AsyncCondition> t) {
+        log.add("woke");
+        assertTrue(((AsyncLockJre)t.get0()).isLocked());
+        t.get0().unlock();
+      }
+    };
+    assertTrue(lock.tryLock());
+    ready.await(waiter);
+    // awaiting released the lock
+    assertFalse(lock.isLocked());
+    assertTrue(lock.tryLock());
+    ready.await(waiter);
+
+    assertTrue(lock.tryLock());
+    assertEquals(2, ready.signalAll());
+    assertFalse(ready.signal());
+    // the woken handlers wait for us to release the lock
+    assertTrue(log.isEmpty());
+    lock.unlock();
+    assertEquals("[woke, woke]", log.toString());
+    assertFalse(lock.isLocked());
+  }
+
+  @Test(expected=IllegalMonitorStateException.class)
+  public void testAwaitNeedsLock() {
+    new AsyncLockJre(null).newCondition().await(new SuccessHandler<Pair<AsyncLock, AsyncCondition>>() {
+      @Override
+      public void onSuccess(Pair<AsyncLock, AsyncCondition> t) {
+      }
+    });
+  }
+
+  @Test
+  public void testAwaitWithDeadline() throws Exception {
+    AsyncLockJre lock = new AsyncLockJre(null);
+    final CountDownLatch latch = new CountDownLatch(1);
+    assertTrue(lock.tryLock());
+    long start = System.nanoTime();
+    lock.newCondition().awaitWithDeadline(new SuccessHandler<Pair<AsyncLock, AsyncCondition>>() {
+      @Override
+      public void onSuccess(Pair<AsyncLock, AsyncCondition> t) {
+        t.get0().unlock();
+        latch.countDown();
+      }
+    }, 20);
+    assertTrue(latch.await(2, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+  }
+
+  @Test
+  public void benchmarkAsyncVsBlocking() throws Exception {
+    // warm up
+    runAsync(false);
+    runBlocking();
+    long unfair = runAsync(false);
+    long fair = runAsync(true);
+    long blocking = runBlocking();
+    X_Log.info(getClass(), WAITERS, "waiters; async unfair:", unfair / 1000000.0, "ms, async fair:",
+      fair / 1000000.0, "ms, blocking:", blocking / 1000000.0, "ms");
+  }
+
+  /**
+   * Holds the lock for a moment, so that waiters pile up behind it.
+   */
+  private static void work() {
+    long until = System.nanoTime() + 20000;
+    while (System.nanoTime() < until) {
+    }
+  }
+
+  private long runAsync(boolean fair) throws InterruptedException {
+    WorkStealingExecutor pool = new WorkStealingExecutor(4, 64, false);
+    final AsyncLockJre lock = new AsyncLockJre(pool, fair);
+    final CountDownLatch latch = new CountDownLatch(WAITERS);
+    long start = System.nanoTime();
+    for (int i = 0; i < WAITERS; i++) {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          lock.lock(new SuccessHandler<AsyncLock>() {
+            @Override
+            public void onSuccess(AsyncLock t) {
+              work();
+              t.unlock();
+              latch.countDown();
+            }
+          });
+        }
+      });
+    }
+    assertTrue(latch.await(30, TimeUnit.SECONDS));
+    return System.nanoTime() - start;
+  }
+
+  private long runBlocking() throws InterruptedException {
+    WorkStealingExecutor pool = new WorkStealingExecutor(4, 64, false);
+    final ReentrantLock lock = new ReentrantLock();
+    final CountDownLatch latch = new CountDownLatch(WAITERS);
+    long start = System.nanoTime();
+    for (int i = 0; i < WAITERS; i++) {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          lock.lock();
+          try {
+            work();
+          } finally {
+            lock.unlock();
+          }
+          latch.countDown();
+        }
+      });
+    }
+    assertTrue(latch.await(30, TimeUnit.SECONDS));
+    return System.nanoTime() - start;
+  }
+
+}
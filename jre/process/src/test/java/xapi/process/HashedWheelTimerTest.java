@@ -0,0 +1,250 @@
+package xapi.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import xapi.jre.process.HashedWheelTimer;
+import xapi.jre.process.SettableFuture;
+import xapi.log.X_Log;
+import xapi.util.api.ReceivesValue;
+import xapi.util.api.RemovalHandler;
+
+/**
+ * Checks {@link HashedWheelTimer}, and the timeouts and future callbacks of {@link X_Process} built on it.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class HashedWheelTimerTest {
+
+  @Test
+  public void testRunsAfterDelay() throws Exception {
+    HashedWheelTimer timer = new HashedWheelTimer(null);
+    final CountDownLatch latch = new CountDownLatch(1);
+    final long[] ranAt = new long[1];
+    long start = System.nanoTime();
+    timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        ranAt[0] = System.nanoTime();
+        latch.countDown();
+      }
+    }, 20);
+    assertTrue(latch.await(2, TimeUnit.SECONDS));
+    assertTrue("Ran early", ranAt[0] - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    assertEquals(0, timer.pending());
+    timer.stop();
+  }
+
+  @Test
+  public void testDelaysLongerThanOneTurn() throws Exception {
+    // 8 ticks of 1ms per turn of the wheel
+    HashedWheelTimer timer = new HashedWheelTimer(null, 1, 8);
+    final CountDownLatch latch = new CountDownLatch(3);
+    final AtomicInteger order = new AtomicInteger();
+    final int[] ran = new int[3];
+    int[] delays = {30, 5, 17};
+    for (int i = 0; i < delays.length; i++) {
+      final int index = i;
+      timer.schedule(new Runnable() {
+        @Override
+        public void run() {
+          ran[index] = order.incrementAndGet();
+          latch.countDown();
+        }
+      }, delays[i]);
+    }
+    assertTrue(latch.await(2, TimeUnit.SECONDS));
+    assertEquals(3, ran[0]);
+    assertEquals(1, ran[1]);
+    assertEquals(2, ran[2]);
+    timer.stop();
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    HashedWheelTimer timer = new HashedWheelTimer(null);
+    final AtomicInteger ran = new AtomicInteger();
+    Runnable count = new Runnable() {
+      @Override
+      public void run() {
+        ran.incrementAndGet();
+      }
+    };
+    RemovalHandler cancelled = timer.schedule(count, 10);
+    final CountDownLatch latch = new CountDownLatch(1);
+    timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    }, 30);
+    cancelled.remove();
+    assertEquals(1, timer.pending());
+    assertTrue(latch.await(2, TimeUnit.SECONDS));
+    assertEquals(0, ran.get());
+    timer.stop();
+  }
+
+  @Test
+  public void testRunTimeout() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    X_Process.runTimeout(new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    }, 5);
+    assertTrue(latch.await(2, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testResolveListenableFuture() throws Exception {
+    SettableFuture<String> future = new SettableFuture<String>();
+    final AtomicReference<String> result = new AtomicReference<String>();
+    X_Process.block(future, new ReceivesValue<String>() {
+      @Override
+      public void set(String value) {
+        result.set(value);
+      }
+    });
+    assertEquals(null, result.get());
+    future.set("done");
+    // listeners run on the completing thread, so there is nothing to wait for
+    assertEquals("done", result.get());
+  }
+
+  @Test
+  public void testResolvePolledFuture() throws Exception {
+    final FutureTask<String> future = new FutureTask<String>(new Runnable() {
+      @Override
+      public void run() {
+      }
+    }, "polled");
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicReference<String> result = new AtomicReference<String>();
+    X_Process.block(future, new ReceivesValue<String>() {
+      @Override
+      public void set(String value) {
+        result.set(value);
+        latch.countDown();
+      }
+    });
+    Thread.sleep(10);
+    assertFalse(future.isDone());
+    future.run();
+    assertTrue(latch.await(2, TimeUnit.SECONDS));
+    assertEquals("polled", result.get());
+  }
+
+  @Test
+  public void testCancelResolve() throws Exception {
+    SettableFuture<String> future = new SettableFuture<String>();
+    final AtomicReference<String> result = new AtomicReference<String>();
+    RemovalHandler handle = X_Process.block(future, new ReceivesValue<String>() {
+      @Override
+      public void set(String value) {
+        result.set(value);
+      }
+    });
+    handle.remove();
+    future.set("ignored");
+    assertEquals(null, result.get());
+  }
+
+  @Test
+  public void testOnlyOneCompletionWins() throws Exception {
+    final int threads = 4;
+    for (int round = 0; round < 2000; round++) {
+      final SettableFuture<Integer> future = new SettableFuture<Integer>();
+      final AtomicInteger listened = new AtomicInteger();
+      future.addListener(new Runnable() {
+        @Override
+        public void run() {
+          listened.incrementAndGet();
+        }
+      });
+      final CountDownLatch start = new CountDownLatch(1);
+      final AtomicInteger winners = new AtomicInteger();
+      final AtomicReference<Integer> winner = new AtomicReference<Integer>();
+      final AtomicReference<Throwable> failed = new AtomicReference<Throwable>();
+      Thread[] racers = new Thread[threads];
+      for (int i = 0; i < threads; i++) {
+        final int value = i;
+        racers[i] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              start.await();
+              boolean won = value % 2 == 0 ? future.set(value) : future.setException(new Exception("" + value));
+              if (won) {
+                winners.incrementAndGet();
+                winner.set(value);
+              }
+            } catch (Throwable e) {
+              failed.set(e);
+            }
+          }
+        };
+        racers[i].start();
+      }
+      start.countDown();
+      for (Thread racer : racers) {
+        racer.join();
+      }
+      assertEquals(null, failed.get());
+      assertEquals(1, winners.get());
+      assertEquals(1, listened.get());
+      int value = winner.get();
+      try {
+        assertEquals(value, (int)future.get());
+        assertEquals(0, value % 2);
+      } catch (ExecutionException e) {
+        assertEquals("" + value, e.getCause().getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void benchmarkScheduleAndCancel() throws Exception {
+    int count = 200000;
+    HashedWheelTimer timer = new HashedWheelTimer(null);
+    Runnable noop = new Runnable() {
+      @Override
+      public void run() {
+      }
+    };
+    RemovalHandler[] handles = new RemovalHandler[count];
+    // warm up
+    for (int i = 0; i < count; i++) {
+      handles[i] = timer.schedule(noop, 60000 + i);
+    }
+    for (int i = 0; i < count; i++) {
+      handles[i].remove();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      handles[i] = timer.schedule(noop, 60000 + i);
+    }
+    long scheduled = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      handles[i].remove();
+    }
+    long cancelled = System.nanoTime();
+    assertEquals(0, timer.pending());
+    X_Log.info(getClass(), count, "timeouts scheduled in", (scheduled - start) / 1000000.0, "ms, cancelled in",
+      (cancelled - scheduled) / 1000000.0, "ms");
+    timer.stop();
+  }
+
+}
@@ -0,0 +1,210 @@
+package xapi.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import xapi.annotation.process.ManyToOne;
+import xapi.annotation.process.OneToMany;
+import xapi.annotation.process.OneToOne;
+import xapi.annotation.process.RunParallel;
+import xapi.jre.process.PipelineJre;
+import xapi.jre.process.WorkStealingExecutor;
+import xapi.log.X_Log;
+import xapi.process.api.StageStats;
+import xapi.process.impl.AbstractProcess;
+
+/**
+ * Checks the dataflow of {@link PipelineJre}, and compares serial against parallel stages.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class PipelineTest {
+
+  private static final WorkStealingExecutor pool = new WorkStealingExecutor(4, 8, false);
+
+  /**
+   * Splits words into letters, upper-cases each letter, joins them back into words,
+   * then collects every word given to the pipeline.
+   */
+  public static class Words extends AbstractProcess<String> {
+
+    final List<String> result = Collections.synchronizedList(new ArrayList<String>());
+
+    @OneToMany(stage=1)
+    public char[] split(String word) {
+      return word.toCharArray();
+    }
+
+    @OneToOne(stage=2)
+    @RunParallel
+    public String upper(Character letter, int index) {
+      if (letter == '!') {
+        throw new IllegalArgumentException("No shouting");
+      }
+      return letter == '-' ? null : Character.toString(Character.toUpperCase(letter));
+    }
+
+    @ManyToOne(stage=2)
+    public String join(String[] letters) {
+      StringBuilder b = new StringBuilder();
+      for (String letter : letters) {
+        b.append(letter);
+      }
+      return b.toString();
+    }
+
+    @ManyToOne(stage=3)
+    public void collect(List<String> words) {
+      result.addAll(words);
+    }
+  }
+
+  public static class Slow extends AbstractProcess<Integer> {
+
+    final AtomicInteger seen = new AtomicInteger();
+    volatile int maxQueued;
+    PipelineJre<Integer> pipeline;
+
+    @OneToOne(stage=1)
+    public Integer sleep(Integer item) throws InterruptedException {
+      for (StageStats stats : pipeline.getController().getStageStats()) {
+        maxQueued = Math.max(maxQueued, stats.queued());
+      }
+      Thread.sleep(1);
+      seen.incrementAndGet();
+      return item;
+    }
+  }
+
+  public static class Work extends AbstractProcess<Integer> {
+
+    final ConcurrentLinkedQueue<Long> out = new ConcurrentLinkedQueue<Long>();
+
+    @OneToOne(stage=1)
+    public Long hash(Integer item) {
+      long h = item;
+      for (int i = 0; i < 2000; i++) {
+        h = h * 31 + i;
+      }
+      return h;
+    }
+
+    @OneToOne(stage=2)
+    public void store(Long hash) {
+      out.add(hash);
+    }
+  }
+
+  @RunParallel
+  public static class ParallelWork extends Work {
+  }
+
+  @Test
+  public void testFanOutFanIn() throws Exception {
+    Words words = new Words();
+    PipelineJre<String> pipeline = new PipelineJre<String>(words, pool);
+    pipeline.give("hello");
+    pipeline.give("pipe-line");
+    pipeline.give("stages");
+    pipeline.finish();
+    assertTrue(pipeline.await(5000));
+    List<String> result = new ArrayList<String>(words.result);
+    Collections.sort(result);
+    // letters come back in order, however the parallel stage ran them; dropped letters are skipped
+    assertEquals("[HELLO, PIPELINE, STAGES]", result.toString());
+
+    StageStats[] stats = pipeline.getController().getStageStats();
+    assertEquals(5, stats.length);
+    assertEquals("process", stats[0].name());
+    assertEquals("split", stats[1].name());
+    assertEquals(StageStats.Kind.OneToMany, stats[1].kind());
+    assertEquals(3, stats[1].processed());
+    assertEquals(20, stats[1].emitted());
+    assertEquals(20, stats[2].processed());
+    assertEquals(1, stats[2].dropped());
+    assertEquals(3, stats[3].processed());
+    assertEquals(1, stats[4].processed());
+  }
+
+  @Test
+  public void testFailuresAreDropped() throws Exception {
+    Words words = new Words();
+    PipelineJre<String> pipeline = new PipelineJre<String>(words, pool);
+    pipeline.give("hi!");
+    pipeline.give("there");
+    pipeline.finish();
+    assertTrue(pipeline.await(5000));
+    List<String> result = new ArrayList<String>(words.result);
+    Collections.sort(result);
+    assertEquals("[HI, THERE]", result.toString());
+    StageStats upper = pipeline.getController().getStageStats()[2];
+    assertEquals(1, upper.failed());
+    assertEquals(1, upper.dropped());
+  }
+
+  @Test
+  public void testBackpressure() throws Exception {
+    Slow slow = new Slow();
+    PipelineJre<Integer> pipeline = new PipelineJre<Integer>(slow, pool, 4);
+    slow.pipeline = pipeline;
+    for (int i = 0; i < 100; i++) {
+      pipeline.give(i);
+    }
+    pipeline.finish();
+    assertTrue(pipeline.await(5000));
+    assertEquals(100, slow.seen.get());
+    assertTrue("Queue grew to " + slow.maxQueued, slow.maxQueued <= 4);
+  }
+
+  @Test
+  public void testAnnotatedProcessRuns() throws Exception {
+    PipelineJre<Void> pipeline = new PipelineJre<Void>(new ProcessTest(), pool);
+    pipeline.give(new ProcessTest.Signal());
+    pipeline.finish();
+    assertTrue(pipeline.await(5000));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testManyToOneNeedsCollection() {
+    new PipelineJre<String>(new AbstractProcess<String>() {
+      @ManyToOne(stage=1)
+      public void collect(String one) {
+      }
+    }, pool);
+  }
+
+  @Test
+  public void benchmarkSerialVsParallel() throws Exception {
+    int items = 20000;
+    // warm up
+    run(new Work(), items);
+    run(new ParallelWork(), items);
+    long serial = run(new Work(), items);
+    long parallel = run(new ParallelWork(), items);
+    X_Log.info(getClass(), "Pipeline of", items, "items; serial:", serial / 1000000.0, "ms",
+      "parallel:", parallel / 1000000.0, "ms on", Runtime.getRuntime().availableProcessors(), "cores");
+  }
+
+  private long run(Work work, int items) throws InterruptedException {
+    PipelineJre<Integer> pipeline = new PipelineJre<Integer>(work, pool);
+    long start = System.nanoTime();
+    for (int i = 0; i < items; i++) {
+      pipeline.give(i);
+    }
+    pipeline.finish();
+    assertTrue(pipeline.await(30000));
+    long took = System.nanoTime() - start;
+    assertEquals(items, work.out.size());
+    return took;
+  }
+
+}
@@ -0,0 +1,356 @@
+package xapi.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import xapi.jre.process.ProcessQueueJre;
+import xapi.log.X_Log;
+import xapi.process.impl.ProcessQueueAbstract;
+import xapi.util.api.ReceivesValue;
+
+/**
+ * Checks the queue semantics of {@link ProcessQueueJre}, bounded and growable,
+ * under contention, and compares its throughput to the jdk queues.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class ProcessQueueTest {
+
+  private static final int PRODUCERS = 4;
+  private static final int CONSUMERS = 4;
+  private static final int PER_PRODUCER = 100000;
+
+  @Test
+  public void testEmptyQueue() {
+    ProcessQueueJre<String> queue = new ProcessQueueJre<String>();
+    assertNull(queue.poll());
+    assertNull(queue.peek());
+    assertTrue(queue.isEmpty());
+    assertEquals(0, queue.size());
+    assertFalse(queue.iterator().hasNext());
+  }
+
+  @Test
+  public void testFifo() {
+    ProcessQueueJre<String> queue = new ProcessQueueJre<String>(8, false);
+    assertTrue(queue.offer("a"));
+    assertTrue(queue.offer("b"));
+    assertTrue(queue.offer("c"));
+    assertEquals(3, queue.size());
+    assertEquals("a", queue.peek());
+    assertEquals("[a, b, c]", new ArrayList<String>(queue).toString());
+    assertTrue(queue.contains("b"));
+    assertEquals("a", queue.poll());
+    assertEquals("b", queue.poll());
+    assertTrue(queue.offer("d"));
+    assertEquals("[c, d]", new ArrayList<String>(queue).toString());
+    queue.clear();
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test(expected=NullPointerException.class)
+  public void testRejectsNull() {
+    new ProcessQueueJre<String>().offer(null);
+  }
+
+  @Test
+  public void testBoundedRefusesWhenFull() {
+    ProcessQueueJre<Integer> queue = new ProcessQueueJre<Integer>(4, false);
+    // many laps around the ring
+    for (int lap = 0; lap < 100; lap++) {
+      for (int i = 0; i < 4; i++) {
+        assertTrue(queue.offer(i));
+      }
+      assertFalse(queue.offer(4));
+      assertEquals(4, queue.size());
+      for (int i = 0; i < 4; i++) {
+        assertEquals(i, queue.poll().intValue());
+      }
+      assertNull(queue.poll());
+    }
+  }
+
+  @Test
+  public void testGrowth() {
+    ProcessQueueJre<Integer> queue = new ProcessQueueJre<Integer>(2, true);
+    for (int i = 0; i < 100; i++) {
+      assertTrue(queue.offer(i));
+    }
+    assertEquals(100, queue.size());
+    int expect = 0;
+    for (Integer item : queue) {
+      assertEquals(expect++, item.intValue());
+    }
+    assertEquals(100, expect);
+    for (int i = 0; i < 50; i++) {
+      assertEquals(i, queue.poll().intValue());
+    }
+    for (int i = 100; i < 120; i++) {
+      assertTrue(queue.offer(i));
+    }
+    assertEquals(70, queue.size());
+    for (int i = 50; i < 120; i++) {
+      assertEquals(i, queue.peek().intValue());
+      assertEquals(i, queue.poll().intValue());
+    }
+    assertNull(queue.poll());
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void testDrain() {
+    ProcessQueueJre<Integer> queue = new ProcessQueueJre<Integer>(4, true);
+    for (int i = 0; i < 10; i++) {
+      queue.add(i);
+    }
+    final List<Integer> into = new ArrayList<Integer>();
+    ReceivesValue<Integer> receiver = new ReceivesValue<Integer>() {
+      @Override
+      public void set(Integer value) {
+        into.add(value);
+      }
+    };
+    assertEquals(6, queue.drain(receiver, 6));
+    assertEquals(4, queue.drain(receiver, 100));
+    assertEquals(0, queue.drain(receiver, 100));
+    assertEquals("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9]", into.toString());
+  }
+
+  @Test
+  public void testDrainDeliversBatchDespiteFailure() {
+    ProcessQueueJre<Integer> queue = new ProcessQueueJre<Integer>(8, false);
+    for (int i = 0; i < 4; i++) {
+      queue.add(i);
+    }
+    final List<Integer> into = new ArrayList<Integer>();
+    try {
+      queue.drain(new ReceivesValue<Integer>() {
+        @Override
+        public void set(Integer value) {
+          into.add(value);
+          if (value == 1) {
+            throw new IllegalStateException();
+          }
+        }
+      }, 4);
+      throw new AssertionError("drain should rethrow");
+    } catch (IllegalStateException expected) {
+    }
+    assertEquals("[0, 1, 2, 3]", into.toString());
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testTakeWaitsForItem() throws Exception {
+    final ProcessQueueJre<String> queue = new ProcessQueueJre<String>();
+    final AtomicReference<String> taken = new AtomicReference<String>();
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          taken.set(queue.take());
+        } catch (InterruptedException e) {
+          taken.set("interrupted");
+        }
+        done.countDown();
+      }
+    };
+    consumer.start();
+    Thread.sleep(20);
+    assertNull(taken.get());
+    queue.offer("item");
+    assertTrue(done.await(2, TimeUnit.SECONDS));
+    assertEquals("item", taken.get());
+  }
+
+  @Test
+  public void testTakeInterrupted() throws Exception {
+    final ProcessQueueJre<String> queue = new ProcessQueueJre<String>();
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          queue.take();
+        } catch (InterruptedException e) {
+          done.countDown();
+        }
+      }
+    };
+    consumer.start();
+    Thread.sleep(10);
+    consumer.interrupt();
+    assertTrue(done.await(2, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testManyProducersManyConsumersGrowable() throws Exception {
+    // a tiny first ring, so producers and consumers cross many ring boundaries
+    checkManyToMany(new ProcessQueueJre<Long>(4, true));
+  }
+
+  @Test
+  public void testManyProducersManyConsumersBounded() throws Exception {
+    checkManyToMany(new ProcessQueueJre<Long>(64, false, ProcessQueueAbstract.YIELD));
+  }
+
+  /**
+   * Each producer puts a run of numbers tagged with its id; every consumer checks that
+   * each producer's numbers arrive in order, and together they must take every number exactly once.
+   */
+  private void checkManyToMany(final ProcessQueueAbstract<Long> queue) throws Exception {
+    final AtomicInteger taken = new AtomicInteger();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final long[] sums = new long[CONSUMERS];
+    final int total = PRODUCERS * PER_PRODUCER;
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int p = 0; p < PRODUCERS; p++) {
+      final long id = p;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < PER_PRODUCER; i++) {
+              queue.put(id << 32 | i);
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          }
+        }
+      });
+    }
+    for (int c = 0; c < CONSUMERS; c++) {
+      final int index = c;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          final long[] last = new long[PRODUCERS];
+          for (int i = 0; i < PRODUCERS; i++) {
+            last[i] = -1;
+          }
+          ReceivesValue<Long> check = new ReceivesValue<Long>() {
+            @Override
+            public void set(Long value) {
+              int producer = (int)(value >>> 32);
+              long count = value & 0xffffffffL;
+              if (count <= last[producer]) {
+                failure.set(new AssertionError("Out of order: " + count + " after " + last[producer]));
+              }
+              last[producer] = count;
+              sums[index] += count;
+            }
+          };
+          int round = 0;
+          while (taken.get() < total && failure.get() == null) {
+            int got;
+            if ((round & 1) == 0) {
+              Long value = queue.poll();
+              got = value == null ? 0 : 1;
+              if (value != null) {
+                check.set(value);
+              }
+            } else {
+              got = queue.drain(check, 32);
+            }
+            if (got == 0) {
+              Thread.yield();
+            }
+            taken.addAndGet(got);
+            round++;
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join(30000);
+      assertFalse("Deadlocked", thread.isAlive());
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+    assertEquals(total, taken.get());
+    long sum = 0;
+    for (long s : sums) {
+      sum += s;
+    }
+    assertEquals((long)PRODUCERS * PER_PRODUCER * (PER_PRODUCER - 1) / 2, sum);
+    assertTrue(queue.isEmpty());
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void benchmarkThroughput() throws Exception {
+    // warm up
+    for (int i = 0; i < 2; i++) {
+      pump(new ProcessQueueJre<Integer>(1024, false));
+      pump(new ArrayBlockingQueue<Integer>(1024));
+      pump(new ConcurrentLinkedQueue<Integer>());
+    }
+    long ring = pump(new ProcessQueueJre<Integer>(1024, false));
+    long growable = pump(new ProcessQueueJre<Integer>(16, true));
+    long blocking = pump(new ArrayBlockingQueue<Integer>(1024));
+    long linked = pump(new ConcurrentLinkedQueue<Integer>());
+    X_Log.info(getClass(), PRODUCERS * PER_PRODUCER, "items, 2 producers / 2 consumers; ring:",
+      ring / 1000000.0, "ms, growable ring:", growable / 1000000.0, "ms, ArrayBlockingQueue:",
+      blocking / 1000000.0, "ms, ConcurrentLinkedQueue:", linked / 1000000.0, "ms");
+  }
+
+  private long pump(final Queue<Integer> queue) throws InterruptedException {
+    final int perProducer = PRODUCERS * PER_PRODUCER / 2;
+    final AtomicInteger remaining = new AtomicInteger(perProducer * 2);
+    final Integer item = 1;
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 2; i++) {
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < perProducer; i++) {
+            while (!queue.offer(item)) {
+              Thread.yield();
+            }
+          }
+        }
+      });
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          while (remaining.get() > 0) {
+            if (queue.poll() == null) {
+              Thread.yield();
+            } else {
+              remaining.decrementAndGet();
+            }
+          }
+        }
+      });
+    }
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return System.nanoTime() - start;
+  }
+
+}
@@ -0,0 +1,225 @@
+package xapi.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import xapi.jre.process.WorkStealingExecutor;
+import xapi.log.X_Log;
+import xapi.process.api.ConcurrentEnvironment.Priority;
+import xapi.process.api.ProcessController;
+import xapi.process.api.ProcessController.State;
+import xapi.process.impl.AbstractProcess;
+import xapi.process.impl.ProcessScheduler;
+
+/**
+ * Checks the slicing, priorities and controls of {@link ProcessScheduler}.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class ProcessSchedulerTest {
+
+  /**
+   * Runs one step per slice, recording its name each time.
+   */
+  static class Steps extends AbstractProcess<Void> {
+    final String name;
+    final List<String> log;
+    int left;
+    boolean stopped;
+
+    Steps(String name, int steps, List<String> log) {
+      this.name = name;
+      this.left = steps;
+      this.log = log;
+    }
+
+    @Override
+    public boolean process(float milliTimeLimit) throws Exception {
+      log.add(name);
+      return --left > 0;
+    }
+
+    @Override
+    public boolean onStop() {
+      stopped = true;
+      return true;
+    }
+  }
+
+  /**
+   * A scheduler whose cores never start; the test drives it with {@link ProcessScheduler#drain(float)}.
+   */
+  private static ProcessScheduler manual() {
+    return new ProcessScheduler(1) {
+      @Override
+      protected void startCore(Runnable core) {
+      }
+    };
+  }
+
+  @Test
+  public void testSlicesUntilDone() throws Exception {
+    ProcessScheduler scheduler = manual();
+    List<String> log = new ArrayList<String>();
+    Steps steps = new Steps("a", 5, log);
+    ProcessController<Void> controller = scheduler.submit(steps, Priority.Medium);
+    final boolean[] done = new boolean[1];
+    controller.whenDone(new Runnable() {
+      @Override
+      public void run() {
+        done[0] = true;
+      }
+    });
+    assertFalse(scheduler.drain(1000));
+    assertEquals(5, log.size());
+    assertEquals(5, controller.getSlices());
+    assertEquals(State.Finished, controller.getState());
+    assertTrue(steps.stopped);
+    assertTrue(done[0]);
+  }
+
+  @Test
+  public void testProcessesTakeTurns() throws Exception {
+    ProcessScheduler scheduler = manual();
+    List<String> log = new ArrayList<String>();
+    scheduler.submit(new Steps("a", 3, log), Priority.Medium);
+    scheduler.submit(new Steps("b", 3, log), Priority.Medium);
+    scheduler.drain(1000);
+    assertEquals("[a, b, a, b, a, b]", log.toString());
+  }
+
+  @Test
+  public void testPriorityWithAging() throws Exception {
+    ProcessScheduler scheduler = manual();
+    scheduler.setAging(4);
+    List<String> log = new ArrayList<String>();
+    scheduler.submit(new Steps("low", 1, log), Priority.Low);
+    scheduler.submit(new Steps("high", 20, log), Priority.High);
+    scheduler.drain(1000);
+    // low rises a priority every 4 slices; at High it beats the newer high slices
+    assertEquals(8, log.indexOf("low"));
+
+    scheduler.setAging(Integer.MAX_VALUE);
+    log.clear();
+    scheduler.submit(new Steps("low", 1, log), Priority.Low);
+    scheduler.submit(new Steps("medium", 1, log), Priority.Medium);
+    scheduler.submit(new Steps("high", 20, log), Priority.High);
+    scheduler.drain(1000);
+    assertEquals(20, log.indexOf("medium"));
+    assertEquals(21, log.indexOf("low"));
+  }
+
+  @Test
+  public void testPauseResumeCancel() throws Exception {
+    ProcessScheduler scheduler = manual();
+    List<String> log = new ArrayList<String>();
+    Steps paused = new Steps("paused", 2, log);
+    Steps cancelled = new Steps("cancelled", 2, log);
+    ProcessController<Void> pause = scheduler.submit(paused, Priority.Medium);
+    ProcessController<Void> cancel = scheduler.submit(cancelled, Priority.Medium);
+    assertTrue(pause.pause());
+    assertFalse(scheduler.drain(1000));
+    assertEquals("[cancelled, cancelled]", log.toString());
+    assertEquals(State.Paused, pause.getState());
+
+    assertTrue(pause.resume());
+    assertTrue(scheduler.size() > 0);
+    scheduler.drain(1000);
+    assertEquals("[cancelled, cancelled, paused, paused]", log.toString());
+    assertFalse(cancel.cancel());
+
+    log.clear();
+    Steps never = new Steps("never", 2, log);
+    ProcessController<Void> controller = scheduler.submit(never, Priority.Medium);
+    assertTrue(controller.cancel());
+    scheduler.drain(1000);
+    assertTrue(log.isEmpty());
+    assertEquals(State.Cancelled, controller.getState());
+    // a process which never started is not stopped
+    assertFalse(never.stopped);
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    ProcessScheduler scheduler = manual();
+    ProcessController<Void> controller = scheduler.submit(new AbstractProcess<Void>() {
+      @Override
+      public boolean process(float milliTimeLimit) throws Exception {
+        throw new IllegalStateException("Expected");
+      }
+    }, Priority.High);
+    scheduler.drain(1000);
+    assertEquals(State.Failed, controller.getState());
+    assertEquals("Expected", controller.getFailure().getMessage());
+  }
+
+  @Test
+  public void testServiceProcess() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    ProcessController<Void> controller = X_Process.newProcess(
+      new Steps("service", 10, Collections.synchronizedList(new ArrayList<String>())), Priority.Low);
+    controller.whenDone(new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    });
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertEquals(10, controller.getSlices());
+  }
+
+  @Test
+  public void benchmarkSharedCores() throws Exception {
+    final int processes = 64, slices = 50;
+    final WorkStealingExecutor pool = new WorkStealingExecutor(4, 8, false);
+    ProcessScheduler scheduler = new ProcessScheduler(4) {
+      @Override
+      protected void startCore(Runnable core) {
+        pool.execute(core);
+      }
+    };
+    final CountDownLatch latch = new CountDownLatch(processes);
+    List<ProcessController<Void>> all = new ArrayList<ProcessController<Void>>();
+    long start = System.nanoTime();
+    for (int i = 0; i < processes; i++) {
+      ProcessController<Void> controller = scheduler.submit(new AbstractProcess<Void>() {
+        int left = slices;
+        @Override
+        public boolean process(float milliTimeLimit) throws Exception {
+          // spin for a tenth of a millisecond, standing in for real work
+          long until = System.nanoTime() + 100000;
+          while (System.nanoTime() < until) {
+          }
+          return --left > 0;
+        }
+      }, Priority.values()[i % 3]);
+      controller.whenDone(new Runnable() {
+        @Override
+        public void run() {
+          latch.countDown();
+        }
+      });
+      all.add(controller);
+    }
+    assertTrue(latch.await(30, TimeUnit.SECONDS));
+    double took = (System.nanoTime() - start) / 1000000.0;
+    double cpu = 0;
+    for (ProcessController<Void> controller : all) {
+      assertEquals(slices, controller.getSlices());
+      cpu += controller.getCpuMillis();
+    }
+    X_Log.info(getClass(), processes, "processes of", slices, "slices took", took, "ms;",
+      cpu, "ms in process()");
+  }
+
+}
@@ -0,0 +1,249 @@
+package xapi.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import xapi.jre.process.WorkStealingExecutor;
+import xapi.log.X_Log;
+import xapi.process.api.ConcurrentEnvironment.Priority;
+import xapi.time.api.Blocking;
+
+/**
+ * Checks the scheduling guarantees of {@link WorkStealingExecutor},
+ * and compares it against starting a new thread per command.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class WorkStealingExecutorBenchmark {
+
+  private static final int TASKS = 20000;
+
+  @Test
+  public void testAllTasksRun() throws Exception {
+    WorkStealingExecutor pool = new WorkStealingExecutor(4, 8, false);
+    final CountDownLatch latch = new CountDownLatch(TASKS);
+    for (int i = 0; i < TASKS; i++) {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          latch.countDown();
+        }
+      });
+    }
+    assertTrue("Not all tasks ran", latch.await(10, TimeUnit.SECONDS));
+    assertTrue("Pool grew past its parallelism: " + pool.getPoolSize(), pool.getPoolSize() <= 4);
+  }
+
+  @Test
+  public void testForkedTasksRun() throws Exception {
+    final WorkStealingExecutor pool = new WorkStealingExecutor(4, 8, false);
+    final int width = 100;
+    final CountDownLatch latch = new CountDownLatch(width * width);
+    for (int i = 0; i < width; i++) {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          // these go on this worker's own deque, where idle workers can steal them
+          for (int j = 0; j < width; j++) {
+            pool.execute(new Runnable() {
+              @Override
+              public void run() {
+                latch.countDown();
+              }
+            });
+          }
+        }
+      });
+    }
+    pool.execute(new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException("Expected failure; the pool must survive it");
+      }
+    });
+    assertTrue("Not all forked tasks ran", latch.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testLowPriorityDoesNotStarve() throws Exception {
+    final WorkStealingExecutor pool = new WorkStealingExecutor(1, 1, false);
+    final CountDownLatch low = new CountDownLatch(1);
+    final AtomicInteger running = new AtomicInteger(1);
+    // one worker, which always has high priority work to do
+    Runnable spin = new Runnable() {
+      @Override
+      public void run() {
+        if (running.get() == 1) {
+          sleep(1);
+          pool.execute(this, Priority.High);
+        }
+      }
+    };
+    pool.execute(spin, Priority.High);
+    pool.execute(new Runnable() {
+      @Override
+      public void run() {
+        low.countDown();
+      }
+    }, Priority.Low);
+    try {
+      assertTrue("Low priority task starved", low.await(5, TimeUnit.SECONDS));
+    } finally {
+      running.set(0);
+    }
+  }
+
+  @Test
+  public void testBlockedWorkersAreCompensated() throws Exception {
+    WorkStealingExecutor pool = new WorkStealingExecutor(2, 8, false);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch ran = new CountDownLatch(1);
+    // block every core worker...
+    for (int i = 0; i < 2; i++) {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            release.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException ignored) {
+          }
+        }
+      });
+    }
+    // ...and the next command must still run, on an extra worker.
+    pool.execute(new Runnable() {
+      @Override
+      public void run() {
+        ran.countDown();
+      }
+    });
+    try {
+      assertTrue("Starving task never ran", ran.await(5, TimeUnit.SECONDS));
+      assertTrue(pool.getPoolSize() > 2);
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void testBlockingCommandsDoNotHoldUpTheRest() throws Exception {
+    WorkStealingExecutor pool = new WorkStealingExecutor(1, 4, false);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch ran = new CountDownLatch(1);
+    pool.execute(new Blocking() {
+      @Override
+      public void run() {
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+      }
+    });
+    pool.execute(new Runnable() {
+      @Override
+      public void run() {
+        ran.countDown();
+      }
+    });
+    try {
+      // well before the sentinel would think anything was starving
+      assertTrue("Blocking command held up the pool", ran.await(50, TimeUnit.MILLISECONDS));
+      assertTrue(pool.getPoolSize() == 2);
+      // a flush does not wait on commands which block for as long as they like
+      assertTrue(pool.flush(1000));
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void testFlushWaitsForQueuedCommands() throws Exception {
+    WorkStealingExecutor pool = new WorkStealingExecutor(2, 2, false);
+    final AtomicInteger done = new AtomicInteger();
+    for (int i = 0; i < 20; i++) {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          sleep(5);
+          done.incrementAndGet();
+        }
+      });
+    }
+    assertTrue(pool.flush(5000));
+    assertEquals(20, done.get());
+  }
+
+  @Test
+  public void benchmarkAgainstThreadPerTask() throws Exception {
+    final int tasks = 5000;
+    WorkStealingExecutor pool = new WorkStealingExecutor(
+      Runtime.getRuntime().availableProcessors(), WorkStealingExecutor.DEFAULT_MAX_THREADS, false);
+    // warm up
+    runPooled(pool, tasks);
+    runThreads(tasks);
+
+    long start = System.nanoTime();
+    runThreads(tasks);
+    long threads = System.nanoTime();
+    runPooled(pool, tasks);
+    long end = System.nanoTime();
+    X_Log.info(getClass(), tasks, "tasks; thread per task:", (threads - start) / 1000000, "ms",
+      "work stealing pool:", (end - threads) / 1000000, "ms", "with", pool.getPoolSize(), "workers");
+  }
+
+  private static void runPooled(WorkStealingExecutor pool, int tasks) throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(tasks);
+    for (int i = 0; i < tasks; i++) {
+      pool.execute(work(latch));
+    }
+    assertTrue(latch.await(30, TimeUnit.SECONDS));
+  }
+
+  private static void runThreads(int tasks) throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(tasks);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < tasks; i++) {
+      Thread thread = new Thread(work(latch));
+      threads.add(thread);
+      thread.start();
+    }
+    assertTrue(latch.await(30, TimeUnit.SECONDS));
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  private static Runnable work(final CountDownLatch latch) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        // a small, short-lived job; the kind of command X_Process.newThread usually gets
+        ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<Integer>();
+        for (int i = 0; i < 100; i++) {
+          queue.add(i);
+        }
+        while (queue.poll() != null);
+        latch.countDown();
+      }
+    };
+  }
+
+  private static void sleep(int millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,143 @@
+package xapi.test.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import xapi.collect.api.CharPool;
+import xapi.collect.impl.InterningCharPool;
+import xapi.collect.impl.MultithreadedStringTrie;
+import xapi.dev.resource.impl.ByteCodeResource;
+import xapi.dev.scanner.X_Scanner;
+import xapi.jre.collect.WeakCharPool;
+import xapi.log.X_Log;
+
+/**
+ * Measures the heap saved by interning the package-prefix keys of a scanned classpath,
+ * compared to copying a fresh array for every key.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class CharPoolBenchmark {
+
+  @Test
+  public void testPoolReturnsSharedArrays() {
+    CharPool pool = new WeakCharPool();
+    char[] first = pool.getArray("xapi.collect.");
+    char[] fromChars = pool.getArray("com.xapi.collect.impl".toCharArray(), 4, 13);
+    char[] fromBuilder = pool.getArray(new StringBuilder("xapi.collect."));
+    assertSame(first, fromChars);
+    assertSame(first, fromBuilder);
+    assertEquals("xapi.collect.", new String(first));
+    assertSame(CharPool.EMPTY_STRING, pool.getArray(""));
+  }
+
+  @Test
+  public void testCompressedTrieKeepsValues() {
+    MultithreadedStringTrie<String> trie = new MultithreadedStringTrie<String>();
+    String[] keys = new String[] {"java.util.List", "java.util.Map", "java.lang.String", "xapi.util.X_String"};
+    for (String key : keys) {
+      trie.put(key, key);
+    }
+    trie.compress(new WeakCharPool());
+    for (String key : keys) {
+      assertEquals(key, trie.get(key));
+    }
+    trie.put("java.util.Set", "set");
+    assertEquals("set", trie.get("java.util.Set"));
+    assertEquals("java.util.Map", trie.get("java.util.Map"));
+  }
+
+  @Test
+  public void testPoolIsThreadSafe() throws InterruptedException {
+    final InterningCharPool pool = new InterningCharPool();
+    final char[][][] results = new char[4][1000][];
+    Thread[] threads = new Thread[results.length];
+    for (int t = 0; t < threads.length; t++) {
+      final char[][] mine = results[t];
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < mine.length; i++) {
+            mine[i] = pool.getArray("key" + i);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (int i = 0; i < 1000; i++) {
+      for (int t = 1; t < results.length; t++) {
+        assertSame(results[0][i], results[t][i]);
+      }
+    }
+    assertEquals(1000, pool.size());
+  }
+
+  @Test
+  public void benchmarkPackagePrefixFootprint() {
+    List<String> names = new ArrayList<String>();
+    for (ByteCodeResource resource : X_Scanner.scanClassloader(getClass().getClassLoader(),
+        true, false, false, "").findClassResources("")) {
+      names.add(resource.getHeader().getName());
+    }
+    assertTrue("Scan found no classes", names.size() > 0);
+
+    List<char[]> copies = prefixes(names, null);
+    List<char[]> pooled = prefixes(names, new WeakCharPool());
+    assertEquals(copies.size(), pooled.size());
+    long copied = footprint(copies);
+    long interned = footprint(pooled);
+    assertTrue(interned <= copied);
+
+    X_Log.info(getClass(), "Package prefix keys of", names.size(), "classes:", copies.size()
+      , "copied:", copied / 1024, "kb", "interned:", interned / 1024, "kb"
+      , "saved:", (copied - interned) / 1024, "kb");
+  }
+
+  /**
+   * @return every package prefix of every name ("java.", "java.util.", ...),
+   * either copied into a fresh array, or drawn from the given pool.
+   */
+  private List<char[]> prefixes(List<String> names, CharPool pool) {
+    List<char[]> keys = new ArrayList<char[]>();
+    for (String name : names) {
+      for (int dot = name.indexOf('.'); dot != -1; dot = name.indexOf('.', dot + 1)) {
+        if (pool == null) {
+          char[] copy = new char[dot + 1];
+          name.getChars(0, dot + 1, copy, 0);
+          keys.add(copy);
+        } else {
+          keys.add(pool.getArray(name, 0, dot + 1));
+        }
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * @return the shallow heap size of every distinct array in the list,
+   * assuming a 16 byte array header and 8 byte alignment.
+   */
+  private static long footprint(List<char[]> keys) {
+    Set<char[]> distinct = Collections.newSetFromMap(new IdentityHashMap<char[], Boolean>());
+    distinct.addAll(keys);
+    long bytes = 0;
+    for (char[] key : distinct) {
+      bytes += (16 + 2 * key.length + 7) & ~7;
+    }
+    return bytes;
+  }
+
+}
@@ -0,0 +1,241 @@
+package xapi.test.collect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import xapi.collect.impl.MultithreadedStringTrie;
+import xapi.collect.impl.StringTrie;
+import xapi.log.X_Log;
+
+/**
+ * Compares get, put and prefix search on {@link MultithreadedStringTrie}
+ * against {@link ConcurrentHashMap}, {@link ConcurrentSkipListMap}
+ * and the binary-edge {@link StringTrie}, from 1 to 32 threads,
+ * using java-package shaped keys.
+ *
+ * @author "James X. Nelson (james@wetheinter.net)"
+ *
+ */
+public class StringTrieBenchmark {
+
+  private static final int[] THREADS = new int[] {1, 2, 4, 8, 16, 32};
+
+  private interface Target {
+    void put(String key, String value);
+    String get(String key);
+    int countPrefixed(String prefix);
+  }
+
+  private static final String[] PACKAGES = new String[] {
+    "java.util.", "java.util.concurrent.", "java.lang.", "java.lang.reflect.", "java.io.",
+    "xapi.collect.", "xapi.collect.impl.", "xapi.dev.scanner.impl.", "xapi.util.api.",
+    "com.google.gwt.core.client.", "com.google.gwt.dom.client.", "org.junit.", "été.中文."
+  };
+
+  private static List<String> keys(int count) {
+    List<String> keys = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      String pkg = PACKAGES[i % PACKAGES.length];
+      keys.add(pkg + "Type" + Integer.toString(i, 36) + (i % 3 == 0 ? "$Inner" : ""));
+    }
+    return keys;
+  }
+
+  @Test
+  public void testConcurrentPutsAreVisible() throws InterruptedException {
+    final List<String> keys = keys(20000);
+    final MultithreadedStringTrie<String> trie = new MultithreadedStringTrie<String>();
+    run(16, new Job() {
+      @Override
+      public void run(int thread, int threads) {
+        for (int i = thread; i < keys.size(); i += threads) {
+          trie.put(keys.get(i), keys.get(i));
+        }
+      }
+    });
+    ConcurrentSkipListMap<String, String> expected = new ConcurrentSkipListMap<String, String>();
+    for (String key : keys) {
+      assertEquals(key, trie.get(key));
+      expected.put(key, key);
+    }
+    assertNull(trie.get("java.util.Type"));
+    assertNull(trie.get("java.ut"));
+    for (String prefix : new String[] {"", "java.", "java.util.", "java.util.Type1", "xapi.collect.impl.", "été", "nope"}) {
+      Iterator<String> expect = expected.subMap(prefix, prefix + Character.MAX_VALUE).values().iterator();
+      for (String value : trie.findPrefixed(prefix)) {
+        assertEquals(expect.next(), value);
+      }
+      assertEquals("Missing values for " + prefix, false, expect.hasNext());
+    }
+  }
+
+  @Test
+  public void benchmarkConcurrentMaps() throws InterruptedException {
+    final List<String> keys = keys(50000);
+    StringBuilder report = new StringBuilder("\nthreads\tmap\tput ms\tget ms\tprefix ms\tmisses\n");
+    for (int threads : THREADS) {
+      bench(report, threads, "trie", keys, new Target() {
+        final MultithreadedStringTrie<String> map = new MultithreadedStringTrie<String>();
+        @Override
+        public void put(String key, String value) {
+          map.put(key, value);
+        }
+        @Override
+        public String get(String key) {
+          return map.get(key);
+        }
+        @Override
+        public int countPrefixed(String prefix) {
+          int count = 0;
+          for (Iterator<String> iter = map.findPrefixed(prefix).iterator(); iter.hasNext(); iter.next()) {
+            count++;
+          }
+          return count;
+        }
+      });
+      bench(report, threads, "binary trie", keys, new Target() {
+        final StringTrie<String> map = new StringTrie<String>();
+        @Override
+        public void put(String key, String value) {
+          map.put(key, value);
+        }
+        @Override
+        public String get(String key) {
+          return map.get(key);
+        }
+        @Override
+        public int countPrefixed(String prefix) {
+          // the binary trie has no prefix iteration
+          return -1;
+        }
+      });
+      bench(report, threads, "skiplist", keys, new Target() {
+        final ConcurrentSkipListMap<String, String> map = new ConcurrentSkipListMap<String, String>();
+        @Override
+        public void put(String key, String value) {
+          map.put(key, value);
+        }
+        @Override
+        public String get(String key) {
+          return map.get(key);
+        }
+        @Override
+        public int countPrefixed(String prefix) {
+          return map.subMap(prefix, prefix + Character.MAX_VALUE).size();
+        }
+      });
+      bench(report, threads, "hashmap", keys, new Target() {
+        final ConcurrentHashMap<String, String> map = new ConcurrentHashMap<String, String>();
+        @Override
+        public void put(String key, String value) {
+          map.put(key, value);
+        }
+        @Override
+        public String get(String key) {
+          return map.get(key);
+        }
+        @Override
+        public int countPrefixed(String prefix) {
+          // a hash map must scan every key
+          int count = 0;
+          for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+              count++;
+            }
+          }
+          return count;
+        }
+      });
+    }
+    X_Log.info(getClass(), report);
+  }
+
+  private void bench(StringBuilder report, int threads, String name, final List<String> keys, final Target target)
+      throws InterruptedException {
+    long start = System.nanoTime();
+    run(threads, new Job() {
+      @Override
+      public void run(int thread, int threads) {
+        for (int i = thread; i < keys.size(); i += threads) {
+          target.put(keys.get(i), keys.get(i));
+        }
+      }
+    });
+    long put = System.nanoTime();
+    final AtomicInteger misses = new AtomicInteger();
+    run(threads, new Job() {
+      @Override
+      public void run(int thread, int threads) {
+        // every thread reads every key, starting from a different place
+        for (int i = 0, size = keys.size(); i < size; i++) {
+          String key = keys.get((i + thread * 997) % size);
+          if (target.get(key) != key) {
+            misses.incrementAndGet();
+          }
+        }
+      }
+    });
+    long get = System.nanoTime();
+    run(threads, new Job() {
+      @Override
+      public void run(int thread, int threads) {
+        for (int i = 0; i < 4; i++) {
+          target.countPrefixed(PACKAGES[(thread + i) % PACKAGES.length]);
+        }
+      }
+    });
+    long prefix = System.nanoTime();
+    if (!"binary trie".equals(name)) {
+      // the old binary trie is known to lose keys under concurrent puts; we just report it
+      assertEquals(name + " lost values", 0, misses.get());
+    }
+    report.append(threads).append('\t').append(name)
+      .append('\t').append((put - start) / 1000000)
+      .append('\t').append((get - put) / 1000000)
+      .append('\t').append((prefix - get) / 1000000)
+      .append('\t').append(misses.get())
+      .append('\n');
+  }
+
+  private interface Job {
+    void run(int thread, int threads);
+  }
+
+  private static void run(final int threads, final Job job) throws InterruptedException {
+    final CountDownLatch ready = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    final AtomicInteger failures = new AtomicInteger();
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            ready.await();
+            job.run(thread, threads);
+          } catch (Throwable e) {
+            e.printStackTrace();
+            failures.incrementAndGet();
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    ready.countDown();
+    done.await();
+    assertEquals(0, failures.get());
+  }
+
+}
@@ -2,6 +2,7 @@ package xapi.mojo.model;
 
 import java.io.File;
 import java.lang.annotation.Annotation;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -21,6 +22,7 @@ import xapi.dev.scanner.impl.ClasspathResourceMap;
 import xapi.dev.source.ClassBuffer;
 import xapi.dev.source.MethodBuffer;
 import xapi.dev.source.SourceBuilder;
+import xapi.jre.inject.RuntimeInjector;
 import xapi.log.X_Log;
 import xapi.mojo.api.AbstractXapiMojo;
 import xapi.mvn.X_Maven;
@@ -42,6 +44,9 @@ import xapi.util.X_Namespace;
  * creating instances of annotations at runtime, either 
  * manually through AnnoNameBuilder objects,
  * or by wrapping {@link IsAnnotation} instances into AnnoNameProxy objects.
+ * <p>
+ * It also writes the project's injection metadata, and the compiled injection table
+ * which lets the jre injector create injected types without reflection.
  * 
  * @author <a href="mailto:james@wetheinter.net">James X. Nelson</a>
  * @version $Id$
@@ -155,6 +160,27 @@ public class AnnotationGeneratorMojo extends AbstractXapiMojo{
         throw new MojoExecutionException("Failed to compile annotation in 10 seconds.");
       }
     }
+    writeInjectionTable();
+  }
+
+  /**
+   * Writes the META-INF injection files and the compiled injection table
+   * for this project, so its jre runtime can inject without reflection.
+   */
+  private void writeInjectionTable() {
+    // A null parent keeps the plugin's own classpath out of the scan
+    ClassLoader loader = URLClassLoader.newInstance(X_Maven.compileScopeUrls(getProject(), getSession()), null);
+    String prefix = "META-INF" + File.separator;
+    new RuntimeInjector() {
+      @Override
+      protected void registerSingleton(String iface, String impl) {
+        // The project classpath is not our classpath; there is no live injector to update
+      }
+      @Override
+      protected void registerInstance(String iface, String impl) {
+      }
+    }.writeMetaInfo(loader, getProject().getBuild().getOutputDirectory(),
+      prefix + "singletons", prefix + "instances");
   }
 
   private String getExtractor(ClassBuffer out, IsClass returnClass,